@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.benchmark;
+
+import java.io.Reader;
+
+import nl.inl.blacklab.example.DocIndexerExample;
+import nl.inl.blacklab.index.Indexer;
+
+/**
+ * Indexes the test corpus (see TestCorpus).
+ *
+ * Like DocIndexerExample, but also indexes the attributes of the
+ * &lt;meta/&gt; element as metadata.
+ */
+public class BenchmarkDocIndexer extends DocIndexerExample {
+	public BenchmarkDocIndexer(Indexer indexer, String fileName, Reader reader) {
+		super(indexer, fileName, reader);
+		addHandler("meta", new MetadataAttributesHandler());
+	}
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.benchmark;
+
+import java.io.File;
+
+import nl.inl.blacklab.index.complex.ComplexFieldUtil;
+import nl.inl.blacklab.search.Searcher;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The test corpus the benchmarks run against.
+ *
+ * The size is configurable using JMH parameters, e.g.
+ * <code>-p corpusDocs=10000 -p docLength=2000</code>.
+ * The index is generated the first time it's needed (see TestCorpus).
+ */
+@State(Scope.Benchmark)
+public class CorpusState {
+
+	/** Name of the contents field */
+	public static final String FIELD = "contents";
+
+	/** Number of documents in the corpus */
+	@Param("1000")
+	public int corpusDocs;
+
+	/** Number of words per document */
+	@Param("1000")
+	public int docLength;
+
+	/** The index directory */
+	public File indexDir;
+
+	/** The searcher */
+	public Searcher searcher;
+
+	@Setup(Level.Trial)
+	public void open() throws Exception {
+		indexDir = TestCorpus.getIndex(corpusDocs, docLength);
+		searcher = Searcher.open(indexDir);
+	}
+
+	@TearDown(Level.Trial)
+	public void close() {
+		searcher.close();
+	}
+
+	/**
+	 * Get the directory of the main forward index.
+	 * @return the directory
+	 */
+	public File getForwardIndexDir() {
+		return new File(indexDir, "fi_" + ComplexFieldUtil.mainPropertyField(searcher.getIndexStructure(), FIELD));
+	}
+
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.inl.blacklab.queryParser.corpusql.CorpusQueryLanguageParser;
+import nl.inl.blacklab.search.HitCount;
+import nl.inl.blacklab.search.TextPattern;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Queries with a metadata filter.
+ *
+ * With the rare filter, only one in a hundred documents can match, so this
+ * shows whether the operators leapfrog to the filtered documents (using
+ * advance()) instead of visiting every document the clauses match.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FilteredQueryBenchmark {
+
+	/** The operator to benchmark (see SpansBenchmark) */
+	@Param({ "term", "sequence", "gap", "and", "not", "within" })
+	public String operator;
+
+	/** Genre to filter on: none, a common one or the rare one */
+	@Param({ "none", "news", TestCorpus.RARE_GENRE })
+	public String genre;
+
+	private SpanQuery query;
+
+	@Setup(Level.Trial)
+	public void setUp(CorpusState corpus) throws Exception {
+		TextPattern pattern = CorpusQueryLanguageParser.parse(SpansBenchmark.getQuery(operator));
+		Filter filter = null;
+		if (!genre.equals("none"))
+			filter = new QueryWrapperFilter(new TermQuery(new Term("genre", genre)));
+		query = corpus.searcher.createSpanQuery(pattern, filter);
+	}
+
+	@Benchmark
+	public HitCount count(CorpusState corpus) {
+		return corpus.searcher.count(query, -1, null);
+	}
+
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nl.inl.blacklab.forwardindex.ForwardIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Retrieving snippets from the forward index, memory-mapped or read from
+ * the file channel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ForwardIndexBenchmark {
+
+	/** Number of (random) requests we cycle through */
+	private static final int NUMBER_OF_REQUESTS = 1000;
+
+	/** Memory-map the tokens file? */
+	@Param({ "true", "false" })
+	public boolean mapped;
+
+	/** Number of snippets retrieved from each document */
+	@Param("5")
+	public int snippetsPerDoc;
+
+	/** Length of each snippet in words */
+	@Param("11")
+	public int snippetLength;
+
+	private ForwardIndex fi;
+
+	private int[] fiids = new int[NUMBER_OF_REQUESTS];
+
+	private int[][] starts = new int[NUMBER_OF_REQUESTS][];
+
+	private int[][] ends = new int[NUMBER_OF_REQUESTS][];
+
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp(CorpusState corpus) {
+		ForwardIndex.setUseMemoryMapping(mapped);
+		try {
+			fi = ForwardIndex.open(corpus.getForwardIndexDir());
+		} finally {
+			ForwardIndex.setUseMemoryMapping(true);
+		}
+		Random random = new Random(1);
+		for (int i = 0; i < NUMBER_OF_REQUESTS; i++) {
+			int fiid = random.nextInt(fi.getNumDocs());
+			int docLength = fi.getDocLength(fiid);
+			int length = Math.max(1, docLength - snippetLength);
+			fiids[i] = fiid;
+			starts[i] = new int[snippetsPerDoc];
+			ends[i] = new int[snippetsPerDoc];
+			for (int j = 0; j < snippetsPerDoc; j++) {
+				starts[i][j] = random.nextInt(length);
+				ends[i][j] = Math.min(docLength, starts[i][j] + snippetLength);
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		fi.close();
+	}
+
+	@Benchmark
+	public List<int[]> retrievePartsInt() {
+		int i = next++ % NUMBER_OF_REQUESTS;
+		return fi.retrievePartsInt(fiids[i], starts[i], ends[i]);
+	}
+
+	@Benchmark
+	public List<String[]> retrieveParts() {
+		int i = next++ % NUMBER_OF_REQUESTS;
+		return fi.retrieveParts(fiids[i], starts[i], ends[i]);
+	}
+
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.inl.blacklab.queryParser.corpusql.CorpusQueryLanguageParser;
+import nl.inl.blacklab.search.Hits;
+import nl.inl.blacklab.search.grouping.HitGroups;
+import nl.inl.blacklab.search.grouping.HitPropertyDocumentStoredField;
+import nl.inl.blacklab.search.grouping.HitPropertyHitText;
+import nl.inl.blacklab.search.grouping.HitPropertyLeftContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Sorting and grouping hits.
+ *
+ * The hits are retrieved once; each invocation sorts or groups a fresh copy,
+ * so the contexts are retrieved from the forward index every time, like
+ * they would be for a new query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HitsBenchmark {
+
+	/** Frequency rank of the word to search for (lower means more hits) */
+	@Param("20")
+	public int wordRank;
+
+	private Hits hits;
+
+	@Setup(Level.Trial)
+	public void setUp(CorpusState corpus) throws Exception {
+		hits = corpus.searcher.find(CorpusQueryLanguageParser.parse("\"" + TestCorpus.word(wordRank) + "\""));
+		hits.size(); // retrieve all hits
+	}
+
+	@Benchmark
+	public Hits sortByHitText() {
+		Hits copy = new Hits(hits);
+		copy.sort(new HitPropertyHitText(copy, CorpusState.FIELD));
+		return copy;
+	}
+
+	@Benchmark
+	public Hits sortByLeftContext() {
+		Hits copy = new Hits(hits);
+		copy.sort(new HitPropertyLeftContext(copy, CorpusState.FIELD));
+		return copy;
+	}
+
+	@Benchmark
+	public HitGroups groupByLeftContext() {
+		Hits copy = new Hits(hits);
+		return copy.groupedBy(new HitPropertyLeftContext(copy, CorpusState.FIELD));
+	}
+
+	@Benchmark
+	public HitGroups groupByMetadata() {
+		Hits copy = new Hits(hits);
+		return copy.groupedBy(new HitPropertyDocumentStoredField(copy, "genre"));
+	}
+
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.benchmark;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import nl.inl.blacklab.index.IndexListenerDevNull;
+import nl.inl.blacklab.index.Indexer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Indexing throughput of DocIndexerXmlHandlers (using BenchmarkDocIndexer).
+ *
+ * Each invocation indexes a batch of documents into a new index, including
+ * closing it (which writes the forward index and content store). Divide the
+ * time by numberOfDocs * docLength to get the time per token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IndexingBenchmark {
+
+	/** Number of documents to index per invocation */
+	@Param("100")
+	public int numberOfDocs;
+
+	/** Number of words per document */
+	@Param("1000")
+	public int docLength;
+
+	private String[] docs;
+
+	private File indexDir;
+
+	@Setup(Level.Trial)
+	public void generate() {
+		TestCorpus corpus = new TestCorpus();
+		docs = new String[numberOfDocs];
+		for (int i = 0; i < numberOfDocs; i++) {
+			docs[i] = corpus.generateDocument(i, docLength);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void prepareDir() {
+		indexDir = new File(System.getProperty("java.io.tmpdir"), "BlackLabBenchmarkIndexing");
+		if (indexDir.exists())
+			TestCorpus.deleteTree(indexDir);
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteDir() {
+		TestCorpus.deleteTree(indexDir);
+	}
+
+	@Benchmark
+	public void index() throws Exception {
+		Indexer indexer = new Indexer(indexDir, true, BenchmarkDocIndexer.class);
+		indexer.setListener(new IndexListenerDevNull());
+		try {
+			for (int i = 0; i < docs.length; i++) {
+				indexer.index("doc" + i, new StringReader(docs[i]));
+			}
+		} finally {
+			indexer.close();
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.inl.blacklab.queryParser.corpusql.CorpusQueryLanguageParser;
+import nl.inl.blacklab.search.ConcordanceType;
+import nl.inl.blacklab.search.Hit;
+import nl.inl.blacklab.search.Hits;
+import nl.inl.blacklab.search.HitsWindow;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Generating KWICs and concordances for a page of hits, like a search
+ * interface does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KwicBenchmark {
+
+	/** Frequency rank of the word to search for (lower means more hits) */
+	@Param("20")
+	public int wordRank;
+
+	/** Number of hits per page */
+	@Param("20")
+	public int pageSize;
+
+	/** Number of words of context around each hit */
+	@Param("5")
+	public int contextSize;
+
+	/** Where concordances are made from (KWICs always come from the forward index) */
+	@Param({ "CONTENT_STORE", "FORWARD_INDEX" })
+	public ConcordanceType concordanceType;
+
+	private Hits hits;
+
+	private int nextPage = 0;
+
+	@Setup(Level.Trial)
+	public void setUp(CorpusState corpus) throws Exception {
+		hits = corpus.searcher.find(CorpusQueryLanguageParser.parse("\"" + TestCorpus.word(wordRank) + "\""));
+		if (hits.size() < pageSize)
+			throw new IllegalStateException("Not enough hits for a page; use a larger corpus or lower wordRank");
+	}
+
+	/**
+	 * Get a fresh window on the next page of hits.
+	 * @param type where to make concordances from
+	 * @return the window
+	 */
+	private HitsWindow nextPage(ConcordanceType type) {
+		int numberOfPages = hits.size() / pageSize;
+		int first = (nextPage++ % numberOfPages) * pageSize;
+		HitsWindow window = hits.window(first, pageSize);
+		window.setContextSize(contextSize);
+		window.setConcordanceType(type);
+		return window;
+	}
+
+	@Benchmark
+	public void kwics(Blackhole bh) {
+		HitsWindow window = nextPage(ConcordanceType.FORWARD_INDEX);
+		for (Hit hit: window) {
+			bh.consume(window.getKwic(hit));
+		}
+	}
+
+	@Benchmark
+	public void concordances(Blackhole bh) {
+		HitsWindow window = nextPage(concordanceType);
+		for (Hit hit: window) {
+			bh.consume(window.getConcordance(hit));
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.inl.blacklab.queryParser.corpusql.CorpusQueryLanguageParser;
+import nl.inl.blacklab.search.HitCount;
+
+import org.apache.lucene.search.spans.SpanQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Iterating over the hits of each BLSpans operator.
+ *
+ * The hits are only counted (see Searcher.count()), so we measure the spans
+ * themselves, not the Hits object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SpansBenchmark {
+
+	/** The operator to benchmark */
+	@Param({ "term", "or", "regex", "sequence", "gap", "and", "andNot", "not", "repetition", "expansion",
+			"tags", "within", "containing" })
+	public String operator;
+
+	private SpanQuery query;
+
+	/**
+	 * Get the Corpus Query Language query for an operator.
+	 *
+	 * @param operator the operator
+	 * @return the query
+	 */
+	static String getQuery(String operator) {
+		String common = TestCorpus.word(3), other = TestCorpus.word(7), rare = TestCorpus.word(100);
+		switch (operator) {
+		case "term":
+			return "\"" + common + "\"";
+		case "or":
+			return "\"" + common + "\" | \"" + rare + "\"";
+		case "regex":
+			return "\"" + TestCorpus.word(1) + ".*\"";
+		case "sequence":
+			return "\"" + common + "\" \"" + other + "\"";
+		case "gap":
+			return "\"" + rare + "\" []{1,3} \"" + common + "\"";
+		case "and":
+			return "[lemma=\"" + TestCorpus.lemma(3) + "\" & pos=\"" + TestCorpus.pos(3) + "\"]";
+		case "andNot":
+			return "[pos=\"" + TestCorpus.pos(3) + "\" & word!=\"" + common + "\"]";
+		case "not":
+			return "[word!=\"" + common + "\"]";
+		case "repetition":
+			return "[pos=\"" + TestCorpus.pos(2) + "\"]{2,3}";
+		case "expansion":
+			return "\"" + rare + "\" []{1,3}";
+		case "tags":
+			return "<entity/>";
+		case "within":
+			return "\"" + common + "\" within <entity/>";
+		case "containing":
+			return "<s/> containing \"" + rare + "\"";
+		default:
+			throw new IllegalArgumentException("Unknown operator: " + operator);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp(CorpusState corpus) throws Exception {
+		query = corpus.searcher.createSpanQuery(CorpusQueryLanguageParser.parse(getQuery(operator)));
+	}
+
+	@Benchmark
+	public HitCount count(CorpusState corpus) {
+		return corpus.searcher.count(query, -1, null);
+	}
+
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nl.inl.blacklab.forwardindex.Terms;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Looking up terms in the forward index terms list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TermsBenchmark {
+
+	/** Number of (random) lookups we cycle through */
+	private static final int NUMBER_OF_LOOKUPS = 4096;
+
+	private Terms terms;
+
+	private int[] ids = new int[NUMBER_OF_LOOKUPS];
+
+	private String[] strings = new String[NUMBER_OF_LOOKUPS];
+
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setUp(CorpusState corpus) {
+		terms = corpus.searcher.getTerms();
+		Random random = new Random(1);
+		for (int i = 0; i < NUMBER_OF_LOOKUPS; i++) {
+			ids[i] = random.nextInt(terms.numberOfTerms());
+			strings[i] = terms.get(ids[i]);
+		}
+	}
+
+	@Benchmark
+	public int indexOf() {
+		return terms.indexOf(strings[next++ % NUMBER_OF_LOOKUPS]);
+	}
+
+	@Benchmark
+	public String get() {
+		return terms.get(ids[next++ % NUMBER_OF_LOOKUPS]);
+	}
+
+	@Benchmark
+	public int idToSortPosition() {
+		return terms.idToSortPosition(ids[next++ % NUMBER_OF_LOOKUPS], false);
+	}
+
+}
@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+
+import nl.inl.blacklab.index.IndexListenerDevNull;
+import nl.inl.blacklab.index.Indexer;
+
+/**
+ * Generates a synthetic test corpus and indexes it.
+ *
+ * Word frequencies follow a Zipf distribution, like in natural language, so
+ * there are a few very frequent terms and a long tail of rare ones. Each word
+ * has a lemma and a part of speech; documents are divided into sentences
+ * (&lt;s/&gt;), some words are tagged as entities (&lt;entity/&gt;) and each
+ * document has genre and year metadata. One in a hundred documents has the
+ * rare genre RARE_GENRE, for filtered query benchmarks.
+ *
+ * Documents are generated from their document number, so the corpus is the
+ * same each time it's generated.
+ */
+public class TestCorpus {
+
+	/** Genres of the documents */
+	private static final String[] GENRES = { "fiction", "news", "poetry", "science", "drama" };
+
+	/** Genre of one in a hundred documents */
+	public static final String RARE_GENRE = "letters";
+
+	/** Parts of speech */
+	private static final String[] POS = { "nou", "vrb", "adj", "art", "pre", "pro", "adv", "con" };
+
+	/** Syllables words are made of */
+	private static final String[] SYLLABLES = { "ka", "lo", "mi", "ne", "pu", "ro", "sa", "te", "vi", "zo",
+			"bre", "dra", "fli", "gro", "kle", "pra", "stu", "tri" };
+
+	/** Default number of different words */
+	public static final int DEFAULT_VOCABULARY_SIZE = 20000;
+
+	/** Cumulative probabilities of the words, by frequency rank */
+	private double[] cumulative;
+
+	/**
+	 * Prepare to generate documents.
+	 *
+	 * @param vocabularySize number of different words
+	 */
+	public TestCorpus(int vocabularySize) {
+		cumulative = new double[vocabularySize];
+		double total = 0;
+		for (int i = 0; i < vocabularySize; i++) {
+			total += 1.0 / (i + 1);
+			cumulative[i] = total;
+		}
+		for (int i = 0; i < vocabularySize; i++) {
+			cumulative[i] /= total;
+		}
+	}
+
+	public TestCorpus() {
+		this(DEFAULT_VOCABULARY_SIZE);
+	}
+
+	/**
+	 * Get the word with the specified frequency rank.
+	 *
+	 * Word 0 is the most frequent word, etc.
+	 *
+	 * @param rank the frequency rank
+	 * @return the word
+	 */
+	public static String word(int rank) {
+		StringBuilder b = new StringBuilder();
+		int n = rank;
+		do {
+			b.append(SYLLABLES[n % SYLLABLES.length]);
+			n /= SYLLABLES.length;
+		} while (n > 0);
+		return b.toString();
+	}
+
+	/**
+	 * Get the lemma of the word with the specified frequency rank.
+	 *
+	 * Two words share each lemma.
+	 *
+	 * @param rank the frequency rank of the word
+	 * @return the lemma
+	 */
+	public static String lemma(int rank) {
+		return word(rank / 2);
+	}
+
+	/**
+	 * Get the part of speech of the word with the specified frequency rank.
+	 *
+	 * @param rank the frequency rank of the word
+	 * @return the part of speech
+	 */
+	public static String pos(int rank) {
+		return POS[rank % POS.length];
+	}
+
+	/**
+	 * Choose a random word.
+	 *
+	 * @param random random number generator
+	 * @return the frequency rank of the word
+	 */
+	private int randomWord(Random random) {
+		int i = Arrays.binarySearch(cumulative, random.nextDouble());
+		return i >= 0 ? i : Math.min(cumulative.length - 1, -i - 1);
+	}
+
+	/**
+	 * Generate a document.
+	 *
+	 * @param docNumber the document number
+	 * @param length number of words in the document
+	 * @return the document, in the format DocIndexerExample understands
+	 */
+	public String generateDocument(int docNumber, int length) {
+		Random random = new Random(docNumber);
+		String genre = docNumber % 100 == 0 ? RARE_GENRE : GENRES[docNumber % GENRES.length];
+		StringBuilder b = new StringBuilder();
+		b.append("<doc><meta genre='").append(genre).append("' year='").append(1800 + docNumber % 200)
+				.append("'/>");
+		int sentenceLeft = 0, entityLeft = 0;
+		for (int i = 0; i < length; i++) {
+			if (sentenceLeft == 0) {
+				b.append("<s>");
+				sentenceLeft = 5 + random.nextInt(25);
+			}
+			if (entityLeft == 0 && random.nextInt(20) == 0) {
+				b.append("<entity>");
+				entityLeft = Math.min(Math.min(sentenceLeft, length - i), 1 + random.nextInt(3));
+			}
+			int rank = randomWord(random);
+			b.append("<w l='").append(lemma(rank)).append("' p='").append(pos(rank)).append("'>")
+					.append(word(rank)).append("</w>");
+			if (entityLeft > 0 && --entityLeft == 0)
+				b.append("</entity>");
+			if (--sentenceLeft == 0 || i == length - 1)
+				b.append(".</s> ");
+			else
+				b.append(" ");
+		}
+		b.append("</doc>");
+		return b.toString();
+	}
+
+	/**
+	 * Index documents.
+	 *
+	 * @param indexer the indexer to add them to
+	 * @param firstDoc number of the first document
+	 * @param numberOfDocs number of documents to index
+	 * @param docLength number of words per document
+	 * @throws Exception
+	 */
+	public void index(Indexer indexer, int firstDoc, int numberOfDocs, int docLength) throws Exception {
+		for (int i = firstDoc; i < firstDoc + numberOfDocs; i++) {
+			indexer.index("doc" + i, new StringReader(generateDocument(i, docLength)));
+		}
+	}
+
+	/**
+	 * Get an index of the test corpus, generating it if necessary.
+	 *
+	 * The index is kept in the temp directory, so it can be reused by
+	 * later runs.
+	 *
+	 * @param numberOfDocs number of documents
+	 * @param docLength number of words per document
+	 * @return the index directory
+	 * @throws Exception
+	 */
+	public static synchronized File getIndex(int numberOfDocs, int docLength) throws Exception {
+		File dir = new File(System.getProperty("java.io.tmpdir"), "BlackLabBenchmark-" + numberOfDocs + "x"
+				+ docLength);
+		File complete = new File(dir, "benchmark-corpus-complete");
+		if (complete.exists())
+			return dir;
+		if (dir.exists())
+			deleteTree(dir); // incomplete; start over
+		Indexer indexer = new Indexer(dir, true, BenchmarkDocIndexer.class);
+		indexer.setListener(new IndexListenerDevNull());
+		try {
+			new TestCorpus().index(indexer, 0, numberOfDocs, docLength);
+		} finally {
+			indexer.close();
+		}
+		if (!complete.createNewFile())
+			throw new IOException("Could not create " + complete);
+		return dir;
+	}
+
+	/**
+	 * Delete a directory and its contents.
+	 *
+	 * @param dir the directory
+	 */
+	public static void deleteTree(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File f: files) {
+				if (f.isDirectory())
+					deleteTree(f);
+				else
+					f.delete();
+			}
+		}
+		dir.delete();
+	}
+
+}
@@ -29,6 +29,14 @@ public abstract class ContentStoreDirAbstract extends ContentStore {
 	 */
 	protected File dir;
 
+	/**
+	 * Get the directory the content store is stored in
+	 * @return the directory
+	 */
+	public File getDir() {
+		return dir;
+	}
+
 	protected void setStoreType(String type, String version) {
 		VersionFile.write(dir, type, version);
 	}
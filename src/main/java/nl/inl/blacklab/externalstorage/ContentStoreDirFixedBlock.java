@@ -41,7 +41,9 @@ import org.apache.log4j.Logger;
 
 import com.gs.collections.impl.factory.Maps;
 
+import nl.inl.util.AccessStats;
 import nl.inl.util.ExUtil;
+import nl.inl.util.Metrics;
 import nl.inl.util.SimpleResourcePool;
 
 /**
@@ -210,6 +212,15 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	 */
 	private Map<Integer, TocEntry> toc;
 
+	/**
+	 * Has the TOC been read? We defer this until the content store is first used,
+	 * so opening a Searcher doesn't have to wait for it.
+	 */
+	private volatile boolean tocLoaded = true;
+
+	/** Categories for recording access statistics (see AccessStats) */
+	private String accessCategory, blockAccessCategory;
+
 	/**
 	 * The table of contents (TOC) file
 	 */
@@ -308,6 +319,8 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 		if (!dir.exists())
 			dir.mkdir();
 		tocFile = new File(dir, TOC_FILE_NAME);
+		accessCategory = AccessStats.category("cs", dir);
+		blockAccessCategory = AccessStats.category("csblock", dir);
 		contentsFile = new File(dir, CONTENTS_FILE_NAME);
 		if (create && tocFile.exists()) {
 			// Delete the ContentStore files
@@ -328,7 +341,7 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 		}
 		toc = Maps.mutable.empty();
 		if (tocFile.exists())
-			readToc();
+			tocLoaded = false; // read on first use; see ensureTocLoaded()
 		tocModified = false;
 		if (create) {
 			clear();
@@ -383,9 +396,24 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 		toc.clear();
 		freeBlocks.clear();
 		tocModified = true;
+		tocLoaded = true;
 		nextId = 1;
 	}
 
+	/**
+	 * Read the table of contents if we haven't done so yet.
+	 */
+	private void ensureTocLoaded() {
+		if (tocLoaded)
+			return;
+		synchronized (this) {
+			if (!tocLoaded) {
+				readToc();
+				tocLoaded = true;
+			}
+		}
+	}
+
 	private void mapToc(boolean writeable) throws IOException {
 		tocRaf = new RandomAccessFile(tocFile, writeable ? "rw" : "r");
 		long fl = tocFile.length();
@@ -503,6 +531,7 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	 * @param writeLastBlock if true, we'll write the last block too even if it's not full
 	 */
 	public void writeBlocks(boolean writeLastBlock) {
+		ensureTocLoaded();
 		ensureContentsFileOpen();
 
 		// Do we have a block to write?
@@ -561,6 +590,7 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	 */
 	@Override
 	public synchronized void storePart(String content) {
+		ensureTocLoaded();
 		if (content.length() == 0)
 			return;
 
@@ -577,6 +607,7 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	 */
 	@Override
 	public synchronized int store(String content) {
+		ensureTocLoaded();
 		storePart(content);
 		if (unwrittenContents.length() > 0) {
 			// Write the last (not completely full) block
@@ -668,6 +699,9 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 	 */
 	@Override
 	public synchronized String[] retrieveParts(int contentId, int[] start, int[] end) {
+		long startNanos = System.nanoTime();
+		ensureTocLoaded();
+		AccessStats.record(accessCategory, contentId);
 		try {
 			// Find the correct TOC entry
 			TocEntry e = toc.get(contentId);
@@ -733,6 +767,7 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 						StringBuilder decoded = new StringBuilder();
 						for (int j = firstBlock; j <= lastBlock; j++) {
 							int blockNum = e.getBlockNumber(j);
+							AccessStats.record(blockAccessCategory, blockNum);
 							long readStartOffset = blockNum * BLOCK_SIZE_BYTES;
 							int bytesToRead = BLOCK_SIZE_BYTES;
 							ByteBuffer buffer = ByteBuffer.allocate(bytesToRead);
@@ -743,6 +778,8 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 										+ " < " + bytesToRead);
 							}
 							decoded.append(decodeBlock(buffer.array(), 0, bytesRead));
+							Metrics.counter("contentStore.blocksRead").inc();
+							Metrics.counter("contentStore.bytesRead").inc(bytesRead);
 						}
 
 						// 3 - take just what we need
@@ -758,11 +795,14 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 			return result;
 		} catch (Exception e) {
 			throw ExUtil.wrapRuntimeException(e);
+		} finally {
+			Metrics.time("contentStore.retrieveParts", startNanos);
 		}
 	}
 
 	@Override
 	public synchronized void delete(int id) {
+		ensureTocLoaded();
 		TocEntry e = toc.get(id);
 		e.deleted = true;
 		for (int bl: e.blockIndices) {
@@ -774,16 +814,19 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 
 	@Override
 	public Set<Integer> getDocIds() {
+		ensureTocLoaded();
 		return toc.keySet();
 	}
 
 	@Override
 	public boolean isDeleted(int id) {
+		ensureTocLoaded();
 		return toc.get(id).deleted;
 	}
 
 	@Override
 	public int getDocLength(int id) {
+		ensureTocLoaded();
 		return toc.get(id).entryLengthCharacters;
 	}
 
@@ -872,6 +915,8 @@ public class ContentStoreDirFixedBlock extends ContentStoreDirAbstract {
 				if (resultLength <= 0) {
 					throw new RuntimeException("Error, inflate returned " + resultLength);
 				}
+				Metrics.counter("contentStore.blocksInflated").inc();
+				Metrics.counter("contentStore.bytesInflated").inc(resultLength);
 				try {
 					return new String(zipbuf, 0, resultLength, CHAR_ENCODING);
 				} catch (UnsupportedEncodingException e) {
@@ -21,7 +21,7 @@ import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 
-import nl.inl.util.StringUtil;
+import nl.inl.util.FoldingUtil;
 
 /**
  * Lowercases and/or removes any accents from the input.
@@ -54,12 +54,15 @@ public class DesensitizeFilter extends TokenFilter {
 	@Override
 	final public boolean incrementToken() throws IOException {
 		if (input.incrementToken()) {
-			String t = new String(termAtt.buffer(), 0, termAtt.length());
-			if (removeAccents)
-				t = StringUtil.removeAccents(t);
-			if (lowerCase)
-				t = t.toLowerCase();
-			termAtt.copyBuffer(t.toCharArray(), 0, t.length());
+			int length = FoldingUtil.fold(termAtt.buffer(), termAtt.length(), removeAccents, lowerCase);
+			if (length >= 0) {
+				termAtt.setLength(length);
+			} else {
+				// Rare characters; use the slower String-based method
+				String t = new String(termAtt.buffer(), 0, termAtt.length());
+				t = FoldingUtil.desensitize(t, removeAccents, lowerCase);
+				termAtt.setEmpty().append(t);
+			}
 			return true;
 		}
 		return false;
@@ -21,7 +21,7 @@ import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 
-import nl.inl.util.StringUtil;
+import nl.inl.util.FoldingUtil;
 
 /**
  * Removes any accents from the input.
@@ -46,9 +46,15 @@ public class RemoveAllAccentsFilter extends TokenFilter {
 	@Override
 	final public boolean incrementToken() throws IOException {
 		if (input.incrementToken()) {
-			String t = new String(termAtt.buffer(), 0, termAtt.length());
-			t = StringUtil.removeAccents(t);
-			termAtt.copyBuffer(t.toCharArray(), 0, t.length());
+			int length = FoldingUtil.fold(termAtt.buffer(), termAtt.length(), true, false);
+			if (length >= 0) {
+				termAtt.setLength(length);
+			} else {
+				// Rare characters; use the slower String-based method
+				String t = new String(termAtt.buffer(), 0, termAtt.length());
+				t = FoldingUtil.desensitize(t, true, false);
+				termAtt.setEmpty().append(t);
+			}
 			return true;
 		}
 		return false;
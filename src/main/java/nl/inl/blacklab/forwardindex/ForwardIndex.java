@@ -2,7 +2,10 @@ package nl.inl.blacklab.forwardindex;
 
 import java.io.File;
 import java.text.Collator;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import nl.inl.util.VersionFile;
 
@@ -183,6 +186,50 @@ public abstract class ForwardIndex {
 	 */
 	public abstract int getDocLength(int fiid);
 
+	/**
+	 * Get the directory the forward index is stored in.
+	 * @return the directory
+	 */
+	public abstract File getDir();
+
+	/** Maximum number of term id sets to cache (see getCachedTermIds()) */
+	private static final int MAX_CACHED_TERM_ID_SETS = 100;
+
+	/** Cached sets of term ids, e.g. the terms matching a query clause, in LRU order */
+	private Map<String, BitSet> cachedTermIds = new LinkedHashMap<String, BitSet>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, BitSet> eldest) {
+			return size() > MAX_CACHED_TERM_ID_SETS;
+		}
+	};
+
+	/**
+	 * Get a cached set of term ids, e.g. the terms matching a query clause.
+	 *
+	 * Used by the query planner, so it doesn't have to check all terms for
+	 * each query. Only valid as long as no terms are added, so don't use
+	 * this in index mode.
+	 *
+	 * @param key what the term ids represent (e.g. the clause and its sensitivity)
+	 * @return the term ids, or null if not cached
+	 */
+	public synchronized BitSet getCachedTermIds(String key) {
+		return cachedTermIds.get(key);
+	}
+
+	/**
+	 * Cache a set of term ids.
+	 *
+	 * @param key what the term ids represent (e.g. the clause and its sensitivity)
+	 * @param termIds the term ids (shouldn't be modified afterwards)
+	 * @see #getCachedTermIds(String)
+	 */
+	public synchronized void putCachedTermIds(String key, BitSet termIds) {
+		cachedTermIds.put(key, termIds);
+	}
+
 	/**
 	 * Current forward index format version
 	 */
@@ -272,6 +319,18 @@ public abstract class ForwardIndex {
 		return fi;
 	}
 
+	/**
+	 * Should forward indices opened from now on memory-map their tokens file?
+	 *
+	 * The default is true. If false, tokens are read from the file channel
+	 * instead. Mostly useful for testing and benchmarking.
+	 *
+	 * @param b true to use memory mapping
+	 */
+	public static void setUseMemoryMapping(boolean b) {
+		ForwardIndexImplV3.useMemoryMapping = b;
+	}
+
 	protected abstract void setLargeTermsFileSupport(boolean b);
 
 }
@@ -36,7 +36,9 @@ import java.util.List;
 import java.util.Map;
 
 import nl.inl.blacklab.index.complex.ComplexFieldUtil;
+import nl.inl.util.AccessStats;
 import nl.inl.util.ExUtil;
+import nl.inl.util.Metrics;
 
 import org.apache.log4j.Logger;
 import org.apache.lucene.index.DirectoryReader;
@@ -104,6 +106,12 @@ class ForwardIndexImplV3 extends ForwardIndex {
 	/** Deleted TOC entries. Always sorted by size. */
 	private ArrayList<TocEntry> deletedTocEntries;
 
+	/** The directory the forward index is stored in */
+	private File dir;
+
+	/** Category for recording access statistics (see AccessStats) */
+	private String accessCategory;
+
 	/** The table of contents (TOC) file, docs.dat */
 	private File tocFile;
 
@@ -113,8 +121,17 @@ class ForwardIndexImplV3 extends ForwardIndex {
 	/** The terms file (stores unique terms) */
 	private File termsFile;
 
-	/** The unique terms in our index */
-	private Terms terms;
+	/** The unique terms in our index (in search mode, loaded on first use; see getTerms()) */
+	private volatile Terms terms;
+
+	/** Collator to use for the terms (needed when we load them lazily) */
+	private Collator collator;
+
+	/** Has the table of contents been read? (in search mode, we defer this until first use) */
+	private volatile boolean tocLoaded = true;
+
+	/** Should we memory-map the tokens file once the TOC has been read? */
+	private boolean mapTokensFileOnLoad = false;
 
 	/** Handle for the tokens file */
 	private RandomAccessFile tokensFp;
@@ -144,6 +161,12 @@ class ForwardIndexImplV3 extends ForwardIndex {
 	/** Cached fiid field */
 	private NumericDocValues cachedFiids;
 
+	/** Has the fiid cache been built yet? (done on first use of luceneDocIdToFiid) */
+	private volatile boolean fiidCacheBuilt = false;
+
+	/** Lock for building the fiid cache (separate from our own monitor, which retrievePartsInt holds) */
+	private final Object fiidCacheLock = new Object();
+
 	/** Are we in index mode (i.e. writing to forward index) or not? */
 	private boolean indexMode;
 
@@ -154,8 +177,32 @@ class ForwardIndexImplV3 extends ForwardIndex {
 
 	@Override
 	public void setIdTranslateInfo(DirectoryReader reader, String lucenePropFieldName) {
-		this.reader = reader;
-		this.fiidFieldName = ComplexFieldUtil.forwardIndexIdField(lucenePropFieldName);
+		synchronized (fiidCacheLock) {
+			this.reader = reader;
+			this.fiidFieldName = ComplexFieldUtil.forwardIndexIdField(lucenePropFieldName);
+			cachedFiids = null;
+			fiidCacheBuilt = false;
+		}
+	}
+
+	/**
+	 * Build the fiid cache if that hasn't been done yet.
+	 *
+	 * Uninverting the fiid field takes a while on large indices, so we wait
+	 * until we actually need to translate a Lucene doc id.
+	 */
+	private void ensureFiidCacheBuilt() {
+		if (fiidCacheBuilt)
+			return;
+		synchronized (fiidCacheLock) {
+			if (!fiidCacheBuilt) {
+				buildFiidCache();
+				fiidCacheBuilt = true;
+			}
+		}
+	}
+
+	private void buildFiidCache() {
 		try {
 			LeafReader srw = SlowCompositeReaderWrapper.wrap(reader);
 			Map<String, UninvertingReader.Type> fields = new HashMap<>();
@@ -185,6 +232,7 @@ class ForwardIndexImplV3 extends ForwardIndex {
 
 	@Override
 	public int luceneDocIdToFiid(int docId) {
+		ensureFiidCacheBuilt();
 		if (cachedFiids != null)
 			return (int)cachedFiids.get(docId);
 
@@ -203,7 +251,10 @@ class ForwardIndexImplV3 extends ForwardIndex {
 			dir.mkdir();
 		}
 
+		this.dir = dir;
+		accessCategory = AccessStats.category("fi", dir);
 		this.indexMode = indexMode;
+		this.collator = collator;
 
 		termsFile = new File(dir, "terms.dat");
 		tocFile = new File(dir, "docs.dat");
@@ -222,8 +273,14 @@ class ForwardIndexImplV3 extends ForwardIndex {
 			setLargeTermsFileSupport(largeTermsFileSupport);
 			boolean existing = false;
 			if (tocFile.exists()) {
-				readToc();
-				terms = new TermsImplV3(indexMode, collator, termsFile, useBlockBasedTermsFile);
+				if (indexMode || create) {
+					readToc();
+					terms = new TermsImplV3(indexMode, collator, termsFile, useBlockBasedTermsFile);
+				} else {
+					// Search mode: read the TOC and terms on first use, so
+					// opening many forward indices is cheap.
+					tocLoaded = false;
+				}
 				existing = true;
 				tocModified = false;
 			} else {
@@ -242,7 +299,8 @@ class ForwardIndexImplV3 extends ForwardIndex {
 					// Memory-map the file
 					// NOTE: We only use this in search mode right now.
 					// @@@ add support for mapped write? (need to re-map as the file grows in size)
-					memoryMapTokensFile(false);
+					// (the mapping needs the TOC, so this happens when it is loaded)
+					mapTokensFileOnLoad = true;
 
 				} else {
 					// Don't use memory mapping. Just read from file channel.
@@ -262,6 +320,28 @@ class ForwardIndexImplV3 extends ForwardIndex {
 		this(dir, indexMode, collator, create, true);
 	}
 
+	/**
+	 * Read the table of contents (and memory-map the tokens file)
+	 * if we haven't done so yet.
+	 */
+	private void ensureTocLoaded() {
+		if (tocLoaded)
+			return;
+		synchronized (this) {
+			if (!tocLoaded) {
+				try {
+					readToc();
+					tocModified = false;
+					if (mapTokensFileOnLoad)
+						memoryMapTokensFile(false);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				tocLoaded = true;
+			}
+		}
+	}
+
 	private void openTokensFile() throws FileNotFoundException {
 		tokensFp = new RandomAccessFile(tokensFile, indexMode ? "rw" : "r");
 		tokensFileChannel = tokensFp.getChannel();
@@ -627,7 +707,7 @@ class ForwardIndexImplV3 extends ForwardIndex {
 		for (int[] snippetInt: resultInt) {
 			String[] snippet = new String[snippetInt.length];
 			for (int j = 0; j < snippetInt.length; j++) {
-				snippet[j] = terms.get(snippetInt[j]);
+				snippet[j] = getTerms().get(snippetInt[j]);
 			}
 			result.add(snippet);
 		}
@@ -644,13 +724,17 @@ class ForwardIndexImplV3 extends ForwardIndex {
 
 		// Translate them to sort orders
 		for (int[] snippetInt: resultInt) {
-			terms.toSortOrder(snippetInt, snippetInt, sensitive);
+			getTerms().toSortOrder(snippetInt, snippetInt, sensitive);
 		}
 		return resultInt;
 	}
 
 	@Override
 	public synchronized List<int[]> retrievePartsInt(int fiid, int[] start, int[] end) {
+		long startNanos = System.nanoTime();
+		long tokensRead = 0, bytesMapped = 0, bytesReadTotal = 0;
+		ensureTocLoaded();
+		AccessStats.record(accessCategory, fiid);
 		try {
 			TocEntry e = toc.get(fiid);
 			if (e == null || e.deleted)
@@ -714,11 +798,16 @@ class ForwardIndexImplV3 extends ForwardIndex {
 
 				int snippetLength = end[i] - start[i];
 				int[] snippet = new int[snippetLength];
+				tokensRead += snippetLength;
+				if (inMem)
+					bytesMapped += snippetLength * SIZEOF_INT;
+				else
+					bytesReadTotal += snippetLength * SIZEOF_INT;
 				if (TESTING_IO_IMPACT) {
 					// We're testing how much impact forward index I/O has on sorting/grouping.
 					// Fill the array with random token ids instead of reading them from the
 					// file.
-					int numberOfTerms = terms.numberOfTerms();
+					int numberOfTerms = getTerms().numberOfTerms();
 					for (int j = 0; j < snippetLength; j++) {
 						int randomTermId = (int) Math.random() * numberOfTerms;
 						snippet[j] = randomTermId;
@@ -751,6 +840,13 @@ class ForwardIndexImplV3 extends ForwardIndex {
 			return result;
 		} catch (Exception e) {
 			throw ExUtil.wrapRuntimeException(e);
+		} finally {
+			if (Metrics.isEnabled()) {
+				Metrics.time("forwardIndex.retrievePartsInt", startNanos);
+				Metrics.counter("forwardIndex.tokensRead").inc(tokensRead);
+				Metrics.counter("forwardIndex.bytesMapped").inc(bytesMapped);
+				Metrics.counter("forwardIndex.bytesRead").inc(bytesReadTotal);
+			}
 		}
 	}
 
@@ -771,19 +867,32 @@ class ForwardIndexImplV3 extends ForwardIndex {
 
 	@Override
 	public Terms getTerms() {
+		if (terms == null) {
+			synchronized (this) {
+				if (terms == null)
+					terms = new TermsImplV3(indexMode, collator, termsFile, useBlockBasedTermsFile);
+			}
+		}
 		return terms;
 	}
 
 	@Override
 	public int getNumDocs() {
+		ensureTocLoaded();
 		return toc.size();
 	}
 
 	@Override
 	public int getDocLength(int fiid) {
+		ensureTocLoaded();
 		return toc.get(fiid).length;
 	}
 
+	@Override
+	public File getDir() {
+		return dir;
+	}
+
 	@Override
 	public void deleteDocument(int fiid) {
 		if (!indexMode)
@@ -837,6 +946,7 @@ class ForwardIndexImplV3 extends ForwardIndex {
 
 	@Override
 	public long getFreeSpace() {
+		ensureTocLoaded();
 		long freeSpace = 0;
 		for (TocEntry e: deletedTocEntries) {
 			freeSpace += e.length;
@@ -846,11 +956,13 @@ class ForwardIndexImplV3 extends ForwardIndex {
 
 	@Override
 	public int getFreeBlocks() {
+		ensureTocLoaded();
 		return deletedTocEntries.size();
 	}
 
 	@Override
 	public long getTotalSize() {
+		ensureTocLoaded();
 		return tokenFileEndPosition;
 	}
 
@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.forwardindex;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nl.inl.util.ExUtil;
+
+/**
+ * Stores the elements (e.g. sentences or paragraphs) of one tag type
+ * per document, so we can quickly find the element(s) containing a hit
+ * without merging posting lists.
+ *
+ * The elements of a document are stored as a sorted list of (start, end)
+ * pairs (sorted by start, then by end). Documents are identified by the forward
+ * index id (fiid) of the main property of the complex field, so a tag index
+ * should only be used alongside that forward index. Adding a document with a fiid
+ * that was used before (because the forward index re-used the id of a deleted
+ * document) replaces the old entry.
+ *
+ * The elements file is memory mapped in search mode.
+ */
+public class TagIndex {
+
+	/** Size of a long in bytes. */
+	private static final int SIZEOF_LONG = Long.SIZE / Byte.SIZE;
+
+	/** Size of an int in bytes. */
+	private static final int SIZEOF_INT = Integer.SIZE / Byte.SIZE;
+
+	/** Size of an element (start and end position) in bytes. */
+	private static final int SIZEOF_ELEMENT = 2 * SIZEOF_INT;
+
+	/** Size of the chunks we map the elements file in. Must be a multiple of the element size,
+	 *  so elements never straddle two chunks. Can be set to be smaller for easier testing. */
+	static int chunkSizeBytes = (Integer.MAX_VALUE / 2 / SIZEOF_ELEMENT) * SIZEOF_ELEMENT;
+
+	/** Number of elements value for documents we have no entry for */
+	private static final int NO_ENTRY = -1;
+
+	/** The table of contents file: where each document's elements start and how many there are */
+	private File tocFile;
+
+	/** The elements file: start and end positions of the elements */
+	private File elementsFile;
+
+	/** Are we in index mode (i.e. writing to the tag index) or not? */
+	private boolean indexMode;
+
+	/** Has the table of contents been modified? */
+	private boolean tocModified = false;
+
+	/** For each fiid: index of the document's first element in the elements file */
+	private long[] tocOffset;
+
+	/** For each fiid: number of elements in the document (or NO_ENTRY) */
+	private int[] tocLength;
+
+	/** Number of entries in the table of contents */
+	private int tocSize;
+
+	/** Number of elements in the elements file */
+	private long numberOfElements;
+
+	/** Does any document contain nested elements (i.e. elements not sorted by end position)? */
+	private boolean nested = false;
+
+	/** Stream for appending to the elements file (index mode) */
+	private DataOutputStream elementsOut;
+
+	/** Mappings into the elements file (search mode) */
+	private List<ByteBuffer> elementsFileChunks;
+
+	/**
+	 * Open a tag index.
+	 *
+	 * @param dir directory to store the tag index in
+	 * @param indexMode true if we want to add documents, false for read-only
+	 * @param create if true, create a new tag index, deleting any existing one
+	 */
+	public TagIndex(File dir, boolean indexMode, boolean create) {
+		if (!dir.exists()) {
+			if (!create)
+				throw new RuntimeException("Tag index " + dir + " doesn't exist");
+			if (!dir.mkdirs())
+				throw new RuntimeException("Could not create dir: " + dir);
+		}
+		if (create && !indexMode)
+			throw new RuntimeException("Cannot create tag index, not in index mode");
+		this.indexMode = indexMode;
+		tocFile = new File(dir, "docs.dat");
+		elementsFile = new File(dir, "elements.dat");
+		if (create) {
+			if (tocFile.exists())
+				tocFile.delete();
+			if (elementsFile.exists())
+				elementsFile.delete();
+			tocOffset = new long[1000];
+			tocLength = new int[1000];
+			tocSize = 0;
+			tocModified = true;
+		} else {
+			readToc();
+		}
+		numberOfElements = elementsFile.length() / SIZEOF_ELEMENT;
+
+		try {
+			if (indexMode) {
+				elementsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(elementsFile, true)));
+			} else {
+				mapElementsFile();
+			}
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Map the elements file into memory in chunks.
+	 *
+	 * @throws IOException
+	 */
+	private void mapElementsFile() throws IOException {
+		elementsFileChunks = new ArrayList<>();
+		try (RandomAccessFile raf = new RandomAccessFile(elementsFile, "r");
+			FileChannel fc = raf.getChannel()) {
+			long fileSize = numberOfElements * SIZEOF_ELEMENT;
+			for (long offset = 0; offset < fileSize; offset += chunkSizeBytes) {
+				long size = Math.min(chunkSizeBytes, fileSize - offset);
+				elementsFileChunks.add(fc.map(MapMode.READ_ONLY, offset, size));
+			}
+		}
+	}
+
+	/**
+	 * Read the table of contents from the file
+	 */
+	private void readToc() {
+		if (!tocFile.exists()) {
+			tocOffset = new long[1000];
+			tocLength = new int[1000];
+			tocSize = 0;
+			return;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(tocFile, "r");
+			FileChannel fc = raf.getChannel()) {
+			MappedByteBuffer buf = fc.map(MapMode.READ_ONLY, 0, tocFile.length());
+			tocSize = buf.getInt();
+			nested = buf.getInt() != 0;
+			tocOffset = new long[Math.max(tocSize, 1)];
+			tocLength = new int[Math.max(tocSize, 1)];
+			LongBuffer lb = buf.asLongBuffer();
+			lb.get(tocOffset, 0, tocSize);
+			buf.position(buf.position() + SIZEOF_LONG * tocSize);
+			IntBuffer ib = buf.asIntBuffer();
+			ib.get(tocLength, 0, tocSize);
+		} catch (Exception e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Write the table of contents to the file
+	 */
+	private void writeToc() {
+		if (!indexMode)
+			throw new RuntimeException("Cannot write ToC, not in index mode");
+
+		try (RandomAccessFile raf = new RandomAccessFile(tocFile, "rw");
+			FileChannel fc = raf.getChannel()) {
+			long fileSize = 2 * SIZEOF_INT + (SIZEOF_LONG + SIZEOF_INT) * (long)tocSize;
+			fc.truncate(fileSize);
+			MappedByteBuffer buf = fc.map(MapMode.READ_WRITE, 0, fileSize);
+			buf.putInt(tocSize);
+			buf.putInt(nested ? 1 : 0);
+			LongBuffer lb = buf.asLongBuffer();
+			lb.put(tocOffset, 0, tocSize);
+			buf.position(buf.position() + SIZEOF_LONG * tocSize);
+			IntBuffer ib = buf.asIntBuffer();
+			ib.put(tocLength, 0, tocSize);
+		} catch (Exception e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+		tocModified = false;
+	}
+
+	/**
+	 * Close the tag index, writing the table of contents if necessary.
+	 */
+	public void close() {
+		try {
+			if (elementsOut != null) {
+				elementsOut.close();
+				elementsOut = null;
+			}
+			if (tocModified)
+				writeToc();
+			elementsFileChunks = null;
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Store the elements in a document.
+	 *
+	 * The elements don't have to be sorted.
+	 *
+	 * @param fiid forward index id of the document (see class comment)
+	 * @param elements start and end positions of the elements, alternating
+	 *   (start of first element, end of first element, start of second element, ...)
+	 * @param n number of elements
+	 */
+	public synchronized void addDocument(int fiid, int[] elements, int n) {
+		if (!indexMode)
+			throw new RuntimeException("Cannot add document, not in index mode");
+
+		// Sort by start, then by end (positions are never negative, so we can pack them in a long)
+		long[] sorted = new long[n];
+		for (int i = 0; i < n; i++) {
+			sorted[i] = ((long)elements[i * 2] << 32) | elements[i * 2 + 1];
+		}
+		Arrays.sort(sorted);
+
+		try {
+			int prevEnd = -1;
+			for (int i = 0; i < n; i++) {
+				int end = (int)sorted[i];
+				if (end < prevEnd)
+					nested = true;
+				prevEnd = end;
+				elementsOut.writeInt((int)(sorted[i] >>> 32));
+				elementsOut.writeInt(end);
+			}
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+
+		// Update the table of contents
+		if (fiid >= tocOffset.length) {
+			int newSize = Math.max(fiid + 1, tocOffset.length * 2);
+			tocOffset = Arrays.copyOf(tocOffset, newSize);
+			tocLength = Arrays.copyOf(tocLength, newSize);
+		}
+		while (tocSize <= fiid) {
+			tocLength[tocSize] = NO_ENTRY;
+			tocSize++;
+		}
+		tocOffset[fiid] = numberOfElements;
+		tocLength[fiid] = n;
+		numberOfElements += n;
+		tocModified = true;
+	}
+
+	/**
+	 * Are the elements in each document sorted by end position as well?
+	 *
+	 * This is the case if elements never nest (e.g. sentences). It allows us
+	 * to binary search on the end position as well as the start position.
+	 *
+	 * @return true iff no document contains nested elements
+	 */
+	public boolean isEndPointSorted() {
+		return !nested;
+	}
+
+	/**
+	 * Do we have an entry for this document?
+	 *
+	 * Documents that were added to the forward index before the tag index existed
+	 * have no entry.
+	 *
+	 * @param fiid forward index id of the document
+	 * @return true iff we have an entry for it
+	 */
+	public boolean hasDocument(int fiid) {
+		return fiid < tocSize && tocLength[fiid] != NO_ENTRY;
+	}
+
+	/**
+	 * Get the number of elements in a document.
+	 *
+	 * @param fiid forward index id of the document
+	 * @return number of elements, or 0 if we have no entry for this document
+	 */
+	public int getNumberOfElements(int fiid) {
+		return hasDocument(fiid) ? tocLength[fiid] : 0;
+	}
+
+	/**
+	 * Get the index of a document's first element.
+	 *
+	 * Pass this index (plus the index of the element within the document)
+	 * to getStart() and getEnd().
+	 *
+	 * @param fiid forward index id of the document
+	 * @return index of the document's first element
+	 */
+	public long getFirstElement(int fiid) {
+		return tocOffset[fiid];
+	}
+
+	/**
+	 * Get the start position of an element.
+	 *
+	 * @param element index of the element (see getFirstElement())
+	 * @return the start position
+	 */
+	public int getStart(long element) {
+		return getPosition(element * SIZEOF_ELEMENT);
+	}
+
+	/**
+	 * Get the end position of an element.
+	 *
+	 * @param element index of the element (see getFirstElement())
+	 * @return the end position
+	 */
+	public int getEnd(long element) {
+		return getPosition(element * SIZEOF_ELEMENT + SIZEOF_INT);
+	}
+
+	private int getPosition(long offsetBytes) {
+		if (elementsFileChunks == null)
+			throw new RuntimeException("Cannot read elements, tag index is in index mode or closed");
+		ByteBuffer chunk = elementsFileChunks.get((int)(offsetBytes / chunkSizeBytes));
+		return chunk.getInt((int)(offsetBytes % chunkSizeBytes));
+	}
+
+}
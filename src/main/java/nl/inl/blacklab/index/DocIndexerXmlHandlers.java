@@ -21,6 +21,7 @@ import java.io.Reader;
 import java.lang.reflect.Constructor;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,6 +32,7 @@ import java.util.Set;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 
+import nl.inl.blacklab.forwardindex.TagIndex;
 import nl.inl.blacklab.index.HookableSaxHandler.ContentCapturingHandler;
 import nl.inl.blacklab.index.HookableSaxHandler.ElementHandler;
 import nl.inl.blacklab.index.complex.ComplexField;
@@ -93,6 +95,7 @@ public abstract class DocIndexerXmlHandlers extends DocIndexerAbstract {
 			startCaptureContent(contentsField.getName());
 
 			currentLuceneDoc = new Document();
+			startTagIndexDocument();
 			currentDocumentName = fileName;
 			if (currentDocumentName == null)
 				currentDocumentName = "?";
@@ -155,6 +158,7 @@ public abstract class DocIndexerXmlHandlers extends DocIndexerAbstract {
 
 
 			// Add all properties to forward index
+			int mainFiid = -1;
 			for (ComplexFieldProperty prop : contentsField.getProperties()) {
 				if (!prop.hasForwardIndex())
 					continue;
@@ -167,8 +171,15 @@ public abstract class DocIndexerXmlHandlers extends DocIndexerAbstract {
 				int fiid = indexer.addToForwardIndex(fieldName, prop);
 				currentLuceneDoc.add(new IntField(ComplexFieldUtil
 						.forwardIndexIdField(fieldName), fiid, Store.YES));
+				if (prop == propMain)
+					mainFiid = fiid;
 			}
 
+			// Add the elements we keep a tag index for (identified by the main
+			// property's forward index id)
+			if (mainFiid >= 0)
+				addToTagIndices(mainFiid);
+
 			// If there's an external metadata fetcher, call it now so it can
 			// add the metadata for this document and (optionally) store the
 			// metadata
@@ -312,6 +323,29 @@ public abstract class DocIndexerXmlHandlers extends DocIndexerAbstract {
 	}
 	List<OpenTagInfo> openTags = new ArrayList<>();
 
+	/** Elements of one tag in the current document, for the tag index */
+	static class TagIndexElements {
+		/** Start and end positions, alternating */
+		int[] elements = new int[16];
+
+		/** Number of elements */
+		int n = 0;
+
+		void add(int start, int end) {
+			if (n * 2 == elements.length)
+				elements = Arrays.copyOf(elements, elements.length * 2);
+			elements[n * 2] = start;
+			elements[n * 2 + 1] = end;
+			n++;
+		}
+	}
+
+	/** The tag indices we add elements to, or null if not determined yet */
+	private Map<String, TagIndex> tagIndices;
+
+	/** Elements in the current document per tag we keep a tag index for */
+	private Map<String, TagIndexElements> tagIndexElements = new HashMap<>();
+
 	/** Handle tags. */
 	public class InlineTagHandler extends ElementHandler {
 
@@ -346,6 +380,11 @@ public abstract class DocIndexerXmlHandlers extends DocIndexerAbstract {
 			OpenTagInfo openTag = openTags.remove(openTags.size() - 1);
 			byte[] payload = ByteBuffer.allocate(4).putInt(currentPos).array();
 			propStartTag.setPayloadAtIndex(openTag.index, new BytesRef(payload));
+
+			// Remember the element if we keep a tag index for it
+			TagIndexElements elements = tagIndexElements.get(localName);
+			if (elements != null)
+				elements.add(openTag.position, currentPos);
 		}
 	}
 
@@ -517,7 +556,7 @@ public abstract class DocIndexerXmlHandlers extends DocIndexerAbstract {
 		propStartTag = addProperty(ComplexFieldUtil.START_TAG_PROP_NAME, true); // start tag positions
 		propStartTag.setForwardIndex(false);
 		IndexStructure indexStructure = indexer.getSearcher().getIndexStructure();
-		indexStructure.registerComplexField(contentsField.getName(), propMain.getName());
+		indexStructure.registerComplexField(contentsField.getName(), propMain.getName(), propMain.getMainAlternative());
 
 		// If the indexmetadata file specified a list of properties that shouldn't get a forward index,
 		// make the new complex field aware of this.
@@ -525,6 +564,54 @@ public abstract class DocIndexerXmlHandlers extends DocIndexerAbstract {
 		contentsField.setNoForwardIndexProps(noForwardIndexProps);
 	}
 
+	/**
+	 * Start gathering elements for the tag indices for a new document.
+	 *
+	 * The first time, determines which tag indices to add elements to: the existing
+	 * ones, plus those in the "tagIndex" parameter (a comma-separated list of tag names)
+	 * if we're creating a new index. Tag indices are only kept if the main property has
+	 * a forward index.
+	 */
+	protected void startTagIndexDocument() {
+		if (tagIndices == null) {
+			String fieldName = contentsField.getName();
+			Searcher searcher = indexer.getSearcher();
+			tagIndices = new HashMap<>();
+			if (propMain.hasForwardIndex()) {
+				String tagIndexParam = getParameter("tagIndex");
+				if (tagIndexParam != null) {
+					for (String tagName: tagIndexParam.split(",")) {
+						tagName = tagName.trim();
+						if (tagName.length() > 0)
+							searcher.createTagIndex(fieldName, tagName);
+					}
+				}
+				for (Map.Entry<String, TagIndex> e: searcher.getTagIndices(fieldName).entrySet()) {
+					if (e.getValue() != null)
+						tagIndices.put(e.getKey(), e.getValue());
+				}
+			}
+		}
+		tagIndexElements.clear();
+		for (String tagName: tagIndices.keySet()) {
+			tagIndexElements.put(tagName, new TagIndexElements());
+		}
+	}
+
+	/**
+	 * Add the elements of the current document to the tag indices.
+	 *
+	 * @param mainFiid forward index id of the main property
+	 */
+	protected void addToTagIndices(int mainFiid) {
+		if (tagIndices == null)
+			return; // startTagIndexDocument() wasn't called
+		for (Map.Entry<String, TagIndex> e: tagIndices.entrySet()) {
+			TagIndexElements elements = tagIndexElements.get(e.getKey());
+			e.getValue().addDocument(mainFiid, elements.elements, elements.n);
+		}
+	}
+
 	public void addNumericFields(Collection<String> fields) {
 		numericFields.addAll(fields);
 	}
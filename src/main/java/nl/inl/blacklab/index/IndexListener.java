@@ -17,6 +17,8 @@ package nl.inl.blacklab.index;
 
 import java.io.File;
 
+import nl.inl.util.Metrics;
+
 /**
  * Used to report progress while indexing, so we can give feedback to the user.
  */
@@ -67,6 +69,7 @@ public class IndexListener {
 
 	public synchronized void fileDone(String name) {
 		filesProcessed++;
+		Metrics.counter("index.files").inc();
 	}
 
 	/**
@@ -82,6 +85,7 @@ public class IndexListener {
 	 */
 	public synchronized void charsDone(long charsDone) {
 		charsProcessed += charsDone;
+		Metrics.counter("index.chars").inc(charsDone);
 	}
 
 	/**
@@ -106,6 +110,7 @@ public class IndexListener {
 	 */
 	public synchronized void documentDone(String name) {
 		docsDone++;
+		Metrics.counter("index.docs").inc();
 	}
 
 	/**
@@ -156,6 +161,7 @@ public class IndexListener {
 	 */
 	public void indexEnd() {
 		indexTime = System.currentTimeMillis() - indexStartTime;
+		Metrics.timer("index.index").update(indexTime * 1000000);
 	}
 
 	/**
@@ -170,6 +176,7 @@ public class IndexListener {
 	 */
 	public void closeEnd() {
 		closeTime = System.currentTimeMillis() - closeStartTime;
+		Metrics.timer("index.close").update(closeTime * 1000000);
 	}
 
 	public long getIndexTime() {
@@ -202,6 +209,7 @@ public class IndexListener {
 
 	public void tokensDone(int n) {
 		tokensProcessed += n;
+		Metrics.counter("index.tokens").inc(n);
 	}
 
 	/**
@@ -218,6 +226,7 @@ public class IndexListener {
 	 */
 	public boolean errorOccurred(String error, String unitType, File unit, File subunit) {
 		errors++;
+		Metrics.counter("index.errors").inc();
 		return true;
 	}
 
@@ -40,6 +40,7 @@ import nl.inl.blacklab.forwardindex.ForwardIndex;
 import nl.inl.blacklab.index.complex.ComplexFieldProperty;
 import nl.inl.blacklab.search.Searcher;
 import nl.inl.util.FileUtil;
+import nl.inl.util.Metrics;
 import nl.inl.util.TarGzipReader;
 import nl.inl.util.TarGzipReader.FileHandler;
 import nl.inl.util.UnicodeReader;
@@ -402,7 +403,9 @@ public class Indexer {
 	 * @throws IOException
 	 */
 	public void add(Document document) throws CorruptIndexException, IOException {
+		long startNanos = System.nanoTime();
 		searcher.getWriter().addDocument(document);
+		Metrics.time("index.addDocument", startNanos);
 		getListener().luceneDocumentAdded();
 	}
 
@@ -415,7 +418,9 @@ public class Indexer {
 	 * @throws IOException
 	 */
 	public void update(Term term, Document document) throws CorruptIndexException, IOException {
+		long startNanos = System.nanoTime();
 		searcher.getWriter().updateDocument(term, document);
+		Metrics.time("index.updateDocument", startNanos);
 		getListener().luceneDocumentAdded();
 	}
 
@@ -201,6 +201,14 @@ public class ComplexFieldProperty {
 		return propName;
 	}
 
+	/**
+	 * Get the main alternative (the one that gets character offsets if desired)
+	 * @return the main alternative's name
+	 */
+	public String getMainAlternative() {
+		return mainAlternative;
+	}
+
 	public boolean hasForwardIndex() {
 		return hasForwardIndex;
 	}
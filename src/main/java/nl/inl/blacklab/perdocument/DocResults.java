@@ -25,6 +25,7 @@ import java.util.NoSuchElementException;
 
 import nl.inl.blacklab.search.Hit;
 import nl.inl.blacklab.search.Hits;
+import nl.inl.blacklab.search.MemoryConsumer;
 import nl.inl.blacklab.search.Searcher;
 import nl.inl.blacklab.search.grouping.HitPropValueInt;
 import nl.inl.util.ReverseComparator;
@@ -43,7 +44,10 @@ import org.apache.lucene.search.spans.SpanQuery;
  * A list of DocResult objects (document-level query results). The list may be sorted by calling
  * DocResults.sort().
  */
-public class DocResults implements Iterable<DocResult> {
+public class DocResults implements Iterable<DocResult>, MemoryConsumer {
+	/** Rough estimate of the memory used per document result (including the stored fields and its Hits object) */
+	private static final int BYTES_PER_DOC_RESULT = 1000;
+
 	/**
 	 * (Part of) our document results
 	 */
@@ -594,4 +598,22 @@ public class DocResults implements Iterable<DocResult> {
 	public int countSoFarDocsRetrieved() {
 		return sourceHits == null ? results.size() : sourceHits.countSoFarDocsRetrieved();
 	}
+
+	/**
+	 * Estimate how much memory the document results retrieved so far use.
+	 *
+	 * Doesn't include the hits themselves, which are shared with the source
+	 * Hits object.
+	 *
+	 * @return estimated number of bytes used
+	 */
+	@Override
+	public long estimatedMemoryUsage() {
+		return (long)results.size() * BYTES_PER_DOC_RESULT;
+	}
+
+	@Override
+	public void releaseCachedMemory() {
+		// Nothing cached; the document results themselves are our results
+	}
 }
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+/**
+ * The number of hits and documents matching a query.
+ *
+ * Returned by Searcher.count(), which counts hits without retrieving them.
+ */
+public class HitCount {
+
+	/** Number of hits counted */
+	private int hitsCounted;
+
+	/** Number of documents with hits counted */
+	private int docsCounted;
+
+	/** Did we stop counting because we reached the maximum? */
+	private boolean maxHitsCounted;
+
+	HitCount(int hitsCounted, int docsCounted, boolean maxHitsCounted) {
+		this.hitsCounted = hitsCounted;
+		this.docsCounted = docsCounted;
+		this.maxHitsCounted = maxHitsCounted;
+	}
+
+	/**
+	 * Return the number of hits.
+	 *
+	 * If we stopped counting because we reached the maximum, this is the maximum.
+	 *
+	 * @return the number of hits
+	 */
+	public int totalSize() {
+		return hitsCounted;
+	}
+
+	/**
+	 * Return the number of documents containing hits.
+	 *
+	 * If we stopped counting because we reached the maximum, these are the
+	 * documents containing the hits we did count.
+	 *
+	 * @return the number of documents
+	 */
+	public int totalNumberOfDocs() {
+		return docsCounted;
+	}
+
+	/**
+	 * Did we stop counting hits because we reached the maximum?
+	 * @return true if there are more hits than the maximum number of hits to count
+	 */
+	public boolean maxHitsCounted() {
+		return maxHitsCounted;
+	}
+
+	@Override
+	public String toString() {
+		return "HitCount(" + hitsCounted + (maxHitsCounted ? "+" : "") + " hits, " + docsCounted + " docs)";
+	}
+
+}
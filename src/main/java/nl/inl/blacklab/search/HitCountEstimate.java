@@ -0,0 +1,387 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import nl.inl.blacklab.search.lucene.BLSpans;
+import nl.inl.util.ExUtil;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.spans.Spans;
+
+/**
+ * An estimate of the number of hits and documents matching a query, based on
+ * counting the hits in a random sample of the documents.
+ *
+ * The document id space of each segment is divided into ranges ("blocks") of
+ * about the same number of documents. Blocks are counted in random order; the
+ * totals are estimated using the ratio of hits to documents in the blocks counted
+ * so far, with a 95% margin of error. Because we count actual hits of the query,
+ * metadata filters (see Searcher.createSpanQuery()) and deleted documents are
+ * taken into account.
+ *
+ * The estimate can be refined by counting more blocks, either explicitly
+ * (refine()) or in a background thread (startRefining()). When all blocks
+ * have been counted, the estimate is exact.
+ */
+public class HitCountEstimate {
+
+	protected static final Logger logger = Logger.getLogger(HitCountEstimate.class);
+
+	/** Default number of blocks to divide the documents into */
+	public static final int DEFAULT_NUMBER_OF_BLOCKS = 1000;
+
+	/** z-value for a 95% confidence interval */
+	private static final double Z_95 = 1.96;
+
+	/** Number of blocks counted at a time by the background thread */
+	private static final int BLOCKS_PER_REFINE_STEP = 10;
+
+	/** A range of documents in a segment */
+	private static class Block {
+		/** Index of the segment */
+		int segment;
+
+		/** First document (segment-relative) */
+		int start;
+
+		/** One past the last document (segment-relative) */
+		int end;
+
+		Block(int segment, int start, int end) {
+			this.segment = segment;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	/** Gets the spans for the query in each segment */
+	private HitCounter counter;
+
+	/** The segments */
+	private List<LeafReaderContext> leaves;
+
+	/** The blocks, in the (random) order we count them */
+	private List<Block> blocks;
+
+	/** Total number of documents (including deleted ones) */
+	private long totalDocs;
+
+	/** Number of blocks counted so far */
+	private int blocksCounted = 0;
+
+	/** Number of documents in the blocks counted so far */
+	private long sampleDocs = 0;
+
+	/** Number of hits in the blocks counted so far */
+	private int hitsCounted = 0;
+
+	/** Number of documents with hits in the blocks counted so far */
+	private int docsCounted = 0;
+
+	/** Per counted block: number of documents, hits and documents with hits */
+	private List<int[]> blockCounts = new ArrayList<>();
+
+	/** Makes sure only one thread counts blocks at a time */
+	private final Object refineLock = new Object();
+
+	/** The background thread refining the estimate, or null if none */
+	private Thread refineThread = null;
+
+	/** Set to stop the background thread */
+	private volatile boolean stopRefining = false;
+
+	/**
+	 * Prepare an estimate. Call refine() to count blocks.
+	 *
+	 * @param reader the index reader
+	 * @param counter gets the spans for the query
+	 * @param numberOfBlocks (approximate) number of blocks to divide the documents into
+	 * @param seed seed for choosing the blocks to count, so estimates are reproducible
+	 */
+	HitCountEstimate(IndexReader reader, HitCounter counter, int numberOfBlocks, long seed) {
+		this.counter = counter;
+		leaves = reader.leaves();
+		totalDocs = reader.maxDoc();
+		int blockSize = (int) Math.max(1, (totalDocs + numberOfBlocks - 1) / numberOfBlocks);
+		blocks = new ArrayList<>();
+		for (int i = 0; i < leaves.size(); i++) {
+			int maxDoc = leaves.get(i).reader().maxDoc();
+			for (int start = 0; start < maxDoc; start += blockSize) {
+				blocks.add(new Block(i, start, Math.min(maxDoc, start + blockSize)));
+			}
+		}
+		Collections.shuffle(blocks, new Random(seed));
+	}
+
+	/**
+	 * Count more blocks to refine the estimate.
+	 *
+	 * The blocks are counted in document order per segment, so the spans
+	 * of a segment only have to move forward.
+	 *
+	 * @param numberOfBlocks number of blocks to count
+	 */
+	public void refine(int numberOfBlocks) {
+		synchronized (refineLock) {
+			int from, to;
+			synchronized (this) {
+				from = blocksCounted;
+				to = Math.min(blocks.size(), from + numberOfBlocks);
+			}
+			if (from >= to)
+				return;
+			List<Block> batch = new ArrayList<>(blocks.subList(from, to));
+			Collections.sort(batch, new Comparator<Block>() {
+				@Override
+				public int compare(Block a, Block b) {
+					return a.segment != b.segment ? a.segment - b.segment : a.start - b.start;
+				}
+			});
+			try {
+				BLSpans spans = null;
+				int spansSegment = -1;
+				for (Block block: batch) {
+					if (block.segment != spansSegment) {
+						spansSegment = block.segment;
+						spans = counter.getSpans(leaves.get(spansSegment));
+					}
+					countBlock(spans, block);
+				}
+			} catch (IOException e) {
+				throw ExUtil.wrapRuntimeException(e);
+			}
+		}
+	}
+
+	/**
+	 * Count more blocks until at least the specified fraction of the blocks is counted.
+	 *
+	 * @param fractionToCount fraction of the blocks to count (0-1)
+	 */
+	public void refineTo(double fractionToCount) {
+		int target = (int) Math.ceil(fractionToCount * blocks.size());
+		int n;
+		synchronized (this) {
+			n = target - blocksCounted;
+		}
+		if (n > 0)
+			refine(n);
+	}
+
+	/**
+	 * Count the hits in a block and add them to the sample.
+	 *
+	 * @param spans the spans for the block's segment, positioned before the block (or null if no hits)
+	 * @param block the block
+	 * @throws IOException
+	 */
+	private void countBlock(BLSpans spans, Block block) throws IOException {
+		int hits = 0, docs = 0;
+		if (spans != null) {
+			int doc = spans.docID();
+			if (doc < block.start)
+				doc = spans.advance(block.start);
+			while (doc < block.end) {
+				int n = 0;
+				while (spans.nextStartPosition() != Spans.NO_MORE_POSITIONS)
+					n++;
+				if (n > 0) {
+					hits += n;
+					docs++;
+				}
+				doc = spans.nextDoc();
+			}
+		}
+		int size = block.end - block.start;
+		synchronized (this) {
+			blockCounts.add(new int[] { size, hits, docs });
+			blocksCounted++;
+			sampleDocs += size;
+			hitsCounted += hits;
+			docsCounted += docs;
+		}
+	}
+
+	/**
+	 * Keep refining the estimate in a background thread until it's exact.
+	 *
+	 * Does nothing if the thread is already running.
+	 */
+	public synchronized void startRefining() {
+		if (refineThread != null && refineThread.isAlive())
+			return;
+		stopRefining = false;
+		refineThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (!stopRefining && !isExact()) {
+						refine(BLOCKS_PER_REFINE_STEP);
+					}
+				} catch (RuntimeException e) {
+					logger.error("Error while refining hit count estimate", e);
+				}
+			}
+		});
+		refineThread.setDaemon(true);
+		refineThread.start();
+	}
+
+	/**
+	 * Stop refining the estimate in the background.
+	 *
+	 * The estimate stays valid, based on the blocks counted so far.
+	 *
+	 * @param waitForThread if true, wait until the background thread has finished
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void stopRefining(boolean waitForThread) throws InterruptedException {
+		Thread t;
+		synchronized (this) {
+			stopRefining = true;
+			t = refineThread;
+		}
+		if (waitForThread && t != null)
+			t.join();
+	}
+
+	/**
+	 * Is a background thread refining the estimate?
+	 * @return true if it is
+	 */
+	public synchronized boolean isRefining() {
+		return refineThread != null && refineThread.isAlive();
+	}
+
+	/**
+	 * Have all blocks been counted, so the estimate is exact?
+	 * @return true if the estimate is exact
+	 */
+	public synchronized boolean isExact() {
+		return blocksCounted == blocks.size();
+	}
+
+	/**
+	 * Get the fraction of the documents that were counted.
+	 * @return the fraction counted (0-1)
+	 */
+	public synchronized double getFractionCounted() {
+		return totalDocs == 0 ? 1 : (double) sampleDocs / totalDocs;
+	}
+
+	/**
+	 * Return the number of hits counted in the sample so far.
+	 * @return the number of hits counted
+	 */
+	public synchronized int countSoFarHitsCounted() {
+		return hitsCounted;
+	}
+
+	/**
+	 * Return the number of documents with hits counted in the sample so far.
+	 * @return the number of documents counted
+	 */
+	public synchronized int countSoFarDocsCounted() {
+		return docsCounted;
+	}
+
+	/**
+	 * Return the estimated total number of hits.
+	 * @return the estimated number of hits
+	 */
+	public synchronized long estimatedTotalSize() {
+		return Math.round(estimate(hitsCounted));
+	}
+
+	/**
+	 * Return the estimated total number of documents with hits.
+	 * @return the estimated number of documents
+	 */
+	public synchronized long estimatedTotalNumberOfDocs() {
+		return Math.round(estimate(docsCounted));
+	}
+
+	/**
+	 * Return the margin of error (half the width of the 95% confidence interval)
+	 * of the estimated number of hits.
+	 * @return the margin of error
+	 */
+	public synchronized double marginOfErrorHits() {
+		return marginOfError(1);
+	}
+
+	/**
+	 * Return the margin of error (half the width of the 95% confidence interval)
+	 * of the estimated number of documents.
+	 * @return the margin of error
+	 */
+	public synchronized double marginOfErrorDocs() {
+		return marginOfError(2);
+	}
+
+	/**
+	 * Estimate a total using the ratio to the number of documents in the sample.
+	 *
+	 * @param sampleTotal the total in the sample
+	 * @return the estimated total
+	 */
+	private double estimate(long sampleTotal) {
+		if (sampleDocs == 0)
+			return 0;
+		return (double) sampleTotal * totalDocs / sampleDocs;
+	}
+
+	/**
+	 * Calculate the margin of error of a ratio estimate.
+	 *
+	 * @param index which per-block count to use (1 = hits, 2 = documents)
+	 * @return the margin of error
+	 */
+	private double marginOfError(int index) {
+		int n = blocksCounted;
+		int nBlocks = blocks.size();
+		if (n == nBlocks)
+			return 0; // exact
+		if (n < 2)
+			return Double.POSITIVE_INFINITY;
+		long sampleTotal = index == 1 ? hitsCounted : docsCounted;
+		double ratio = (double) sampleTotal / sampleDocs;
+		double sumSquares = 0;
+		for (int[] counts: blockCounts) {
+			double residual = counts[index] - ratio * counts[0];
+			sumSquares += residual * residual;
+		}
+		double variance = (double) nBlocks * nBlocks * (1.0 - (double) n / nBlocks) * sumSquares / (n - 1) / n;
+		return Z_95 * Math.sqrt(variance);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "HitCountEstimate(" + estimatedTotalSize() + " +/- " + Math.round(marginOfErrorHits()) + " hits, "
+				+ estimatedTotalNumberOfDocs() + " +/- " + Math.round(marginOfErrorDocs()) + " docs, "
+				+ blocksCounted + "/" + blocks.size() + " blocks counted)";
+	}
+
+}
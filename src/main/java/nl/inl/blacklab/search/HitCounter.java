@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.inl.blacklab.search.lucene.BLSpans;
+import nl.inl.blacklab.search.lucene.BLSpansWrapper;
+import nl.inl.util.ExUtil;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.Spans;
+
+/**
+ * Counts the hits and documents matching a query, without retrieving them.
+ *
+ * Unlike Hits, no Hit objects are created: the spans of each segment are
+ * iterated and only the counters are incremented. Segments may be counted in
+ * parallel.
+ */
+class HitCounter {
+
+	/** The index reader */
+	private IndexReader reader;
+
+	/** The (rewritten) query */
+	private SpanQuery spanQuery;
+
+	/** Term contexts for the terms in the query */
+	private Map<Term, TermContext> termContexts;
+
+	/** Number of hits counted so far */
+	private AtomicInteger hitsCounted = new AtomicInteger();
+
+	/** Number of documents counted so far */
+	private AtomicInteger docsCounted = new AtomicInteger();
+
+	/** Did we find more hits than the maximum? */
+	private volatile boolean maxHitsCounted = false;
+
+	/** Set when the segment counters should stop (maximum reached, interrupted or failed) */
+	private AtomicBoolean stop = new AtomicBoolean(false);
+
+	/**
+	 * Prepare to count the hits of a query.
+	 *
+	 * @param reader the index reader
+	 * @param sourceQuery the query
+	 */
+	HitCounter(IndexReader reader, SpanQuery sourceQuery) {
+		this.reader = reader;
+		try {
+			spanQuery = (SpanQuery) sourceQuery.rewrite(reader);
+			termContexts = new HashMap<>();
+			Set<Term> terms = new HashSet<>();
+			Hits.extractTerms(spanQuery, terms);
+			for (Term term: terms) {
+				termContexts.put(term, TermContext.build(reader.getContext(), term));
+			}
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Get the spans for the query in a segment.
+	 *
+	 * @param context the segment
+	 * @return the spans (sorted and unique, like Hits), or null if there are no hits
+	 * @throws IOException
+	 */
+	BLSpans getSpans(LeafReaderContext context) throws IOException {
+		return BLSpansWrapper.optWrapSortUniq(spanQuery.getSpans(context,
+				context.reader().getLiveDocs(), termContexts));
+	}
+
+	/**
+	 * Count the hits.
+	 *
+	 * If the thread is interrupted, we stop counting and return the count so far.
+	 *
+	 * @param maxHitsToCount the maximum number of hits to count, or -1 for no limit
+	 * @param pool the pool to count the segments in, or null to count them in this thread
+	 * @return the count
+	 */
+	HitCount count(final int maxHitsToCount, ForkJoinPool pool) {
+		List<LeafReaderContext> leaves = reader.leaves();
+		try {
+			if (pool == null || leaves.size() <= 1) {
+				for (LeafReaderContext context: leaves) {
+					if (Thread.currentThread().isInterrupted())
+						break;
+					countSegment(context, maxHitsToCount);
+				}
+			} else {
+				List<Future<Void>> results = new ArrayList<>();
+				for (final LeafReaderContext context: leaves) {
+					results.add(pool.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws IOException {
+							countSegment(context, maxHitsToCount);
+							return null;
+						}
+					}));
+				}
+				for (Future<Void> result: results) {
+					result.get();
+				}
+			}
+		} catch (InterruptedException e) {
+			// Stop counting and return what we have
+			stop.set(true);
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Make the other segments stop counting too
+			stop.set(true);
+			throw ExUtil.wrapRuntimeException(e.getCause());
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+
+		// (when counting in parallel, we may have counted a few too many)
+		int hits = hitsCounted.get();
+		if (maxHitsToCount >= 0 && hits > maxHitsToCount) {
+			hits = maxHitsToCount;
+			maxHitsCounted = true;
+		}
+		return new HitCount(hits, docsCounted.get(), maxHitsCounted);
+	}
+
+	/**
+	 * Count the hits in a segment, adding them to the totals.
+	 *
+	 * The totals are updated after each document, so the maximum number of hits
+	 * to count is respected across segments (exactly when counting sequentially,
+	 * approximately when counting in parallel).
+	 *
+	 * @param context the segment
+	 * @param maxHitsToCount the maximum number of hits to count, or -1 for no limit
+	 * @throws IOException
+	 */
+	private void countSegment(LeafReaderContext context, int maxHitsToCount) throws IOException {
+		if (stop.get())
+			return;
+		BLSpans spans = getSpans(context);
+		if (spans == null)
+			return;
+		Thread thread = Thread.currentThread();
+		while (spans.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+			if (stop.get() || thread.isInterrupted())
+				return;
+			int limit = maxHitsToCount < 0 ? Integer.MAX_VALUE : maxHitsToCount - hitsCounted.get();
+			int n = 0;
+			while (spans.nextStartPosition() != Spans.NO_MORE_POSITIONS) {
+				if (n >= limit) {
+					// There are more hits than we want to count
+					maxHitsCounted = true;
+					stop.set(true);
+					break;
+				}
+				n++;
+			}
+			if (n > 0) {
+				hitsCounted.addAndGet(n);
+				docsCounted.incrementAndGet();
+			}
+		}
+	}
+
+}
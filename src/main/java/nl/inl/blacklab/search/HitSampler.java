@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import nl.inl.blacklab.search.lucene.BLSpans;
+import nl.inl.util.ExUtil;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.spans.Spans;
+
+/**
+ * Takes a uniform random sample of the hits of a query, without retrieving
+ * all hits.
+ *
+ * Uses reservoir sampling while iterating over the spans of each segment, so
+ * only the sample is kept in memory. Optionally, documents can be pre-sampled:
+ * the hits in documents that are skipped are never visited, which is faster but
+ * makes the sample clustered by document.
+ */
+class HitSampler {
+
+	/** The index reader */
+	private IndexReader reader;
+
+	/** Gets the spans for the query in each segment */
+	private HitCounter counter;
+
+	/** Our random number generator */
+	private Random random;
+
+	/** The sample */
+	private List<Hit> reservoir;
+
+	/** Number of hits we want in the sample */
+	private int sampleSize;
+
+	/** Number of hits seen so far */
+	private long hitsSeen = 0;
+
+	/**
+	 * Prepare to sample the hits of a query.
+	 *
+	 * @param reader the index reader
+	 * @param counter gets the spans for the query
+	 * @param sampleSize number of hits we want in the sample
+	 * @param seed seed for the random number generator, so samples are reproducible
+	 */
+	HitSampler(IndexReader reader, HitCounter counter, int sampleSize, long seed) {
+		this.reader = reader;
+		this.counter = counter;
+		this.sampleSize = sampleSize;
+		random = new Random(seed);
+		reservoir = new ArrayList<>(Math.min(sampleSize, 10000));
+	}
+
+	/**
+	 * Take the sample.
+	 *
+	 * @param docSamplingRate probability of visiting each document with hits (1.0 for a
+	 *   uniform sample of all hits)
+	 * @return the sampled hits, sorted
+	 */
+	List<Hit> sample(double docSamplingRate) {
+		try {
+			for (LeafReaderContext context: reader.leaves()) {
+				BLSpans spans = counter.getSpans(context);
+				if (spans == null)
+					continue;
+				while (spans.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+					if (docSamplingRate < 1.0 && random.nextDouble() >= docSamplingRate)
+						continue; // skip this document
+					int doc = context.docBase + spans.docID();
+					while (spans.nextStartPosition() != Spans.NO_MORE_POSITIONS) {
+						offer(doc, spans);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+		Collections.sort(reservoir);
+		return reservoir;
+	}
+
+	/**
+	 * Offer a hit to the reservoir (Vitter's algorithm R).
+	 *
+	 * @param doc global document id
+	 * @param spans spans positioned at the hit
+	 */
+	private void offer(int doc, BLSpans spans) {
+		hitsSeen++;
+		if (reservoir.size() < sampleSize) {
+			reservoir.add(new Hit(doc, spans.startPosition(), spans.endPosition()));
+		} else {
+			long i = (long) (random.nextDouble() * hitsSeen);
+			if (i < sampleSize)
+				reservoir.set((int) i, new Hit(doc, spans.startPosition(), spans.endPosition()));
+		}
+	}
+
+}
@@ -15,6 +15,8 @@
  *******************************************************************************/
 package nl.inl.blacklab.search;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.AbstractList;
@@ -30,6 +32,7 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 import nl.inl.blacklab.forwardindex.ForwardIndex;
 import nl.inl.blacklab.forwardindex.Terms;
@@ -37,12 +40,15 @@ import nl.inl.blacklab.highlight.XmlHighlighter;
 import nl.inl.blacklab.index.complex.ComplexFieldUtil;
 import nl.inl.blacklab.perdocument.DocResults;
 import nl.inl.blacklab.search.grouping.HitGroups;
+import nl.inl.blacklab.search.grouping.HitPropValue;
 import nl.inl.blacklab.search.grouping.HitProperty;
 import nl.inl.blacklab.search.grouping.HitPropertyMultiple;
 import nl.inl.blacklab.search.grouping.ResultsGrouper;
 import nl.inl.blacklab.search.lucene.BLSpans;
 import nl.inl.blacklab.search.lucene.BLSpansWrapper;
 import nl.inl.blacklab.search.lucene.HitQueryContext;
+import nl.inl.util.Metrics;
+import nl.inl.util.ParallelSort;
 import nl.inl.util.StringUtil;
 import nl.inl.util.ThreadPriority;
 
@@ -61,7 +67,7 @@ import org.apache.lucene.util.Bits;
  * Represents a list of Hit objects. Also maintains information about the context (concordance)
  * information stored in the Hit objects.
  */
-public class Hits extends AbstractList<Hit> {
+public class Hits extends AbstractList<Hit> implements MemoryConsumer, Closeable {
 
 	protected static final Logger logger = Logger.getLogger(Hits.class);
 
@@ -93,7 +99,32 @@ public class Hits extends AbstractList<Hit> {
 	/**
 	 * The sort order, if we've sorted, or null if not
 	 */
-	Integer[] sortOrder;
+	int[] sortOrder;
+
+	/**
+	 * Pool used for sorting large sets of hits in parallel
+	 * (null = use ParallelSort's default pool).
+	 */
+	private static ForkJoinPool sortThreadPool = null;
+
+	/** How often (in hits) we check the memory budget, if we have one */
+	private static final int MEMORY_CHECK_INTERVAL = 1000;
+
+	/** How often (in hits) we check the deadline, if we have one */
+	private static final int DEADLINE_CHECK_INTERVAL = 100;
+
+	/** How many hits we read at most before we let our thread pause or yield (see readHits()) */
+	private static final int BEHAVE_INTERVAL = 100;
+
+	/** Why readHits() stopped */
+	private enum ReadResult {
+		/** we have the number of hits asked for, or can't read more */
+		DONE,
+		/** we should behave before reading more */
+		BEHAVE,
+		/** we're using too much memory */
+		OVER_BUDGET
+	}
 
 	/** In context arrays, how many bookkeeping ints are stored at the start? */
 	public static final int CONTEXTS_NUMBER_OF_BOOKKEEPING_INTS = 3;
@@ -262,8 +293,185 @@ public class Hits extends AbstractList<Hit> {
 	/** To keep track of captured groups, etc. */
 	private HitQueryContext hitQueryContext;
 
+	/**
+	 * Directory for temporary files in spill mode (i.e. if our hits
+	 * are kept in a SpillingHitList), or null if not set.
+	 */
+	private File spillDirectory = null;
+
+	/** Has close() been called? */
+	private boolean closed = false;
+
+	/** If this is a client's copy of cached hits: the cache entry (see SearchCache) */
+	SearchCache.Entry searchCacheEntry = null;
+
+	/** If this is a client's copy of cached hits: the hits we read ours from (see copyForClient()) */
+	private Hits readThrough = null;
+
+	/**
+	 * Do we share our hits list with the Hits object we were copied from?
+	 * If so, that object accounts for its memory usage (see estimatedMemoryUsage()).
+	 */
+	private boolean hitsShared = false;
+
+	/** Do we share our KWICs with the Hits object we were copied from? (like hitsShared) */
+	private boolean kwicsShared = false;
+
 	private ThreadPriority etiquette;
 
+	/** Deadline / cancellation token for operations on these hits, or null if none */
+	private QueryDeadline deadline = null;
+
+	/** Did the deadline expire (or was the query cancelled) before all hits were retrieved? */
+	private boolean deadlineExpired = false;
+
+	/** Was the last operation on the hits (sorting, finding context, etc.) cut off by the deadline? */
+	private boolean lastOperationCutOff = false;
+
+	/**
+	 * Set a deadline for operations on these hits.
+	 *
+	 * Retrieving hits stops soon after the deadline expires or the query is
+	 * cancelled. The hits we have are then all we get (see deadlineExpired()).
+	 * Operations on them (finding context, sorting, grouping, making concordances)
+	 * are not limited by the deadline in that case: the number of hits is already
+	 * limited, and clients should be able to show the partial results.
+	 *
+	 * If all hits were retrieved in time, these operations stop soon after the
+	 * deadline expires instead, leaving the hits unsorted, groups partial, etc.
+	 * (see lastOperationCutOff() and HitGroups.isPartial()).
+	 *
+	 * @param deadline the deadline, or null for none (the default)
+	 */
+	public void setDeadline(QueryDeadline deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Get the deadline for operations on these hits.
+	 * @return the deadline, or null if none
+	 */
+	public QueryDeadline getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Did we stop retrieving hits because the deadline expired or the query was cancelled?
+	 * @return true if the hits are partial because of the deadline
+	 */
+	public boolean deadlineExpired() {
+		return deadlineExpired;
+	}
+
+	/**
+	 * Was the last sort, context or concordance operation cut off by the deadline?
+	 *
+	 * Only happens if all hits were retrieved before the deadline (see setDeadline()).
+	 * A sort that was cut off leaves the hits in their original order.
+	 *
+	 * @return true if the last operation was cut off
+	 */
+	public boolean lastOperationCutOff() {
+		return lastOperationCutOff;
+	}
+
+	/** Memory budget for these hits, or null if none */
+	private MemoryBudget memoryBudget = null;
+
+	/** Value of hitsCounted when we last checked the memory budget */
+	private int hitsCountedAtMemoryCheck = -1;
+
+	/** Did we stop retrieving hits because the memory budget was exceeded? */
+	private boolean memoryBudgetExceeded = false;
+
+	/**
+	 * Set the memory budget for these hits.
+	 *
+	 * The estimated memory used by this object is counted against the budget.
+	 * If the budget is exceeded while retrieving hits, and releasing cached
+	 * data doesn't help, we stop retrieving hits (see memoryBudgetExceeded()).
+	 *
+	 * By default, the budget is taken from the Searcher (see
+	 * Searcher.setMemoryBudget() and Searcher.setMaxQueryMemoryUsage()).
+	 *
+	 * @param memoryBudget the budget, or null for none
+	 */
+	public void setMemoryBudget(MemoryBudget memoryBudget) {
+		if (this.memoryBudget != null)
+			this.memoryBudget.unregister(this);
+		this.memoryBudget = memoryBudget;
+		if (memoryBudget != null)
+			memoryBudget.register(this, describeQuery());
+	}
+
+	/**
+	 * Describe the query these hits came from, for the memory usage report.
+	 * @return the description
+	 */
+	private String describeQuery() {
+		return spanQuery == null ? "Hits" : spanQuery.toString();
+	}
+
+	/**
+	 * Get the memory budget for these hits.
+	 * @return the budget, or null if none
+	 */
+	public MemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Did we stop retrieving hits because the memory budget was exceeded?
+	 * @return true if not all hits were retrieved because of the memory budget
+	 */
+	public boolean memoryBudgetExceeded() {
+		return memoryBudgetExceeded;
+	}
+
+	/**
+	 * Release the cached contexts, KWICs and concordances.
+	 *
+	 * They will be recalculated if needed. Called by the memory budget when
+	 * it's exceeded.
+	 */
+	@Override
+	public synchronized void releaseCachedMemory() {
+		contexts = null;
+		contextFieldsPropName = null;
+		currentContextSize = -1;
+		concordances = null;
+		kwics = null;
+	}
+
+	/**
+	 * Check the deadline while retrieving hits, if we have one.
+	 * @return true if the deadline has expired
+	 */
+	private boolean checkDeadline() {
+		if (!deadlineExpired && deadline != null && deadline.hasExpired())
+			deadlineExpired = true;
+		return deadlineExpired;
+	}
+
+	/**
+	 * Get the deadline for operations on the retrieved hits (see setDeadline()).
+	 * @return the deadline, or null if operations shouldn't be limited
+	 */
+	private QueryDeadline operationDeadline() {
+		return deadlineExpired ? null : deadline;
+	}
+
+	/**
+	 * Check the deadline during an operation on the retrieved hits.
+	 * @return true if the operation should stop
+	 */
+	private boolean checkOperationDeadline() {
+		QueryDeadline d = operationDeadline();
+		if (d != null && d.hasExpired())
+			lastOperationCutOff = true;
+		return lastOperationCutOff;
+	}
+
 	/**
 	 * Set the thread priority level for this Hits object.
 	 *
@@ -295,25 +503,74 @@ public class Hits extends AbstractList<Hit> {
 	 * @param copyFrom the Hits object to copy
 	 */
 	public Hits(Hits copyFrom) {
-		try {
-			copyFrom.ensureAllHitsRead();
-		} catch (InterruptedException e) {
-			// (should be detected by the client)
+		this(copyFrom, true);
+	}
+
+	/**
+	 * Construct a Hits object from an existing Hits object.
+	 *
+	 * @param copyFrom the Hits object to copy
+	 * @param readAll if true, read all hits and reuse the hits list; if false,
+	 *   read hits from copyFrom as they're needed (see copyForClient())
+	 */
+	private Hits(Hits copyFrom, boolean readAll) {
+		if (readAll) {
+			try {
+				copyFrom.ensureAllHitsRead();
+			} catch (InterruptedException e) {
+				// (should be detected by the client)
+			}
+			hits = copyFrom.hits;
+			if (hits instanceof SpillingHitList)
+				((SpillingHitList) hits).retain(); // we share the spill file; see close()
+			kwics = copyFrom.kwics;
+			hitsShared = true;
+			kwicsShared = kwics != null;
+			sourceSpansFullyRead = true; //copyFrom.sourceSpansFullyRead;
+			//sourceSpans = copyFrom.sourceSpans;
+			hitsCounted = copyFrom.hitsCounted;
+			docsRetrieved = copyFrom.docsRetrieved;
+			docsCounted = copyFrom.docsCounted;
+			previousHitDoc = copyFrom.previousHitDoc;
+			deadlineExpired = copyFrom.deadlineExpired;
+			memoryBudgetExceeded = copyFrom.memoryBudgetExceeded;
+		} else {
+			readThrough = copyFrom;
+			hits = new ArrayList<>();
+			sourceSpansFullyRead = false;
 		}
-		hits = copyFrom.hits;
-		kwics = copyFrom.kwics;
-		sourceSpansFullyRead = true; //copyFrom.sourceSpansFullyRead;
-		//sourceSpans = copyFrom.sourceSpans;
-		hitsCounted = copyFrom.hitsCounted;
-		docsRetrieved = copyFrom.docsRetrieved;
-		docsCounted = copyFrom.docsCounted;
-		previousHitDoc = copyFrom.previousHitDoc;
 
 		searcher = copyFrom.searcher;
 		copySettingsFrom(copyFrom);
+		if (readThrough != null)
+			copyReadThroughHits();
 
 		currentContextSize = -1; // context is not copied
 		etiquette = new ThreadPriority();
+		memoryBudget = copyFrom.memoryBudget;
+		if (memoryBudget != null)
+			memoryBudget.register(this, "Copy of " + copyFrom.describeQuery());
+	}
+
+	/**
+	 * Make a copy of shared hits (e.g. from the search cache) for a client.
+	 *
+	 * Like the copy constructor, but keeps the sort order, so the client can
+	 * change settings, sort, etc. without affecting others. The hits aren't read
+	 * all at once: the copy reads them from this object as needed, honouring its
+	 * own deadline, so clients can still page through the first hits quickly.
+	 *
+	 * @return the copy
+	 */
+	Hits copyForClient() {
+		// Don't read the hits now; the client may only need the first few (and has
+		// its own deadline). Spilled hits are shared, as they don't fit in memory.
+		Hits copy = new Hits(this, isSpilling());
+		synchronized (this) {
+			if (sortOrder != null)
+				copy.sortOrder = sortOrder.clone();
+		}
+		return copy;
 	}
 
 	public void copySettingsFrom(Hits copyFrom) {
@@ -322,12 +579,14 @@ public class Hits extends AbstractList<Hit> {
 		maxHitsToCount = copyFrom.maxHitsToCount;
 		maxHitsRetrieved = copyFrom.maxHitsRetrieved;
 		maxHitsCounted = copyFrom.maxHitsCounted;
+		deadline = copyFrom.deadline;
 		desiredContextSize = copyFrom.desiredContextSize;
 		concWordFI = copyFrom.concWordFI;
 		concPunctFI = copyFrom.concPunctFI;
 		concAttrFI = copyFrom.concAttrFI;
 		concsType = copyFrom.concsType;
 		hitQueryContext = copyFrom.hitQueryContext;
+		spillDirectory = copyFrom.spillDirectory;
 	}
 
 	/**
@@ -469,7 +728,7 @@ public class Hits extends AbstractList<Hit> {
 			spanQuery = (SpanQuery) sourceQuery.rewrite(reader);
 			termContexts = new HashMap<>();
 			Set<Term> terms = new HashSet<>();
-			extractTermsFromSpanQuery(terms);
+			extractTerms(spanQuery, terms);
 			etiquette = new ThreadPriority();
 			for (Term term: terms) {
 				try {
@@ -488,6 +747,12 @@ public class Hits extends AbstractList<Hit> {
 			atomicReaderContexts = reader == null ? null : reader.leaves();
 			atomicReaderContextIndex = -1;
 			hitQueryContext = new HitQueryContext(); // to keep track of captured groups, etc.
+			if (searcher != null) {
+				if (searcher.getMaxQueryMemoryUsage() >= 0)
+					setMemoryBudget(new MemoryBudget(searcher.getMaxQueryMemoryUsage(), searcher.getMemoryBudget()));
+				else
+					setMemoryBudget(searcher.getMemoryBudget());
+			}
 			//sourceSpans = BLSpansWrapper.optWrap(spanQuery.getSpans(srw != null ? srw.getContext() : null, srw != null ? srw.getLiveDocs() : null, termContexts));
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -496,7 +761,13 @@ public class Hits extends AbstractList<Hit> {
 		sourceSpansFullyRead = false;
 	}
 
-	private void extractTermsFromSpanQuery(Set<Term> terms) {
+	/**
+	 * Extract the terms from a (rewritten) span query.
+	 *
+	 * @param spanQuery the query
+	 * @param terms the set to add the terms to
+	 */
+	static void extractTerms(SpanQuery spanQuery, Set<Term> terms) {
 		try {
 			// FIXME: temporary extractTerms hack
 			Method methodExtractTerms = SpanQuery.class.getDeclaredMethod("extractTerms", Set.class);
@@ -608,16 +879,139 @@ public class Hits extends AbstractList<Hit> {
 	 * @throws InterruptedException if the thread was interrupted during this operation
 	 */
 	void ensureHitsRead(int number) throws InterruptedException {
-		if (sourceSpansFullyRead || (number >= 0 && hits.size() >= number))
+		ensureHitsRead(number, !Thread.holdsLock(this));
+	}
+
+	/**
+	 * Ensure that we have read at least as many hits as specified in the parameter.
+	 *
+	 * @param number the minimum number of hits that will have been read when this method
+	 *   returns (unless there are fewer hits than this); if negative, reads all hits
+	 * @param mayReclaim if false, our caller holds a consumer lock, so we may only
+	 *   release our own cached memory if we use too much (see MemoryBudget.reclaim()),
+	 *   and we shouldn't pause or yield
+	 * @throws InterruptedException if the thread was interrupted during this operation
+	 */
+	private void ensureHitsRead(int number, boolean mayReclaim) throws InterruptedException {
+		if (readThrough != null) {
+			readThroughHits(number);
 			return;
+		}
+		// Don't pause or yield if we or our caller hold a consumer's lock: other tasks
+		// (e.g. the one we'd yield to) may need it to make progress
+		boolean mayWait = mayReclaim && !Thread.holdsLock(this);
+		while (!sourceSpansFullyRead && (number < 0 || hits.size() < number)) {
+			// Don't hog the CPU, don't take too long
+			etiquette.behave(mayWait);
+
+			ReadResult result = readHits(number);
+			if (result == ReadResult.DONE)
+				return;
+			if (result == ReadResult.BEHAVE)
+				continue;
+
+			// We're using too much memory. Try to reclaim some, without holding our lock:
+			// releasing other consumers' caches takes their locks, and their owners may be
+			// reclaiming memory themselves, waiting for ours.
+			boolean withinBudget;
+			if (!mayReclaim) {
+				// Our caller holds a consumer's lock, so we can't safely release other
+				// consumers' caches. Just release our own.
+				releaseCachedMemory();
+				withinBudget = !memoryBudget.isExceeded();
+			} else {
+				withinBudget = memoryBudget.reclaim();
+			}
+			if (!withinBudget) {
+				// Can't free any memory; stop retrieving hits
+				synchronized (this) {
+					memoryBudgetExceeded = true;
+					sourceSpansFullyRead = true;
+					currentSourceSpans = null;
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Read hits from the Hits object we're a client's copy of (see copyForClient()).
+	 *
+	 * Reads in chunks, so we can check our own deadline in between.
+	 *
+	 * @param number the minimum number of hits to read, or negative for all hits
+	 * @throws InterruptedException if the thread was interrupted during this operation
+	 */
+	private void readThroughHits(int number) throws InterruptedException {
+		while (!sourceSpansFullyRead && (number < 0 || hits.size() < number)) {
+			synchronized (this) {
+				if (deadline != null && checkDeadline()) {
+					sourceSpansFullyRead = true;
+					return;
+				}
+			}
+			int before = hits.size();
+			int target = before + DEADLINE_CHECK_INTERVAL;
+			readThrough.ensureHitsRead(number < 0 ? target : Math.min(number, target), !Thread.holdsLock(this));
+			if (copyReadThroughHits() == before)
+				return; // no more hits (e.g. we've counted the maximum)
+		}
+	}
 
+	/**
+	 * Copy the hits and counts read so far from the Hits object we're a
+	 * client's copy of.
+	 *
+	 * @return the number of hits we have now
+	 */
+	private int copyReadThroughHits() {
 		synchronized (this) {
+			synchronized (readThrough) {
+				List<Hit> source = readThrough.hits;
+				for (int i = hits.size(); i < source.size(); i++) {
+					hits.add(source.get(i));
+				}
+				hitsCounted = readThrough.hitsCounted;
+				docsRetrieved = readThrough.docsRetrieved;
+				docsCounted = readThrough.docsCounted;
+				previousHitDoc = readThrough.previousHitDoc;
+				maxHitsRetrieved = readThrough.maxHitsRetrieved;
+				maxHitsCounted = readThrough.maxHitsCounted;
+				memoryBudgetExceeded = readThrough.memoryBudgetExceeded;
+				if (readThrough.sourceSpansFullyRead) {
+					sourceSpansFullyRead = true;
+					deadlineExpired |= readThrough.deadlineExpired;
+				}
+				return hits.size();
+			}
+		}
+	}
+
+	/**
+	 * Read hits until we have the number specified, until we should check
+	 * our memory budget, or until we should let our thread pause or yield.
+	 *
+	 * The latter is done by our caller, as we hold our lock here.
+	 *
+	 * @param number the minimum number of hits to read, or negative for all hits
+	 * @return why we stopped
+	 */
+	private ReadResult readHits(int number) {
+		synchronized (this) {
+			long startNanos = System.nanoTime();
+			int hitsBefore = hits.size();
 			boolean readAllHits = number < 0;
+			int hitsReadNow = 0;
+			int hitsLooked = 0;
+			ReadResult result = ReadResult.DONE;
 			try {
 				while (readAllHits || hits.size() < number) {
 
-					// Don't hog the CPU, don't take too long
-					etiquette.behave();
+					// Let our caller pause or yield now and then
+					if (hitsLooked++ == BEHAVE_INTERVAL) {
+						result = ReadResult.BEHAVE;
+						break;
+					}
 
 					// Stop if we're at the maximum number of hits we want to count
 					if (maxHitsToCount >= 0 && hitsCounted >= maxHitsToCount) {
@@ -625,6 +1019,24 @@ public class Hits extends AbstractList<Hit> {
 						break;
 					}
 
+					// Stop if we're using too much memory (checked now and then; our caller tries
+					// to reclaim some)
+					if (memoryBudget != null && hitsCounted > 0 && hitsCounted % MEMORY_CHECK_INTERVAL == 0
+							&& hitsCounted != hitsCountedAtMemoryCheck) {
+						hitsCountedAtMemoryCheck = hitsCounted;
+						if (memoryBudget.isExceeded()) {
+							result = ReadResult.OVER_BUDGET;
+							break;
+						}
+					}
+
+					// Stop if our time is up (checked at the start and now and then; the spans check it too)
+					if (deadline != null && hitsReadNow++ % DEADLINE_CHECK_INTERVAL == 0 && checkDeadline()) {
+						sourceSpansFullyRead = true;
+						currentSourceSpans = null;
+						break;
+					}
+
 					// Get the next hit from the spans, moving to the next
 					// segment when necessary.
 					while (true) {
@@ -634,26 +1046,28 @@ public class Hits extends AbstractList<Hit> {
 							if (spanQuery == null) {
 								// We started from a Spans, not a SpanQuery. We're done now.
 								// (only used in deprecated methods or while testing)
-								return;
+								return ReadResult.DONE;
 							}
 
 							atomicReaderContextIndex++;
 							if (atomicReaderContexts != null && atomicReaderContextIndex >= atomicReaderContexts.size()) {
 								sourceSpansFullyRead = true;
-								return;
+								return ReadResult.DONE;
 							}
 							if (atomicReaderContexts != null) {
 								// Get the atomic reader context and get the next Spans from it.
 								LeafReaderContext context = atomicReaderContexts.get(atomicReaderContextIndex);
 								currentDocBase = context.docBase;
 								Bits liveDocs = context.reader().getLiveDocs();
+								if (deadline != null)
+									liveDocs = deadline.acceptDocs(liveDocs, context.reader().maxDoc());
 								currentSourceSpans = BLSpansWrapper.optWrapSortUniq(spanQuery.getSpans(context, liveDocs, termContexts));
 							} else {
 								// TESTING
 								currentDocBase = 0;
 								if (atomicReaderContextIndex > 0) {
 									sourceSpansFullyRead = true;
-									return;
+									return ReadResult.DONE;
 								}
 								currentSourceSpans = BLSpansWrapper.optWrapSortUniq(spanQuery.getSpans(null, null, termContexts));
 							}
@@ -718,9 +1132,17 @@ public class Hits extends AbstractList<Hit> {
 						hits.add(offsetHit);
 					}
 				}
+			} catch (QueryDeadline.ExpiredException e) {
+				// Time's up; keep the hits we have
+				deadlineExpired = true;
+				sourceSpansFullyRead = true;
+				currentSourceSpans = null;
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
+			Metrics.time("hits.read", startNanos);
+			Metrics.counter("hits.retrieved").inc(hits.size() - hitsBefore);
+			return result;
 		}
 	}
 
@@ -822,33 +1244,77 @@ public class Hits extends AbstractList<Hit> {
 			return;
 		}
 
+		lastOperationCutOff = false;
+
 		// Make sure we have a sort order array of sufficient size
 		if (sortOrder == null || sortOrder.length < hits.size()) {
-			sortOrder = new Integer[hits.size()];
+			sortOrder = new int[hits.size()];
 		}
 		// Fill the array with the original hit order (0, 1, 2, ...)
 		int n = hits.size();
 		for (int i = 0; i < n; i++)
 			sortOrder[i] = i;
 
+		if (isSpilling() && n > HitsExternalSort.DEFAULT_RUN_SIZE) {
+			// Too many hits to sort in memory; sort runs of hits and merge them.
+			long startNanos = System.nanoTime();
+			int[] externalOrder = new HitsExternalSort(this, hits, sortProp, spillDirectory, HitsExternalSort.DEFAULT_RUN_SIZE).sortOrder();
+			System.arraycopy(externalOrder, 0, sortOrder, 0, n);
+			if (reverseSort)
+				reverseSortOrder(n);
+			Metrics.time("hits.sort.external", startNanos);
+			return;
+		}
+
 		// Do we need context and don't we have it yet?
 		List<String> requiredContext = sortProp.needsContext();
 		if (requiredContext != null
 				&& (!requiredContext.equals(contextFieldsPropName) || currentContextSize != desiredContextSize)) {
 			// Get 'em
 			findContext(requiredContext);
+			if (lastOperationCutOff)
+				return; // no time to sort; leave hits in original order
 		}
 
-		Arrays.sort(sortOrder, sortProp);
+		// Sort the permutation (in parallel if there's enough hits to make it worthwhile)
+		long startNanos = System.nanoTime();
+		Metrics.histogram("hits.sort.size").update(n);
+		QueryDeadline sortDeadline = operationDeadline();
+		if (sortDeadline == null) {
+			ParallelSort.sort(sortOrder, 0, n, sortProp, sortThreadPool);
+		} else {
+			// Sort a copy: if the deadline expires, subtasks of the parallel sort may
+			// still be running (and writing to it) when we get the exception
+			int[] sorted = Arrays.copyOf(sortOrder, n);
+			try {
+				ParallelSort.sort(sorted, 0, n, sortDeadline.comparator(sortProp), sortThreadPool);
+			} catch (QueryDeadline.ExpiredException e) {
+				// No time to finish sorting; leave hits in original order
+				lastOperationCutOff = true;
+				return;
+			}
+			System.arraycopy(sorted, 0, sortOrder, 0, n);
+		}
+		Metrics.time("hits.sort", startNanos);
 
 		if (reverseSort) {
 			// Instead of creating a new Comparator that reverses the order of the
 			// sort property (which adds an extra layer of indirection to each of the
 			// O(n log n) comparisons), just reverse the hits now (which runs
 			// in linear time).
-			for (int i = 0; i < n / 2; i++) {
-				sortOrder[i] = sortOrder[n - i - 1];
-			}
+			reverseSortOrder(n);
+		}
+	}
+
+	/**
+	 * Reverse the first n elements of the sort order.
+	 * @param n number of hits
+	 */
+	private void reverseSortOrder(int n) {
+		for (int i = 0; i < n / 2; i++) {
+			int t = sortOrder[i];
+			sortOrder[i] = sortOrder[n - i - 1];
+			sortOrder[n - i - 1] = t;
 		}
 	}
 
@@ -914,7 +1380,49 @@ public class Hits extends AbstractList<Hit> {
 	 */
 	@SuppressWarnings("deprecation") // ResultsGrouper constructor will be made package-private eventually
 	public HitGroups groupedBy(final HitProperty criteria) {
-		return new ResultsGrouper(this, criteria);
+		ResultsGrouper groups = new ResultsGrouper(this, criteria);
+		if (memoryBudget != null)
+			memoryBudget.register(groups, "Groups(" + criteria.getName() + ") of " + describeQuery());
+		return groups;
+	}
+
+	/**
+	 * Count the number of hits per value of a property.
+	 *
+	 * Unlike groupedBy(), this doesn't keep the hits in each group, only the
+	 * group sizes. In spill mode, large sets of hits are grouped using an
+	 * external sort, so the context for all the hits never has to be in memory
+	 * at the same time.
+	 *
+	 * @param criteria the hit property to group on
+	 * @return the number of hits per property value (in sorted order of the values
+	 *   in spill mode, in no particular order otherwise)
+	 */
+	public synchronized Map<HitPropValue, Integer> groupSizes(HitProperty criteria) {
+		try {
+			ensureAllHitsRead();
+		} catch (InterruptedException e) {
+			// Thread was interrupted; just group the hits we have.
+			Thread.currentThread().interrupt();
+		}
+		if (isSpilling() && hits.size() > HitsExternalSort.DEFAULT_RUN_SIZE) {
+			return new HitsExternalSort(this, hits, criteria, spillDirectory, HitsExternalSort.DEFAULT_RUN_SIZE).groupSizes();
+		}
+		List<String> requiredContext = criteria.needsContext();
+		lastOperationCutOff = false;
+		if (requiredContext != null)
+			findContext(requiredContext);
+		Map<HitPropValue, Integer> result = new HashMap<>();
+		if (lastOperationCutOff)
+			return result; // no time to find the context
+		for (int i = 0; i < hits.size(); i++) {
+			if (i % DEADLINE_CHECK_INTERVAL == 0 && checkOperationDeadline())
+				break; // just return the group sizes we have
+			HitPropValue identity = criteria.get(i);
+			Integer n = result.get(identity);
+			result.put(identity, n == null ? 1 : n + 1);
+		}
+		return result;
 	}
 
 	/**
@@ -924,7 +1432,10 @@ public class Hits extends AbstractList<Hit> {
 	 */
 	@SuppressWarnings("deprecation") // DocResults constructor will be made package-private eventually
 	public DocResults perDocResults() {
-		return new DocResults(searcher, this);
+		DocResults docResults = new DocResults(searcher, this);
+		if (memoryBudget != null)
+			memoryBudget.register(docResults, "DocResults of " + describeQuery());
+		return docResults;
 	}
 
 	/**
@@ -1266,6 +1777,7 @@ public class Hits extends AbstractList<Hit> {
 		List<Hit> oneHit = Arrays.asList(hit);
 		Hits h = new Hits(searcher, oneHit);
 		h.copySettingsFrom(this); // concordance type, etc.
+		h.deadline = null; // just one hit
 		if (concsType == ConcordanceType.FORWARD_INDEX) {
 			Map<Hit, Kwic> oneKwic = h.retrieveKwics(contextSize, fieldName);
 			return oneKwic.get(hit).toConcordance();
@@ -1290,6 +1802,7 @@ public class Hits extends AbstractList<Hit> {
 		List<Hit> oneHit = Arrays.asList(hit);
 		Hits h = new Hits(searcher, oneHit);
 		h.copySettingsFrom(this); // concordance type, etc.
+		h.deadline = null; // just one hit
 		Map<Hit, Kwic> oneConc = h.retrieveKwics(contextSize, fieldName);
 		return oneConc.get(hit);
 	}
@@ -1338,8 +1851,13 @@ public class Hits extends AbstractList<Hit> {
 			findConcordances(); // just try to find the default concordances
 		}
 		Concordance conc = concordances.get(h);
-		if (conc == null)
+		if (conc == null) {
+			if (deadline != null) {
+				// No time to make all concordances; just make this one
+				return getConcordance(concordanceFieldName, h, contextSize);
+			}
 			throw new RuntimeException("Concordance for hit not found: " + h);
+		}
 		return conc;
 	}
 
@@ -1384,8 +1902,13 @@ public class Hits extends AbstractList<Hit> {
 			findKwics(); // just try to find the default concordances
 		}
 		Kwic kwic = kwics.get(h);
-		if (kwic == null)
+		if (kwic == null) {
+			if (deadline != null) {
+				// No time to make all KWICs; just make this one
+				return getKwic(concordanceFieldName, h, contextSize);
+			}
 			throw new RuntimeException("KWIC for hit not found: " + h);
+		}
 		return kwic;
 	}
 
@@ -1414,7 +1937,10 @@ public class Hits extends AbstractList<Hit> {
 		}
 
 		// Get the concordances
+		long startNanos = System.nanoTime();
+		lastOperationCutOff = false;
 		concordances = retrieveConcordancesFromContentStore(desiredContextSize, concordanceFieldName);
+		Metrics.time("hits.concordances", startNanos);
 	}
 
 	/**
@@ -1437,7 +1963,11 @@ public class Hits extends AbstractList<Hit> {
 		}
 
 		// Get the concordances
+		long startNanos = System.nanoTime();
+		lastOperationCutOff = false;
 		kwics = retrieveKwics(desiredContextSize, concordanceFieldName);
+		kwicsShared = false;
+		Metrics.time("hits.kwics", startNanos);
 	}
 
 	/**
@@ -1501,6 +2031,8 @@ public class Hits extends AbstractList<Hit> {
 
 			Map<Hit, Kwic> conc1 = new HashMap<>();
 			for (List<Hit> l: hitsPerDocument.values()) {
+				if (checkOperationDeadline())
+					break; // time's up; we have KWICs for some of the hits
 				Hits hitsInThisDoc = new Hits(searcher, l);
 				hitsInThisDoc.copySettingsFrom(this);
 				hitsInThisDoc.makeKwicsSingleDocForwardIndex(forwardIndex, punctForwardIndex,
@@ -1527,11 +2059,13 @@ public class Hits extends AbstractList<Hit> {
 			Thread.currentThread().interrupt();
 		}
 		// Make sure we don't have the desired context already
+		lastOperationCutOff = false;
 		if (contextFieldsPropName != null && fieldProps.equals(contextFieldsPropName)
 				&& desiredContextSize == currentContextSize) {
 			return;
 		}
 
+		long startNanos = System.nanoTime();
 		List<ForwardIndex> fis = new ArrayList<>();
 		for (String fieldPropName: fieldProps) {
 			fis.add(searcher.getForwardIndex(fieldPropName));
@@ -1549,12 +2083,17 @@ public class Hits extends AbstractList<Hit> {
 			if (hit.doc != currentDoc) {
 				if (currentDoc >= 0) {
 					try {
-						etiquette.behave();
+						etiquette.behave(false); // (we hold our lock, so don't pause)
 					} catch (InterruptedException e) {
 						// Thread was interrupted. Just go ahead with the hits we did
 						// get, so at least we can return with valid context.
 						Thread.currentThread().interrupt();
 					}
+					if (checkOperationDeadline()) {
+						// Time's up; context is incomplete
+						contextFieldsPropName = null;
+						return;
+					}
 
 					findPartOfContext(hitsInSameDoc, index - hitsInSameDoc.size(), fis);
 
@@ -1571,6 +2110,7 @@ public class Hits extends AbstractList<Hit> {
 
 		currentContextSize = desiredContextSize;
 		contextFieldsPropName = new ArrayList<>(fieldProps);
+		Metrics.time("hits.findContext", startNanos);
 	}
 
 	/**
@@ -1687,6 +2227,61 @@ public class Hits extends AbstractList<Hit> {
 		return capturedGroups != null;
 	}
 
+	/** Rough estimate of the memory used per Hit object, including its list reference */
+	private static final int BYTES_PER_HIT = 40;
+
+	/** Estimated memory usage of a reference to a hit we share with another Hits object */
+	private static final int BYTES_PER_HIT_REFERENCE = 8;
+
+	/** Rough estimate of the memory used per (cached) KWIC or concordance */
+	private static final int BYTES_PER_CONCORDANCE = 1000;
+
+	/** Rough estimate of the overhead per int array (object header plus length) */
+	private static final int BYTES_PER_ARRAY = 16;
+
+	/**
+	 * Estimate how much memory this Hits object currently uses.
+	 *
+	 * This is a rough estimate, based on the number of hits retrieved and
+	 * the (cached) sort order, context, captured groups and concordances.
+	 * It doesn't include the memory used for structures shared with other
+	 * Hits objects: copies that share the hits list (or KWICs) with the
+	 * object they were copied from only count what's theirs, so the shared
+	 * hits are only counted once.
+	 *
+	 * @return estimated number of bytes used
+	 */
+	@Override
+	public long estimatedMemoryUsage() {
+		long bytes;
+		if (hitsShared) {
+			bytes = 0; // counted by the Hits object we were copied from
+		} else if (readThrough != null) {
+			bytes = hits.size() * (long)BYTES_PER_HIT_REFERENCE; // our own list, but the hits are shared
+		} else {
+			long n = hits instanceof SpillingHitList ? hits.size() - ((SpillingHitList)hits).numberSpilled() : hits.size();
+			bytes = n * BYTES_PER_HIT;
+		}
+		int[] order = sortOrder;
+		if (order != null)
+			bytes += BYTES_PER_ARRAY + 4L * order.length;
+		int[][] ctx = contexts;
+		if (ctx != null && ctx.length > 0 && ctx[0] != null) {
+			// Assume all contexts are about the same size as the first one
+			bytes += ctx.length * (BYTES_PER_ARRAY + 4L * ctx[0].length + 8);
+		}
+		Map<Hit, Span[]> groups = capturedGroups;
+		if (groups != null && hitQueryContext != null)
+			bytes += groups.size() * (BYTES_PER_HIT + BYTES_PER_ARRAY + hitQueryContext.numberOfCapturedGroups() * 32L);
+		Map<Hit, Kwic> k = kwics;
+		if (k != null && !kwicsShared)
+			bytes += k.size() * (long)BYTES_PER_CONCORDANCE;
+		Map<Hit, Concordance> c = concordances;
+		if (c != null)
+			bytes += c.size() * (long)BYTES_PER_CONCORDANCE;
+		return bytes;
+	}
+
 	/**
 	 * Get the captured group information for this hit, if any.
 	 *
@@ -1857,6 +2452,77 @@ public class Hits extends AbstractList<Hit> {
 		Hits.defaultMaxHitsToCount = n;
 	}
 
+	/** @return the pool used for sorting large sets of hits in parallel (null = default pool) */
+	public static ForkJoinPool getSortThreadPool() {
+		return sortThreadPool;
+	}
+
+	/** Set the pool to use for sorting large sets of hits in parallel.
+	 *
+	 * Small sets of hits are always sorted in the calling thread.
+	 * See ParallelSort.setSequentialThreshold().
+	 *
+	 * @param pool the pool to use, or null to use ParallelSort's default pool
+	 */
+	public static void setSortThreadPool(ForkJoinPool pool) {
+		Hits.sortThreadPool = pool;
+	}
+
+	/**
+	 * Enable spill mode: keep the hits in a temporary file instead of in memory.
+	 *
+	 * Only the most recently retrieved hits and the pages of hits that were
+	 * recently accessed (e.g. the current window) are kept in memory. Large
+	 * sorts use an external merge sort (see groupSizes() for grouping).
+	 * Because the hits don't have to fit in memory anymore, this also removes
+	 * the limit on the number of hits to retrieve; call setMaxHitsToRetrieve()
+	 * afterwards if you do want a limit.
+	 *
+	 * Must be called before any hits are retrieved. Call close() when you're done
+	 * with the hits (and any copies), so the temporary file is deleted. (The file
+	 * is also deleted when the JVM exits.)
+	 *
+	 * @param dir directory for the temporary files, or null for the system temp dir
+	 */
+	public synchronized void setSpillDirectory(File dir) {
+		if (!hits.isEmpty())
+			throw new IllegalStateException("Spill mode must be enabled before hits are retrieved");
+		spillDirectory = dir == null ? new File(System.getProperty("java.io.tmpdir")) : dir;
+		hits = new SpillingHitList(spillDirectory);
+		maxHitsToRetrieve = -1;
+	}
+
+	/**
+	 * Release resources held by this Hits object.
+	 *
+	 * In spill mode, this deletes the temporary file once all copies of this
+	 * Hits object sharing it have been closed. Also unregisters from the
+	 * memory budget, if any. Does nothing for Hits objects that don't hold
+	 * resources, so it's always safe to call (e.g. with try-with-resources).
+	 */
+	@Override
+	public void close() {
+		List<Hit> hitsToClose;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			hitsToClose = hits;
+		}
+		if (hitsToClose instanceof SpillingHitList)
+			((SpillingHitList) hitsToClose).close();
+		if (memoryBudget != null)
+			memoryBudget.unregister(this);
+	}
+
+	/**
+	 * Are we in spill mode?
+	 * @return true iff the hits are kept in a temporary file
+	 */
+	public boolean isSpilling() {
+		return hits instanceof SpillingHitList;
+	}
+
 	/** @return the maximum number of hits to retrieve. */
 	public int getMaxHitsToRetrieve() {
 		return maxHitsToRetrieve;
@@ -2211,6 +2877,8 @@ public class Hits extends AbstractList<Hit> {
 		Map<Integer, List<Hit>> hitsPerDocument = perDocumentGroupedHits();
 		Map<Hit, Concordance> conc = new HashMap<>();
 		for (List<Hit> l: hitsPerDocument.values()) {
+			if (checkOperationDeadline())
+				break; // time's up; we have concordances for some of the hits
 			Hits hitsInThisDoc = new Hits(searcher, l);
 			hitsInThisDoc.copySettingsFrom(this);
 			hitsInThisDoc.makeConcordancesSingleDocContentStore(fieldName, contextSize, conc, hl);
@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import nl.inl.blacklab.search.grouping.HitPropValue;
+import nl.inl.blacklab.search.grouping.HitProperty;
+import nl.inl.util.IntComparator;
+import nl.inl.util.ParallelSort;
+
+/**
+ * Sorts or groups a (spilled) list of hits that may not fit in memory.
+ *
+ * The hits are processed in runs of a fixed size. For each run, we
+ * retrieve context (if needed), determine each hit's property value
+ * and sort the run on it. The sorted run is written to a temporary file
+ * as (original hit index, serialized property value) records, and the
+ * runs are then combined using a k-way merge.
+ *
+ * Only one run's worth of context is ever held in memory.
+ */
+class HitsExternalSort {
+
+	/** Default number of hits per sorted run */
+	static final int DEFAULT_RUN_SIZE = 1000000;
+
+	/** Hits object the hits belong to (for settings and deserializing values) */
+	private Hits hits;
+
+	/** The hits to sort */
+	private List<Hit> hitList;
+
+	/** Property to sort or group on */
+	private HitProperty prop;
+
+	/** Directory for the run files (null for the system temp dir) */
+	private File tempDir;
+
+	/** Number of hits per run */
+	private int runSize;
+
+	/**
+	 * Construct an external sort.
+	 *
+	 * @param hits Hits object the hits belong to
+	 * @param hitList the hits to sort, in original order
+	 * @param prop property to sort or group on
+	 * @param tempDir directory for the run files (null for the system temp dir)
+	 * @param runSize number of hits per sorted run
+	 */
+	HitsExternalSort(Hits hits, List<Hit> hitList, HitProperty prop, File tempDir, int runSize) {
+		this.hits = hits;
+		this.hitList = hitList;
+		this.prop = prop;
+		this.tempDir = tempDir;
+		this.runSize = runSize;
+	}
+
+	/**
+	 * Sort the hits.
+	 *
+	 * @return the sort order: original hit indices in sorted order
+	 */
+	int[] sortOrder() {
+		final int[] result = new int[hitList.size()];
+		merge(new RecordHandler() {
+			int i = 0;
+
+			@Override
+			public void handle(int originalIndex, HitPropValue value) {
+				result[i] = originalIndex;
+				i++;
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Count the number of hits per value of the property.
+	 *
+	 * @return the group sizes, in sorted order of the property values
+	 */
+	Map<HitPropValue, Integer> groupSizes() {
+		final Map<HitPropValue, Integer> result = new LinkedHashMap<>();
+		merge(new RecordHandler() {
+			HitPropValue current = null;
+
+			int count = 0;
+
+			@Override
+			public void handle(int originalIndex, HitPropValue value) {
+				if (current != null && current.compareTo(value) != 0) {
+					result.put(current, count);
+					count = 0;
+				}
+				if (count == 0)
+					current = value;
+				count++;
+			}
+
+			@Override
+			public void done() {
+				if (count > 0)
+					result.put(current, count);
+			}
+		});
+		return result;
+	}
+
+	/** Receives the merged records in sorted order */
+	private static abstract class RecordHandler {
+		public abstract void handle(int originalIndex, HitPropValue value);
+
+		public void done() {
+			// (default: nothing to do)
+		}
+	}
+
+	/**
+	 * Write a string as a length-prefixed UTF-8 byte array.
+	 *
+	 * (DataOutput.writeUTF() can't handle strings longer than 64K bytes,
+	 * which serialized context values may be)
+	 */
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** A run file being read during the merge, with its current record */
+	private class Run implements Comparable<Run> {
+		DataInputStream in;
+
+		int originalIndex;
+
+		HitPropValue value;
+
+		Run(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		}
+
+		boolean next() throws IOException {
+			try {
+				originalIndex = in.readInt();
+			} catch (EOFException e) {
+				in.close();
+				return false;
+			}
+			value = HitPropValue.deserialize(hits, readString(in));
+			return true;
+		}
+
+		@Override
+		public int compareTo(Run o) {
+			int cmp = compareValues(value, o.value);
+			if (cmp == 0)
+				cmp = originalIndex - o.originalIndex; // keep the sort stable
+			return cmp;
+		}
+	}
+
+	private int compareValues(HitPropValue a, HitPropValue b) {
+		int cmp = a.compareTo(b);
+		return prop.isReverse() ? -cmp : cmp;
+	}
+
+	private void merge(RecordHandler handler) {
+		List<File> runFiles = writeRuns();
+		try {
+			PriorityQueue<Run> queue = new PriorityQueue<>(Math.max(1, runFiles.size()));
+			for (File f: runFiles) {
+				Run run = new Run(f);
+				if (run.next())
+					queue.add(run);
+			}
+			while (!queue.isEmpty()) {
+				Run run = queue.poll();
+				handler.handle(run.originalIndex, run.value);
+				if (run.next())
+					queue.add(run);
+			}
+			handler.done();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			for (File f: runFiles) {
+				if (!f.delete())
+					f.deleteOnExit();
+			}
+		}
+	}
+
+	private List<File> writeRuns() {
+		List<File> runFiles = new ArrayList<>();
+		try {
+			int n = hitList.size();
+			for (int runStart = 0; runStart < n; runStart += runSize) {
+				int runEnd = Math.min(n, runStart + runSize);
+
+				// Make a temporary Hits object for this run and get its property values
+				Hits run = new Hits(hits.getSearcher(), new ArrayList<>(hitList.subList(runStart, runEnd)));
+				run.copySettingsFrom(hits);
+				HitProperty runProp = prop.copyWithHits(run);
+				List<String> requiredContext = runProp.needsContext();
+				if (requiredContext != null)
+					run.findContext(requiredContext);
+				int runLength = runEnd - runStart;
+				final HitPropValue[] values = new HitPropValue[runLength];
+				int[] order = new int[runLength];
+				for (int i = 0; i < runLength; i++) {
+					values[i] = runProp.get(i);
+					order[i] = i;
+				}
+				ParallelSort.sort(order, new IntComparator() {
+					@Override
+					public int compare(int a, int b) {
+						return compareValues(values[a], values[b]);
+					}
+				}, Hits.getSortThreadPool());
+
+				// Write the sorted run
+				File f = File.createTempFile("hits", ".run", tempDir);
+				f.deleteOnExit();
+				runFiles.add(f);
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+					for (int i: order) {
+						out.writeInt(runStart + i);
+						writeString(out, values[i].serialize());
+					}
+				}
+			}
+		} catch (IOException e) {
+			for (File f: runFiles) {
+				f.delete();
+			}
+			throw new RuntimeException(e);
+		}
+		return runFiles;
+	}
+
+}
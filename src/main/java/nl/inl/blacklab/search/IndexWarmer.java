@@ -0,0 +1,406 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nl.inl.blacklab.externalstorage.ContentStore;
+import nl.inl.blacklab.externalstorage.ContentStoreDirAbstract;
+import nl.inl.blacklab.forwardindex.ForwardIndex;
+import nl.inl.blacklab.index.complex.ComplexFieldUtil;
+import nl.inl.blacklab.search.indexstructure.IndexStructure;
+import nl.inl.util.AccessStats;
+import nl.inl.util.ExUtil;
+import nl.inl.util.PageCache;
+import nl.inl.util.PageCache.Residency;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Warms up the page cache for a Searcher's forward indices and content stores.
+ *
+ * After a restart, the first queries have to read their forward index data from
+ * disk, which makes sorting, grouping and KWICs slow until the page cache is warm.
+ * This class can report how much of each file is resident, prefetch whole forward
+ * indices and content stores (in parallel, one sequential read per file), warm only
+ * the data for the most frequently accessed documents, and keep files resident by
+ * touching them periodically. If access statistics are being kept (see AccessStats),
+ * these can be used to decide what to warm.
+ *
+ * Forward indices are identified by their property field name, e.g. "contents%word".
+ */
+public class IndexWarmer {
+
+	/** Our searcher */
+	private Searcher searcher;
+
+	/** How many files/properties to warm in parallel */
+	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+	public IndexWarmer(Searcher searcher) {
+		this.searcher = searcher;
+	}
+
+	/**
+	 * Set how many files or properties to warm in parallel.
+	 *
+	 * The default is the number of processors.
+	 *
+	 * @param numberOfThreads number of threads to use
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		this.numberOfThreads = Math.max(1, numberOfThreads);
+	}
+
+	/**
+	 * Get the forward index properties (e.g. "contents%word")
+	 * @return the property field names
+	 */
+	public Collection<String> getForwardIndexProperties() {
+		return searcher.getForwardIndices().keySet();
+	}
+
+	/**
+	 * Get the files making up the specified forward indices.
+	 *
+	 * @param fieldPropNames forward index property field names, or null for all
+	 * @return the files
+	 */
+	public List<File> getForwardIndexFiles(Collection<String> fieldPropNames) {
+		if (fieldPropNames == null)
+			fieldPropNames = getForwardIndexProperties();
+		List<File> files = new ArrayList<>();
+		for (String fieldPropName: fieldPropNames) {
+			ForwardIndex fi = searcher.getForwardIndex(fieldPropName);
+			if (fi == null)
+				throw new RuntimeException("No forward index for " + fieldPropName);
+			addFiles(files, fi.getDir());
+		}
+		return files;
+	}
+
+	/**
+	 * Get the files making up the content stores.
+	 *
+	 * @return the files
+	 */
+	public List<File> getContentStoreFiles() {
+		List<File> files = new ArrayList<>();
+		IndexStructure struct = searcher.getIndexStructure();
+		for (String field: struct.getComplexFields()) {
+			ContentStore cs = searcher.getContentStore(field);
+			if (cs instanceof ContentStoreDirAbstract)
+				addFiles(files, ((ContentStoreDirAbstract) cs).getDir());
+		}
+		return files;
+	}
+
+	private static void addFiles(List<File> files, File dir) {
+		File[] dirFiles = dir.listFiles();
+		if (dirFiles == null)
+			return;
+		Arrays.sort(dirFiles);
+		for (File f: dirFiles) {
+			if (f.isFile())
+				files.add(f);
+		}
+	}
+
+	/**
+	 * Report how much of each file is in the page cache.
+	 *
+	 * @param files the files to check
+	 * @return residency per file
+	 */
+	public Map<File, Residency> residency(Collection<File> files) {
+		Map<File, Residency> result = new LinkedHashMap<>();
+		for (File f: files) {
+			result.put(f, PageCache.residency(f));
+		}
+		return result;
+	}
+
+	/**
+	 * Read files into the page cache, several files in parallel.
+	 *
+	 * @param files the files to read
+	 * @return total number of bytes read
+	 */
+	public long prefetch(Collection<File> files) {
+		List<Callable<Long>> tasks = new ArrayList<>();
+		for (final File f: files) {
+			tasks.add(new Callable<Long>() {
+				@Override
+				public Long call() {
+					return PageCache.prefetch(f);
+				}
+			});
+		}
+		return runAll(tasks);
+	}
+
+	/**
+	 * Warm up only the data for the specified documents.
+	 *
+	 * Reads each document from the forward indices (one task per property, in
+	 * parallel) and optionally from the content stores. Useful when there are
+	 * access statistics telling us which documents are hot; pass the hottest first.
+	 *
+	 * @param docIds Lucene document ids
+	 * @param fieldPropNames forward index property field names, or null for all
+	 * @param contentStores whether to warm the content stores too
+	 * @return the number of documents read (summed over forward indices and content stores)
+	 */
+	public long warmDocuments(final List<Integer> docIds, Collection<String> fieldPropNames, boolean contentStores) {
+		if (fieldPropNames == null)
+			fieldPropNames = getForwardIndexProperties();
+		List<Callable<Long>> tasks = new ArrayList<>();
+		for (String fieldPropName: fieldPropNames) {
+			final ForwardIndex fi = searcher.getForwardIndex(fieldPropName);
+			if (fi == null)
+				throw new RuntimeException("No forward index for " + fieldPropName);
+			tasks.add(new Callable<Long>() {
+				@Override
+				public Long call() {
+					long n = 0;
+					for (int docId: docIds) {
+						if (Thread.interrupted())
+							break;
+						int fiid = fi.luceneDocIdToFiid(docId);
+						if (fi.retrievePartsInt(fiid, new int[] { -1 }, new int[] { -1 }) != null)
+							n++;
+					}
+					return n;
+				}
+			});
+		}
+		if (contentStores) {
+			for (final String field: searcher.getIndexStructure().getComplexFields()) {
+				final ContentStore cs = searcher.getContentStore(field);
+				if (cs == null)
+					continue;
+				tasks.add(new Callable<Long>() {
+					@Override
+					public Long call() {
+						long n = 0;
+						String contentIdField = ComplexFieldUtil.contentIdField(field);
+						for (int docId: docIds) {
+							if (Thread.interrupted())
+								break;
+							Document d = searcher.document(docId);
+							String contentId = d.get(contentIdField);
+							if (contentId != null && cs.retrieve(Integer.parseInt(contentId)) != null)
+								n++;
+						}
+						return n;
+					}
+				});
+			}
+		}
+		return runAll(tasks);
+	}
+
+	/**
+	 * Get the Lucene ids of the most frequently retrieved documents.
+	 *
+	 * The statistics identify documents by their main forward index id (see
+	 * Searcher.getDocumentAccessCategory()), which we translate to the current
+	 * Lucene ids. Documents that no longer exist are skipped.
+	 *
+	 * @param stats access statistics
+	 * @param n maximum number of documents
+	 * @return the document ids, hottest first
+	 */
+	public List<Integer> getHottestDocuments(AccessStats stats, int n) {
+		List<Long> fiids = stats.getTracker(searcher.getDocumentAccessCategory()).getHottest(n);
+		String fieldPropName = searcher.getDocumentAccessKeyField();
+		ForwardIndex fi = fieldPropName == null ? null : searcher.getForwardIndex(fieldPropName);
+		if (fiids.isEmpty() || fi == null)
+			return new ArrayList<>();
+
+		// Find the current Lucene ids of the documents
+		Map<Long, Integer> docIdPerFiid = new HashMap<>();
+		for (long fiid: fiids) {
+			docIdPerFiid.put(fiid, -1);
+		}
+		Bits liveDocs = MultiFields.getLiveDocs(searcher.getIndexReader());
+		for (int docId = 0; docId < searcher.maxDoc(); docId++) {
+			if (liveDocs != null && !liveDocs.get(docId))
+				continue;
+			long fiid = fi.luceneDocIdToFiid(docId);
+			if (docIdPerFiid.containsKey(fiid))
+				docIdPerFiid.put(fiid, docId);
+		}
+		List<Integer> docIds = new ArrayList<>();
+		for (long fiid: fiids) {
+			int docId = docIdPerFiid.get(fiid);
+			if (docId >= 0)
+				docIds.add(docId);
+		}
+		return docIds;
+	}
+
+	private static String accessCategory(ForwardIndex fi) {
+		return AccessStats.category("fi", fi.getDir());
+	}
+
+	/**
+	 * Get the forward index properties that have been accessed, most accessed first.
+	 *
+	 * @param stats access statistics
+	 * @return the property field names
+	 */
+	public List<String> getHottestForwardIndexProperties(final AccessStats stats) {
+		List<String> props = new ArrayList<>();
+		final Map<String, Long> totals = new LinkedHashMap<>();
+		for (String fieldPropName: getForwardIndexProperties()) {
+			long total = stats.getTracker(accessCategory(searcher.getForwardIndex(fieldPropName))).getTotal();
+			if (total > 0) {
+				props.add(fieldPropName);
+				totals.put(fieldPropName, total);
+			}
+		}
+		Collections.sort(props, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				return Long.compare(totals.get(b), totals.get(a));
+			}
+		});
+		return props;
+	}
+
+	/**
+	 * Warm up the most frequently accessed forward index entries and content store documents.
+	 *
+	 * Unlike warmDocuments(), this uses the statistics of each forward index and content
+	 * store separately, so it warms what was actually read from each of them.
+	 *
+	 * @param stats access statistics
+	 * @param n maximum number of entries per forward index / content store
+	 * @param fieldPropNames forward index property field names, or null for all
+	 * @param contentStores whether to warm the content stores too
+	 * @return the number of entries read
+	 */
+	public long warmHottest(AccessStats stats, final int n, Collection<String> fieldPropNames, boolean contentStores) {
+		if (fieldPropNames == null)
+			fieldPropNames = getForwardIndexProperties();
+		List<Callable<Long>> tasks = new ArrayList<>();
+		for (String fieldPropName: fieldPropNames) {
+			final ForwardIndex fi = searcher.getForwardIndex(fieldPropName);
+			if (fi == null)
+				throw new RuntimeException("No forward index for " + fieldPropName);
+			final List<Long> fiids = stats.getTracker(accessCategory(fi)).getHottest(n);
+			tasks.add(new Callable<Long>() {
+				@Override
+				public Long call() {
+					long read = 0;
+					for (long fiid: fiids) {
+						if (Thread.interrupted())
+							break;
+						if (fiid < fi.getNumDocs() && fi.retrievePartsInt((int) fiid, new int[] { -1 }, new int[] { -1 }) != null)
+							read++;
+					}
+					return read;
+				}
+			});
+		}
+		if (contentStores) {
+			for (String field: searcher.getIndexStructure().getComplexFields()) {
+				final ContentStore cs = searcher.getContentStore(field);
+				if (!(cs instanceof ContentStoreDirAbstract))
+					continue;
+				String category = AccessStats.category("cs", ((ContentStoreDirAbstract) cs).getDir());
+				final List<Long> contentIds = stats.getTracker(category).getHottest(n);
+				tasks.add(new Callable<Long>() {
+					@Override
+					public Long call() {
+						long read = 0;
+						for (long contentId: contentIds) {
+							if (Thread.interrupted())
+								break;
+							if (cs.retrieve((int) contentId) != null)
+								read++;
+						}
+						return read;
+					}
+				});
+			}
+		}
+		return runAll(tasks);
+	}
+
+	/**
+	 * Keep files resident in the page cache by touching them periodically.
+	 *
+	 * @param files the files to keep resident (e.g. the hottest forward indices)
+	 * @param intervalMs how long to wait between touching all files
+	 * @return the (daemon) thread doing this; interrupt it to stop
+	 */
+	public Thread keepResident(Collection<File> files, long intervalMs) {
+		return PageCache.keepResident(files, intervalMs);
+	}
+
+	private long runAll(List<Callable<Long>> tasks) {
+		if (tasks.isEmpty())
+			return 0;
+		// Reading data to warm it up shouldn't count as accessing it
+		List<Callable<Long>> unrecorded = new ArrayList<>();
+		for (final Callable<Long> task: tasks) {
+			unrecorded.add(new Callable<Long>() {
+				@Override
+				public Long call() throws Exception {
+					AccessStats.setSuppressed(true);
+					try {
+						return task.call();
+					} finally {
+						AccessStats.setSuppressed(false);
+					}
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numberOfThreads, tasks.size()));
+		try {
+			long total = 0;
+			for (Future<Long> f: executor.invokeAll(unrecorded)) {
+				total += f.get();
+			}
+			return total;
+		} catch (InterruptedException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		} catch (ExecutionException e) {
+			throw ExUtil.wrapRuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import nl.inl.util.MemoryUtil;
+
+/**
+ * Keeps track of the (estimated) memory used by search results, and
+ * enforces a limit on it.
+ *
+ * Hits, DocResults and HitGroups objects register themselves with a budget
+ * (see Searcher.setMemoryBudget() and Searcher.setMaxQueryMemoryUsage()).
+ * Budgets can be nested: a per-query budget with the global budget as its
+ * parent. Consumers are referenced weakly, so results that are no longer
+ * used don't count against the budget once they've been garbage collected.
+ *
+ * When a Hits object is retrieving hits and the budget is exceeded, it first
+ * asks the budget to reclaim memory by releasing cached contexts, KWICs and
+ * concordances. If that doesn't help, it stops retrieving hits and flags that
+ * its results are incomplete (Hits.memoryBudgetExceeded()).
+ */
+public class MemoryBudget {
+
+	/** A consumer registered with this budget */
+	private static class Entry {
+		WeakReference<MemoryConsumer> consumer;
+
+		String description;
+
+		Entry(MemoryConsumer consumer, String description) {
+			this.consumer = new WeakReference<>(consumer);
+			this.description = description;
+		}
+	}
+
+	/** Maximum number of bytes the consumers may use, or -1 for no limit */
+	private long maxMemoryUsage;
+
+	/** Budget exceeded if less than this number of bytes is free in the JVM, or -1 to disable */
+	private long minFreeMemory = -1;
+
+	/** Parent budget, e.g. the global budget if this is a per-query budget (or null if none) */
+	private MemoryBudget parent;
+
+	/** The registered consumers */
+	private List<Entry> entries = new ArrayList<>();
+
+	/** Number of times we released cached memory */
+	private long numberOfReclaims = 0;
+
+	/**
+	 * Create a budget.
+	 *
+	 * @param maxMemoryUsage maximum number of bytes the consumers may use, or -1 for no limit
+	 */
+	public MemoryBudget(long maxMemoryUsage) {
+		this(maxMemoryUsage, null);
+	}
+
+	/**
+	 * Create a budget that is part of another budget.
+	 *
+	 * @param maxMemoryUsage maximum number of bytes the consumers may use, or -1 for no limit
+	 * @param parent the parent budget (consumers are registered there as well), or null for none
+	 */
+	public MemoryBudget(long maxMemoryUsage, MemoryBudget parent) {
+		this.maxMemoryUsage = maxMemoryUsage;
+		this.parent = parent;
+	}
+
+	public synchronized long getMaxMemoryUsage() {
+		return maxMemoryUsage;
+	}
+
+	public synchronized void setMaxMemoryUsage(long maxMemoryUsage) {
+		this.maxMemoryUsage = maxMemoryUsage;
+	}
+
+	public synchronized long getMinFreeMemory() {
+		return minFreeMemory;
+	}
+
+	/**
+	 * Also treat the budget as exceeded when the JVM is running low on memory.
+	 *
+	 * @param minFreeMemory minimum number of bytes that should be available
+	 *   (see MemoryUtil.getFree()), or -1 to disable (the default)
+	 */
+	public synchronized void setMinFreeMemory(long minFreeMemory) {
+		this.minFreeMemory = minFreeMemory;
+	}
+
+	public MemoryBudget getParent() {
+		return parent;
+	}
+
+	/**
+	 * Register a consumer with this budget (and its parent).
+	 *
+	 * @param consumer the consumer
+	 * @param description description for the usage report, e.g. the query
+	 */
+	public void register(MemoryConsumer consumer, String description) {
+		synchronized (this) {
+			purge();
+			entries.add(new Entry(consumer, description));
+		}
+		if (parent != null)
+			parent.register(consumer, description);
+	}
+
+	/**
+	 * Unregister a consumer from this budget (and its parent).
+	 *
+	 * @param consumer the consumer
+	 */
+	public void unregister(MemoryConsumer consumer) {
+		synchronized (this) {
+			Iterator<Entry> it = entries.iterator();
+			while (it.hasNext()) {
+				MemoryConsumer c = it.next().consumer.get();
+				if (c == null || c == consumer)
+					it.remove();
+			}
+		}
+		if (parent != null)
+			parent.unregister(consumer);
+	}
+
+	/** Remove entries for consumers that have been garbage collected. */
+	private void purge() {
+		Iterator<Entry> it = entries.iterator();
+		while (it.hasNext()) {
+			if (it.next().consumer.get() == null)
+				it.remove();
+		}
+	}
+
+	/**
+	 * Get the consumers that are still alive.
+	 * @return the consumers
+	 */
+	private synchronized List<MemoryConsumer> getConsumers() {
+		purge();
+		List<MemoryConsumer> result = new ArrayList<>();
+		for (Entry e: entries) {
+			MemoryConsumer c = e.consumer.get();
+			if (c != null)
+				result.add(c);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the number of consumers registered.
+	 * @return number of consumers
+	 */
+	public synchronized int size() {
+		purge();
+		return entries.size();
+	}
+
+	/**
+	 * Estimate the memory used by all consumers registered with this budget.
+	 * @return estimated number of bytes used
+	 */
+	public long estimatedMemoryUsage() {
+		long total = 0;
+		for (MemoryConsumer c: getConsumers()) {
+			total += c.estimatedMemoryUsage();
+		}
+		return total;
+	}
+
+	/**
+	 * Is this budget (not counting the parent) exceeded?
+	 * @return true if it is
+	 */
+	private boolean isExceededLocally() {
+		long max, minFree;
+		synchronized (this) {
+			max = maxMemoryUsage;
+			minFree = minFreeMemory;
+		}
+		if (minFree >= 0 && MemoryUtil.getFree() < minFree)
+			return true;
+		return max >= 0 && estimatedMemoryUsage() > max;
+	}
+
+	/**
+	 * Is this budget or its parent exceeded?
+	 * @return true if it is
+	 */
+	public boolean isExceeded() {
+		return isExceededLocally() || (parent != null && parent.isExceeded());
+	}
+
+	/**
+	 * Try to get back within budget by releasing cached memory.
+	 *
+	 * Releases the caches of the largest consumers first, until we're
+	 * within budget again.
+	 *
+	 * Releasing a consumer's cache takes its lock, so don't call this while
+	 * holding a consumer's lock: another thread may be holding that consumer's
+	 * lock while reclaiming memory from yours (deadlock).
+	 *
+	 * @return true if we're within budget now, false if not
+	 */
+	public boolean reclaim() {
+		if (isExceededLocally()) {
+			List<MemoryConsumer> consumers = getConsumers();
+			final List<Long> sizes = new ArrayList<>();
+			for (MemoryConsumer c: consumers) {
+				sizes.add(c.estimatedMemoryUsage());
+			}
+			List<Integer> order = new ArrayList<>();
+			for (int i = 0; i < consumers.size(); i++) {
+				order.add(i);
+			}
+			Collections.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Long.compare(sizes.get(b), sizes.get(a));
+				}
+			});
+			synchronized (this) {
+				numberOfReclaims++;
+			}
+			for (int i: order) {
+				consumers.get(i).releaseCachedMemory();
+				if (!isExceededLocally())
+					break;
+			}
+			if (isExceededLocally())
+				return false;
+		}
+		return parent == null || parent.reclaim();
+	}
+
+	/**
+	 * Get the number of times we had to release cached memory.
+	 * @return number of times
+	 */
+	public synchronized long getNumberOfReclaims() {
+		return numberOfReclaims;
+	}
+
+	/**
+	 * Report the memory used by each consumer, largest first.
+	 *
+	 * Each line contains the estimated number of bytes used and the description,
+	 * separated by a tab.
+	 *
+	 * @return the report lines
+	 */
+	public List<String> getUsageReport() {
+		List<Entry> copy;
+		synchronized (this) {
+			purge();
+			copy = new ArrayList<>(entries);
+		}
+		final List<Long> sizes = new ArrayList<>();
+		List<Integer> order = new ArrayList<>();
+		List<String> descriptions = new ArrayList<>();
+		for (Entry e: copy) {
+			MemoryConsumer c = e.consumer.get();
+			if (c == null)
+				continue;
+			order.add(sizes.size());
+			sizes.add(c.estimatedMemoryUsage());
+			descriptions.add(e.description);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(sizes.get(b), sizes.get(a));
+			}
+		});
+		List<String> result = new ArrayList<>();
+		for (int i: order) {
+			result.add(sizes.get(i) + "\t" + descriptions.get(i));
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "MemoryBudget(" + size() + " consumers, ~" + estimatedMemoryUsage() + " bytes, max "
+				+ getMaxMemoryUsage() + ")";
+	}
+
+}
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+/**
+ * A search result object whose memory use can be tracked by a MemoryBudget.
+ */
+public interface MemoryConsumer {
+
+	/**
+	 * Estimate how much memory this object currently uses.
+	 * @return estimated number of bytes used
+	 */
+	long estimatedMemoryUsage();
+
+	/**
+	 * Release cached data that can be recalculated if needed (e.g. concordances).
+	 */
+	void releaseCachedMemory();
+
+}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.util.concurrent.TimeUnit;
+
+import nl.inl.util.IntComparator;
+
+import org.apache.lucene.util.Bits;
+
+/**
+ * A deadline and/or cancellation token for a query.
+ *
+ * Set it on a Hits object (Hits.setDeadline()). The hits are then
+ * retrieved, sorted, grouped, etc. until the deadline expires or the query is
+ * cancelled. After that, operations stop within milliseconds, and the Hits
+ * object reports that its results are partial (Hits.deadlineExpired() if
+ * retrieval was cut off, Hits.lastOperationCutOff() or HitGroups.isPartial()
+ * if a later operation was).
+ *
+ * Checking the clock is cheap, but not free, so the wrappers this class
+ * provides only check every CHECK_INTERVAL calls.
+ */
+public class QueryDeadline {
+
+	/** How many calls to the wrapped Bits or comparator between checks */
+	private static final int CHECK_INTERVAL = 1024;
+
+	/**
+	 * Thrown from inside long-running operations when the deadline expired.
+	 *
+	 * Caught by Hits, which then flags its results as partial. Only thrown
+	 * to clients that ask for something that isn't available because of
+	 * this (e.g. the concordance of a hit that wasn't reached).
+	 */
+	public static class ExpiredException extends RuntimeException {
+		public ExpiredException() {
+			super("Query deadline expired or query cancelled");
+		}
+
+		public ExpiredException(Throwable cause) {
+			super("Query deadline expired or query cancelled", cause);
+		}
+	}
+
+	/** Value of System.nanoTime() at the deadline (only if hasTimeLimit) */
+	private long deadlineNanos;
+
+	/** Do we have a time limit, or can we only be cancelled? */
+	private boolean hasTimeLimit;
+
+	/** Has the query been cancelled? */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Create a deadline without a time limit, that can only be cancelled.
+	 */
+	public QueryDeadline() {
+		hasTimeLimit = false;
+	}
+
+	/**
+	 * Create a deadline.
+	 *
+	 * @param timeoutMs time from now until the deadline, in milliseconds
+	 */
+	public QueryDeadline(long timeoutMs) {
+		hasTimeLimit = true;
+		deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+	}
+
+	/**
+	 * Cancel the query.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Was the query cancelled?
+	 * @return true if it was
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Has the deadline expired, or was the query cancelled?
+	 * @return true if we should stop
+	 */
+	public boolean hasExpired() {
+		return cancelled || (hasTimeLimit && System.nanoTime() - deadlineNanos >= 0);
+	}
+
+	/**
+	 * Get the time left until the deadline.
+	 * @return the time left in milliseconds (0 if expired), or Long.MAX_VALUE if there's no time limit
+	 */
+	public long getRemainingMs() {
+		if (cancelled)
+			return 0;
+		if (!hasTimeLimit)
+			return Long.MAX_VALUE;
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+	}
+
+	/**
+	 * Throw an exception if the deadline has expired.
+	 *
+	 * @throws ExpiredException if the deadline expired or the query was cancelled
+	 */
+	public void check() throws ExpiredException {
+		if (hasExpired())
+			throw new ExpiredException();
+	}
+
+	/**
+	 * Wrap the documents to accept when getting spans, so the deadline is
+	 * checked while iterating the postings.
+	 *
+	 * This lets us stop even inside a single call to nextDoc() that skips
+	 * many documents (e.g. a sequence with few matches).
+	 *
+	 * @param acceptDocs documents to accept, or null for all
+	 * @param maxDoc number of documents in the segment
+	 * @return the wrapped acceptDocs, which throws ExpiredException when the deadline expires
+	 */
+	public Bits acceptDocs(Bits acceptDocs, int maxDoc) {
+		return new DeadlineBits(acceptDocs, maxDoc);
+	}
+
+	/**
+	 * Find the deadline checked by documents to accept, if they were wrapped by acceptDocs().
+	 *
+	 * Useful for code that reads other documents than the accepted ones (e.g. to cache
+	 * the hits in a whole segment), but should still stop when the deadline expires.
+	 *
+	 * @param acceptDocs documents to accept
+	 * @return the deadline, or null if acceptDocs doesn't check one
+	 */
+	public static QueryDeadline fromAcceptDocs(Bits acceptDocs) {
+		return acceptDocs instanceof DeadlineBits ? ((DeadlineBits) acceptDocs).getDeadline() : null;
+	}
+
+	/**
+	 * Documents to accept that check the deadline now and then.
+	 */
+	private class DeadlineBits implements Bits {
+		private Bits acceptDocs;
+
+		private int maxDoc;
+
+		private int calls = 0;
+
+		DeadlineBits(Bits acceptDocs, int maxDoc) {
+			this.acceptDocs = acceptDocs;
+			this.maxDoc = maxDoc;
+		}
+
+		QueryDeadline getDeadline() {
+			return QueryDeadline.this;
+		}
+
+		@Override
+		public boolean get(int index) {
+			if (++calls % CHECK_INTERVAL == 0)
+				check();
+			return acceptDocs == null || acceptDocs.get(index);
+		}
+
+		@Override
+		public int length() {
+			return acceptDocs == null ? maxDoc : acceptDocs.length();
+		}
+	}
+
+	/**
+	 * Wrap a comparator, so the deadline is checked while sorting.
+	 *
+	 * @param cmp the comparator
+	 * @return the wrapped comparator, which throws ExpiredException when the deadline expires
+	 */
+	public IntComparator comparator(final IntComparator cmp) {
+		return new IntComparator() {
+			private int calls = 0; // (may be updated by several threads; only used to check now and then)
+
+			@Override
+			public int compare(int a, int b) {
+				if (++calls % CHECK_INTERVAL == 0)
+					check();
+				return cmp.compare(a, b);
+			}
+		};
+	}
+
+}
@@ -7,7 +7,7 @@ import nl.inl.blacklab.index.complex.ComplexFieldProperty.SensitivitySetting;
 import nl.inl.blacklab.index.complex.ComplexFieldUtil;
 import nl.inl.blacklab.search.indexstructure.ComplexFieldDesc;
 import nl.inl.blacklab.search.indexstructure.PropertyDesc;
-import nl.inl.util.StringUtil;
+import nl.inl.util.FoldingUtil;
 
 /**
  * Represents the current "execution context" for executing a TextPattern query.
@@ -84,7 +84,7 @@ public class QueryExecutionContext {
 		}
 		if (alt.equals(i)) {
 			// Fully desensitize;
-			return StringUtil.removeAccents(value).toLowerCase();
+			return FoldingUtil.desensitize(value, true, true);
 		}
 		if (alt.equals(ci)) {
 			// Only case-insensitive
@@ -92,7 +92,7 @@ public class QueryExecutionContext {
 		}
 		if (alt.equals(di)) {
 			// Only diacritics-insensitive
-			return StringUtil.removeAccents(value);
+			return FoldingUtil.desensitize(value, true, false);
 		}
 
 		// Unknown alternative; don't change value
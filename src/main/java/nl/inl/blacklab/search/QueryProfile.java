@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import nl.inl.blacklab.search.lucene.QueryProfileNode;
+
+/**
+ * The hits of a profiled query, with execution statistics per operator.
+ *
+ * The statistics are collected while the hits are retrieved, so they're
+ * only complete after all hits have been read (e.g. by calling size()).
+ *
+ * See Searcher.profile().
+ */
+public class QueryProfile {
+
+	/** The hits */
+	private Hits hits;
+
+	/** Statistics for the query's operators */
+	private QueryProfileNode root;
+
+	QueryProfile(Hits hits, QueryProfileNode root) {
+		this.hits = hits;
+		this.root = root;
+	}
+
+	/**
+	 * Get the hits.
+	 * @return the hits
+	 */
+	public Hits getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get the statistics for the query's operators.
+	 * @return the root of the statistics tree
+	 */
+	public QueryProfileNode getRoot() {
+		return root;
+	}
+
+	@Override
+	public String toString() {
+		return root.toString();
+	}
+
+}
@@ -0,0 +1,432 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.inl.blacklab.perdocument.DocResults;
+import nl.inl.blacklab.search.grouping.HitGroups;
+import nl.inl.blacklab.search.grouping.HitProperty;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Caches search results (Hits objects and results derived from them),
+ * so repeated searches (e.g. when paging, or switching between hits,
+ * docs and groups views) don't have to be executed again.
+ *
+ * Results are keyed by the query's string representation (before rewriting),
+ * the field and the relevant Searcher settings. Each entry may also hold sorted, grouped and
+ * per-document versions of its hits. Entries are weighted by their
+ * estimated memory usage; the least recently used entries are evicted
+ * when the cache grows beyond its size limits, and entries older than the
+ * maximum age are discarded. The cache is cleared when the index changes.
+ *
+ * Clients never get the cached Hits objects themselves, but their own copy
+ * (which shares the list of hits), so one client changing settings, sorting or
+ * setting a deadline doesn't affect another. Because of this, a cached search
+ * is retrieved completely (up to the maximum number of hits to retrieve) before
+ * it's returned. NOTE: grouped and per-document results are shared between
+ * clients, so don't modify those.
+ */
+public class SearchCache {
+
+	protected static final Logger logger = Logger.getLogger(SearchCache.class);
+
+	/** Rough estimate of the memory used per hit in a grouping */
+	private static final int BYTES_PER_GROUPED_HIT = 48;
+
+	/** Rough estimate of the memory used per hit in a per-document view */
+	private static final int BYTES_PER_DOC_RESULT_HIT = 24;
+
+	/** A cached search, along with results derived from it */
+	static class Entry {
+		/** Our key */
+		String key;
+
+		/** The cached hits (never given to clients; they get copies) */
+		Hits hits;
+
+		/** Sorted/grouped/per-doc versions of the hits */
+		Map<String, Object> derived = new HashMap<>();
+
+		/** Estimated memory used by the derived results */
+		long derivedMemoryUsage = 0;
+
+		/** When this entry was created */
+		long createdTime;
+
+		/** How many times this entry was found in the cache */
+		int timesUsed = 0;
+
+		Entry(String key, Hits hits) {
+			this.key = key;
+			this.hits = hits;
+			createdTime = System.currentTimeMillis();
+		}
+
+		long estimatedMemoryUsage() {
+			return hits.estimatedMemoryUsage() + derivedMemoryUsage;
+		}
+	}
+
+	/** The cached searches, in LRU order */
+	private Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** Maximum estimated memory to use (-1 for no limit) */
+	private long maxMemoryUsage;
+
+	/** Maximum number of searches to cache (-1 for no limit) */
+	private int maxNumberOfEntries;
+
+	/** Maximum age of an entry in ms (-1 for no limit) */
+	private long maxAgeMs;
+
+	/** Version of the index our entries are from (-1 if unknown) */
+	private long indexVersion = -1;
+
+	/** Number of times a search was found in the cache */
+	private long numberOfHits = 0;
+
+	/** Number of times a search was not found in the cache */
+	private long numberOfMisses = 0;
+
+	/** Number of entries evicted to stay within the limits */
+	private long numberOfEvictions = 0;
+
+	/**
+	 * Construct a search cache.
+	 *
+	 * @param maxMemoryUsage maximum estimated memory to use, in bytes (-1 for no limit)
+	 * @param maxNumberOfEntries maximum number of searches to cache (-1 for no limit)
+	 * @param maxAgeMs maximum age of a cached search in ms (-1 for no limit)
+	 */
+	public SearchCache(long maxMemoryUsage, int maxNumberOfEntries, long maxAgeMs) {
+		this.maxMemoryUsage = maxMemoryUsage;
+		this.maxNumberOfEntries = maxNumberOfEntries;
+		this.maxAgeMs = maxAgeMs;
+	}
+
+	/**
+	 * Construct the cache key for a search.
+	 *
+	 * @param searcher our searcher (for the relevant default settings)
+	 * @param query the query (not rewritten; its toString() is used)
+	 * @param fieldName the field to use for concordances
+	 * @return the key
+	 */
+	static String key(Searcher searcher, Object query, String fieldName) {
+		return fieldName + "|" + query + "|" + searcher.getDefaultContextSize() + "|"
+				+ searcher.getDefaultConcordanceType() + "|" + Hits.getDefaultMaxHitsToRetrieve() + "|"
+				+ Hits.getDefaultMaxHitsToCount();
+	}
+
+	/**
+	 * Look up a search in the cache.
+	 *
+	 * @param key the key for the search
+	 * @param currentIndexVersion version of the index we're searching (entries from other
+	 *   versions are discarded)
+	 * @return a copy of the cached hits, or null if not found
+	 */
+	Hits get(String key, long currentIndexVersion) {
+		Entry e = getEntry(key, currentIndexVersion);
+		return e == null ? null : copyForClient(e.hits, e);
+	}
+
+	private synchronized Entry getEntry(String key, long currentIndexVersion) {
+		checkIndexVersion(currentIndexVersion);
+		Entry e = entries.get(key);
+		if (e != null && isExpired(e)) {
+			remove(key, e);
+			e = null;
+		}
+		if (e == null) {
+			numberOfMisses++;
+			return null;
+		}
+		numberOfHits++;
+		e.timesUsed++;
+		return e;
+	}
+
+	/**
+	 * Make a copy of shared hits for a client.
+	 *
+	 * (done outside the cache lock, because copying takes the hits' lock)
+	 */
+	private static Hits copyForClient(Hits hits, Entry e) {
+		Hits copy = hits.copyForClient();
+		copy.searchCacheEntry = e;
+		return copy;
+	}
+
+	/**
+	 * Add a search to the cache.
+	 *
+	 * @param key the key for the search
+	 * @param hits the hits to cache
+	 * @param currentIndexVersion version of the index we searched
+	 * @return a copy of the hits for the client
+	 */
+	Hits put(String key, Hits hits, long currentIndexVersion) {
+		return copyForClient(hits, putEntry(key, hits, currentIndexVersion));
+	}
+
+	private synchronized Entry putEntry(String key, Hits hits, long currentIndexVersion) {
+		checkIndexVersion(currentIndexVersion);
+		Entry e = new Entry(key, hits);
+		entries.put(key, e);
+		evict();
+		return e;
+	}
+
+	/**
+	 * Get a sorted version of cached hits, sorting and caching it if necessary.
+	 *
+	 * If the hits are not in the cache, they are just sorted.
+	 *
+	 * @param hits the (cached) hits
+	 * @param prop property to sort on
+	 * @param reverse if true, sort in descending order
+	 * @return the sorted hits (the client's own copy)
+	 */
+	public Hits sortedBy(Hits hits, HitProperty prop, boolean reverse) {
+		String key = "sort:" + (reverse ? "-" : "") + prop.serialize();
+		Hits result = (Hits) getDerived(hits, key);
+		if (result == null) {
+			result = hits.sortedBy(prop, reverse);
+			if (!putDerived(hits, key, result, result.estimatedMemoryUsage()))
+				return result; // not cached, so not shared
+		}
+		return copyForClient(result, hits.searchCacheEntry);
+	}
+
+	/**
+	 * Get a grouped version of cached hits, grouping and caching it if necessary.
+	 *
+	 * If the hits are not in the cache, they are just grouped.
+	 *
+	 * @param hits the (cached) hits
+	 * @param criteria property to group on
+	 * @return the grouped hits
+	 */
+	public HitGroups groupedBy(Hits hits, HitProperty criteria) {
+		String key = "group:" + criteria.serialize();
+		HitGroups result = (HitGroups) getDerived(hits, key);
+		if (result == null) {
+			result = hits.groupedBy(criteria);
+			putDerived(hits, key, result, (long)result.getTotalResults() * BYTES_PER_GROUPED_HIT);
+		}
+		return result;
+	}
+
+	/**
+	 * Get a per-document view of cached hits, creating and caching it if necessary.
+	 *
+	 * If the hits are not in the cache, the per-document view is just created.
+	 *
+	 * @param hits the (cached) hits
+	 * @return the per-document results
+	 */
+	public DocResults perDocResults(Hits hits) {
+		String key = "docs";
+		DocResults result = (DocResults) getDerived(hits, key);
+		if (result == null) {
+			result = hits.perDocResults();
+			putDerived(hits, key, result, (long)hits.size() * BYTES_PER_DOC_RESULT_HIT);
+		}
+		return result;
+	}
+
+	/**
+	 * Find the entry hits were copied from, if it's still in the cache.
+	 * @param hits the hits
+	 * @return the entry, or null if not cached (anymore)
+	 */
+	private Entry entryFor(Hits hits) {
+		Entry e = hits.searchCacheEntry;
+		return e != null && entries.get(e.key) == e ? e : null;
+	}
+
+	private synchronized Object getDerived(Hits hits, String key) {
+		Entry e = entryFor(hits);
+		return e == null ? null : e.derived.get(key);
+	}
+
+	private synchronized boolean putDerived(Hits hits, String key, Object result, long memoryUsage) {
+		Entry e = entryFor(hits);
+		if (e == null)
+			return false; // not cached (anymore)
+		if (hits.deadlineExpired())
+			return false; // client didn't read all hits in time, so result is incomplete
+		if (e.derived.put(key, result) == null)
+			e.derivedMemoryUsage += memoryUsage;
+		evict();
+		return true;
+	}
+
+	private boolean isExpired(Entry e) {
+		return maxAgeMs >= 0 && System.currentTimeMillis() - e.createdTime > maxAgeMs;
+	}
+
+	private void remove(String key, Entry e) {
+		entries.remove(key);
+	}
+
+	private void checkIndexVersion(long currentIndexVersion) {
+		if (currentIndexVersion != indexVersion) {
+			if (!entries.isEmpty())
+				logger.debug("Index changed; clearing search cache");
+			clear();
+			indexVersion = currentIndexVersion;
+		}
+	}
+
+	/**
+	 * Remove expired entries, and evict least recently used entries until
+	 * we're within our size limits.
+	 */
+	private void evict() {
+		// Get rid of expired entries
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Entry e = it.next().getValue();
+			if (isExpired(e)) {
+				it.remove();
+			}
+		}
+
+		// Evict LRU entries until we're within our limits
+		// (memory estimates change as hits are retrieved, so we recalculate them each time)
+		long memoryUsage = maxMemoryUsage >= 0 ? estimatedMemoryUsage() : 0;
+		it = entries.entrySet().iterator();
+		while (it.hasNext() && (maxNumberOfEntries >= 0 && entries.size() > maxNumberOfEntries
+				|| maxMemoryUsage >= 0 && memoryUsage > maxMemoryUsage)) {
+			Entry e = it.next().getValue();
+			if (entries.size() == 1 && (maxNumberOfEntries < 0 || maxNumberOfEntries >= 1))
+				break; // always keep the most recent search, even if it's very large
+			it.remove();
+			memoryUsage -= e.estimatedMemoryUsage();
+			numberOfEvictions++;
+		}
+	}
+
+	/**
+	 * Remove all entries from the cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Get the number of cached searches.
+	 * @return number of cached searches
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Estimate the memory used by the cached results.
+	 * @return the estimated memory usage in bytes
+	 */
+	public synchronized long estimatedMemoryUsage() {
+		long total = 0;
+		for (Entry e: entries.values()) {
+			total += e.estimatedMemoryUsage();
+		}
+		return total;
+	}
+
+	/** @return number of times a search was found in the cache */
+	public synchronized long getNumberOfHits() {
+		return numberOfHits;
+	}
+
+	/** @return number of times a search was not found in the cache */
+	public synchronized long getNumberOfMisses() {
+		return numberOfMisses;
+	}
+
+	/** @return number of searches evicted to stay within the size limits */
+	public synchronized long getNumberOfEvictions() {
+		return numberOfEvictions;
+	}
+
+	/**
+	 * Get statistics about the cached searches, most recently used last.
+	 *
+	 * Each line contains the number of times the search was found in the cache,
+	 * its age in ms, its estimated memory usage and its key.
+	 *
+	 * @return the statistics
+	 */
+	public synchronized List<String> getEntryStatistics() {
+		List<String> result = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Entry> me: entries.entrySet()) {
+			Entry e = me.getValue();
+			result.add(e.timesUsed + "\t" + (now - e.createdTime) + "\t" + e.estimatedMemoryUsage() + "\t" + me.getKey());
+		}
+		return result;
+	}
+
+	/** @return the maximum estimated memory to use (-1 for no limit) */
+	public long getMaxMemoryUsage() {
+		return maxMemoryUsage;
+	}
+
+	/** @param maxMemoryUsage the maximum estimated memory to use (-1 for no limit) */
+	public synchronized void setMaxMemoryUsage(long maxMemoryUsage) {
+		this.maxMemoryUsage = maxMemoryUsage;
+		evict();
+	}
+
+	/** @return the maximum number of searches to cache (-1 for no limit) */
+	public int getMaxNumberOfEntries() {
+		return maxNumberOfEntries;
+	}
+
+	/** @param maxNumberOfEntries the maximum number of searches to cache (-1 for no limit) */
+	public synchronized void setMaxNumberOfEntries(int maxNumberOfEntries) {
+		this.maxNumberOfEntries = maxNumberOfEntries;
+		evict();
+	}
+
+	/** @return maximum age of a cached search in ms (-1 for no limit) */
+	public long getMaxAgeMs() {
+		return maxAgeMs;
+	}
+
+	/** @param maxAgeMs maximum age of a cached search in ms (-1 for no limit) */
+	public synchronized void setMaxAgeMs(long maxAgeMs) {
+		this.maxAgeMs = maxAgeMs;
+		evict();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "SearchCache(" + entries.size() + " searches, ~" + estimatedMemoryUsage() + " bytes, "
+				+ numberOfHits + " hits, " + numberOfMisses + " misses, " + numberOfEvictions + " evictions)";
+	}
+
+}
@@ -33,6 +33,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -47,6 +53,7 @@ import nl.inl.blacklab.externalstorage.ContentStoreDirFixedBlock;
 import nl.inl.blacklab.externalstorage.ContentStoreDirUtf8;
 import nl.inl.blacklab.externalstorage.ContentStoreDirZip;
 import nl.inl.blacklab.forwardindex.ForwardIndex;
+import nl.inl.blacklab.forwardindex.TagIndex;
 import nl.inl.blacklab.forwardindex.Terms;
 import nl.inl.blacklab.highlight.XmlHighlighter;
 import nl.inl.blacklab.highlight.XmlHighlighter.HitCharSpan;
@@ -57,11 +64,18 @@ import nl.inl.blacklab.search.indexstructure.ComplexFieldDesc;
 import nl.inl.blacklab.search.indexstructure.IndexStructure;
 import nl.inl.blacklab.search.indexstructure.MetadataFieldDesc;
 import nl.inl.blacklab.search.indexstructure.PropertyDesc;
+import nl.inl.blacklab.search.lucene.QueryPlan;
+import nl.inl.blacklab.search.lucene.SpansCache;
+import nl.inl.blacklab.search.lucene.TermExpansionCache;
+import nl.inl.blacklab.search.lucene.QueryPlanner;
+import nl.inl.blacklab.search.lucene.QueryProfiler;
 import nl.inl.blacklab.search.lucene.SpanQueryFiltered;
 import nl.inl.blacklab.search.lucene.TextPatternTranslatorSpanQuery;
+import nl.inl.util.AccessStats;
 import nl.inl.util.ExUtil;
 import nl.inl.util.LogUtil;
 import nl.inl.util.LuceneUtil;
+import nl.inl.util.Metrics;
 import nl.inl.util.Utilities;
 import nl.inl.util.VersionFile;
 
@@ -84,6 +98,7 @@ import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LRUQueryCache;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.TopDocs;
@@ -112,6 +127,9 @@ public class Searcher implements Closeable {
 	/** Complex field name for default contents field */
 	public static final String DEFAULT_CONTENTS_FIELD_NAME = "contents";
 
+	/** Kind of access statistics for documents (see getDocumentAccessCategory()) */
+	public static final String DOCUMENT_ACCESS_CATEGORY = "docs";
+
 	/** The collator to use for sorting. Defaults to English collator. */
 	private static Collator defaultCollator = Collator.getInstance(new Locale("en", "GB"));
 
@@ -155,9 +173,20 @@ public class Searcher implements Closeable {
 	 * up grouping and sorting. There may be several indices on a complex field, e.g.: word form,
 	 * lemma, part of speech.
 	 *
-	 * Indexed by property name.
+	 * Indexed by property name. Concurrent because forward indices may be opened
+	 * from several search threads at once.
+	 */
+	private Map<String, ForwardIndex> forwardIndices = new ConcurrentHashMap<>();
+
+	/**
+	 * Tag indices store the elements of certain tags (e.g. sentences) per document,
+	 * to quickly find the element(s) containing a hit. They are stored alongside the
+	 * forward index of the main property.
+	 *
+	 * Indexed by complex field name, then by tag name. The inner map contains a null
+	 * value for tags we know have no tag index.
 	 */
-	private Map<String, ForwardIndex> forwardIndices = new HashMap<>();
+	private Map<String, Map<String, TagIndex>> tagIndices = new HashMap<>();
 
 	/**
 	 * The Lucene index reader
@@ -188,6 +217,9 @@ public class Searcher implements Closeable {
 	 */
 	private File indexLocation;
 
+	/** Category for recording document accesses (see AccessStats) */
+	private String documentAccessCategory;
+
 	/** Structure of our index */
 	private IndexStructure indexStructure;
 
@@ -217,6 +249,293 @@ public class Searcher implements Closeable {
 	/** How we fix well-formedness for snippets of XML: by adding or removing unbalanced tags */
 	private UnbalancedTagsStrategy defaultUnbalancedTagsStrategy = UnbalancedTagsStrategy.ADD_TAG;
 
+	/** Cache for search results (null if not caching) */
+	private SearchCache searchCache = null;
+
+	/** Use term statistics to plan query execution? */
+	private boolean useQueryPlanner = true;
+
+	/** May the query planner check common tokens using the forward index? */
+	private boolean useForwardIndexMatching = false;
+
+	/** How many times more hits than the anchor a clause must have to be checked using the forward index */
+	private double forwardIndexMatchingThreshold = QueryPlanner.DEFAULT_FORWARD_INDEX_MATCHING_THRESHOLD;
+
+	/** Use tag indices (if available) for within/containing queries? */
+	private boolean useTagIndex = true;
+
+	/** Default maximum number of filters to keep doc id sets for */
+	private static final int DEFAULT_FILTER_CACHE_MAX_FILTERS = 100;
+
+	/** Default maximum memory to use for cached filter doc id sets (bytes) */
+	private static final long DEFAULT_FILTER_CACHE_MAX_MEMORY = 64 * 1024 * 1024;
+
+	/** Per-segment cache for filter doc id sets (null if not caching) */
+	private LRUQueryCache filterCache = new LRUQueryCache(DEFAULT_FILTER_CACHE_MAX_FILTERS,
+			DEFAULT_FILTER_CACHE_MAX_MEMORY);
+
+	/** Per-segment cache for the hits of expensive clauses (null if not caching) */
+	private SpansCache spansCache = null;
+
+	/** Default maximum total number of terms to keep in the term expansion cache */
+	private static final long DEFAULT_TERM_EXPANSION_CACHE_MAX_TERMS = 100000;
+
+	/** Default maximum number of terms of a single expansion (per segment) to cache */
+	private static final int DEFAULT_TERM_EXPANSION_CACHE_MAX_TERMS_PER_ENTRY = 10000;
+
+	/** Per-segment cache for the terms that multi-term clauses expand to (null if not caching) */
+	private TermExpansionCache termExpansionCache = new TermExpansionCache(DEFAULT_TERM_EXPANSION_CACHE_MAX_TERMS,
+			DEFAULT_TERM_EXPANSION_CACHE_MAX_TERMS_PER_ENTRY);
+
+	/** Budget for the memory used by all search results (null if no budget) */
+	private MemoryBudget memoryBudget = null;
+
+	/** Maximum memory used by the results of a single query, or -1 for no limit */
+	private long maxQueryMemoryUsage = -1;
+
+	/**
+	 * Get the search result cache.
+	 *
+	 * @return the cache, or null if we're not caching search results
+	 */
+	public SearchCache getSearchCache() {
+		return searchCache;
+	}
+
+	/**
+	 * Set the search result cache.
+	 *
+	 * If set, find() will return (a copy of) cached Hits objects for searches
+	 * that were executed before. Each client gets its own copy, which reads the
+	 * hits from the cached search as they're needed (within the client's own
+	 * deadline, if any), so hits are only retrieved once. Use the cache's sortedBy(), groupedBy() and perDocResults()
+	 * methods to get (cached) derived results.
+	 *
+	 * @param searchCache the cache to use, or null to disable caching (the default)
+	 */
+	public void setSearchCache(SearchCache searchCache) {
+		this.searchCache = searchCache;
+	}
+
+	/**
+	 * Was this searcher opened in index mode?
+	 * @return true if it was, false if it's search-only
+	 */
+	public boolean isIndexMode() {
+		return indexMode;
+	}
+
+	/**
+	 * Are we using term statistics to plan query execution?
+	 * @return true if we are, false if not
+	 */
+	public boolean isUseQueryPlanner() {
+		return useQueryPlanner;
+	}
+
+	/**
+	 * Set whether to use term statistics to plan query execution.
+	 *
+	 * The query planner estimates the number of hits for each part of a query
+	 * and uses that to choose the order in which to join sequence clauses,
+	 * starting from the rarest clause. It is used by default.
+	 *
+	 * @param useQueryPlanner true to use the query planner, false to translate
+	 *   queries as-is
+	 */
+	public void setUseQueryPlanner(boolean useQueryPlanner) {
+		this.useQueryPlanner = useQueryPlanner;
+	}
+
+	/**
+	 * May the query planner check common tokens using the forward index?
+	 * @return true if it may, false if not
+	 */
+	public boolean isUseForwardIndexMatching() {
+		return useForwardIndexMatching;
+	}
+
+	/**
+	 * Set whether the query planner may check common tokens using the forward index.
+	 *
+	 * If a sequence combines a rare clause with common single-token clauses, the planner
+	 * may find the rare clause and check the surrounding tokens using the forward index.
+	 * This assumes each position in the forward index has the same value as in the
+	 * Lucene index, which is not the case if several values were indexed at the same
+	 * position (e.g. synonyms): the forward index only stores one of them, so results
+	 * would differ. That's why this is off by default; only enable it for indices
+	 * without such tokens.
+	 *
+	 * @param useForwardIndexMatching true if the planner may use the forward index (default false)
+	 */
+	public void setUseForwardIndexMatching(boolean useForwardIndexMatching) {
+		this.useForwardIndexMatching = useForwardIndexMatching;
+	}
+
+	/**
+	 * Get how many times more hits than the rarest clause of a sequence a neighbouring
+	 * single-token clause must have before the planner checks it using the forward index.
+	 *
+	 * @return the threshold
+	 */
+	public double getForwardIndexMatchingThreshold() {
+		return forwardIndexMatchingThreshold;
+	}
+
+	/**
+	 * Set how many times more hits than the rarest clause of a sequence a neighbouring
+	 * single-token clause must have before the planner checks it using the forward index.
+	 *
+	 * Only used if forward index matching is enabled (see setUseForwardIndexMatching()).
+	 *
+	 * @param forwardIndexMatchingThreshold the threshold (default 10)
+	 */
+	public void setForwardIndexMatchingThreshold(double forwardIndexMatchingThreshold) {
+		this.forwardIndexMatchingThreshold = forwardIndexMatchingThreshold;
+	}
+
+	/**
+	 * Are we using tag indices (if available) for within/containing queries?
+	 * @return true if we are, false if not
+	 */
+	public boolean isUseTagIndex() {
+		return useTagIndex;
+	}
+
+	/**
+	 * Set whether to use tag indices (if available) for within/containing queries.
+	 *
+	 * If a tag index exists for a tag (see the "tagIndex" indexer parameter),
+	 * queries like "x" within &lt;s/&gt; look up the elements containing each hit
+	 * in the tag index, instead of merging the start tag postings. Only takes
+	 * effect for queries created after calling this.
+	 *
+	 * @param useTagIndex true to use tag indices (the default), false to always use the postings
+	 */
+	public void setUseTagIndex(boolean useTagIndex) {
+		this.useTagIndex = useTagIndex;
+	}
+
+	/**
+	 * Get the filter cache.
+	 *
+	 * @return the filter cache, or null if filters are not cached
+	 */
+	public LRUQueryCache getFilterCache() {
+		return filterCache;
+	}
+
+	/**
+	 * Set the filter cache.
+	 *
+	 * The filter cache keeps the doc id sets for metadata filters (subcorpora)
+	 * per index segment, so repeated searches in the same subcorpus don't have
+	 * to evaluate the filter again. Entries for a segment are dropped automatically
+	 * when that segment is closed. By default, a cache of up to 100 filters
+	 * using up to 64 MB is used.
+	 *
+	 * @param filterCache the cache to use, or null to disable filter caching
+	 */
+	public void setFilterCache(LRUQueryCache filterCache) {
+		this.filterCache = filterCache;
+	}
+
+	/**
+	 * Get the spans cache.
+	 *
+	 * @return the spans cache, or null if clause hits are not cached
+	 */
+	public SpansCache getSpansCache() {
+		return spansCache;
+	}
+
+	/**
+	 * Set the spans cache.
+	 *
+	 * The spans cache keeps the hits of expensive clauses (regular expressions,
+	 * wildcards, prefixes and fuzzy terms, which may expand to many terms) per
+	 * index segment, so queries sharing such a clause don't have to expand and
+	 * merge it again. Only takes effect for queries created after calling this.
+	 * Not used by default.
+	 *
+	 * @param spansCache the cache to use, or null to disable caching (the default)
+	 */
+	public void setSpansCache(SpansCache spansCache) {
+		this.spansCache = spansCache;
+	}
+
+	/**
+	 * Get the term expansion cache.
+	 *
+	 * @return the term expansion cache, or null if expansions are not cached
+	 */
+	public TermExpansionCache getTermExpansionCache() {
+		return termExpansionCache;
+	}
+
+	/**
+	 * Set the term expansion cache.
+	 *
+	 * The term expansion cache keeps the terms that regular expressions,
+	 * wildcards, prefixes and fuzzy terms expand to per index segment, so
+	 * we don't have to run the pattern over the terms dictionary for each query.
+	 * The query planner also gets its estimates for these clauses from this cache,
+	 * so the expansion is shared with the search itself.
+	 * Only takes effect for queries created after calling this.
+	 * By default, a cache of up to 100,000 terms is used, caching expansions
+	 * of up to 10,000 terms per segment.
+	 *
+	 * @param termExpansionCache the cache to use, or null to disable caching
+	 */
+	public void setTermExpansionCache(TermExpansionCache termExpansionCache) {
+		this.termExpansionCache = termExpansionCache;
+	}
+
+	/**
+	 * Get the global memory budget for search results.
+	 *
+	 * @return the budget, or null if there is none
+	 */
+	public MemoryBudget getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Set the global memory budget for search results.
+	 *
+	 * Hits objects created after calling this count against the budget, as do
+	 * the per-document results and groups made from them. Use
+	 * MemoryBudget.getUsageReport() to see which queries use the most memory.
+	 * Not used by default.
+	 *
+	 * @param memoryBudget the budget, or null for none (the default)
+	 */
+	public void setMemoryBudget(MemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Get the maximum memory the results of a single query may use.
+	 *
+	 * @return the maximum number of bytes, or -1 for no limit
+	 */
+	public long getMaxQueryMemoryUsage() {
+		return maxQueryMemoryUsage;
+	}
+
+	/**
+	 * Set the maximum memory the results of a single query may use.
+	 *
+	 * Each Hits object created after calling this gets its own budget (part
+	 * of the global budget, if there is one). If it's exceeded, we stop
+	 * retrieving hits (see Hits.memoryBudgetExceeded()).
+	 *
+	 * @param maxQueryMemoryUsage the maximum number of bytes, or -1 for no limit (the default)
+	 */
+	public void setMaxQueryMemoryUsage(long maxQueryMemoryUsage) {
+		this.maxQueryMemoryUsage = maxQueryMemoryUsage;
+	}
+
 	/**
 	 * How do we fix well-formedness for snippets of XML?
 	 * @return the setting: either adding or removing unbalanced tags
@@ -281,7 +600,7 @@ public class Searcher implements Closeable {
 	/** The index writer. Only valid in indexMode. */
 	private IndexWriter indexWriter = null;
 
-	/** Thread that automatically warms up the forward indices, if enabled. */
+	/** Thread that automatically warms up the forward indices (loads TOCs and terms, builds term indices) */
 	private Thread buildTermIndicesThread;
 
 	/** Analyzer used for indexing our metadata fields */
@@ -427,6 +746,7 @@ public class Searcher implements Closeable {
 			reader = DirectoryReader.open(FSDirectory.open(indexPath));
 		}
 		this.indexLocation = indexDir;
+		documentAccessCategory = AccessStats.category(DOCUMENT_ACCESS_CATEGORY, indexDir);
 
 		// Determine the index structure
 		indexStructure = new IndexStructure(reader, indexDir, createNewIndex, indexTemplateFile);
@@ -592,6 +912,14 @@ public class Searcher implements Closeable {
 	@Override
 	public void close() {
 		try {
+			if (searchCache != null)
+				searchCache.clear();
+			if (filterCache != null)
+				filterCache.clear();
+			if (spansCache != null)
+				spansCache.clear();
+			if (termExpansionCache != null)
+				termExpansionCache.clear();
 			reader.close();
 			if (indexWriter != null) {
 				indexWriter.commit();
@@ -619,6 +947,14 @@ public class Searcher implements Closeable {
 				fi.close();
 			}
 
+			// Close the tag indices
+			for (Map<String, TagIndex> tis: tagIndices.values()) {
+				for (TagIndex ti: tis.values()) {
+					if (ti != null)
+						ti.close();
+				}
+			}
+
 			// Close the content accessor(s)
 			// (the ContentStore, and possibly other content accessors
 			// (although that feature is not used right now))
@@ -658,12 +994,58 @@ public class Searcher implements Closeable {
 				throw new RuntimeException("Negative document id");
 			if (doc >= reader.maxDoc())
 				throw new RuntimeException("Document id >= maxDoc");
-			return reader.document(doc);
+			Document d = reader.document(doc);
+			if (AccessStats.isEnabled())
+				recordDocumentAccess(d);
+			return d;
 		} catch (Exception e) {
 			throw ExUtil.wrapRuntimeException(e);
 		}
 	}
 
+	/**
+	 * Record a document access in the access statistics (see AccessStats).
+	 *
+	 * Documents are identified by their id in the main forward index, because
+	 * Lucene document ids change when segments are merged.
+	 *
+	 * @param d the document that was accessed
+	 */
+	private void recordDocumentAccess(Document d) {
+		String fieldPropName = getDocumentAccessKeyField();
+		if (fieldPropName == null)
+			return;
+		String fiid = d.get(ComplexFieldUtil.forwardIndexIdField(fieldPropName));
+		if (fiid != null)
+			AccessStats.record(documentAccessCategory, Integer.parseInt(fiid));
+	}
+
+	/**
+	 * Get the category for recording document accesses in the access statistics.
+	 *
+	 * Keys are main forward index ids (see getDocumentAccessKeyField()). The
+	 * category includes the index directory, so each index has its own statistics.
+	 *
+	 * @return the category, e.g. "docs:/data/index"
+	 */
+	public String getDocumentAccessCategory() {
+		return documentAccessCategory;
+	}
+
+	/**
+	 * Get the forward index whose ids identify documents in the access statistics.
+	 *
+	 * @return the main property of the main contents field, e.g. "contents%word",
+	 *   or null if there is none
+	 */
+	String getDocumentAccessKeyField() {
+		ComplexFieldDesc mainContentsField = indexStructure.getMainContentsField();
+		if (mainContentsField == null || mainContentsField.getMainProperty() == null)
+			return null;
+		return ComplexFieldUtil.propertyField(mainContentsField.getName(),
+				mainContentsField.getMainProperty().getName());
+	}
+
 	/**
 	 * Checks if a document has been deleted from the index
 	 * @param doc the document id
@@ -683,20 +1065,61 @@ public class Searcher implements Closeable {
 	}
 
 	public SpanQuery filterDocuments(SpanQuery query, Filter filter) {
-		return new SpanQueryFiltered(query, filter);
+		return new SpanQueryFiltered(query, filter, filterCache);
 	}
 
 	public SpanQuery createSpanQuery(TextPattern pattern, String fieldName, Filter filter) {
 		// Convert to SpanQuery
-		pattern = pattern.rewrite();
-		TextPatternTranslatorSpanQuery spanQueryTranslator = new TextPatternTranslatorSpanQuery();
-		SpanQuery spanQuery = pattern.translate(spanQueryTranslator,
-				getDefaultExecutionContext(fieldName));
+		SpanQuery spanQuery;
+		if (useQueryPlanner) {
+			spanQuery = getQueryPlan(pattern, fieldName).getQuery();
+		} else {
+			pattern = pattern.rewrite();
+			TextPatternTranslatorSpanQuery spanQueryTranslator = new TextPatternTranslatorSpanQuery();
+			spanQuery = pattern.translate(spanQueryTranslator,
+					getDefaultExecutionContext(fieldName));
+		}
 		if (filter != null)
-			spanQuery = new SpanQueryFiltered(spanQuery, filter);
+			spanQuery = new SpanQueryFiltered(spanQuery, filter, filterCache);
 		return spanQuery;
 	}
 
+	/**
+	 * Rewrite a pattern and plan its execution, using term statistics.
+	 *
+	 * This is what createSpanQuery() does (unless the query planner is disabled);
+	 * call it directly to inspect the estimates and decisions made.
+	 *
+	 * @param pattern the pattern to plan
+	 * @param fieldName the complex field to search
+	 * @return the query plan
+	 */
+	public QueryPlan getQueryPlan(TextPattern pattern, String fieldName) {
+		pattern = pattern.rewrite();
+		return createQueryPlanner().plan(pattern, getDefaultExecutionContext(fieldName));
+	}
+
+	/**
+	 * Create a query planner with our settings.
+	 * @return the query planner
+	 */
+	private QueryPlanner createQueryPlanner() {
+		QueryPlanner planner = new QueryPlanner(reader);
+		planner.setUseForwardIndex(useForwardIndexMatching);
+		planner.setForwardIndexMatchingThreshold(forwardIndexMatchingThreshold);
+		return planner;
+	}
+
+	/**
+	 * Rewrite a pattern and plan its execution, using term statistics.
+	 *
+	 * @param pattern the pattern to plan
+	 * @return the query plan
+	 */
+	public QueryPlan getQueryPlan(TextPattern pattern) {
+		return getQueryPlan(pattern, mainContentsFieldName);
+	}
+
 	public SpanQuery createSpanQuery(TextPattern pattern, Filter filter) {
 		return createSpanQuery(pattern, mainContentsFieldName, filter);
 	}
@@ -721,7 +1144,22 @@ public class Searcher implements Closeable {
 	 *             if a wildcard or regular expression term is overly broad
 	 */
 	public Hits find(SpanQuery query, String fieldNameConc) throws BooleanQuery.TooManyClauses {
-		return new Hits(this, fieldNameConc, query);
+		Metrics.counter("searcher.find").inc();
+		SearchCache cache = searchCache;
+		if (cache == null)
+			return new Hits(this, fieldNameConc, query);
+
+		// See if we've executed this search before
+		// (we always return a copy, so clients can't affect each other's results)
+		String key = SearchCache.key(this, query, fieldNameConc);
+		long indexVersion = reader.getVersion();
+		Hits hits = cache.get(key, indexVersion);
+		if (hits == null) {
+			hits = cache.put(key, new Hits(this, fieldNameConc, query), indexVersion);
+		} else {
+			Metrics.counter("searcher.find.cacheHits").inc();
+		}
+		return hits;
 	}
 
 	/**
@@ -734,7 +1172,7 @@ public class Searcher implements Closeable {
 	 *             if a wildcard or regular expression term is overly broad
 	 */
 	public Hits find(SpanQuery query) throws BooleanQuery.TooManyClauses {
-		return new Hits(this, mainContentsFieldName, query);
+		return find(query, mainContentsFieldName);
 	}
 
 	/**
@@ -753,7 +1191,40 @@ public class Searcher implements Closeable {
 	 */
 	public Hits find(TextPattern pattern, String fieldName, Filter filter)
 			throws BooleanQuery.TooManyClauses {
-		return new Hits(this, fieldName, createSpanQuery(pattern, fieldName, filter));
+		return find(createSpanQuery(pattern, fieldName, filter), fieldName);
+	}
+
+	/**
+	 * Find hits for a pattern, recording execution statistics for each operator.
+	 *
+	 * Useful to find out which part of a slow query is responsible. The query
+	 * is planned like find() does (unless the query planner is disabled, see
+	 * getQueryPlan()), so the statistics apply to the query as it's normally
+	 * executed; the search cache is bypassed. The statistics are complete after
+	 * all hits have been read.
+	 *
+	 * @param pattern the pattern to find
+	 * @param fieldName field to find pattern in
+	 * @param filter determines which documents to search, or null for all
+	 * @return the hits and the statistics
+	 */
+	public QueryProfile profile(TextPattern pattern, String fieldName, Filter filter) {
+		QueryProfiler profiler = useQueryPlanner ? new QueryProfiler(createQueryPlanner()) : new QueryProfiler();
+		SpanQuery spanQuery = profiler.translate(pattern.rewrite(), getDefaultExecutionContext(fieldName));
+		if (filter != null)
+			spanQuery = profiler.filter(spanQuery, filter, filterCache);
+		return new QueryProfile(new Hits(this, fieldName, spanQuery), profiler.getRoot());
+	}
+
+	/**
+	 * Find hits for a pattern, recording execution statistics for each operator.
+	 *
+	 * @param pattern the pattern to find
+	 * @param filter determines which documents to search, or null for all
+	 * @return the hits and the statistics
+	 */
+	public QueryProfile profile(TextPattern pattern, Filter filter) {
+		return profile(pattern, mainContentsFieldName, filter);
 	}
 
 	/**
@@ -802,6 +1273,152 @@ public class Searcher implements Closeable {
 		return find(pattern, mainContentsFieldName, null);
 	}
 
+	/**
+	 * Count the hits for a query, without retrieving them.
+	 *
+	 * This is much faster than Hits.totalSize() if you don't need the hits
+	 * themselves, because no Hit objects are created.
+	 *
+	 * @param query the query to count hits for
+	 * @param maxHitsToCount the maximum number of hits to count, or -1 for no limit
+	 * @param pool the pool to count the index segments in in parallel, or null to
+	 *   count them in the calling thread
+	 * @return the number of hits and documents
+	 * @throws BooleanQuery.TooManyClauses
+	 *             if a wildcard or regular expression term is overly broad
+	 */
+	public HitCount count(SpanQuery query, int maxHitsToCount, ForkJoinPool pool) throws BooleanQuery.TooManyClauses {
+		return new HitCounter(reader, query).count(maxHitsToCount, pool);
+	}
+
+	/**
+	 * Count the hits for a query, without retrieving them.
+	 *
+	 * Counts at most Hits.getDefaultMaxHitsToCount() hits, in the calling thread.
+	 *
+	 * @param query the query to count hits for
+	 * @return the number of hits and documents
+	 * @throws BooleanQuery.TooManyClauses
+	 *             if a wildcard or regular expression term is overly broad
+	 */
+	public HitCount count(SpanQuery query) throws BooleanQuery.TooManyClauses {
+		return count(query, Hits.getDefaultMaxHitsToCount(), null);
+	}
+
+	/**
+	 * Count the hits for a pattern, without retrieving them.
+	 *
+	 * Counts at most Hits.getDefaultMaxHitsToCount() hits, in the calling thread.
+	 *
+	 * @param pattern the pattern to count hits for
+	 * @param filter determines which documents to search, or null for all
+	 * @return the number of hits and documents
+	 * @throws BooleanQuery.TooManyClauses
+	 *             if a wildcard or regular expression term is overly broad
+	 */
+	public HitCount count(TextPattern pattern, Filter filter) throws BooleanQuery.TooManyClauses {
+		return count(createSpanQuery(pattern, filter));
+	}
+
+	/**
+	 * Count the hits for a pattern, without retrieving them.
+	 *
+	 * Counts at most Hits.getDefaultMaxHitsToCount() hits, in the calling thread.
+	 *
+	 * @param pattern the pattern to count hits for
+	 * @return the number of hits and documents
+	 * @throws BooleanQuery.TooManyClauses
+	 *             if a wildcard or regular expression term is overly broad
+	 */
+	public HitCount count(TextPattern pattern) throws BooleanQuery.TooManyClauses {
+		return count(createSpanQuery(pattern));
+	}
+
+	/**
+	 * Estimate the number of hits for a query by counting a random sample of the documents.
+	 *
+	 * The estimate can be refined later by counting more documents; see HitCountEstimate.
+	 *
+	 * @param query the query to estimate the number of hits for
+	 * @param fractionToCount fraction of the documents to count initially (0-1)
+	 * @param seed seed for choosing the documents to count, so estimates are reproducible
+	 * @return the estimate
+	 * @throws BooleanQuery.TooManyClauses
+	 *             if a wildcard or regular expression term is overly broad
+	 */
+	public HitCountEstimate estimateCount(SpanQuery query, double fractionToCount, long seed) throws BooleanQuery.TooManyClauses {
+		HitCountEstimate estimate = new HitCountEstimate(reader, new HitCounter(reader, query),
+				HitCountEstimate.DEFAULT_NUMBER_OF_BLOCKS, seed);
+		estimate.refineTo(fractionToCount);
+		return estimate;
+	}
+
+	/**
+	 * Estimate the number of hits for a pattern by counting a random sample of the documents.
+	 *
+	 * @param pattern the pattern to estimate the number of hits for
+	 * @param filter determines which documents to search, or null for all
+	 * @param fractionToCount fraction of the documents to count initially (0-1)
+	 * @param seed seed for choosing the documents to count, so estimates are reproducible
+	 * @return the estimate
+	 * @throws BooleanQuery.TooManyClauses
+	 *             if a wildcard or regular expression term is overly broad
+	 */
+	public HitCountEstimate estimateCount(TextPattern pattern, Filter filter, double fractionToCount, long seed) throws BooleanQuery.TooManyClauses {
+		return estimateCount(createSpanQuery(pattern, filter), fractionToCount, seed);
+	}
+
+	/**
+	 * Take a random sample of the hits for a query, without retrieving all hits.
+	 *
+	 * Only the sample is kept in memory, so this also works for queries with
+	 * more hits than the maximum number of hits to retrieve. Captured groups
+	 * are not included in the sample.
+	 *
+	 * @param query the query to sample hits from
+	 * @param sampleSize number of hits to sample (if there are fewer hits, all are returned)
+	 * @param seed seed for the random number generator, so samples are reproducible
+	 * @param docSamplingRate probability of visiting each matching document. With 1.0,
+	 *   each hit has the same chance of being sampled; lower values are faster (hits in
+	 *   skipped documents are never visited) but produce a sample clustered by document
+	 * @return the sampled hits, sorted
+	 * @throws BooleanQuery.TooManyClauses
+	 *             if a wildcard or regular expression term is overly broad
+	 */
+	public Hits sample(SpanQuery query, int sampleSize, long seed, double docSamplingRate) throws BooleanQuery.TooManyClauses {
+		HitSampler sampler = new HitSampler(reader, new HitCounter(reader, query), sampleSize, seed);
+		return new Hits(this, sampler.sample(docSamplingRate));
+	}
+
+	/**
+	 * Take a uniform random sample of the hits for a query, without retrieving all hits.
+	 *
+	 * @param query the query to sample hits from
+	 * @param sampleSize number of hits to sample (if there are fewer hits, all are returned)
+	 * @param seed seed for the random number generator, so samples are reproducible
+	 * @return the sampled hits, sorted
+	 * @throws BooleanQuery.TooManyClauses
+	 *             if a wildcard or regular expression term is overly broad
+	 */
+	public Hits sample(SpanQuery query, int sampleSize, long seed) throws BooleanQuery.TooManyClauses {
+		return sample(query, sampleSize, seed, 1.0);
+	}
+
+	/**
+	 * Take a uniform random sample of the hits for a pattern, without retrieving all hits.
+	 *
+	 * @param pattern the pattern to sample hits from
+	 * @param filter determines which documents to search, or null for all
+	 * @param sampleSize number of hits to sample (if there are fewer hits, all are returned)
+	 * @param seed seed for the random number generator, so samples are reproducible
+	 * @return the sampled hits, sorted
+	 * @throws BooleanQuery.TooManyClauses
+	 *             if a wildcard or regular expression term is overly broad
+	 */
+	public Hits sample(TextPattern pattern, Filter filter, int sampleSize, long seed) throws BooleanQuery.TooManyClauses {
+		return sample(createSpanQuery(pattern, filter), sampleSize, seed);
+	}
+
 	/**
 	 * Find matching documents and their scores for a pattern.
 	 *
@@ -1403,6 +2020,9 @@ public class Searcher implements Closeable {
 	/**
 	 * Opens all the forward indices, to avoid this delay later.
 	 *
+	 * In search mode, this only opens the files; the TOCs and terms are loaded
+	 * in parallel by a background thread (see warmUpForwardIndices()).
+	 *
 	 * NOTE: used to be public; now private because it's done automatically when
 	 * constructing the Searcher.
 	 */
@@ -1419,11 +2039,11 @@ public class Searcher implements Closeable {
 		}
 
 		if (!indexMode) {
-			// Start a background thread to build term indices
+			// Start a background thread to load the forward indices and build term indices
 			buildTermIndicesThread = new Thread(new Runnable() {
 				@Override
 				public void run() {
-					buildAllTermIndices(); // speed up first call to Terms.indexOf()
+					warmUpForwardIndices();
 				}
 			});
 			buildTermIndicesThread.start();
@@ -1447,6 +2067,45 @@ public class Searcher implements Closeable {
 		}
 	}
 
+	/**
+	 * Warm up all forward indices in parallel.
+	 *
+	 * In search mode, forward indices read their table of contents and terms file
+	 * on first use. Doing this for each of them one after the other can take a long
+	 * time for indices with many properties, so we load them in parallel and build
+	 * the term indices at the same time (speeds up the first call to Terms.indexOf()).
+	 *
+	 * Stops early if the calling thread is interrupted (i.e. the Searcher is closed).
+	 */
+	void warmUpForwardIndices() {
+		List<ForwardIndex> fis = new ArrayList<>(forwardIndices.values());
+		if (fis.isEmpty())
+			return;
+		int numberOfThreads = Math.min(fis.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (final ForwardIndex fi: fis) {
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						fi.getNumDocs(); // loads the TOC
+						fi.getTerms().buildTermIndex(); // loads the terms
+					}
+				}));
+			}
+			for (Future<?> f: futures) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			// Searcher is being closed; stop warming up
+		} catch (ExecutionException e) {
+			logger.warn("Error warming up forward index", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 	/**
 	 * Tries to get the ForwardIndex object for the specified fieldname.
 	 *
@@ -1460,7 +2119,14 @@ public class Searcher implements Closeable {
 	 */
 	public ForwardIndex getForwardIndex(String fieldPropName) {
 		ForwardIndex forwardIndex = forwardIndices.get(fieldPropName);
-		if (forwardIndex == null) {
+		if (forwardIndex != null)
+			return forwardIndex;
+		// Opening is cheap (the TOC and terms are read on first use),
+		// so a single lock to avoid opening the same one twice is fine.
+		synchronized (forwardIndices) {
+			forwardIndex = forwardIndices.get(fieldPropName);
+			if (forwardIndex != null)
+				return forwardIndex;
 			File dir = new File(indexLocation, "fi_" + fieldPropName);
 
 			// Special case for old BL index with "forward" as the name of the single forward index
@@ -1486,6 +2152,74 @@ public class Searcher implements Closeable {
 		return forwardIndex;
 	}
 
+	/**
+	 * Get the tag index for the specified tag, for searching.
+	 *
+	 * @param fieldName the complex field
+	 * @param tagName the tag
+	 * @return the tag index, or null if there is none (or we're in index mode)
+	 */
+	public synchronized TagIndex getTagIndex(String fieldName, String tagName) {
+		if (indexMode)
+			return null;
+		return getTagIndices(fieldName).get(tagName);
+	}
+
+	/**
+	 * Get all tag indices for a complex field.
+	 *
+	 * Opens the existing tag indices for the field if they weren't opened yet.
+	 *
+	 * @param fieldName the complex field
+	 * @return the tag indices, indexed by tag name (may contain null values for tags
+	 *   we know have no tag index)
+	 */
+	public synchronized Map<String, TagIndex> getTagIndices(String fieldName) {
+		Map<String, TagIndex> tis = tagIndices.get(fieldName);
+		if (tis == null) {
+			tis = new HashMap<>();
+			File dir = new File(indexLocation, "ti_" + fieldName);
+			File[] tagDirs = isEmptyIndex ? null : dir.listFiles();
+			if (tagDirs != null) {
+				for (File tagDir: tagDirs) {
+					if (tagDir.isDirectory())
+						tis.put(tagDir.getName(), new TagIndex(tagDir, indexMode, false));
+				}
+			}
+			tagIndices.put(fieldName, tis);
+		}
+		return tis;
+	}
+
+	/**
+	 * Create a tag index for the specified tag.
+	 *
+	 * Tag indices can only be created together with the index, because documents
+	 * indexed without one would be missing from it. The main property of the field
+	 * should have a forward index, because documents are identified by their forward
+	 * index id.
+	 *
+	 * @param fieldName the complex field
+	 * @param tagName the tag
+	 * @return the tag index, or null if it couldn't be created
+	 */
+	public synchronized TagIndex createTagIndex(String fieldName, String tagName) {
+		if (!indexMode)
+			throw new RuntimeException("Cannot create tag index, not in index mode");
+		Map<String, TagIndex> tis = getTagIndices(fieldName);
+		if (tis.containsKey(tagName))
+			return tis.get(tagName);
+		TagIndex ti = null;
+		if (isEmptyIndex) {
+			File dir = new File(new File(indexLocation, "ti_" + fieldName), tagName);
+			ti = new TagIndex(dir, true, true);
+		} else {
+			logger.warn("Cannot add tag index for " + tagName + " to existing index; ignoring");
+		}
+		tis.put(tagName, ti);
+		return ti;
+	}
+
 	/**
 	 * Determine the concordance strings for a number of concordances, given the relevant character
 	 * positions.
@@ -1861,6 +2595,10 @@ public class Searcher implements Closeable {
 			// Finally, delete the documents from the Lucene index
 			indexWriter.deleteDocuments(q);
 
+			// Cached results may include the deleted documents
+			if (searchCache != null)
+				searchCache.clear();
+
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
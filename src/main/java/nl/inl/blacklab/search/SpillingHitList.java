@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A list of hits that spills to a temporary file once it grows beyond
+ * a single page.
+ *
+ * Hits are stored on disk as three ints each (doc, start, end), in pages
+ * of a fixed number of hits. The most recently added (incomplete) page is
+ * kept in memory, as are a few recently read pages, so sequential access
+ * and access to the current window of hits are cheap.
+ *
+ * Used by Hits in spill mode (see Hits.setSpillDirectory()). Hits objects
+ * that share the list (copies) each hold a reference; the spill file is
+ * deleted when the last one is closed (see Hits.close()).
+ */
+class SpillingHitList extends AbstractList<Hit> implements RandomAccess, Closeable {
+
+	/** Number of bytes per hit in the spill file */
+	private static final int BYTES_PER_HIT = 12;
+
+	/** Default number of hits per page */
+	static final int DEFAULT_PAGE_SIZE = 65536;
+
+	/** How many pages we keep in memory after reading them back in */
+	private static final int MAX_CACHED_PAGES = 4;
+
+	/** Directory to create the spill file in */
+	private File dir;
+
+	/** Number of hits per page */
+	private int pageSize;
+
+	/** The spill file (null until the first page is written) */
+	private File file;
+
+	/** Handle to the spill file */
+	private RandomAccessFile raf;
+
+	/** Hits not yet written to disk (at most one page) */
+	private List<Hit> tail;
+
+	/** Number of Hits objects using this list; we clean up when this reaches 0 */
+	private int references = 1;
+
+	/** Number of hits written to disk (always a multiple of pageSize) */
+	private int numberOnDisk = 0;
+
+	/** Pages recently read back in, in LRU order */
+	private Map<Integer, Hit[]> pageCache = new LinkedHashMap<Integer, Hit[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Hit[]> eldest) {
+			return size() > MAX_CACHED_PAGES;
+		}
+	};
+
+	/**
+	 * Construct a spilling hit list.
+	 *
+	 * @param dir directory to create the spill file in (null for the system temp dir)
+	 * @param pageSize number of hits per page
+	 */
+	SpillingHitList(File dir, int pageSize) {
+		this.dir = dir;
+		this.pageSize = pageSize;
+		tail = new ArrayList<>(pageSize);
+	}
+
+	/**
+	 * Construct a spilling hit list.
+	 *
+	 * @param dir directory to create the spill file in (null for the system temp dir)
+	 */
+	SpillingHitList(File dir) {
+		this(dir, DEFAULT_PAGE_SIZE);
+	}
+
+	@Override
+	public synchronized boolean add(Hit hit) {
+		tail.add(hit);
+		if (tail.size() == pageSize)
+			writeTail();
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public synchronized Hit get(int index) {
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Hit " + index + " of " + size());
+		if (index >= numberOnDisk)
+			return tail.get(index - numberOnDisk);
+		Integer page = index / pageSize;
+		Hit[] hits = pageCache.get(page);
+		if (hits == null) {
+			hits = readPage(page);
+			pageCache.put(page, hits);
+		}
+		return hits[index % pageSize];
+	}
+
+	@Override
+	public synchronized int size() {
+		return numberOnDisk + tail.size();
+	}
+
+	/**
+	 * How many hits have been written to disk?
+	 * @return number of hits in the spill file
+	 */
+	public synchronized int numberSpilled() {
+		return numberOnDisk;
+	}
+
+	private void writeTail() {
+		try {
+			if (raf == null) {
+				file = File.createTempFile("hits", ".spill", dir);
+				file.deleteOnExit();
+				raf = new RandomAccessFile(file, "rw");
+			}
+			ByteBuffer buf = ByteBuffer.allocate(tail.size() * BYTES_PER_HIT);
+			for (Hit hit: tail) {
+				buf.putInt(hit.doc);
+				buf.putInt(hit.start);
+				buf.putInt(hit.end);
+			}
+			raf.seek((long)numberOnDisk * BYTES_PER_HIT);
+			raf.write(buf.array());
+			numberOnDisk += tail.size();
+			tail.clear();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Hit[] readPage(int page) {
+		try {
+			byte[] bytes = new byte[pageSize * BYTES_PER_HIT];
+			raf.seek((long)page * pageSize * BYTES_PER_HIT);
+			raf.readFully(bytes);
+			ByteBuffer buf = ByteBuffer.wrap(bytes);
+			Hit[] hits = new Hit[pageSize];
+			for (int i = 0; i < pageSize; i++) {
+				hits[i] = new Hit(buf.getInt(), buf.getInt(), buf.getInt());
+			}
+			return hits;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Release this user's reference; if it was the last one,
+	 * close and delete the spill file.
+	 *
+	 * The list is empty afterwards.
+	 */
+	@Override
+	public synchronized void close() {
+		if (references <= 0)
+			return; // already closed
+		if (--references > 0)
+			return; // still in use by another Hits object
+		try {
+			if (raf != null) {
+				raf.close();
+				raf = null;
+			}
+			if (file != null) {
+				if (!file.delete())
+					file.deleteOnExit();
+				file = null;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		numberOnDisk = 0;
+		tail.clear();
+		pageCache.clear();
+	}
+
+	/**
+	 * Register another user of this list (e.g. a copy of a Hits object).
+	 *
+	 * Each user should call close() when done.
+	 */
+	public synchronized void retain() {
+		if (references <= 0)
+			throw new IllegalStateException("Spilling hit list already closed");
+		references++;
+	}
+
+}
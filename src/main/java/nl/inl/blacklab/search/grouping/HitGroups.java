@@ -31,6 +31,9 @@ import nl.inl.blacklab.search.Searcher;
 public abstract class HitGroups extends GroupsAbstract implements Iterable<HitGroup> {
 	Searcher searcher;
 
+	/** Did we stop before all hits were grouped? */
+	protected boolean partial = false;
+
 	public HitGroups(Searcher searcher, HitProperty groupCriteria) {
 		super(groupCriteria);
 
@@ -105,4 +108,16 @@ public abstract class HitGroups extends GroupsAbstract implements Iterable<HitGr
 	 * @return number of groups
 	 */
 	public abstract int numberOfGroups();
+
+	/**
+	 * Were only some of the hits grouped?
+	 *
+	 * This happens if the thread was interrupted, or the hits' deadline expired,
+	 * while grouping.
+	 *
+	 * @return true if the groups don't contain all hits
+	 */
+	public boolean isPartial() {
+		return partial;
+	}
 }
@@ -23,11 +23,12 @@ import java.util.List;
 import org.apache.log4j.Logger;
 
 import nl.inl.blacklab.search.Hits;
+import nl.inl.util.IntComparator;
 
 /**
  * Abstract base class for a property of a hit, like document title, hit text, right context, etc.
  */
-public abstract class HitProperty implements Comparator<Object> {
+public abstract class HitProperty implements Comparator<Object>, IntComparator {
 	protected static final Logger logger = Logger.getLogger(HitProperty.class);
 
 	/** The Hits object we're looking at */
@@ -49,14 +50,32 @@ public abstract class HitProperty implements Comparator<Object> {
 	 *
 	 * Note that we use Object as the type instead of Hit to save
 	 * on run-time type checking. We know (slash hope :-) that this
-	 * method is only ever called to compare Hits.
+	 * method is only ever called to compare (original) hit indices.
 	 *
-	 * @param a first hit
-	 * @param b second hit
+	 * Prefer compare(int, int), which avoids boxing the indices.
+	 *
+	 * @param a first hit index
+	 * @param b second hit index
+	 * @return 0 if equal, negative if a < b, positive if a > b.
+	 */
+	@Override
+	public int compare(Object a, Object b) {
+		return compare(((Integer)a).intValue(), ((Integer)b).intValue());
+	}
+
+	/**
+	 * Compares two hits on this property.
+	 *
+	 * Used to sort the int[] sort order array in Hits. May be called
+	 * from several threads at once (see Hits.sort()), so implementations
+	 * shouldn't modify any state.
+	 *
+	 * @param a original index of the first hit
+	 * @param b original index of the second hit
 	 * @return 0 if equal, negative if a < b, positive if a > b.
 	 */
 	@Override
-	public abstract int compare(Object a, Object b);
+	public abstract int compare(int a, int b);
 
 	/**
 	 * Retrieve context from which field(s) prior to sorting/grouping on this
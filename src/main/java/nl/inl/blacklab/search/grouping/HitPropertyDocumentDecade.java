@@ -62,10 +62,10 @@ public class HitPropertyDocumentDecade extends HitProperty {
 	}
 
 	@Override
-	public int compare(Object i, Object j) {
+	public int compare(int i, int j) {
 		try {
-			Hit a = hits.getByOriginalOrder((Integer)i);
-			Hit b = hits.getByOriginalOrder((Integer)j);
+			Hit a = hits.getByOriginalOrder(i);
+			Hit b = hits.getByOriginalOrder(j);
 			Document d = reader.document(a.doc);
 			String strYearA = d.get(fieldName);
 			if (strYearA == null)
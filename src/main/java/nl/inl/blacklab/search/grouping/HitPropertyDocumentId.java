@@ -39,9 +39,9 @@ public class HitPropertyDocumentId extends HitProperty {
 	}
 
 	@Override
-	public int compare(Object i, Object j) {
-		Hit a = hits.getByOriginalOrder((Integer)i);
-		Hit b = hits.getByOriginalOrder((Integer)j);
+	public int compare(int i, int j) {
+		Hit a = hits.getByOriginalOrder(i);
+		Hit b = hits.getByOriginalOrder(j);
 		return reverse ? b.doc - a.doc : a.doc - b.doc;
 	}
 
@@ -57,10 +57,10 @@ public class HitPropertyDocumentStoredField extends HitProperty {
 	}
 
 	@Override
-	public int compare(Object i, Object j) {
+	public int compare(int i, int j) {
 		try {
-			Hit a = hits.getByOriginalOrder((Integer)i);
-			Hit b = hits.getByOriginalOrder((Integer)j);
+			Hit a = hits.getByOriginalOrder(i);
+			Hit b = hits.getByOriginalOrder(j);
 			Document d = reader.document(a.doc);
 			String va = d.get(fieldName);
 			if (va == null)
@@ -134,7 +134,7 @@ public class HitPropertyMultiple extends HitProperty implements Iterable<HitProp
 	}
 
 	@Override
-	public int compare(Object i, Object j) {
+	public int compare(int i, int j) {
 		for (HitProperty crit : criteria) {
 			int cmp = crit.compare(i, j);
 			if (cmp != 0)
@@ -86,11 +86,11 @@ public class HitPropertyWordRight extends HitProperty {
 	}
 
 	@Override
-	public int compare(Object i, Object j) {
-		int[] ca = hits.getHitContext((Integer)i);
+	public int compare(int i, int j) {
+		int[] ca = hits.getHitContext(i);
 		int caRightStart = ca[Hits.CONTEXTS_RIGHT_START_INDEX];
 		int caLength = ca[Hits.CONTEXTS_LENGTH_INDEX];
-		int[] cb = hits.getHitContext((Integer)j);
+		int[] cb = hits.getHitContext(j);
 		int cbRightStart = cb[Hits.CONTEXTS_RIGHT_START_INDEX];
 		int cbLength = cb[Hits.CONTEXTS_LENGTH_INDEX];
 
@@ -26,7 +26,12 @@ import org.apache.lucene.search.spans.SpanQuery;
 
 import nl.inl.blacklab.search.Hit;
 import nl.inl.blacklab.search.Hits;
+import nl.inl.blacklab.search.MemoryConsumer;
+import nl.inl.blacklab.search.QueryDeadline;
 import nl.inl.blacklab.search.Searcher;
+import nl.inl.util.Metrics;
+import nl.inl.util.ParallelSort;
+import nl.inl.util.SearchScheduler;
 
 /**
  * Groups results on the basis of a list of criteria, and provide random access to the resulting
@@ -36,7 +41,18 @@ import nl.inl.blacklab.search.Searcher;
  * them and put each of them in a group. This takes more memory and time than if the spans to be
  * grouped are sequential (in which case you should use ResultsGrouperSequential).
  */
-public class ResultsGrouper extends HitGroups {
+public class ResultsGrouper extends HitGroups implements MemoryConsumer {
+	/**
+	 * How often (in hits) we check if we should yield to other searches.
+	 */
+	private static final int YIELD_INTERVAL = 1000;
+
+	/** Rough estimate of the memory used per group (including its Hits object) */
+	private static final int BYTES_PER_GROUP = 400;
+
+	/** Rough estimate of the memory used per hit in a group (the Hit objects themselves are shared) */
+	private static final int BYTES_PER_HIT_REFERENCE = 8;
+
 	/**
 	 * The groups.
 	 */
@@ -107,9 +123,35 @@ public class ResultsGrouper extends HitGroups {
 			hits.findContext(requiredContext);
 		}
 		contextField = hits.getContextFieldPropName();
+		long startNanos = System.nanoTime();
 		//Thread currentThread = Thread.currentThread();
 		Map<HitPropValue, List<Hit>> groupLists = new HashMap<>();
-		for (int i = 0; i < hits.size(); i++) {
+		int n = hits.size();
+		// If retrieval was cut off by the deadline, just group all the hits we have
+		QueryDeadline deadline = hits.deadlineExpired() ? null : hits.getDeadline();
+		if (requiredContext != null && contextField == null) {
+			// No time to find the context; can't group
+			n = 0;
+			partial = true;
+		}
+		for (int i = 0; i < n; i++) {
+
+			if (i % YIELD_INTERVAL == 0) {
+				// Let the search scheduler pause us or run higher priority tasks first
+				try {
+					SearchScheduler.behave();
+				} catch (InterruptedException e) {
+					// Thread was interrupted; just group the hits we have (flagged as partial).
+					Thread.currentThread().interrupt();
+					partial = true;
+					break;
+				}
+				if (deadline != null && deadline.hasExpired()) {
+					// Time's up; just group the hits we have (flagged as partial).
+					partial = true;
+					break;
+				}
+			}
 
 			HitPropValue identity = getGroupIdentity(i);
 			List<Hit> group = groupLists.get(identity);
@@ -130,6 +172,8 @@ public class ResultsGrouper extends HitGroups {
 			groups.put(groupId, group);
 			groupsOrdered.add(group);
 		}
+		Metrics.time("hits.group", startNanos);
+		Metrics.histogram("hits.group.groups").update(groups.size());
 
 		// If the group identities are context words, we should possibly merge
 		// some groups if they have identical sort orders (up to now, we've grouped on
@@ -194,7 +238,8 @@ public class ResultsGrouper extends HitGroups {
 		Comparator<Group> comparator = new ComparatorGroupProperty(prop, sortReverse,
 				searcher.getCollator());
 
-		Collections.sort(groupsOrdered, comparator);
+		// (sorts in parallel if there's many groups, e.g. when grouping on context)
+		ParallelSort.sort(groupsOrdered, comparator, Hits.getSortThreadPool());
 	}
 
 	/**
@@ -216,4 +261,22 @@ public class ResultsGrouper extends HitGroups {
 	public int numberOfGroups() {
 		return groups.size();
 	}
+
+	/**
+	 * Estimate how much memory the groups use.
+	 *
+	 * Doesn't include the hits themselves, which are shared with the
+	 * Hits object we grouped.
+	 *
+	 * @return estimated number of bytes used
+	 */
+	@Override
+	public long estimatedMemoryUsage() {
+		return (long)groups.size() * BYTES_PER_GROUP + (long)totalHits * BYTES_PER_HIT_REFERENCE;
+	}
+
+	@Override
+	public void releaseCachedMemory() {
+		// Nothing cached; the groups themselves are our results
+	}
 }
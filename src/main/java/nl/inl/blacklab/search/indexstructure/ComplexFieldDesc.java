@@ -27,6 +27,9 @@ public class ComplexFieldDesc extends BaseFieldDesc {
 	/** The field's main property name (for storing the main prop name before we have the prop. descriptions) */
 	private String mainPropertyName;
 
+	/** Alternative of the main property that has the character offsets, if known from the metadata or indexer */
+	private String mainPropertyOffsetsAlternative;
+
 	/** Does the field have an associated content store? */
 	private boolean contentStore;
 
@@ -189,7 +192,11 @@ public class ComplexFieldDesc extends BaseFieldDesc {
 			// any actual detecting.
 			mainProperty = getPropertyDesc(mainPropertyName);
 			mainPropertyName = null;
-			//return;
+
+			// If we also know which alternative has the offsets, we don't need to scan
+			// term vectors (which can be slow for large indices).
+			if (mainPropertyOffsetsAlternative != null && mainProperty.setOffsetsAlternative(mainPropertyOffsetsAlternative))
+				return;
 		}
 
 		PropertyDesc firstProperty = null;
@@ -236,6 +243,29 @@ public class ComplexFieldDesc extends BaseFieldDesc {
 			mainProperty = props.get(mainPropertyName);
 	}
 
+	/**
+	 * Set which alternative of the main property has the character offsets.
+	 *
+	 * Stored in the index metadata so we don't have to detect it each time we open the index.
+	 *
+	 * @param altName the alternative name
+	 */
+	public void setMainPropertyOffsetsAlternative(String altName) {
+		this.mainPropertyOffsetsAlternative = altName;
+	}
+
+	/**
+	 * Get the alternative of the main property that has the character offsets.
+	 *
+	 * @return the alternative name, or null if not known
+	 */
+	public String getMainPropertyOffsetsAlternative() {
+		PropertyDesc main = getMainProperty();
+		if (main != null && main.offsetsAlternative() != null)
+			return main.offsetsAlternative();
+		return mainPropertyOffsetsAlternative;
+	}
+
 	public void setNoForwardIndexProps(Set<String> noForwardIndexProps) {
 		this.noForwardIndexProps = noForwardIndexProps;
 	}
@@ -320,12 +320,17 @@ public class IndexStructure {
 			}
 			*/
 
-			jsonComplexFields.put(f.getName(), Json.object(
+			JSONObject complexFieldInfo = Json.object(
 				"displayName", f.getDisplayName(),
 				"description", f.getDescription(),
 				"mainProperty", f.getMainProperty().getName()
 				//, "properties", jsonProperties
-			));
+			);
+			// Store the detected offsets alternative so we don't have to detect it again
+			String offsetsAlternative = f.getMainPropertyOffsetsAlternative();
+			if (offsetsAlternative != null)
+				complexFieldInfo.put("offsetsAlternative", offsetsAlternative);
+			jsonComplexFields.put(f.getName(), complexFieldInfo);
 		}
 
 		// Write the file
@@ -380,12 +385,15 @@ public class IndexStructure {
 			String displayName = Json.getString(fieldConfig, "displayName", fieldName);
 			String description = Json.getString(fieldConfig, "description", "");
 			String mainProperty = Json.getString(fieldConfig, "mainProperty", "");
+			String offsetsAlternative = Json.getString(fieldConfig, "offsetsAlternative", "");
 			// TODO: useAnnotation..?
 			ComplexFieldDesc fieldDesc = new ComplexFieldDesc(fieldName);
 			fieldDesc.setDisplayName(displayName);
 			fieldDesc.setDescription(description);
 			if (mainProperty.length() > 0)
 				fieldDesc.setMainPropertyName(mainProperty);
+			if (offsetsAlternative.length() > 0)
+				fieldDesc.setMainPropertyOffsetsAlternative(offsetsAlternative);
 			String noForwardIndex = Json.getString(fieldConfig, "noForwardIndexProps", "").trim();
 			if (noForwardIndex.length() > 0) {
 				String[] noForwardIndexProps = noForwardIndex.split("\\s+");
@@ -872,6 +880,19 @@ public class IndexStructure {
 	 * @param mainPropName main property name
 	 */
 	public void registerComplexField(String fieldName, String mainPropName) {
+		registerComplexField(fieldName, mainPropName, null);
+	}
+
+	/**
+	 * While indexing, check if a complex field is already registered in the
+	 * metadata, and if not, add it now.
+	 *
+	 * @param fieldName field name
+	 * @param mainPropName main property name
+	 * @param offsetsAlternative alternative of the main property that stores
+	 *   character offsets (or null if unknown)
+	 */
+	public void registerComplexField(String fieldName, String mainPropName, String offsetsAlternative) {
 		if (complexFields.containsKey(fieldName))
 			return;
 		// Not registered yet; do so now. Note that we only add the main property,
@@ -880,6 +901,8 @@ public class IndexStructure {
 		ComplexFieldDesc cf = getOrCreateComplexField(fieldName);
 		cf.getOrCreateProperty(mainPropName); // create main property
 		cf.setMainPropertyName(mainPropName); // set main property
+		if (offsetsAlternative != null)
+			cf.setMainPropertyOffsetsAlternative(offsetsAlternative);
 	}
 
 	public void registerMetadataField(String fieldName) {
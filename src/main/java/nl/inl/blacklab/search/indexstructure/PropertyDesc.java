@@ -149,6 +149,21 @@ public class PropertyDesc {
 		return false;
 	}
 
+	/**
+	 * Set which alternative contains character offsets, if already known
+	 * (e.g. from the index metadata), so we don't have to detect it.
+	 *
+	 * @param altName name of the alternative
+	 * @return true if the alternative exists and was set, false if not
+	 */
+	public boolean setOffsetsAlternative(String altName) {
+		AltDesc alt = alternatives.get(altName);
+		if (alt == null)
+			return false;
+		offsetsAlternative = alt;
+		return true;
+	}
+
 	/**
 	 * Return which alternative contains character offset information.
 	 *
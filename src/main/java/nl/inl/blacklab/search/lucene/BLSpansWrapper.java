@@ -18,6 +18,7 @@ package nl.inl.blacklab.search.lucene;
 import java.io.IOException;
 import java.util.Collection;
 
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 import org.apache.lucene.search.spans.TermSpans;
 
@@ -162,4 +163,9 @@ public class BLSpansWrapper extends BLSpans {
 		return source.advance(target);
 	}
 
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return source.asTwoPhaseIterator();
+	}
+
 }
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.lucene.search.spans.SpanQuery;
+
+/**
+ * The result of planning a query: the SpanQuery to execute, the estimated
+ * number of hits and a description of the decisions the planner made.
+ *
+ * Useful for inspecting why a query was executed the way it was.
+ */
+public class QueryPlan {
+
+	/** The SpanQuery to execute */
+	private SpanQuery query;
+
+	/** Estimated number of hits */
+	private long estimatedHits;
+
+	/** Estimates and decisions made while planning, in order */
+	private List<String> steps;
+
+	QueryPlan(SpanQuery query, long estimatedHits, List<String> steps) {
+		this.query = query;
+		this.estimatedHits = estimatedHits;
+		this.steps = Collections.unmodifiableList(steps);
+	}
+
+	/**
+	 * Get the query to execute.
+	 * @return the planned SpanQuery
+	 */
+	public SpanQuery getQuery() {
+		return query;
+	}
+
+	/**
+	 * Get the estimated number of hits.
+	 *
+	 * This is a rough estimate based on term statistics, meant for comparing
+	 * the cost of query parts, not an accurate prediction.
+	 *
+	 * @return the estimated number of hits
+	 */
+	public long getEstimatedHits() {
+		return estimatedHits;
+	}
+
+	/**
+	 * Get the estimates and decisions made while planning, in order.
+	 * @return the planning steps
+	 */
+	public List<String> getSteps() {
+		return steps;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		b.append("Query: ").append(query).append("\n");
+		b.append("Estimated hits: ").append(estimatedHits).append("\n");
+		for (String step: steps) {
+			b.append("- ").append(step).append("\n");
+		}
+		return b.toString();
+	}
+
+}
@@ -0,0 +1,691 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.inl.blacklab.forwardindex.ForwardIndex;
+import nl.inl.blacklab.index.complex.ComplexFieldUtil;
+import nl.inl.blacklab.search.QueryExecutionContext;
+import nl.inl.blacklab.search.Searcher;
+import nl.inl.blacklab.search.TextPattern;
+import nl.inl.blacklab.search.TextPatternPositionFilter.Operation;
+import nl.inl.blacklab.search.sequences.ForwardIndexConstraint;
+import nl.inl.blacklab.search.sequences.SpanQueryForwardIndexConstraints;
+import nl.inl.util.ExUtil;
+
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.AutomatonQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+import org.apache.lucene.util.automaton.RegExp;
+import org.apache.lucene.util.automaton.TooComplexToDeterminizeException;
+
+/**
+ * Translates a (rewritten) TextPattern to a SpanQuery, using term statistics
+ * to decide how to execute it.
+ *
+ * While translating, the planner estimates the number of hits for each part of
+ * the query from the index' term statistics (total term frequency, summed over
+ * all matching terms for regex, wildcard, prefix and fuzzy queries). The matching
+ * terms are taken from the searcher's term expansion cache if it has one, so the
+ * expansion is shared with the actual search. It uses
+ * these estimates to:
+ * <ul>
+ * <li>evaluate sequences starting from the rarest clause (the anchor), joining
+ * the cheapest neighbouring clause first, so intermediate results stay small;</li>
+ * <li>check common single-token clauses next to a rare sequence clause using the
+ * forward index, instead of reading their postings (see SpanQueryForwardIndexConstraints);</li>
+ * <li>put the rarest clause first in token-level AND queries.</li>
+ * </ul>
+ *
+ * The resulting QueryPlan describes the estimates and decisions, so they can be
+ * inspected.
+ *
+ * A planner collects state while translating, so use a new instance for each query.
+ */
+public class QueryPlanner extends TextPatternTranslatorSpanQuery {
+
+	protected static final Logger logger = Logger.getLogger(QueryPlanner.class);
+
+	/** Maximum number of matching terms to examine when estimating a multi-term query without a term expansion cache */
+	private static final int MAX_TERMS_TO_EXAMINE = 10000;
+
+	/** Number of lengths we assume for an open-ended expansion or repetition */
+	private static final int ASSUMED_OPEN_ENDED_LENGTHS = 10;
+
+	/** Default value for forwardIndexMatchingThreshold */
+	public static final double DEFAULT_FORWARD_INDEX_MATCHING_THRESHOLD = 10;
+
+	/**
+	 * How many times more hits than the anchor a neighbouring single-token sequence
+	 * clause must have before we check it using the forward index
+	 */
+	private double forwardIndexMatchingThreshold = DEFAULT_FORWARD_INDEX_MATCHING_THRESHOLD;
+
+	/** The index to get term statistics from */
+	private IndexReader reader;
+
+	/** Check common single-token clauses using the forward index? */
+	private boolean useForwardIndex = false;
+
+	/** Single-token clauses that we may check using the forward index */
+	private Map<SpanQuery, SingleTokenClause> singleTokenClauses = new IdentityHashMap<>();
+
+	/** Estimated number of hits per translated query part */
+	private Map<SpanQuery, Long> estimates = new IdentityHashMap<>();
+
+	/** Number of tokens per Lucene field */
+	private Map<String, Long> totalTokens = new HashMap<>();
+
+	/** Estimates and decisions so far */
+	private List<String> steps = new ArrayList<>();
+
+	/**
+	 * Construct a query planner.
+	 * @param reader the index to get term statistics from
+	 */
+	public QueryPlanner(IndexReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Set how many times more hits than the anchor a neighbouring single-token sequence
+	 * clause must have before we check it using the forward index.
+	 *
+	 * @param threshold the threshold (default 10)
+	 */
+	public void setForwardIndexMatchingThreshold(double threshold) {
+		forwardIndexMatchingThreshold = threshold;
+	}
+
+	/**
+	 * Set whether to check common single-token clauses using the forward index.
+	 *
+	 * This assumes the forward index contains the same value as the Lucene index
+	 * for each position. That is not true if several tokens were indexed at the
+	 * same position (e.g. synonyms); don't enable it for such indices.
+	 *
+	 * @param useForwardIndex true if we should use the forward index (default false)
+	 */
+	public void setUseForwardIndex(boolean useForwardIndex) {
+		this.useForwardIndex = useForwardIndex;
+	}
+
+	/**
+	 * Plan the execution of a pattern.
+	 *
+	 * @param pattern the (rewritten) pattern to plan
+	 * @param context the query execution context
+	 * @return the query plan
+	 */
+	public QueryPlan plan(TextPattern pattern, QueryExecutionContext context) {
+		estimates.clear();
+		singleTokenClauses.clear();
+		steps = new ArrayList<>();
+		SpanQuery query = pattern.translate(this, context);
+		QueryPlan plan = new QueryPlan(query, estimate(query), steps);
+		if (logger.isDebugEnabled())
+			logger.debug("Query plan:\n" + plan);
+		return plan;
+	}
+
+	/**
+	 * Get the estimated number of hits for a translated query part.
+	 *
+	 * @param query the query part
+	 * @return the estimate
+	 */
+	private long estimate(SpanQuery query) {
+		Long estimate = estimates.get(query);
+		return estimate == null ? Long.MAX_VALUE : estimate;
+	}
+
+	/**
+	 * Record the estimated number of hits for a translated query part.
+	 *
+	 * @param query the query part
+	 * @param estimate the estimate
+	 * @return the query part
+	 */
+	private SpanQuery estimated(SpanQuery query, long estimate) {
+		estimates.put(query, estimate);
+		return query;
+	}
+
+	@Override
+	void wrapped(SpanQuery wrapper, SpanQuery query) {
+		// Use the estimate (and forward index constraint) for the wrapped query part
+		Long estimate = estimates.get(query);
+		if (estimate != null)
+			estimates.put(wrapper, estimate);
+		SingleTokenClause clause = singleTokenClauses.get(query);
+		if (clause != null)
+			singleTokenClauses.put(wrapper, clause);
+	}
+
+	/**
+	 * Record the estimate for a leaf query and add it to the plan.
+	 *
+	 * @param query the query part
+	 * @param estimate the estimate
+	 * @return the query part
+	 */
+	private SpanQuery estimatedLeaf(SpanQuery query, long estimate) {
+		steps.add("estimate " + query + ": " + estimate);
+		return estimated(query, estimate);
+	}
+
+	/**
+	 * Add two estimates without overflowing.
+	 * @param a first estimate
+	 * @param b second estimate
+	 * @return the sum, or Long.MAX_VALUE if that overflows
+	 */
+	private static long add(long a, long b) {
+		long sum = a + b;
+		return sum < 0 ? Long.MAX_VALUE : sum;
+	}
+
+	/**
+	 * Multiply an estimate by a number of lengths without overflowing.
+	 * @param a the estimate
+	 * @param min minimum length
+	 * @param max maximum length, or -1 for no maximum
+	 * @return the product, or Long.MAX_VALUE if that overflows
+	 */
+	private static long multiply(long a, int min, int max) {
+		long factor = max < 0 ? ASSUMED_OPEN_ENDED_LENGTHS : Math.max(1, max - min + 1);
+		if (a > Long.MAX_VALUE / factor)
+			return Long.MAX_VALUE;
+		return a * factor;
+	}
+
+	/**
+	 * Get the number of tokens in a Lucene field.
+	 * @param luceneField the field
+	 * @return the number of tokens
+	 */
+	private long totalTokens(String luceneField) {
+		Long n = totalTokens.get(luceneField);
+		if (n == null) {
+			try {
+				n = reader.getSumTotalTermFreq(luceneField);
+				if (n < 0)
+					n = reader.getSumDocFreq(luceneField);
+			} catch (IOException e) {
+				throw ExUtil.wrapRuntimeException(e);
+			}
+			totalTokens.put(luceneField, n);
+		}
+		return n;
+	}
+
+	/**
+	 * Get the number of occurrences of a term.
+	 * @param term the term
+	 * @return the number of occurrences
+	 */
+	private long termFrequency(Term term) {
+		try {
+			long n = reader.totalTermFreq(term);
+			return n >= 0 ? n : reader.docFreq(term);
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Get the total number of occurrences of the terms a multi-term query expands to.
+	 *
+	 * Uses the searcher's term expansion cache if it has one, so the expansion
+	 * is reused when the query is rewritten. Otherwise, examines the first
+	 * MAX_TERMS_TO_EXAMINE matching terms.
+	 *
+	 * @param context the query execution context
+	 * @param query the query (as it will be rewritten)
+	 * @return the number of occurrences
+	 */
+	private long termFrequency(QueryExecutionContext context, MultiTermQuery query) {
+		TermExpansionCache cache = context.searcher == null ? null : context.searcher.getTermExpansionCache();
+		if (cache != null) {
+			try {
+				return cache.totalTermFreq(reader, query);
+			} catch (IOException e) {
+				throw ExUtil.wrapRuntimeException(e);
+			}
+		}
+		if (query instanceof AutomatonQuery)
+			return termFrequency(query.getField(), ((AutomatonQuery) query).getAutomaton());
+		return totalTokens(query.getField());
+	}
+
+	/**
+	 * Get the total number of occurrences of all terms matching an automaton.
+	 *
+	 * @param luceneField the field
+	 * @param automaton the automaton the terms should match
+	 * @return the number of occurrences
+	 */
+	private long termFrequency(String luceneField, Automaton automaton) {
+		try {
+			Terms terms = MultiFields.getTerms(reader, luceneField);
+			if (terms == null)
+				return 0;
+			TermsEnum termsEnum = new CompiledAutomaton(automaton).getTermsEnum(terms);
+			long total = 0;
+			int n = 0;
+			while (termsEnum.next() != null) {
+				long freq = termsEnum.totalTermFreq();
+				total = add(total, freq >= 0 ? freq : termsEnum.docFreq());
+				n++;
+				if (n >= MAX_TERMS_TO_EXAMINE) {
+					// Too many terms to look at; this will have to do
+					break;
+				}
+			}
+			return total;
+		} catch (IOException e) {
+			throw ExUtil.wrapRuntimeException(e);
+		}
+	}
+
+	@Override
+	protected <Q extends MultiTermQuery> SpanQuery multiTerm(QueryExecutionContext context, Q query) {
+		// NOTE: our superclass sets the rewrite method on query, so do this afterwards
+		SpanQuery result = super.multiTerm(context, query);
+		return estimated(result, termFrequency(context, query));
+	}
+
+	@Override
+	public SpanQuery term(QueryExecutionContext context, String value) {
+		SpanQuery result = super.term(context, value);
+		final String desensitized = context.optDesensitize(value);
+		long n = termFrequency(new Term(context.luceneField(), desensitized));
+		singleTokenClauses.put(result, new SingleTokenClause(context) {
+			@Override
+			boolean matches(String term) {
+				return term.equals(desensitized);
+			}
+		});
+		return estimatedLeaf(result, n);
+	}
+
+	@Override
+	public SpanQuery regex(QueryExecutionContext context, String value) {
+		SpanQuery result = super.regex(context, value);
+		String valueNoStartEndMatch = value.replaceAll("\\^|\\$", "");
+		try {
+			Automaton automaton = new RegExp(context.optDesensitize(valueNoStartEndMatch), RegExp.ALL).toAutomaton();
+			singleTokenClauses.put(result, new AutomatonClause(context, automaton));
+		} catch (IllegalArgumentException | TooComplexToDeterminizeException e) {
+			// Couldn't parse or determinize the regex; don't check it using the forward index
+		}
+		return estimatedLeaf(result, estimate(result));
+	}
+
+	@Override
+	public SpanQuery wildcard(QueryExecutionContext context, String value) {
+		SpanQuery result = super.wildcard(context, value);
+		Term term = new Term(context.luceneField(), context.optDesensitize(value));
+		singleTokenClauses.put(result, new AutomatonClause(context, WildcardQuery.toAutomaton(term)));
+		return estimatedLeaf(result, estimate(result));
+	}
+
+	@Override
+	public SpanQuery prefix(QueryExecutionContext context, String value) {
+		SpanQuery result = super.prefix(context, value);
+		final String desensitized = context.optDesensitize(value);
+		singleTokenClauses.put(result, new SingleTokenClause(context) {
+			@Override
+			boolean matches(String term) {
+				return term.startsWith(desensitized);
+			}
+		});
+		return estimatedLeaf(result, estimate(result));
+	}
+
+	@Override
+	public SpanQuery fuzzy(QueryExecutionContext context, String value, int maxEdits, int prefixLength) {
+		SpanQuery result = super.fuzzy(context, value, maxEdits, prefixLength);
+		long n;
+		TermExpansionCache cache = context.searcher == null ? null : context.searcher.getTermExpansionCache();
+		if (maxEdits <= LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE && cache != null) {
+			// Get the same expansion the query will be rewritten with
+			// (all matching terms, so this may overestimate)
+			SpanFuzzyQuery fuzzyQuery = new SpanFuzzyQuery(new Term(context.luceneField(),
+					context.optDesensitize(value)), maxEdits, prefixLength);
+			fuzzyQuery.setTermExpansionCache(cache);
+			n = termFrequency(context, fuzzyQuery.getFuzzyQuery());
+		} else if (maxEdits <= LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE) {
+			// (ignores prefixLength, so this may overestimate)
+			Automaton automaton = new LevenshteinAutomata(context.optDesensitize(value), true).toAutomaton(maxEdits);
+			n = termFrequency(context.luceneField(), automaton);
+		} else {
+			n = totalTokens(context.luceneField());
+		}
+		return estimatedLeaf(result, n);
+	}
+
+	@Override
+	public SpanQuery tags(QueryExecutionContext context, String elementName, Map<String, String> attr) {
+		SpanQuery result = super.tags(context, elementName, attr);
+		QueryExecutionContext startTagContext = context.withProperty(ComplexFieldUtil.START_TAG_PROP_NAME);
+		long n = termFrequency(new Term(startTagContext.luceneField(), startTagContext.optDesensitize(elementName)));
+		return estimatedLeaf(result, n);
+	}
+
+	@Override
+	public SpanQuery any(QueryExecutionContext context, int min, int max) {
+		SpanQuery result = super.any(context, min, max);
+		return estimatedLeaf(result, multiply(totalTokens(context.luceneField()), min, max));
+	}
+
+	@Override
+	public SpanQuery sequence(QueryExecutionContext context, List<SpanQuery> clauses) {
+		int n = clauses.size();
+		if (n < 2)
+			return super.sequence(context, clauses);
+
+		// Find the rarest clause; we'll start joining from there
+		long[] clauseEstimates = new long[n];
+		int anchor = 0;
+		for (int i = 0; i < n; i++) {
+			clauseEstimates[i] = estimate(clauses.get(i));
+			if (clauseEstimates[i] < clauseEstimates[anchor])
+				anchor = i;
+		}
+
+		if (useForwardIndex) {
+			// See if we can check common single-token neighbours of the anchor using the forward index
+			long threshold = (long)Math.min(Long.MAX_VALUE, clauseEstimates[anchor] * forwardIndexMatchingThreshold);
+			List<ForwardIndexConstraint> left = new ArrayList<>();
+			List<ForwardIndexConstraint> right = new ArrayList<>();
+			int lo = anchor, hi = anchor;
+			while (lo > 0 && clauseEstimates[lo - 1] >= threshold) {
+				ForwardIndexConstraint constraint = forwardIndexConstraint(clauses.get(lo - 1));
+				if (constraint == null)
+					break;
+				left.add(0, constraint);
+				lo--;
+			}
+			while (hi < n - 1 && clauseEstimates[hi + 1] >= threshold) {
+				ForwardIndexConstraint constraint = forwardIndexConstraint(clauses.get(hi + 1));
+				if (constraint == null)
+					break;
+				right.add(constraint);
+				hi++;
+			}
+			if (lo < anchor || hi > anchor) {
+				SpanQuery combined = new SpanQueryForwardIndexConstraints(clauses.get(anchor), left, right);
+				estimated(combined, clauseEstimates[anchor]);
+				steps.add("sequence clauses " + (lo + 1) + "-" + (hi + 1) + ": find clause " + (anchor + 1) +
+						", check the others using the forward index");
+				if (lo == 0 && hi == n - 1)
+					return combined;
+
+				// Continue planning with the combined clause as the anchor
+				List<SpanQuery> newClauses = new ArrayList<>(clauses.subList(0, lo));
+				newClauses.add(combined);
+				newClauses.addAll(clauses.subList(hi + 1, n));
+				return sequence(context, newClauses);
+			}
+		}
+
+		// Repeatedly join the current part with its cheapest neighbour.
+		// Joining to the right simply extends the current sequence; joining to the
+		// left makes the current part (if it is already a sequence) a nested sequence.
+		List<SpanQuery> current = new ArrayList<>();
+		List<String> currentDesc = new ArrayList<>();
+		current.add(clauses.get(anchor));
+		currentDesc.add(Integer.toString(anchor + 1));
+		long currentEstimate = clauseEstimates[anchor];
+		int lo = anchor, hi = anchor;
+		while (lo > 0 || hi < n - 1) {
+			boolean joinLeft = hi == n - 1 || (lo > 0 && clauseEstimates[lo - 1] < clauseEstimates[hi + 1]);
+			if (joinLeft) {
+				lo--;
+				if (current.size() > 1) {
+					SpanQuery joined = estimated(super.sequence(context, current), currentEstimate);
+					String joinedDesc = "(" + join(currentDesc) + ")";
+					current = new ArrayList<>();
+					currentDesc = new ArrayList<>();
+					current.add(joined);
+					currentDesc.add(joinedDesc);
+				}
+				current.add(0, clauses.get(lo));
+				currentDesc.add(0, Integer.toString(lo + 1));
+				currentEstimate = Math.min(currentEstimate, clauseEstimates[lo]);
+			} else {
+				hi++;
+				current.add(clauses.get(hi));
+				currentDesc.add(Integer.toString(hi + 1));
+				currentEstimate = Math.min(currentEstimate, clauseEstimates[hi]);
+			}
+		}
+		steps.add("sequence of " + n + " clauses, estimates " + join(clauseEstimates) + ": anchor clause " +
+				(anchor + 1) + ", join order " + join(currentDesc));
+		return estimated(super.sequence(context, current), currentEstimate);
+	}
+
+	@Override
+	public SpanQuery and(QueryExecutionContext context, List<SpanQuery> clauses) {
+		// Put the rarest clause first
+		List<SpanQuery> sorted = new ArrayList<>(clauses);
+		Collections.sort(sorted, new Comparator<SpanQuery>() {
+			@Override
+			public int compare(SpanQuery a, SpanQuery b) {
+				return Long.compare(estimate(a), estimate(b));
+			}
+		});
+		long n = sorted.isEmpty() ? 0 : estimate(sorted.get(0));
+		if (!sorted.equals(clauses))
+			steps.add("and of " + clauses.size() + " clauses: rarest clause first (" + n + ")");
+		return estimated(super.and(context, sorted), n);
+	}
+
+	@Override
+	public SpanQuery andNot(QueryExecutionContext context, SpanQuery include, SpanQuery exclude) {
+		return estimated(super.andNot(context, include, exclude), estimate(include));
+	}
+
+	@Override
+	public SpanQuery or(QueryExecutionContext context, List<SpanQuery> clauses) {
+		long n = 0;
+		for (SpanQuery clause: clauses) {
+			n = add(n, estimate(clause));
+		}
+		return estimated(super.or(context, clauses), n);
+	}
+
+	@Override
+	public SpanQuery not(QueryExecutionContext context, SpanQuery clause) {
+		long n = Math.max(0, totalTokens(context.luceneField()) - estimate(clause));
+		return estimated(super.not(context, clause), n);
+	}
+
+	@Override
+	public SpanQuery docLevelAnd(QueryExecutionContext context, List<SpanQuery> clauses) {
+		long n = Long.MAX_VALUE;
+		for (SpanQuery clause: clauses) {
+			n = Math.min(n, estimate(clause));
+		}
+		return estimated(super.docLevelAnd(context, clauses), n);
+	}
+
+	@Override
+	public SpanQuery docLevelAndNot(SpanQuery include, SpanQuery exclude) {
+		return estimated(super.docLevelAndNot(include, exclude), estimate(include));
+	}
+
+	@Override
+	public SpanQuery positionFilter(QueryExecutionContext context, SpanQuery producer, SpanQuery filter,
+			Operation op, boolean invert, int leftAdjust, int rightAdjust) {
+		SpanQuery result = super.positionFilter(context, producer, filter, op, invert, leftAdjust, rightAdjust);
+		return estimated(result, estimate(producer));
+	}
+
+	@Override
+	public SpanQuery startsAt(QueryExecutionContext context, SpanQuery producer, SpanQuery filter) {
+		return estimated(super.startsAt(context, producer, filter), estimate(producer));
+	}
+
+	@Override
+	public SpanQuery endsAt(QueryExecutionContext context, SpanQuery producer, SpanQuery filter) {
+		return estimated(super.endsAt(context, producer, filter), estimate(producer));
+	}
+
+	@Override
+	public SpanQuery expand(QueryExecutionContext context, SpanQuery clause, boolean expandToLeft, int min, int max) {
+		SpanQuery result = super.expand(context, clause, expandToLeft, min, max);
+		return estimated(result, multiply(estimate(clause), min, max));
+	}
+
+	@Override
+	public SpanQuery filterNGrams(QueryExecutionContext context, SpanQuery clause, Operation op, int min, int max) {
+		SpanQuery result = super.filterNGrams(context, clause, op, min, max);
+		return estimated(result, multiply(estimate(clause), min, max));
+	}
+
+	@Override
+	public SpanQuery repetition(SpanQuery clause, int min, int max) {
+		return estimated(super.repetition(clause, min, max), estimate(clause));
+	}
+
+	@Override
+	public SpanQuery edge(SpanQuery clause, boolean rightEdge) {
+		return estimated(super.edge(clause, rightEdge), estimate(clause));
+	}
+
+	@Override
+	public SpanQuery captureGroup(SpanQuery clause, String name) {
+		return estimated(super.captureGroup(clause, name), estimate(clause));
+	}
+
+	/**
+	 * Create a forward index constraint for a single-token clause, if possible.
+	 *
+	 * @param clause the clause
+	 * @return the constraint, or null if this clause can't be checked using the forward index
+	 */
+	private ForwardIndexConstraint forwardIndexConstraint(SpanQuery clause) {
+		SingleTokenClause tokenClause = singleTokenClauses.get(clause);
+		if (tokenClause == null)
+			return null;
+		QueryExecutionContext context = tokenClause.context;
+		Searcher searcher = context.searcher;
+		if (searcher == null || searcher.isIndexMode()) {
+			// No forward index, or terms may be added while we're searching
+			return null;
+		}
+		ForwardIndex forwardIndex = searcher.getForwardIndex(ComplexFieldUtil.propertyField(context.fieldName, context.propName));
+		if (forwardIndex == null)
+			return null;
+
+		// Determine what forward index terms match the clause
+		// (the Lucene field includes the sensitivity; the clause, the pattern)
+		String key = context.luceneField() + " " + clause;
+		BitSet accepted = forwardIndex.getCachedTermIds(key);
+		if (accepted == null) {
+			nl.inl.blacklab.forwardindex.Terms terms = forwardIndex.getTerms();
+			int numberOfTerms = terms.numberOfTerms();
+			accepted = new BitSet(numberOfTerms);
+			for (int i = 0; i < numberOfTerms; i++) {
+				if (tokenClause.matches(context.optDesensitize(terms.get(i))))
+					accepted.set(i);
+			}
+			forwardIndex.putCachedTermIds(key, accepted);
+		}
+		return new ForwardIndexConstraint(forwardIndex, accepted, clause.toString());
+	}
+
+	/**
+	 * A single-token clause that we may check using the forward index.
+	 */
+	private static abstract class SingleTokenClause {
+
+		/** Context (property, sensitivity) of the clause */
+		QueryExecutionContext context;
+
+		SingleTokenClause(QueryExecutionContext context) {
+			this.context = context;
+		}
+
+		/**
+		 * Does a (desensitized) term match this clause?
+		 * @param term the term
+		 * @return true if it matches
+		 */
+		abstract boolean matches(String term);
+	}
+
+	/**
+	 * A single-token clause matching terms using an automaton (regex, wildcard).
+	 */
+	private static class AutomatonClause extends SingleTokenClause {
+
+		private CharacterRunAutomaton runAutomaton;
+
+		AutomatonClause(QueryExecutionContext context, Automaton automaton) {
+			super(context);
+			runAutomaton = new CharacterRunAutomaton(automaton);
+		}
+
+		@Override
+		boolean matches(String term) {
+			return runAutomaton.run(term);
+		}
+	}
+
+	private static String join(List<String> parts) {
+		StringBuilder b = new StringBuilder();
+		for (String part: parts) {
+			if (b.length() > 0)
+				b.append(" ");
+			b.append(part);
+		}
+		return b.toString();
+	}
+
+	private static String join(long[] values) {
+		StringBuilder b = new StringBuilder();
+		for (long value: values) {
+			if (b.length() > 0)
+				b.append(", ");
+			b.append(value);
+		}
+		return b.toString();
+	}
+
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Execution statistics for one operator in a profiled query.
+ *
+ * The nodes form a tree with the same shape as the query. Statistics are
+ * summed over all index segments. Times include the time spent in the
+ * operator's clauses; see getSelfNanos() for the time spent in the operator
+ * itself.
+ *
+ * Not thread-safe: profile queries that are executed by a single thread.
+ */
+public class QueryProfileNode {
+
+	/** Name of the operation, e.g. "sequence" */
+	private String operation;
+
+	/** The query this node represents (set when the query is built) */
+	private String description = "";
+
+	/** Nodes for our clauses */
+	private List<QueryProfileNode> children = new ArrayList<>();
+
+	/** Number of calls to nextDoc() */
+	long nextDocCalls = 0;
+
+	/** Number of calls to advance() */
+	long advanceCalls = 0;
+
+	/** Number of calls to nextStartPosition() and advanceStartPosition() */
+	long nextStartPositionCalls = 0;
+
+	/** Number of calls to matches() on the two-phase iterator */
+	long matchesCalls = 0;
+
+	/** Number of documents we were positioned in */
+	long docs = 0;
+
+	/** Number of hits produced */
+	long hits = 0;
+
+	/** Time spent in our spans (including our clauses), in nanoseconds */
+	long nanos = 0;
+
+	QueryProfileNode(String operation, List<QueryProfileNode> children) {
+		this.operation = operation;
+		this.children.addAll(children);
+	}
+
+	void setDescription(String description) {
+		this.description = description;
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public List<QueryProfileNode> getChildren() {
+		return Collections.unmodifiableList(children);
+	}
+
+	public long getNextDocCalls() {
+		return nextDocCalls;
+	}
+
+	public long getAdvanceCalls() {
+		return advanceCalls;
+	}
+
+	public long getNextStartPositionCalls() {
+		return nextStartPositionCalls;
+	}
+
+	public long getMatchesCalls() {
+		return matchesCalls;
+	}
+
+	public long getDocs() {
+		return docs;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get the time spent in this operator, including its clauses.
+	 * @return the time in nanoseconds
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/**
+	 * Get the time spent in this operator itself, excluding its clauses.
+	 * @return the time in nanoseconds
+	 */
+	public long getSelfNanos() {
+		long self = nanos;
+		for (QueryProfileNode child: children) {
+			self -= child.nanos;
+		}
+		return Math.max(0, self);
+	}
+
+	/**
+	 * Describe this node and its descendants, one line per node.
+	 *
+	 * @param b where to append the description
+	 * @param indent indentation for this node
+	 */
+	private void describe(StringBuilder b, String indent) {
+		b.append(indent).append(operation).append(": ")
+			.append(hits).append(" hits in ").append(docs).append(" docs, ")
+			.append(nanos / 1000000.0).append(" ms (self ").append(getSelfNanos() / 1000000.0).append(" ms), calls: ")
+			.append(nextDocCalls).append(" nextDoc, ")
+			.append(advanceCalls).append(" advance, ")
+			.append(nextStartPositionCalls).append(" nextStartPosition, ")
+			.append(matchesCalls).append(" matches")
+			.append(" [").append(description).append("]\n");
+		for (QueryProfileNode child: children) {
+			child.describe(b, indent + "  ");
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder();
+		describe(b, "");
+		return b.toString();
+	}
+
+}
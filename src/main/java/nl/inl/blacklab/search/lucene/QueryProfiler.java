@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import nl.inl.blacklab.search.QueryExecutionContext;
+import nl.inl.blacklab.search.TextPattern;
+import nl.inl.blacklab.search.TextPatternPositionFilter.Operation;
+
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.QueryCache;
+import org.apache.lucene.search.spans.SpanQuery;
+
+/**
+ * Translates a TextPattern to a SpanQuery that records execution statistics
+ * for each operator.
+ *
+ * The translation itself is done by another translator, e.g. a QueryPlanner,
+ * so the profiled query is executed the same way as the unprofiled one would be.
+ * Each query part it returns is wrapped in a SpanQueryProfiled that counts the
+ * calls to its spans, the documents and hits it produced, and the time spent. The
+ * statistics form a tree with the same shape as the pattern (see getRoot()).
+ *
+ * Queries translated by the regular TextPatternTranslatorSpanQuery are not
+ * instrumented at all, so profiling costs nothing unless it's used.
+ */
+public class QueryProfiler extends TextPatternTranslatorSpanQuery {
+
+	/** Translates the query parts we profile */
+	private TextPatternTranslatorSpanQuery translator;
+
+	/** Node for the last query part we translated */
+	private QueryProfileNode root = null;
+
+	/**
+	 * Construct a profiler for unplanned queries.
+	 */
+	public QueryProfiler() {
+		this(new TextPatternTranslatorSpanQuery());
+	}
+
+	/**
+	 * Construct a profiler.
+	 *
+	 * @param translator translates the query parts to profile, e.g. a QueryPlanner
+	 */
+	public QueryProfiler(TextPatternTranslatorSpanQuery translator) {
+		this.translator = translator;
+	}
+
+	/**
+	 * Translate a pattern to a profiled query.
+	 *
+	 * @param pattern the (rewritten) pattern
+	 * @param context the query execution context
+	 * @return the profiled query
+	 */
+	public SpanQuery translate(TextPattern pattern, QueryExecutionContext context) {
+		return pattern.translate(this, context);
+	}
+
+	/**
+	 * Get the statistics for the query we translated.
+	 *
+	 * The statistics are updated while the query is executed.
+	 *
+	 * @return the root of the statistics tree, or null if nothing was translated yet
+	 */
+	public QueryProfileNode getRoot() {
+		return root;
+	}
+
+	/**
+	 * Wrap a query part the translator returned to record its statistics.
+	 *
+	 * Query parts the translator builds internally (e.g. attribute filters for
+	 * tags, or nested sequences the planner makes) are counted as part of their
+	 * parent.
+	 *
+	 * @param operation name of the operation
+	 * @param query the translated query part
+	 * @param clauses the (profiled) clauses of the query part
+	 * @return the profiled query part
+	 */
+	private SpanQuery profiled(String operation, SpanQuery query, List<SpanQuery> clauses) {
+		List<QueryProfileNode> children = new ArrayList<>();
+		for (SpanQuery clause: clauses) {
+			if (clause instanceof SpanQueryProfiled)
+				children.add(((SpanQueryProfiled) clause).getNode());
+		}
+		root = new QueryProfileNode(operation, children);
+		SpanQuery result = new SpanQueryProfiled(query, root);
+		translator.wrapped(result, query);
+		return result;
+	}
+
+	private SpanQuery profiled(String operation, SpanQuery query, SpanQuery... clauses) {
+		return profiled(operation, query, Arrays.asList(clauses));
+	}
+
+	/**
+	 * Filter a profiled query on metadata.
+	 *
+	 * @param query the profiled query
+	 * @param filter determines which documents to search
+	 * @param filterCache cache for the filter's doc id sets, or null if none
+	 * @return the filtered, profiled query
+	 */
+	public SpanQuery filter(SpanQuery query, Filter filter, QueryCache filterCache) {
+		return profiled("filter", new SpanQueryFiltered(query, filter, filterCache), query);
+	}
+
+	@Override
+	public SpanQuery and(QueryExecutionContext context, List<SpanQuery> clauses) {
+		return profiled("and", translator.and(context, clauses), clauses);
+	}
+
+	@Override
+	public SpanQuery andNot(QueryExecutionContext context, SpanQuery include, SpanQuery exclude) {
+		return profiled("andNot", translator.andNot(context, include, exclude), include, exclude);
+	}
+
+	@Override
+	public SpanQuery or(QueryExecutionContext context, List<SpanQuery> clauses) {
+		return profiled("or", translator.or(context, clauses), clauses);
+	}
+
+	@Override
+	public SpanQuery regex(QueryExecutionContext context, String value) {
+		return profiled("regex", translator.regex(context, value));
+	}
+
+	@Override
+	public SpanQuery sequence(QueryExecutionContext context, List<SpanQuery> clauses) {
+		return profiled("sequence", translator.sequence(context, clauses), clauses);
+	}
+
+	@Override
+	public SpanQuery docLevelAnd(QueryExecutionContext context, List<SpanQuery> clauses) {
+		return profiled("docLevelAnd", translator.docLevelAnd(context, clauses), clauses);
+	}
+
+	@Override
+	public SpanQuery fuzzy(QueryExecutionContext context, String value, int maxEdits, int prefixLength) {
+		return profiled("fuzzy", translator.fuzzy(context, value, maxEdits, prefixLength));
+	}
+
+	@Override
+	public SpanQuery tags(QueryExecutionContext context, String elementName, Map<String, String> attr) {
+		return profiled("tags", translator.tags(context, elementName, attr));
+	}
+
+	@Override
+	public SpanQuery positionFilter(QueryExecutionContext context, SpanQuery producer, SpanQuery filter,
+			Operation op, boolean invert, int leftAdjust, int rightAdjust) {
+		return profiled("positionFilter",
+				translator.positionFilter(context, producer, filter, op, invert, leftAdjust, rightAdjust), producer, filter);
+	}
+
+	@Override
+	public SpanQuery startsAt(QueryExecutionContext context, SpanQuery producer, SpanQuery filter) {
+		return profiled("startsAt", translator.startsAt(context, producer, filter), producer, filter);
+	}
+
+	@Override
+	public SpanQuery endsAt(QueryExecutionContext context, SpanQuery producer, SpanQuery filter) {
+		return profiled("endsAt", translator.endsAt(context, producer, filter), producer, filter);
+	}
+
+	@Override
+	public SpanQuery term(QueryExecutionContext context, String value) {
+		return profiled("term", translator.term(context, value));
+	}
+
+	@Override
+	public SpanQuery expand(QueryExecutionContext context, SpanQuery clause, boolean expandToLeft, int min, int max) {
+		return profiled("expand", translator.expand(context, clause, expandToLeft, min, max), clause);
+	}
+
+	@Override
+	public SpanQuery filterNGrams(QueryExecutionContext context, SpanQuery clause, Operation op, int min, int max) {
+		return profiled("filterNGrams", translator.filterNGrams(context, clause, op, min, max), clause);
+	}
+
+	@Override
+	public SpanQuery repetition(SpanQuery clause, int min, int max) {
+		return profiled("repetition", translator.repetition(clause, min, max), clause);
+	}
+
+	@Override
+	public SpanQuery docLevelAndNot(SpanQuery include, SpanQuery exclude) {
+		return profiled("docLevelAndNot", translator.docLevelAndNot(include, exclude), include, exclude);
+	}
+
+	@Override
+	public SpanQuery wildcard(QueryExecutionContext context, String value) {
+		return profiled("wildcard", translator.wildcard(context, value));
+	}
+
+	@Override
+	public SpanQuery prefix(QueryExecutionContext context, String value) {
+		return profiled("prefix", translator.prefix(context, value));
+	}
+
+	@Override
+	public SpanQuery not(QueryExecutionContext context, SpanQuery clause) {
+		return profiled("not", translator.not(context, clause), clause);
+	}
+
+	@Override
+	public SpanQuery any(QueryExecutionContext context, int min, int max) {
+		return profiled("any", translator.any(context, min, max));
+	}
+
+	@Override
+	public SpanQuery edge(SpanQuery clause, boolean rightEdge) {
+		return profiled("edge", translator.edge(clause, rightEdge), clause);
+	}
+
+	@Override
+	public SpanQuery captureGroup(SpanQuery clause, String name) {
+		return profiled("captureGroup", translator.captureGroup(clause, name), clause);
+	}
+
+}
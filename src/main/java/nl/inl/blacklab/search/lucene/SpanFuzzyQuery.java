@@ -63,6 +63,9 @@ public class SpanFuzzyQuery extends SpanQuery {
 
 	private Query rewrittenFuzzyQuery = null;
 
+	/** Cache to get the expansion of the term from, or null to expand it every time */
+	private TermExpansionCache termExpansionCache = null;
+
 	public SpanFuzzyQuery(Term term) {
 		this(term, defaultMaxEdits, defaultPrefixLength);
 	}
@@ -81,9 +84,39 @@ public class SpanFuzzyQuery extends SpanQuery {
 
 	}
 
+	/**
+	 * Get the expansion of the term from a cache.
+	 *
+	 * @param termExpansionCache the cache to use, or null to expand the term every time (the default)
+	 */
+	public void setTermExpansionCache(TermExpansionCache termExpansionCache) {
+		this.termExpansionCache = termExpansionCache;
+	}
+
+	/**
+	 * Get the FuzzyQuery we rewrite to find the matching terms.
+	 *
+	 * If we have a term expansion cache, the query uses its rewrite method.
+	 *
+	 * @return the fuzzy query
+	 */
+	FuzzyQuery getFuzzyQuery() {
+		FuzzyQuery fuzzyQuery = new FuzzyQuery(term, maxEdits, prefixLength);
+		if (termExpansionCache != null) {
+			// Rewrites directly to a BLSpanOrQuery
+			fuzzyQuery.setRewriteMethod(termExpansionCache.getTopTermsSpanRewriteMethod(FuzzyQuery.defaultMaxExpansions));
+		}
+		return fuzzyQuery;
+	}
+
 	@Override
 	public Query rewrite(IndexReader reader) throws IOException {
-		FuzzyQuery fuzzyQuery = new FuzzyQuery(term, maxEdits, prefixLength);
+		FuzzyQuery fuzzyQuery = getFuzzyQuery();
+
+		if (termExpansionCache != null) {
+			rewrittenFuzzyQuery = fuzzyQuery.rewrite(reader);
+			return rewrittenFuzzyQuery;
+		}
 
 		rewrittenFuzzyQuery = fuzzyQuery.rewrite(reader);
 		if (rewrittenFuzzyQuery instanceof BooleanQuery) {
@@ -147,7 +180,10 @@ public class SpanFuzzyQuery extends SpanQuery {
 		if (rewrittenFuzzyQuery == null) {
 			throw new RuntimeException("Query must be rewritten prior to calling extractTerms()!");
 		}
-		if (rewrittenFuzzyQuery instanceof BooleanQuery) {
+		if (rewrittenFuzzyQuery instanceof BLSpanOrQuery) {
+			// Rewritten using the term expansion cache
+			((BLSpanOrQuery) rewrittenFuzzyQuery).extractTerms(terms);
+		} else if (rewrittenFuzzyQuery instanceof BooleanQuery) {
 			// Extract terms from clauses
 			BooleanClause[] clauses = ((BooleanQuery) rewrittenFuzzyQuery).getClauses();
 			for (BooleanClause clause: clauses) {
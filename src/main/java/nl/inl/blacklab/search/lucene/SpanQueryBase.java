@@ -17,6 +17,7 @@ package nl.inl.blacklab.search.lucene;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Set;
 
@@ -93,7 +94,7 @@ public abstract class SpanQueryBase extends SpanQuery {
 
 		final SpanQueryBase that = (SpanQueryBase) o;
 
-		if (!clauses.equals(that.clauses))
+		if (!Arrays.equals(clauses, that.clauses))
 			return false;
 
 		return (getBoost() == that.getBoost());
@@ -139,7 +140,7 @@ public abstract class SpanQueryBase extends SpanQuery {
 
 	@Override
 	public int hashCode() {
-		int h = clauses.hashCode();
+		int h = Arrays.hashCode(clauses);
 		h ^= (h << 10) | (h >>> 23);
 		h ^= Float.floatToRawIntBits(getBoost());
 		return h;
@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Gets the hits of a clause from a SpansCache, so queries sharing an
+ * expensive clause (e.g. a regular expression matching many terms)
+ * don't have to expand and merge it again.
+ *
+ * The clause is cached in its rewritten form, so clauses that expand to the
+ * same terms share a cache entry. The clause should not capture groups.
+ */
+public class SpanQueryCached extends SpanQuery {
+
+	/** The clause to cache */
+	private SpanQuery clause;
+
+	/** The cache to use */
+	private SpansCache cache;
+
+	/**
+	 * Get the hits of a clause from a cache.
+	 *
+	 * @param clause the clause
+	 * @param cache the cache to use
+	 */
+	public SpanQueryCached(SpanQuery clause, SpansCache cache) {
+		this.clause = clause;
+		this.cache = cache;
+	}
+
+	@Override
+	public Query rewrite(IndexReader reader) throws IOException {
+		SpanQuery rewritten = (SpanQuery) clause.rewrite(reader);
+		if (rewritten == clause)
+			return this;
+		return new SpanQueryCached(rewritten, cache);
+	}
+
+	@Override
+	public Spans getSpans(LeafReaderContext context, Bits acceptDocs, Map<Term,TermContext> termContexts)  throws IOException {
+		return cache.getSpans(clause, context, acceptDocs, termContexts);
+	}
+
+	@Override
+	public String toString(String field) {
+		return "SpanQueryCached(" + clause + ")";
+	}
+
+	@Override
+	public String getField() {
+		return clause.getField();
+	}
+
+	@Override
+	protected void extractTerms(Set<Term> terms) {
+		try {
+			// FIXME: temporary extractTerms hack
+			Method methodExtractTerms = SpanQuery.class.
+			        getDeclaredMethod("extractTerms", Set.class);
+			methodExtractTerms.setAccessible(true);
+			methodExtractTerms.invoke(clause, terms);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (o == null || this.getClass() != o.getClass())
+			return false;
+		final SpanQueryCached that = (SpanQueryCached) o;
+		return clause.equals(that.clause) && cache == that.cache && getBoost() == that.getBoost();
+	}
+
+	@Override
+	public int hashCode() {
+		int h = clause.hashCode();
+		h ^= (h << 10) | (h >>> 23);
+		h ^= Float.floatToRawIntBits(getBoost());
+		return h;
+	}
+}
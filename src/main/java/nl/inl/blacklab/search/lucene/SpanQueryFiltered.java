@@ -19,9 +19,15 @@ import java.io.IOException;
 import java.util.Map;
 
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.QueryCache;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.Weight;
 import org.apache.lucene.search.spans.SpanQuery;
 import org.apache.lucene.search.spans.Spans;
 import org.apache.lucene.util.Bits;
@@ -33,9 +39,29 @@ public class SpanQueryFiltered extends SpanQueryBase {
 
 	private Filter filter;
 
+	/** Cache for the filter's doc id sets, or null for no caching */
+	private QueryCache filterCache;
+
 	public SpanQueryFiltered(SpanQuery source, Filter filter) {
+		this(source, filter, null);
+	}
+
+	/**
+	 * Filter a SpanQuery, using a filter cache.
+	 *
+	 * The filter cache keeps the filter's doc id set per segment, so repeated
+	 * searches in the same subcorpus don't have to evaluate the filter again.
+	 * Cache entries are keyed by the filter, so it should implement equals()
+	 * and hashCode().
+	 *
+	 * @param source the query to filter
+	 * @param filter the filter to apply
+	 * @param filterCache the cache to use for the filter's doc id sets, or null for no caching
+	 */
+	public SpanQueryFiltered(SpanQuery source, Filter filter, QueryCache filterCache) {
 		super(source);
 		this.filter = filter;
+		this.filterCache = filterCache;
 	}
 
 	@Override
@@ -43,7 +69,18 @@ public class SpanQueryFiltered extends SpanQueryBase {
 		Spans result = clauses[0].getSpans(context, acceptDocs, termContexts);
 		if (result == null)
 			return null;
-		return new SpansFiltered(result, filter.getDocIdSet(context, acceptDocs));
+		if (filterCache == null)
+			return new SpansFiltered(result, filter.getDocIdSet(context, acceptDocs));
+
+		// Get the filter's documents through the cache
+		IndexSearcher searcher = new IndexSearcher(ReaderUtil.getTopLevelContext(context));
+		searcher.setQueryCache(null); // we use our own cache below
+		Weight weight = filterCache.doCache(searcher.createNormalizedWeight(filter, false),
+				QueryCachingPolicy.ALWAYS_CACHE);
+		DocIdSetIterator filterDocs = weight.scorer(context, acceptDocs);
+		if (filterDocs == null)
+			return null; // no documents in this segment pass the filter
+		return new SpansFiltered(result, filterDocs);
 	}
 
 	@Override
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.util.Map;
 
 import nl.inl.blacklab.search.TextPatternPositionFilter;
+import nl.inl.blacklab.search.sequences.SpansInBuckets;
 
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.Term;
@@ -97,6 +98,15 @@ public class SpanQueryPositionFilter extends SpanQueryBase {
 		Spans spansProd = clauses[0].getSpans(context, acceptDocs, termContexts);
 		if (spansProd == null)
 			return null;
+		if (clauses[1] instanceof SpanQueryTags && ((SpanQueryTags)clauses[1]).hasTagIndex()) {
+			// Filter by elements from the tag index, so we don't have to
+			// read the start tag postings and payloads
+			SpanQueryTags tags = (SpanQueryTags)clauses[1];
+			SpansInBuckets elements = tags.getElementsFromTagIndex(context, acceptDocs);
+			if (elements == null)
+				return invert ? spansProd : null;
+			return new SpansPositionFilter(spansProd, elements, tags.tagIndexEndPointSorted(), op, invert, leftAdjust, rightAdjust);
+		}
 		Spans spansFilter = clauses[1].getSpans(context, acceptDocs, termContexts);
 		if (spansFilter == null) {
 			// No filter hits. If it's a positive filter, that means no producer hits can match.
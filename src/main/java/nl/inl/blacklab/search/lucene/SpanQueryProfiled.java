@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Records execution statistics for a clause in a QueryProfileNode.
+ *
+ * See QueryProfiler.
+ */
+public class SpanQueryProfiled extends SpanQuery {
+
+	/** The clause to profile */
+	private SpanQuery clause;
+
+	/** Where to record statistics */
+	private QueryProfileNode node;
+
+	/**
+	 * Profile a clause.
+	 *
+	 * @param clause the clause
+	 * @param node where to record statistics
+	 */
+	public SpanQueryProfiled(SpanQuery clause, QueryProfileNode node) {
+		this.clause = clause;
+		this.node = node;
+		node.setDescription(clause.toString());
+	}
+
+	/**
+	 * Get the node statistics are recorded in.
+	 * @return the profile node
+	 */
+	public QueryProfileNode getNode() {
+		return node;
+	}
+
+	@Override
+	public Query rewrite(IndexReader reader) throws IOException {
+		SpanQuery rewritten = (SpanQuery) clause.rewrite(reader);
+		if (rewritten == clause)
+			return this;
+		return new SpanQueryProfiled(rewritten, node);
+	}
+
+	@Override
+	public Spans getSpans(LeafReaderContext context, Bits acceptDocs, Map<Term,TermContext> termContexts)  throws IOException {
+		BLSpans spans = BLSpansWrapper.optWrap(clause.getSpans(context, acceptDocs, termContexts));
+		if (spans == null)
+			return null;
+		return new SpansProfiled(spans, node);
+	}
+
+	@Override
+	public String toString(String field) {
+		return "SpanQueryProfiled(" + clause + ")";
+	}
+
+	@Override
+	public String getField() {
+		return clause.getField();
+	}
+
+	@Override
+	protected void extractTerms(Set<Term> terms) {
+		try {
+			// FIXME: temporary extractTerms hack
+			Method methodExtractTerms = SpanQuery.class.
+			        getDeclaredMethod("extractTerms", Set.class);
+			methodExtractTerms.setAccessible(true);
+			methodExtractTerms.invoke(clause, terms);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (o == null || this.getClass() != o.getClass())
+			return false;
+		final SpanQueryProfiled that = (SpanQueryProfiled) o;
+		return clause.equals(that.clause) && node == that.node && getBoost() == that.getBoost();
+	}
+
+	@Override
+	public int hashCode() {
+		int h = clause.hashCode();
+		h ^= (h << 10) | (h >>> 23);
+		h ^= Float.floatToRawIntBits(getBoost());
+		return h;
+	}
+}
@@ -21,15 +21,22 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.spans.SpanQuery;
 import org.apache.lucene.search.spans.SpanTermQuery;
 import org.apache.lucene.search.spans.Spans;
 import org.apache.lucene.util.Bits;
 
+import nl.inl.blacklab.forwardindex.ForwardIndex;
+import nl.inl.blacklab.forwardindex.TagIndex;
 import nl.inl.blacklab.index.complex.ComplexFieldUtil;
 import nl.inl.blacklab.search.QueryExecutionContext;
+import nl.inl.blacklab.search.Searcher;
+import nl.inl.blacklab.search.sequences.SpansInBuckets;
 
 /**
  *
@@ -49,12 +56,72 @@ public class SpanQueryTags extends SpanQuery {
 
 	private String baseFieldName;
 
+	/** Tag index with the elements per document, or null if there is none */
+	private TagIndex tagIndex;
+
+	/** Forward index of the main property (documents in the tag index are identified by fiid) */
+	private ForwardIndex forwardIndex;
+
 	public SpanQueryTags(QueryExecutionContext context, String tagName) {
 		this.tagName = tagName;
 		baseFieldName = context.fieldName;
 		QueryExecutionContext startTagContext = context.withProperty(ComplexFieldUtil.START_TAG_PROP_NAME);
 		String startTagFieldName = startTagContext.luceneField();
-		this.clause = new SpanTermQuery(new Term(startTagFieldName, startTagContext.optDesensitize(tagName)));
+		String startTagTerm = startTagContext.optDesensitize(tagName);
+		this.clause = new SpanTermQuery(new Term(startTagFieldName, startTagTerm));
+
+		// Is there a tag index we can use instead of the start tags?
+		// (only if we're searching for exactly the tag name it was made for)
+		Searcher searcher = context.searcher;
+		if (searcher != null && searcher.isUseTagIndex() && startTagTerm.equals(tagName)) {
+			tagIndex = searcher.getTagIndex(baseFieldName, tagName);
+			if (tagIndex != null) {
+				String mainPropField = ComplexFieldUtil.mainPropertyField(searcher.getIndexStructure(), baseFieldName);
+				forwardIndex = searcher.getForwardIndex(mainPropField);
+				if (forwardIndex == null)
+					tagIndex = null;
+			}
+		}
+	}
+
+	/**
+	 * Do we have a tag index for this tag?
+	 *
+	 * @return true iff getElementsFromTagIndex() may be used
+	 */
+	public boolean hasTagIndex() {
+		return tagIndex != null;
+	}
+
+	/**
+	 * Are the elements sorted by end position as well as by start position?
+	 *
+	 * @return true iff the elements never nest
+	 */
+	public boolean tagIndexEndPointSorted() {
+		return tagIndex.isEndPointSorted();
+	}
+
+	/**
+	 * Get the elements per document from the tag index.
+	 *
+	 * This is faster than getting the start tag spans and putting them in buckets,
+	 * because the elements are read directly from the tag index.
+	 *
+	 * @param context the segment to search
+	 * @param acceptDocs documents to consider
+	 * @return the elements in one bucket per document, or null if the tag doesn't occur in this segment
+	 * @throws IOException
+	 */
+	public SpansInBuckets getElementsFromTagIndex(LeafReaderContext context, Bits acceptDocs) throws IOException {
+		Terms terms = context.reader().terms(clause.getField());
+		if (terms == null)
+			return null;
+		TermsEnum termsEnum = terms.iterator();
+		if (!termsEnum.seekExact(clause.getTerm().bytes()))
+			return null;
+		PostingsEnum tagDocs = termsEnum.postings(acceptDocs, null, PostingsEnum.NONE);
+		return new SpansInBucketsTagIndex(tagDocs, tagIndex, forwardIndex, context.docBase);
 	}
 
 	@Override
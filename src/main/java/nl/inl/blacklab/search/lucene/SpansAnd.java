@@ -20,6 +20,8 @@ import java.util.Collection;
 
 import nl.inl.blacklab.search.Span;
 
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 /**
@@ -38,11 +40,44 @@ class SpansAnd extends BLSpans {
 
 	private boolean alreadyAtFirstMatch = false;
 
+	/** Two-phase view: documents both clauses occur in, checked for matches when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents we actually match in */
+	private DocIdSetIterator docs;
+
 	public SpansAnd(Spans leftClause, Spans rightClause) {
 		spans[0] = BLSpansWrapper.optWrapSort(leftClause);
 		spans[1] = BLSpansWrapper.optWrapSort(rightClause);
 		currentDoc[0] = currentDoc[1] = -1;
 		currentStart[0] = currentStart[1] = -1;
+
+		final TwoPhaseIterator[] clauseTwoPhase = new TwoPhaseIterator[2];
+		DocIdSetIterator[] approximations = new DocIdSetIterator[2];
+		for (int i = 0; i < 2; i++) {
+			clauseTwoPhase[i] = spans[i].asTwoPhaseIterator();
+			approximations[i] = SpansTwoPhaseIterator.approximation(spans[i], clauseTwoPhase[i]);
+		}
+		twoPhase = new SpansTwoPhaseIterator(SpansTwoPhaseIterator.conjunction(approximations)) {
+			@Override
+			protected void startDoc(int doc) {
+				alreadyAtFirstMatch = false;
+				currentDoc[0] = currentDoc[1] = doc;
+				currentStart[0] = currentStart[1] = -1;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!SpansTwoPhaseIterator.matches(clauseTwoPhase[0]) || !SpansTwoPhaseIterator.matches(clauseTwoPhase[1]))
+					return false;
+				if (synchronizePosition() == NO_MORE_POSITIONS)
+					return false;
+				// We are synched on the first hit in this document
+				alreadyAtFirstMatch = true;
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
 	}
 
 	@Override
@@ -75,9 +110,12 @@ class SpansAnd extends BLSpans {
 		alreadyAtFirstMatch = false;
 		if (currentDoc[0] == NO_MORE_DOCS || currentDoc[1] == NO_MORE_DOCS)
 			return NO_MORE_DOCS;
-		int laggingSpans = currentDoc[0] < currentDoc[1] ? 0 : 1;
-		catchUpDoc(laggingSpans);
-		return synchronizeDoc();
+		return docs.nextDoc();
+	}
+
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
 	}
 
 	@Override
@@ -145,48 +183,6 @@ class SpansAnd extends BLSpans {
 
 	}
 
-	/**
-	 * Put both spans in the same doc.
-	 * @return the doc id if succesful, or NO_MORE_DOCS if we're done
-	 * @throws IOException
-	 */
-	private int synchronizeDoc() throws IOException {
-		while (true) {
-
-			// Are we done?
-			if (currentDoc[0] == NO_MORE_DOCS || currentDoc[1] == NO_MORE_DOCS) {
-				// Yes, one of the Spans was exhausted
-				return NO_MORE_DOCS;
-			}
-
-			// Synch at document level
-			if (currentDoc[0] != currentDoc[1]) {
-				int laggingSpans = currentDoc[0] < currentDoc[1] ? 0 : 1;
-				catchUpDoc(laggingSpans);
-				continue;
-			}
-
-			if (synchronizePosition() == NO_MORE_POSITIONS) {
-				// This doc doesn't match; try next doc.
-				currentDoc[0] = spans[0].nextDoc();
-				currentStart[0] = -1;
-				if (currentDoc[0] == NO_MORE_DOCS)
-					return NO_MORE_DOCS;
-				continue;
-			}
-
-			// We are synched on a new hit
-			alreadyAtFirstMatch = true;
-			return currentDoc[0];
-		}
-
-	}
-
-	private void catchUpDoc(int laggingSpans) throws IOException {
-		currentDoc[laggingSpans] = spans[laggingSpans].advance(currentDoc[1 - laggingSpans]);
-		currentStart[laggingSpans] = -1;
-	}
-
 	private void catchUpMatchStart(int laggingSpans) throws IOException {
 		int catchUpTo = currentStart[1 - laggingSpans];
 		if (currentStart[laggingSpans] != NO_MORE_POSITIONS && currentStart[laggingSpans] < catchUpTo || currentStart[laggingSpans] == -1) {
@@ -207,12 +203,10 @@ class SpansAnd extends BLSpans {
 
 	@Override
 	public int advance(int doc) throws IOException {
-		// Skip beiden tot aan doc
-		currentDoc[0] = spans[0].advance(doc);
-		currentStart[0] = -1; // not started yet
-		currentDoc[1] = spans[1].advance(doc);
-		currentStart[1] = -1; // not started yet
-		return synchronizeDoc();
+		alreadyAtFirstMatch = false;
+		if (currentDoc[0] == NO_MORE_DOCS || currentDoc[1] == NO_MORE_DOCS)
+			return NO_MORE_DOCS;
+		return docs.advance(doc);
 	}
 
 	@Override
@@ -0,0 +1,426 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import nl.inl.blacklab.search.QueryDeadline;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReader.CoreClosedListener;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Caches the hits of expensive sub-queries (e.g. regular expressions matching
+ * many terms) per segment, so queries sharing such a clause don't have to expand
+ * and merge it again.
+ *
+ * Hits are stored as compact arrays of document ids and start and end positions,
+ * and replayed as BLSpans. Clauses are keyed by the (rewritten) query and the
+ * segment, including its deletions, so changes to the index are never served from
+ * the cache. A clause is only cached once it has been requested a number of times,
+ * and only if it doesn't have too many hits in the segment (we remember clauses
+ * that have too many, so we don't gather their hits again). Entries are weighted by
+ * their memory usage; the least recently used entries are evicted when the cache
+ * grows beyond its limit. Entries for a segment are removed when it is closed.
+ *
+ * NOTE: captured groups and payloads of cached clauses are not stored, so only
+ * clauses that don't use these should be cached (see SpanQueryCached).
+ */
+public class SpansCache {
+
+	/** Rough estimate of the memory used per entry, apart from the hit arrays */
+	private static final int BYTES_PER_ENTRY_OVERHEAD = 200;
+
+	/** Maximum number of clauses we keep request counts for */
+	private static final int MAX_REQUEST_COUNTS = 10000;
+
+	/** Cache key: a clause in a segment */
+	private static class Key {
+		SpanQuery clause;
+
+		/** Identifies the segment (not including deletions) */
+		Object coreKey;
+
+		/** Identifies the segment, including deletions */
+		Object coreAndDeletesKey;
+
+		Key(SpanQuery clause, LeafReader reader) {
+			this.clause = clause;
+			coreKey = reader.getCoreCacheKey();
+			coreAndDeletesKey = reader.getCombinedCoreAndDeletesKey();
+		}
+
+		@Override
+		public int hashCode() {
+			return clause.hashCode() ^ System.identityHashCode(coreAndDeletesKey);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return coreAndDeletesKey == other.coreAndDeletesKey && clause.equals(other.clause);
+		}
+	}
+
+	/** The hits of a clause in a segment */
+	static class Entry {
+		/** Documents with hits */
+		int[] docs;
+
+		/** For each document (plus one extra at the end): index of its first hit */
+		int[] firstHit;
+
+		/** Start positions of the hits */
+		int[] starts;
+
+		/** End positions of the hits */
+		int[] ends;
+
+		/** Properties of the original spans, so the cached spans can report them */
+		boolean hitsStartPointSorted, hitsEndPointSorted, hitsAllSameLength,
+				hitsHaveUniqueStart, hitsHaveUniqueEnd, hitsAreUnique;
+
+		/** Length of the hits if they are all the same length (see BLSpans.hitsLength()) */
+		int hitsLength;
+
+		long estimatedMemoryUsage() {
+			return BYTES_PER_ENTRY_OVERHEAD + 4L * (docs.length + firstHit.length + starts.length + ends.length);
+		}
+	}
+
+	/** The cached hits, in LRU order */
+	private Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** How many times each (not yet cached) clause was requested, in LRU order */
+	private Map<Key, Integer> requestCounts = new LinkedHashMap<Key, Integer>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Integer> eldest) {
+			return size() > MAX_REQUEST_COUNTS;
+		}
+	};
+
+	/** Clauses that have too many hits in a segment to cache, in LRU order */
+	private Map<Key, Boolean> tooLarge = new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+			return size() > MAX_REQUEST_COUNTS;
+		}
+	};
+
+	/** Segments we've registered a close listener with */
+	private Set<Object> listeningTo = new HashSet<>();
+
+	/** Maximum estimated memory to use */
+	private long maxMemoryUsage;
+
+	/** Maximum number of hits of a clause in one segment to cache */
+	private int maxHitsPerEntry;
+
+	/** How many times a clause must be requested before we cache it */
+	private int minRequestsBeforeCaching = 2;
+
+	/** Estimated memory currently used */
+	private long memoryUsage = 0;
+
+	/** Number of times a clause was found in the cache */
+	private long numberOfHits = 0;
+
+	/** Number of times a clause was not found in the cache */
+	private long numberOfMisses = 0;
+
+	/** Number of entries evicted to stay within the limits */
+	private long numberOfEvictions = 0;
+
+	/** Number of times we found a clause had too many hits in a segment to cache */
+	private long numberOfTooLarge = 0;
+
+	/** Removes the entries for a segment when it is closed */
+	private CoreClosedListener coreClosedListener = new CoreClosedListener() {
+		@Override
+		public void onClose(Object ownerCoreCacheKey) {
+			removeSegment(ownerCoreCacheKey);
+		}
+	};
+
+	/**
+	 * Construct a spans cache.
+	 *
+	 * @param maxMemoryUsage maximum estimated memory to use, in bytes
+	 * @param maxHitsPerEntry maximum number of hits of a clause in one segment to cache
+	 */
+	public SpansCache(long maxMemoryUsage, int maxHitsPerEntry) {
+		this.maxMemoryUsage = maxMemoryUsage;
+		this.maxHitsPerEntry = maxHitsPerEntry;
+	}
+
+	/**
+	 * Set how many times a clause must be requested before we cache it.
+	 *
+	 * By default, a clause is cached when it's requested for the second time,
+	 * so clauses that are only used once don't push out useful entries.
+	 *
+	 * @param minRequestsBeforeCaching the number of requests (default 2)
+	 */
+	public synchronized void setMinRequestsBeforeCaching(int minRequestsBeforeCaching) {
+		this.minRequestsBeforeCaching = minRequestsBeforeCaching;
+	}
+
+	/**
+	 * Get the spans for a clause in a segment, from the cache if possible.
+	 *
+	 * @param clause the (rewritten) clause
+	 * @param context the segment
+	 * @param acceptDocs documents to consider
+	 * @param termContexts term contexts
+	 * @return the spans, or null if there are no hits
+	 * @throws IOException
+	 */
+	public Spans getSpans(SpanQuery clause, LeafReaderContext context, Bits acceptDocs,
+			Map<Term, TermContext> termContexts) throws IOException {
+		LeafReader reader = context.reader();
+		Key key = new Key(clause, reader);
+		Entry entry;
+		boolean cacheThis = false;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry != null) {
+				numberOfHits++;
+			} else {
+				numberOfMisses++;
+				if (tooLarge.get(key) != null)
+					return clause.getSpans(context, acceptDocs, termContexts);
+				Integer n = requestCounts.get(key);
+				n = n == null ? 1 : n + 1;
+				cacheThis = n >= minRequestsBeforeCaching;
+				if (cacheThis)
+					requestCounts.remove(key);
+				else
+					requestCounts.put(key, n);
+			}
+		}
+		if (entry == null) {
+			if (!cacheThis)
+				return clause.getSpans(context, acceptDocs, termContexts);
+
+			// Gather all hits in the segment (not just the accepted documents, so
+			// the entry can be used with any acceptDocs), but keep checking the
+			// query's deadline, if it has one
+			Bits liveDocs = reader.getLiveDocs();
+			QueryDeadline deadline = QueryDeadline.fromAcceptDocs(acceptDocs);
+			if (deadline != null)
+				liveDocs = deadline.acceptDocs(liveDocs, reader.maxDoc());
+			Spans spans = clause.getSpans(context, liveDocs, termContexts);
+			entry = spans == null ? emptyEntry() : gatherHits(BLSpansWrapper.optWrap(spans));
+			if (entry == null || !add(key, entry, reader)) {
+				// Too many hits to cache; remember that, so we don't try again
+				synchronized (this) {
+					tooLarge.put(key, true);
+					numberOfTooLarge++;
+				}
+				return clause.getSpans(context, acceptDocs, termContexts);
+			}
+		}
+		if (entry.starts.length == 0)
+			return null;
+		return new SpansCached(entry, acceptDocs);
+	}
+
+	private static Entry emptyEntry() {
+		Entry entry = new Entry();
+		entry.docs = entry.starts = entry.ends = new int[0];
+		entry.firstHit = new int[] { 0 };
+		return entry;
+	}
+
+	/**
+	 * Gather the hits from a spans into a new entry.
+	 *
+	 * @param spans the spans
+	 * @return the entry, or null if there are too many hits
+	 * @throws IOException
+	 */
+	private Entry gatherHits(BLSpans spans) throws IOException {
+		int[] docs = new int[16], firstHit = new int[17], starts = new int[16], ends = new int[16];
+		int numberOfDocs = 0, numberOfHits = 0;
+		while (spans.nextDoc() != Spans.NO_MORE_DOCS) {
+			if (numberOfDocs == docs.length) {
+				docs = Arrays.copyOf(docs, docs.length * 2);
+				firstHit = Arrays.copyOf(firstHit, docs.length + 1);
+			}
+			docs[numberOfDocs] = spans.docID();
+			firstHit[numberOfDocs] = numberOfHits;
+			numberOfDocs++;
+			while (spans.nextStartPosition() != Spans.NO_MORE_POSITIONS) {
+				if (numberOfHits == maxHitsPerEntry)
+					return null;
+				if (numberOfHits == starts.length) {
+					starts = Arrays.copyOf(starts, starts.length * 2);
+					ends = Arrays.copyOf(ends, ends.length * 2);
+				}
+				starts[numberOfHits] = spans.startPosition();
+				ends[numberOfHits] = spans.endPosition();
+				numberOfHits++;
+			}
+		}
+		firstHit[numberOfDocs] = numberOfHits;
+
+		Entry entry = new Entry();
+		entry.docs = Arrays.copyOf(docs, numberOfDocs);
+		entry.firstHit = Arrays.copyOf(firstHit, numberOfDocs + 1);
+		entry.starts = Arrays.copyOf(starts, numberOfHits);
+		entry.ends = Arrays.copyOf(ends, numberOfHits);
+		entry.hitsStartPointSorted = spans.hitsStartPointSorted();
+		entry.hitsEndPointSorted = spans.hitsEndPointSorted();
+		entry.hitsAllSameLength = spans.hitsAllSameLength();
+		entry.hitsLength = spans.hitsLength();
+		entry.hitsHaveUniqueStart = spans.hitsHaveUniqueStart();
+		entry.hitsHaveUniqueEnd = spans.hitsHaveUniqueEnd();
+		entry.hitsAreUnique = spans.hitsAreUnique();
+		return entry;
+	}
+
+	/**
+	 * Add an entry, evicting the least recently used entries if necessary.
+	 *
+	 * @param key the key
+	 * @param entry the entry
+	 * @param reader the segment
+	 * @return true if the entry was added, false if it's too large to cache
+	 */
+	private synchronized boolean add(Key key, Entry entry, LeafReader reader) {
+		if (entry.estimatedMemoryUsage() > maxMemoryUsage)
+			return false;
+		Entry old = entries.put(key, entry);
+		if (old != null)
+			memoryUsage -= old.estimatedMemoryUsage(); // (added by another thread in the meantime)
+		memoryUsage += entry.estimatedMemoryUsage();
+		if (listeningTo.add(key.coreKey))
+			reader.addCoreClosedListener(coreClosedListener);
+		Iterator<Entry> it = entries.values().iterator();
+		while (memoryUsage > maxMemoryUsage && it.hasNext()) {
+			Entry e = it.next();
+			memoryUsage -= e.estimatedMemoryUsage();
+			it.remove();
+			numberOfEvictions++;
+		}
+		return true;
+	}
+
+	/**
+	 * Remove the entries for a segment.
+	 *
+	 * @param coreKey the segment's core cache key
+	 */
+	synchronized void removeSegment(Object coreKey) {
+		Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, Entry> e = it.next();
+			if (e.getKey().coreKey == coreKey) {
+				memoryUsage -= e.getValue().estimatedMemoryUsage();
+				it.remove();
+			}
+		}
+		Iterator<Key> itCounts = requestCounts.keySet().iterator();
+		while (itCounts.hasNext()) {
+			if (itCounts.next().coreKey == coreKey)
+				itCounts.remove();
+		}
+		Iterator<Key> itTooLarge = tooLarge.keySet().iterator();
+		while (itTooLarge.hasNext()) {
+			if (itTooLarge.next().coreKey == coreKey)
+				itTooLarge.remove();
+		}
+		listeningTo.remove(coreKey);
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		requestCounts.clear();
+		tooLarge.clear();
+		memoryUsage = 0;
+	}
+
+	/**
+	 * Get the number of cached entries (clauses per segment).
+	 * @return the number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Get the estimated memory used by the cache.
+	 * @return the estimated memory usage in bytes
+	 */
+	public synchronized long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	/**
+	 * Get the number of times a clause was found in the cache.
+	 * @return the number of cache hits
+	 */
+	public synchronized long getNumberOfHits() {
+		return numberOfHits;
+	}
+
+	/**
+	 * Get the number of times a clause was not found in the cache.
+	 * @return the number of cache misses
+	 */
+	public synchronized long getNumberOfMisses() {
+		return numberOfMisses;
+	}
+
+	/**
+	 * Get the number of entries evicted to stay within the memory limit.
+	 * @return the number of evictions
+	 */
+	public synchronized long getNumberOfEvictions() {
+		return numberOfEvictions;
+	}
+
+	/**
+	 * Get the number of times we found a clause had too many hits in a segment to cache.
+	 *
+	 * Such clauses aren't gathered again (as long as we remember them).
+	 *
+	 * @return the number of clauses per segment that were too large
+	 */
+	public synchronized long getNumberOfTooLarge() {
+		return numberOfTooLarge;
+	}
+
+}
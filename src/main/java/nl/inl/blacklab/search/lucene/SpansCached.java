@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.util.Bits;
+
+import nl.inl.blacklab.search.Span;
+
+/**
+ * Replays hits from the SpansCache.
+ */
+class SpansCached extends BLSpans {
+
+	/** The cached hits */
+	private SpansCache.Entry entry;
+
+	/** Documents to consider, or null for all */
+	private Bits acceptDocs;
+
+	/** Index of the current document in the entry, or -1 if not started */
+	private int docIndex = -1;
+
+	/** Current document id */
+	private int currentDoc = -1;
+
+	/** Index of the current hit in the entry */
+	private int hitIndex;
+
+	/** Index of the first hit in the next document */
+	private int endHitIndex;
+
+	/** Has nextStartPosition() been called in the current document? */
+	private boolean atHit;
+
+	SpansCached(SpansCache.Entry entry, Bits acceptDocs) {
+		this.entry = entry;
+		this.acceptDocs = acceptDocs;
+	}
+
+	@Override
+	public int docID() {
+		return currentDoc;
+	}
+
+	@Override
+	public int nextDoc() throws IOException {
+		if (currentDoc == NO_MORE_DOCS)
+			return NO_MORE_DOCS;
+		return goToDoc(docIndex + 1);
+	}
+
+	@Override
+	public int advance(int target) throws IOException {
+		if (currentDoc == NO_MORE_DOCS)
+			return NO_MORE_DOCS;
+		if (target <= currentDoc)
+			return nextDoc();
+		int i = Arrays.binarySearch(entry.docs, docIndex + 1, entry.docs.length, target);
+		return goToDoc(i >= 0 ? i : -i - 1);
+	}
+
+	/**
+	 * Go to the first accepted document from the specified index.
+	 *
+	 * @param index index of the document in the entry
+	 * @return the document id, or NO_MORE_DOCS if there are no more documents
+	 */
+	private int goToDoc(int index) {
+		docIndex = index;
+		while (docIndex < entry.docs.length && acceptDocs != null && !acceptDocs.get(entry.docs[docIndex]))
+			docIndex++;
+		if (docIndex >= entry.docs.length) {
+			currentDoc = NO_MORE_DOCS;
+			return NO_MORE_DOCS;
+		}
+		currentDoc = entry.docs[docIndex];
+		hitIndex = entry.firstHit[docIndex];
+		endHitIndex = entry.firstHit[docIndex + 1];
+		atHit = false;
+		return currentDoc;
+	}
+
+	@Override
+	public int nextStartPosition() throws IOException {
+		if (atHit)
+			hitIndex++;
+		atHit = true;
+		return startPosition();
+	}
+
+	@Override
+	public int advanceStartPosition(int target) throws IOException {
+		if (!entry.hitsStartPointSorted)
+			return super.advanceStartPosition(target);
+		if (atHit)
+			hitIndex++;
+		atHit = true;
+		if (hitIndex < endHitIndex && entry.starts[hitIndex] < target) {
+			// Binary search for the first hit starting at or after the target
+			int i = Arrays.binarySearch(entry.starts, hitIndex, endHitIndex, target);
+			if (i < 0) {
+				hitIndex = -i - 1;
+			} else {
+				// Found a hit starting at target; find the first one
+				while (i > hitIndex && entry.starts[i - 1] == target)
+					i--;
+				hitIndex = i;
+			}
+		}
+		return startPosition();
+	}
+
+	@Override
+	public int startPosition() {
+		if (!atHit)
+			return -1;
+		if (hitIndex >= endHitIndex)
+			return NO_MORE_POSITIONS;
+		return entry.starts[hitIndex];
+	}
+
+	@Override
+	public int endPosition() {
+		if (!atHit)
+			return -1;
+		if (hitIndex >= endHitIndex)
+			return NO_MORE_POSITIONS;
+		return entry.ends[hitIndex];
+	}
+
+	@Override
+	public long cost() {
+		return entry.starts.length;
+	}
+
+	@Override
+	public boolean hitsStartPointSorted() {
+		return entry.hitsStartPointSorted;
+	}
+
+	@Override
+	public boolean hitsEndPointSorted() {
+		return entry.hitsEndPointSorted;
+	}
+
+	@Override
+	public boolean hitsAllSameLength() {
+		return entry.hitsAllSameLength;
+	}
+
+	@Override
+	public int hitsLength() {
+		return entry.hitsLength;
+	}
+
+	@Override
+	public boolean hitsHaveUniqueStart() {
+		return entry.hitsHaveUniqueStart;
+	}
+
+	@Override
+	public boolean hitsHaveUniqueEnd() {
+		return entry.hitsHaveUniqueEnd;
+	}
+
+	@Override
+	public boolean hitsAreUnique() {
+		return entry.hitsAreUnique;
+	}
+
+	@Override
+	protected void passHitQueryContextToClauses(HitQueryContext context) {
+		// no clauses
+	}
+
+	@Override
+	public void getCapturedGroups(Span[] capturedGroups) {
+		// Cached clauses don't capture groups
+	}
+
+	@Override
+	public String toString() {
+		return "SpansCached(" + currentDoc + ")";
+	}
+
+}
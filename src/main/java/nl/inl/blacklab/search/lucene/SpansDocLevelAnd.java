@@ -19,6 +19,8 @@ package nl.inl.blacklab.search.lucene;
 import java.io.IOException;
 import java.util.Collection;
 
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Span;
@@ -46,6 +48,15 @@ public class SpansDocLevelAnd extends BLSpans {
 	/** What start pos is span at? */
 	private int currentStart[] = new int[2];
 
+	/** Are we already at the first hit in the document, before nextStartPosition() has been called? */
+	private boolean alreadyAtFirstMatch = false;
+
+	/** Two-phase view: documents both clauses occur in, checked for matches when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents we actually match in */
+	private DocIdSetIterator docs;
+
 	public SpansDocLevelAnd(Spans leftClause, Spans rightClause) {
 		spans = new BLSpans[2];
 		spans[0] = BLSpansWrapper.optWrapSort(leftClause);
@@ -53,6 +64,35 @@ public class SpansDocLevelAnd extends BLSpans {
 		currentDoc[0] = currentDoc[1] = -1;
 		currentStart[0] = currentStart[1] = -1;
 		currentSpansIndex = 0;
+
+		final TwoPhaseIterator[] clauseTwoPhase = new TwoPhaseIterator[2];
+		DocIdSetIterator[] approximations = new DocIdSetIterator[2];
+		for (int i = 0; i < 2; i++) {
+			clauseTwoPhase[i] = spans[i].asTwoPhaseIterator();
+			approximations[i] = SpansTwoPhaseIterator.approximation(spans[i], clauseTwoPhase[i]);
+		}
+		twoPhase = new SpansTwoPhaseIterator(SpansTwoPhaseIterator.conjunction(approximations)) {
+			@Override
+			protected void startDoc(int doc) {
+				alreadyAtFirstMatch = false;
+				currentDoc[0] = currentDoc[1] = doc;
+				currentStart[0] = currentStart[1] = -1;
+				currentSpansIndex = 0;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!SpansTwoPhaseIterator.matches(clauseTwoPhase[0]) || !SpansTwoPhaseIterator.matches(clauseTwoPhase[1]))
+					return false;
+				// Both clauses match in this document; position both at their first hit
+				currentStart[0] = spans[0].nextStartPosition();
+				currentStart[1] = spans[1].nextStartPosition();
+				determineCurrentHit();
+				alreadyAtFirstMatch = true;
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
 	}
 
 	@Override
@@ -62,15 +102,22 @@ public class SpansDocLevelAnd extends BLSpans {
 
 	@Override
 	public int endPosition() {
+		if (alreadyAtFirstMatch)
+			return -1; // .nextStartPosition() not called yet
 		return spans[currentSpansIndex].endPosition();
 	}
 
 	@Override
 	public int nextDoc() throws IOException {
-		// Both spans are in the same doc. Advance both now and re-synchronize.
-		currentDoc[0] = spans[0].nextDoc();
-		currentDoc[1] = spans[1].nextDoc();
-		return synchronize();
+		alreadyAtFirstMatch = false;
+		if (currentDoc[0] == NO_MORE_DOCS)
+			return NO_MORE_DOCS;
+		return docs.nextDoc();
+	}
+
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
 	}
 
 	@Override
@@ -78,6 +125,13 @@ public class SpansDocLevelAnd extends BLSpans {
 		if (currentDoc[currentSpansIndex] == NO_MORE_DOCS)
 			return NO_MORE_POSITIONS;
 
+		if (alreadyAtFirstMatch) {
+			alreadyAtFirstMatch = false;
+			return currentStart[currentSpansIndex];
+		}
+		if (currentStart[currentSpansIndex] == NO_MORE_POSITIONS)
+			return NO_MORE_POSITIONS;
+
 		// Advance the spans from which the last hit was produced,
 		// so that both spans[0] and spans[1] point to a 'fresh' hit.
 		// (Of course one or both might become depleted at some point;
@@ -90,8 +144,17 @@ public class SpansDocLevelAnd extends BLSpans {
 
 	@Override
 	public int advanceStartPosition(int target) throws IOException {
+		if (currentDoc[currentSpansIndex] == NO_MORE_DOCS)
+			return NO_MORE_POSITIONS;
+		if (alreadyAtFirstMatch) {
+			alreadyAtFirstMatch = false;
+		} else if (currentStart[currentSpansIndex] != NO_MORE_POSITIONS) {
+			// Move past the hit we produced last
+			currentStart[currentSpansIndex] = spans[currentSpansIndex].nextStartPosition();
+		}
 		for (int i = 0; i < 2; i++) {
-			currentStart[i] = spans[i].advanceStartPosition(target);
+			if (currentStart[i] != NO_MORE_POSITIONS && currentStart[i] < target)
+				currentStart[i] = spans[i].advanceStartPosition(target);
 		}
 		return determineCurrentHit();
 	}
@@ -125,42 +188,6 @@ public class SpansDocLevelAnd extends BLSpans {
 		return currentStart[currentSpansIndex];
 	}
 
-	/**
-	 * If spans[0] and spans[1] are at different document ids, this method will
-	 * advance them until they're in the same document again.
-	 *
-	 * @return document id if a next document has been found, NO_MORE_DOCS if we're done
-	 * @throws IOException
-	 */
-	private int synchronize() throws IOException {
-		// Were we done already?
-		if (currentDoc[0] == NO_MORE_DOCS || currentDoc[1] == NO_MORE_DOCS) {
-			// Yes
-			return NO_MORE_DOCS;
-		}
-
-		// Loop until we match up spans[0] and spans[1]
-		while (currentDoc[0] != currentDoc[1]) {
-			// Which of the two should we advance?
-			if (currentDoc[0] < currentDoc[1]) {
-				// spans[0] is behind spans[1]; skip spans[0] to spans[1]'s position
-				currentDoc[0] = spans[0].advance(currentDoc[1]);
-				if (currentDoc[0] == NO_MORE_DOCS) {
-					// spans[0] is depleted; we're done
-					return NO_MORE_DOCS;
-				}
-			} else {
-				// spans[1] is behind spans[0]; skip spans[1] to spans[0]'s position
-				currentDoc[1] = spans[1].advance(currentDoc[0]);
-				if (currentDoc[1] == NO_MORE_DOCS) {
-					// spans[1] is depleted; we're done
-					return NO_MORE_DOCS;
-				}
-			}
-		}
-		return currentDoc[0];
-	}
-
 	/**
 	 * Go to the specified document, if it contains hits. If not, go to the first document
 	 * after that containing hits.
@@ -172,10 +199,10 @@ public class SpansDocLevelAnd extends BLSpans {
 	 */
 	@Override
 	public int advance(int doc) throws IOException {
-		// Skip beiden tot aan doc
-		currentDoc[0] = spans[0].advance(doc);
-		currentDoc[1] = spans[1].advance(doc);
-		return synchronize();
+		alreadyAtFirstMatch = false;
+		if (currentDoc[0] == NO_MORE_DOCS)
+			return NO_MORE_DOCS;
+		return docs.advance(doc);
 	}
 
 	/**
@@ -183,6 +210,8 @@ public class SpansDocLevelAnd extends BLSpans {
 	 */
 	@Override
 	public int startPosition() {
+		if (alreadyAtFirstMatch)
+			return -1; // .nextStartPosition() not called yet
 		return currentStart[currentSpansIndex];
 	}
 
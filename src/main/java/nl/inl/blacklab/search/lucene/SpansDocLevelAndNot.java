@@ -18,6 +18,8 @@ package nl.inl.blacklab.search.lucene;
 import java.io.IOException;
 import java.util.Collection;
 
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Span;
@@ -35,21 +37,48 @@ public class SpansDocLevelAndNot extends BLSpans {
 	/** NOT part (exclude documents from this spans) */
 	private BLSpans excludeSpans;
 
-	private boolean excludeSpansNexted;
+	/** Current document, or NO_MORE_DOCS if we're done */
+	private int currentDoc = -1;
 
-	private boolean moreIncludeSpansDocs;
+	/** Document the exclude spans is in */
+	private int excludeDoc = -1;
 
 	private boolean moreIncludeSpansPos;
 
-	private boolean moreExcludeSpansDocs;
+	/** Two-phase view: documents the include part might match in, checked when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents we actually match in */
+	private DocIdSetIterator docs;
 
 	public SpansDocLevelAndNot(Spans includeSpans, Spans excludeSpans) {
 		this.includeSpans = BLSpansWrapper.optWrapSort(includeSpans);
 		this.excludeSpans = BLSpansWrapper.optWrapSort(excludeSpans);
-		excludeSpansNexted = false;
-		moreIncludeSpansDocs = true;
-		moreExcludeSpansDocs = true;
 		moreIncludeSpansPos = false;
+
+		// Excluded documents can't be skipped using an approximation (we need to know the
+		// exclude part actually matches), so we only check them for candidate documents.
+		final TwoPhaseIterator includeTwoPhase = this.includeSpans.asTwoPhaseIterator();
+		twoPhase = new SpansTwoPhaseIterator(SpansTwoPhaseIterator.approximation(this.includeSpans, includeTwoPhase)) {
+			@Override
+			protected void startDoc(int doc) {
+				currentDoc = doc;
+				moreIncludeSpansPos = false;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!SpansTwoPhaseIterator.matches(includeTwoPhase))
+					return false;
+				if (excludeDoc < currentDoc)
+					excludeDoc = SpansDocLevelAndNot.this.excludeSpans.advance(currentDoc);
+				if (excludeDoc == currentDoc)
+					return false;
+				moreIncludeSpansPos = true;
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
 	}
 
 	/**
@@ -57,7 +86,7 @@ public class SpansDocLevelAndNot extends BLSpans {
 	 */
 	@Override
 	public int docID() {
-		return includeSpans.docID();
+		return currentDoc;
 	}
 
 	/**
@@ -70,28 +99,14 @@ public class SpansDocLevelAndNot extends BLSpans {
 
 	@Override
 	public int nextDoc() throws IOException {
-		// This has to be done right away, but we don't want it in the
-		// constructor because it may throw an exception
-		if (!excludeSpansNexted) {
-			moreExcludeSpansDocs = excludeSpans.nextDoc() != NO_MORE_DOCS;
-			excludeSpansNexted = true;
-		}
-
-		boolean done = false;
-		do {
-			if (moreIncludeSpansDocs && includeSpans.nextDoc() != NO_MORE_DOCS) {
-				// Voldoet deze?
-				int newDocId = includeSpans.docID();
-				if (moreExcludeSpansDocs && excludeSpans.docID() < newDocId) {
-					moreExcludeSpansDocs = excludeSpans.advance(newDocId) != NO_MORE_DOCS;
-				}
-			} else {
-				// Geen spans meer over!
-				return NO_MORE_DOCS;
-			}
-		} while (!done && moreExcludeSpansDocs && includeSpans.docID() == excludeSpans.docID());
-		moreIncludeSpansPos = true;
-		return includeSpans.docID();
+		if (currentDoc == NO_MORE_DOCS)
+			return NO_MORE_DOCS;
+		return docs.nextDoc();
+	}
+
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
 	}
 
 	/**
@@ -124,21 +139,9 @@ public class SpansDocLevelAndNot extends BLSpans {
 	 */
 	@Override
 	public int advance(int doc) throws IOException {
-		if (moreIncludeSpansDocs)
-			moreIncludeSpansDocs = includeSpans.advance(doc) != NO_MORE_DOCS;
-		if (!moreIncludeSpansDocs)
+		if (currentDoc == NO_MORE_DOCS)
 			return NO_MORE_DOCS;
-
-		if (moreExcludeSpansDocs) {
-			moreExcludeSpansDocs = excludeSpans.advance(doc) != NO_MORE_DOCS;
-			excludeSpansNexted = true;
-			if (moreExcludeSpansDocs && includeSpans.docID() == excludeSpans.docID()) {
-				return nextDoc();
-			}
-		}
-
-		moreIncludeSpansPos = true;
-		return includeSpans.docID();
+		return docs.advance(doc);
 	}
 
 	/**
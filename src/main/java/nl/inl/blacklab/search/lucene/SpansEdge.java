@@ -17,6 +17,7 @@ package nl.inl.blacklab.search.lucene;
 
 import java.io.IOException;
 
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Span;
@@ -88,6 +89,11 @@ class SpansEdge extends BLSpans {
 		return clause.advance(doc);
 	}
 
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return clause.asTwoPhaseIterator();
+	}
+
 	@Override
 	public String toString() {
 		return "SpansEdge(" + clause + ", " + (rightEdge ? "RIGHT" : "LEFT") + ")";
@@ -19,6 +19,7 @@ import java.io.IOException;
 
 import org.apache.lucene.search.DocIdSet;
 import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Span;
@@ -35,61 +36,86 @@ public class SpansFiltered extends BLSpans {
 	/** Set of accepted docs. NOTE: this is not segment-based, but for the whole index! */
 	DocIdSetIterator docIdSetIter;
 
-	boolean more;
+	/** Current document, or NO_MORE_DOCS if we're done */
+	private int currentDoc = -1;
+
+	/** Two-phase view: accepted documents our spans might match in, checked when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Accepted documents our spans actually matches in */
+	private DocIdSetIterator docs;
 
 	public SpansFiltered(Spans spans, DocIdSet filterDocs) throws IOException {
+		this(spans, filterDocs.iterator());
+	}
+
+	/**
+	 * Filter spans using an iterator over the accepted documents.
+	 *
+	 * @param spans the spans to filter
+	 * @param filterDocs the accepted documents (null if none)
+	 */
+	public SpansFiltered(Spans spans, DocIdSetIterator filterDocs) {
 		this.spans = BLSpansWrapper.optWrap(spans);
-		docIdSetIter = filterDocs.iterator();
-		more = false;
-		if (docIdSetIter != null) {
-			more = (docIdSetIter.nextDoc() != NO_MORE_DOCS);
-		}
-	}
-
-	private int synchronize() throws IOException {
-		while (more && spans.docID() != docIdSetIter.docID()) {
-			if (spans.docID() < docIdSetIter.docID()) {
-				more = spans.advance(docIdSetIter.docID()) != NO_MORE_DOCS;
-			} else if (docIdSetIter.advance(spans.docID()) == NO_MORE_DOCS) {
-				more = false;
+		docIdSetIter = filterDocs;
+		if (docIdSetIter == null)
+			docIdSetIter = DocIdSetIterator.empty();
+
+		// Intersect the accepted docs with the documents our spans might match in,
+		// so we only check for actual matches in documents that pass the filter.
+		final TwoPhaseIterator spansTwoPhase = this.spans.asTwoPhaseIterator();
+		DocIdSetIterator candidates = SpansTwoPhaseIterator.conjunction(
+				SpansTwoPhaseIterator.approximation(this.spans, spansTwoPhase), docIdSetIter);
+		twoPhase = new SpansTwoPhaseIterator(candidates) {
+			@Override
+			protected void startDoc(int doc) {
+				currentDoc = doc;
 			}
-		}
-		return more ? spans.docID() : NO_MORE_DOCS;
+
+			@Override
+			public boolean matches() throws IOException {
+				return SpansTwoPhaseIterator.matches(spansTwoPhase);
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
 	}
 
 	@Override
 	public int nextDoc() throws IOException {
-		if (!more)
+		if (currentDoc == NO_MORE_DOCS)
 			return NO_MORE_DOCS;
-		more = spans.nextDoc() != NO_MORE_DOCS;
-		return synchronize();
+		return docs.nextDoc();
 	}
 
 	@Override
 	public int nextStartPosition() throws IOException {
-		if (!more)
+		if (currentDoc == NO_MORE_DOCS)
 			return NO_MORE_POSITIONS;
 		return spans.nextStartPosition();
 	}
 
 	@Override
 	public int advanceStartPosition(int target) throws IOException {
-		if (!more)
+		if (currentDoc == NO_MORE_DOCS)
 			return NO_MORE_POSITIONS;
 		return spans.advanceStartPosition(target);
 	}
 
 	@Override
 	public int advance(int target) throws IOException {
-		if (!more)
+		if (currentDoc == NO_MORE_DOCS)
 			return NO_MORE_DOCS;
-		more = spans.advance(target) != NO_MORE_DOCS;
-		return synchronize();
+		return docs.advance(target);
+	}
+
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
 	}
 
 	@Override
 	public int docID() {
-		return spans.docID();
+		return currentDoc;
 	}
 
 	@Override
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
+
+import nl.inl.blacklab.forwardindex.ForwardIndex;
+import nl.inl.blacklab.forwardindex.TagIndex;
+import nl.inl.blacklab.search.Hit;
+import nl.inl.blacklab.search.Span;
+import nl.inl.blacklab.search.sequences.SpansInBuckets;
+
+/**
+ * The elements of a tag in each document, read from the tag index.
+ *
+ * There is one bucket per document, containing all the elements, sorted
+ * by start position (then by end position). Unlike the buckets made from the
+ * start tag spans, nothing is copied: the positions are read directly
+ * from the (memory mapped) tag index.
+ */
+class SpansInBucketsTagIndex implements SpansInBuckets {
+
+	/** The tag index */
+	private TagIndex tagIndex;
+
+	/** Current document */
+	private int currentDoc = -1;
+
+	/** Index of the current document's first element in the tag index */
+	private long firstElement;
+
+	/** Number of elements in the current document, or -1 if we're not at a valid bucket */
+	private int bucketSize = -1;
+
+	/** Number of elements in the current document */
+	private int numberOfElements;
+
+	/** Two-phase view: documents containing the tag, checked for elements when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents with elements */
+	private DocIdSetIterator docs;
+
+	/**
+	 * Construct the buckets.
+	 *
+	 * @param tagDocs documents containing the tag (e.g. the start tag's postings)
+	 * @param tagIndex the tag index
+	 * @param forwardIndex forward index of the main property, to translate document ids
+	 * @param docBase document base of the segment we're searching
+	 */
+	public SpansInBucketsTagIndex(DocIdSetIterator tagDocs, TagIndex tagIndex, final ForwardIndex forwardIndex, final int docBase) {
+		this.tagIndex = tagIndex;
+		twoPhase = new SpansTwoPhaseIterator(tagDocs) {
+			@Override
+			protected void startDoc(int doc) {
+				currentDoc = doc;
+				bucketSize = -1;
+				numberOfElements = 0;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				int fiid = forwardIndex.luceneDocIdToFiid(docBase + currentDoc);
+				TagIndex ti = SpansInBucketsTagIndex.this.tagIndex;
+				numberOfElements = ti.getNumberOfElements(fiid);
+				if (numberOfElements == 0)
+					return false;
+				firstElement = ti.getFirstElement(fiid);
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
+	}
+
+	@Override
+	public int docID() {
+		return currentDoc;
+	}
+
+	@Override
+	public int bucketSize() {
+		return bucketSize;
+	}
+
+	@Override
+	public int startPosition(int index) {
+		return tagIndex.getStart(firstElement + index);
+	}
+
+	@Override
+	public int endPosition(int index) {
+		return tagIndex.getEnd(firstElement + index);
+	}
+
+	@Override
+	public Hit getHit(int index) {
+		return new Hit(currentDoc, startPosition(index), endPosition(index));
+	}
+
+	@Override
+	public Collection<byte[]> getPayload(int indexInBucket) {
+		return null;
+	}
+
+	@Override
+	public boolean isPayloadAvailable(int indexInBucket) {
+		return false;
+	}
+
+	@Override
+	public int nextDoc() throws IOException {
+		if (currentDoc != DocIdSetIterator.NO_MORE_DOCS)
+			docs.nextDoc();
+		return currentDoc;
+	}
+
+	@Override
+	public int nextBucket() throws IOException {
+		if (currentDoc < 0) {
+			// Not nexted yet, no bucket
+			return -1;
+		}
+		if (currentDoc == DocIdSetIterator.NO_MORE_DOCS || bucketSize >= 0)
+			return NO_MORE_BUCKETS; // one bucket per document
+		bucketSize = numberOfElements;
+		return currentDoc;
+	}
+
+	@Override
+	public int advance(int target) throws IOException {
+		if (currentDoc != DocIdSetIterator.NO_MORE_DOCS) {
+			if (currentDoc >= target)
+				nextDoc();
+			else
+				docs.advance(target);
+		}
+		return currentDoc;
+	}
+
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
+	}
+
+	@Override
+	public void setHitQueryContext(HitQueryContext context) {
+		// Elements don't capture groups
+	}
+
+	@Override
+	public void getCapturedGroups(int indexInBucket, Span[] capturedGroups) {
+		// Elements don't capture groups
+	}
+
+	@Override
+	public String toString() {
+		return "SpansInBucketsTagIndex(" + currentDoc + ")";
+	}
+
+}
@@ -18,11 +18,14 @@ package nl.inl.blacklab.search.lucene;
 import java.io.IOException;
 import java.util.Collection;
 
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Span;
 import nl.inl.blacklab.search.TextPatternPositionFilter;
 import nl.inl.blacklab.search.sequences.SpanComparatorStartPoint;
+import nl.inl.blacklab.search.sequences.SpansInBuckets;
 import nl.inl.blacklab.search.sequences.SpansInBucketsPerDocument;
 import nl.inl.blacklab.search.sequences.SpansInBucketsPerDocumentSorted;
 
@@ -37,7 +40,7 @@ class SpansPositionFilter extends BLSpans {
 	private BLSpans producer;
 
 	/** The spans we use to filter the producer spans */
-	private SpansInBucketsPerDocument filter;
+	private SpansInBuckets filter;
 
 	/** What doc is the producer in? */
 	private int producerDoc = -1;
@@ -71,8 +74,15 @@ class SpansPositionFilter extends BLSpans {
 	 */
 	private boolean invert;
 
-	/** Are the filter hits guaranteed to have the same length? */
-	private boolean filterFixedLength;
+	/** Are the filter hits guaranteed to be sorted by end position as well
+	 *  (e.g. because they all have the same length)? */
+	private boolean filterEndPointSorted;
+
+	/** Two-phase view: documents we might match in, checked for matches when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents we actually match in */
+	private DocIdSetIterator docs;
 
 	/**
 	 * Find hits from producer, filtered by the filter according to the specified op
@@ -85,20 +95,89 @@ class SpansPositionFilter extends BLSpans {
 	 * @param rightAdjust how to adjust the right edge of the producer hits while matching
 	 */
 	public SpansPositionFilter(Spans producer, Spans filter, TextPatternPositionFilter.Operation op, boolean invert, int leftAdjust, int rightAdjust) {
+		this(producer, bucketsPerDocument(filter), filter instanceof BLSpans && ((BLSpans)filter).hitsAllSameLength(),
+				op, invert, leftAdjust, rightAdjust);
+	}
+
+	/**
+	 * Find hits from producer, filtered by the filter according to the specified op
+	 *
+	 * @param producer the hits we may be interested in
+	 * @param filter the hits used to filter the producer hits, one bucket per document, sorted by start point
+	 * @param filterEndPointSorted whether the filter hits are sorted by end point as well
+	 * @param op filter operation to use
+	 * @param invert if true, produce hits that DON'T match the filter instead
+	 * @param leftAdjust how to adjust the left edge of the producer hits while matching
+	 * @param rightAdjust how to adjust the right edge of the producer hits while matching
+	 */
+	SpansPositionFilter(Spans producer, SpansInBuckets filter, boolean filterEndPointSorted, TextPatternPositionFilter.Operation op, boolean invert, int leftAdjust, int rightAdjust) {
 		this.producer = BLSpansWrapper.optWrapSort(producer);
 		this.op = op;
 		this.invert = invert;
-		filterFixedLength = filter instanceof BLSpans && ((BLSpans)filter).hitsAllSameLength();
+		this.filter = filter;
+		this.filterEndPointSorted = filterEndPointSorted;
+		this.leftAdjust = leftAdjust;
+		this.rightAdjust = rightAdjust;
+
+		// Candidate documents are those the producer occurs in (and, for a positive
+		// filter, the filter as well). We only check for positional matches when needed.
+		final TwoPhaseIterator producerTwoPhase = this.producer.asTwoPhaseIterator();
+		final TwoPhaseIterator filterTwoPhase = this.filter.asTwoPhaseIterator();
+		DocIdSetIterator candidates = SpansTwoPhaseIterator.approximation(this.producer, producerTwoPhase);
+		if (!invert)
+			candidates = SpansTwoPhaseIterator.conjunction(candidates, filterTwoPhase.approximation());
+		twoPhase = new SpansTwoPhaseIterator(candidates) {
+			@Override
+			protected void startDoc(int doc) {
+				alreadyAtFirstMatch = false;
+				producerDoc = doc;
+				producerStart = -1;
+				if (!SpansPositionFilter.this.invert)
+					filterDoc = doc;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!SpansTwoPhaseIterator.matches(producerTwoPhase))
+					return false;
+				if (!SpansPositionFilter.this.invert) {
+					if (!filterTwoPhase.matches())
+						return false;
+					SpansPositionFilter.this.filter.nextBucket();
+				} else {
+					// For negative filters, the filter doesn't have to occur in this document;
+					// if it does, we need its hits.
+					if (filterDoc < producerDoc)
+						filterDoc = SpansPositionFilter.this.filter.advance(producerDoc);
+					if (filterDoc == producerDoc)
+						SpansPositionFilter.this.filter.nextBucket();
+				}
+
+				// Are there search results in this document?
+				producerStart = SpansPositionFilter.this.producer.nextStartPosition();
+				producerStart = synchronizePos();
+				if (producerStart == NO_MORE_POSITIONS)
+					return false;
+				alreadyAtFirstMatch = true;
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
+	}
+
+	/**
+	 * Put the filter hits in buckets per document, sorted by start point.
+	 *
+	 * @param filter the filter hits
+	 * @return the buckets
+	 */
+	private static SpansInBuckets bucketsPerDocument(Spans filter) {
 		if (!(filter instanceof BLSpans) || (filter instanceof BLSpans && ((BLSpans)filter).hitsStartPointSorted())) {
 			// Already start point sorted; no need to sort buckets again
-			this.filter = new SpansInBucketsPerDocument(filter);
-		}
-		else {
-			// Not sorted yet; sort buckets
-			this.filter = new SpansInBucketsPerDocumentSorted(filter, cmpStartPoint);
+			return new SpansInBucketsPerDocument(filter);
 		}
-		this.leftAdjust = leftAdjust;
-		this.rightAdjust = rightAdjust;
+		// Not sorted yet; sort buckets
+		return new SpansInBucketsPerDocumentSorted(filter, cmpStartPoint);
 	}
 
 	/**
@@ -131,17 +210,16 @@ class SpansPositionFilter extends BLSpans {
 		alreadyAtFirstMatch = false;
 
 		// Are we done yet?
-		if (producerDoc == NO_MORE_DOCS || filterDoc == NO_MORE_DOCS)
+		if (producerDoc == NO_MORE_DOCS)
 			return NO_MORE_DOCS;
 
-		// Advance container
-		producerDoc = producer.nextDoc();
-		producerStart = -1;
-		if (producerDoc == NO_MORE_DOCS)
-			return NO_MORE_DOCS; // no more containers; we're done.
+		// Find the next document with a matching producer span
+		return docs.nextDoc();
+	}
 
-		// Find first matching producer span from here
-		return findDocWithMatch();
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
 	}
 
 	@Override
@@ -185,60 +263,6 @@ class SpansPositionFilter extends BLSpans {
 		return synchronizePos();
 	}
 
-	/**
-	 * Find a producer span (not necessarily in this document) matching with filter,
-	 * starting from the current producer span.
-	 *
-	 * @return docID if found, NO_MORE_DOCS if no such producer span exists (i.e. we're done)
-	 * @throws IOException
-	 */
-	private int findDocWithMatch() throws IOException {
-		// Find the next "valid" container, if there is one.
-		while (producerDoc != NO_MORE_DOCS) {
-
-			// Are filter and producer in the same document?
-			while (filterDoc != producerDoc) {
-				if (filterDoc < producerDoc) {
-					// No, advance filter to be in the same document as the producer
-					filterDoc = filter.advance(producerDoc);
-					if (filterDoc == NO_MORE_DOCS) {
-						if (!invert) {
-							// Positive filter, but no more filter hits. We're done.
-							return NO_MORE_DOCS;
-						}
-					} else
-						filter.nextBucket();
-				} else if (producerDoc < filterDoc) {
-					if (invert) {
-						// For negative filters, lagging producer spans is ok. This just means
-						// all hits in the current producer doc are matches.
-						break;
-					}
-					// No, advance producer to be in the same document as the producer
-					producerDoc = producer.advance(filterDoc);
-					if (producerDoc == NO_MORE_DOCS)
-						return NO_MORE_DOCS; // No more producer results, we're done.
-				}
-			}
-
-			// Are there search results in this document?
-			if (producerStart != NO_MORE_POSITIONS) {
-				producerStart = producer.nextStartPosition();
-			}
-			producerStart = synchronizePos();
-			if (producerStart != NO_MORE_POSITIONS) {
-				alreadyAtFirstMatch = true;
-				return producerDoc;
-			}
-
-			// No search results found in the current container.
-			// Advance to the next container.
-			producerDoc = producer.nextDoc();
-			producerStart = -1;
-		}
-		return producerDoc;
-	}
-
 	/**
 	 * Find a producer span matching with filter, starting from the current producer span.
 	 *
@@ -261,7 +285,7 @@ class SpansPositionFilter extends BLSpans {
 				// Looking for producer hits with a filter hit inside
 				while (min <= max) {
 					int i = (min + max) / 2;
-					if (filterFixedLength && filter.endPosition(i) > producer.endPosition() + rightAdjust) {
+					if (filterEndPointSorted && filter.endPosition(i) > producer.endPosition() + rightAdjust) {
 						// Filter end position to the right of producer hit end position.
 						max = i - 1;
 					} else if (filter.startPosition(i) < producerStart + leftAdjust) {
@@ -289,7 +313,7 @@ class SpansPositionFilter extends BLSpans {
 				// Looking for producer hits with a filter hit inside, at the start
 				while (min <= max) {
 					int i = (min + max) / 2;
-					if (filterFixedLength && filter.endPosition(i) > producer.endPosition() + rightAdjust) {
+					if (filterEndPointSorted && filter.endPosition(i) > producer.endPosition() + rightAdjust) {
 						// Filter end position to the right of producer hit end position.
 						max = i - 1;
 					} else if (filter.startPosition(i) < producerStart + leftAdjust) {
@@ -317,7 +341,7 @@ class SpansPositionFilter extends BLSpans {
 				// Looking for producer hits with a filter hit inside, at the end
 				while (min <= max) {
 					int i = (min + max) / 2;
-					if (filterFixedLength && filter.endPosition(i) > producer.endPosition() + rightAdjust) {
+					if (filterEndPointSorted && filter.endPosition(i) > producer.endPosition() + rightAdjust) {
 						// Filter end position to the right of producer hit end position.
 						max = i - 1;
 					} else if (filter.startPosition(i) < producerStart + leftAdjust) {
@@ -348,7 +372,7 @@ class SpansPositionFilter extends BLSpans {
 					if (filter.startPosition(i) > producerStart + leftAdjust) {
 						// Filter start position to the right of producer hit start position.
 						max = i - 1;
-					} else if (filterFixedLength && filter.endPosition(i) < producer.endPosition() + rightAdjust) {
+					} else if (filterEndPointSorted && filter.endPosition(i) < producer.endPosition() + rightAdjust) {
 						// Filter end position to the left of producer hit end position.
 						min = i + 1;
 					} else {
@@ -394,7 +418,7 @@ class SpansPositionFilter extends BLSpans {
 				break;
 			case ENDS_AT:
 				// Looking for producer hits ending at a filter hit
-				if (filterFixedLength) {
+				if (filterEndPointSorted) {
 					while (min <= max) {
 						int i = (min + max) / 2;
 						if (filter.endPosition(i) > producer.endPosition() + rightAdjust) {
@@ -426,9 +450,9 @@ class SpansPositionFilter extends BLSpans {
 				// Looking for producer hits exactly matching a filter hit
 				while (min <= max) {
 					int i = (min + max) / 2;
-					if (filter.startPosition(i) < producerStart + leftAdjust || filterFixedLength && filter.endPosition(i) < producer.endPosition() + rightAdjust) {
+					if (filter.startPosition(i) < producerStart + leftAdjust || filterEndPointSorted && filter.endPosition(i) < producer.endPosition() + rightAdjust) {
 						min = i + 1;
-					} else if (filter.startPosition(i) > producerStart + leftAdjust || filterFixedLength && filter.endPosition(i) > producer.endPosition() + rightAdjust) {
+					} else if (filter.startPosition(i) > producerStart + leftAdjust || filterEndPointSorted && filter.endPosition(i) > producer.endPosition() + rightAdjust) {
 						max = i - 1;
 					} else {
 						// Can't narrow down the edges any further; do linear search from here.
@@ -468,14 +492,12 @@ class SpansPositionFilter extends BLSpans {
 	public int advance(int doc) throws IOException {
 		alreadyAtFirstMatch = false;
 
-		// Skip both to doc
-		producerDoc = producer.advance(doc);
-		producerStart = -1;
+		// Are we done yet?
 		if (producerDoc == NO_MORE_DOCS)
 			return NO_MORE_DOCS;
 
-		// Find first matching producer span from here
-		return findDocWithMatch();
+		// Find the first document from here with a matching producer span
+		return docs.advance(doc);
 	}
 
 	@Override
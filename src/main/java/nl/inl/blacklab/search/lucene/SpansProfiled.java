@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import nl.inl.blacklab.search.Span;
+
+import org.apache.lucene.search.TwoPhaseIterator;
+
+/**
+ * Records execution statistics for a BLSpans operator in a QueryProfileNode.
+ *
+ * Passes all calls on to the operator, so the hit guarantees, captured
+ * groups and two-phase view are those of the operator.
+ */
+class SpansProfiled extends BLSpans {
+
+	/** The operator we're profiling */
+	private BLSpans source;
+
+	/** Where to record statistics */
+	private QueryProfileNode node;
+
+	/** Two-phase view of the operator that records calls to matches(), or null if none */
+	private TwoPhaseIterator twoPhase = null;
+
+	/**
+	 * Profile an operator.
+	 *
+	 * @param source the operator
+	 * @param node where to record statistics
+	 */
+	public SpansProfiled(BLSpans source, final QueryProfileNode node) {
+		this.source = source;
+		this.node = node;
+		final TwoPhaseIterator srcTwoPhase = source.asTwoPhaseIterator();
+		if (srcTwoPhase != null) {
+			twoPhase = new TwoPhaseIterator(srcTwoPhase.approximation()) {
+				@Override
+				public boolean matches() throws IOException {
+					long start = System.nanoTime();
+					boolean matches = srcTwoPhase.matches();
+					node.nanos += System.nanoTime() - start;
+					node.matchesCalls++;
+					if (matches)
+						node.docs++;
+					return matches;
+				}
+			};
+		}
+	}
+
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
+	}
+
+	@Override
+	public int nextDoc() throws IOException {
+		long start = System.nanoTime();
+		int doc = source.nextDoc();
+		node.nanos += System.nanoTime() - start;
+		node.nextDocCalls++;
+		if (doc != NO_MORE_DOCS)
+			node.docs++;
+		return doc;
+	}
+
+	@Override
+	public int advance(int target) throws IOException {
+		long start = System.nanoTime();
+		int doc = source.advance(target);
+		node.nanos += System.nanoTime() - start;
+		node.advanceCalls++;
+		if (doc != NO_MORE_DOCS)
+			node.docs++;
+		return doc;
+	}
+
+	@Override
+	public int nextStartPosition() throws IOException {
+		long start = System.nanoTime();
+		int pos = source.nextStartPosition();
+		node.nanos += System.nanoTime() - start;
+		node.nextStartPositionCalls++;
+		if (pos != NO_MORE_POSITIONS)
+			node.hits++;
+		return pos;
+	}
+
+	@Override
+	public int advanceStartPosition(int target) throws IOException {
+		long start = System.nanoTime();
+		int pos = source.advanceStartPosition(target);
+		node.nanos += System.nanoTime() - start;
+		node.nextStartPositionCalls++;
+		if (pos != NO_MORE_POSITIONS)
+			node.hits++;
+		return pos;
+	}
+
+	@Override
+	public int docID() {
+		return source.docID();
+	}
+
+	@Override
+	public int startPosition() {
+		return source.startPosition();
+	}
+
+	@Override
+	public int endPosition() {
+		return source.endPosition();
+	}
+
+	@Override
+	public Collection<byte[]> getPayload() throws IOException {
+		return source.getPayload();
+	}
+
+	@Override
+	public boolean isPayloadAvailable() throws IOException {
+		return source.isPayloadAvailable();
+	}
+
+	@Override
+	public long cost() {
+		return source.cost();
+	}
+
+	@Override
+	public boolean hitsEndPointSorted() {
+		return source.hitsEndPointSorted();
+	}
+
+	@Override
+	public boolean hitsStartPointSorted() {
+		return source.hitsStartPointSorted();
+	}
+
+	@Override
+	public boolean hitsAllSameLength() {
+		return source.hitsAllSameLength();
+	}
+
+	@Override
+	public int hitsLength() {
+		return source.hitsLength();
+	}
+
+	@Override
+	public boolean hitsHaveUniqueStart() {
+		return source.hitsHaveUniqueStart();
+	}
+
+	@Override
+	public boolean hitsHaveUniqueEnd() {
+		return source.hitsHaveUniqueEnd();
+	}
+
+	@Override
+	public boolean hitsAreUnique() {
+		return source.hitsAreUnique();
+	}
+
+	@Override
+	public void setHitQueryContext(HitQueryContext context) {
+		source.setHitQueryContext(context);
+	}
+
+	@Override
+	protected void passHitQueryContextToClauses(HitQueryContext context) {
+		// (not used; setHitQueryContext() is passed on directly)
+	}
+
+	@Override
+	public void getCapturedGroups(Span[] capturedGroups) {
+		source.getCapturedGroups(capturedGroups);
+	}
+
+	@Override
+	public String toString() {
+		return "SpansProfiled(" + source + ")";
+	}
+
+}
@@ -19,6 +19,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Span;
@@ -50,6 +52,12 @@ class SpansTags extends BLSpans {
 	/** Ends of hits in current document */
 	private List<Integer> ends = new ArrayList<>();
 
+	/** Two-phase view: documents containing start tags, hits gathered when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents we actually match in */
+	private DocIdSetIterator docs;
+
 	public SpansTags(Spans startTags, Spans endTags) {
 		Spans[] origSpans = { startTags, endTags };
 		for (int i = 0; i < 2; i++) {
@@ -64,6 +72,29 @@ class SpansTags extends BLSpans {
 				spans[i] = new SpansInBucketsPerDocumentSorted(origSpans[i], cmpStartPoint);
 		}
 		currentDoc[0] = currentDoc[1] = -1;
+
+		// Start and end tags always occur in the same documents, so we skip using
+		// the start tags and only gather the hits for documents we're interested in.
+		final TwoPhaseIterator startTwoPhase = spans[0].asTwoPhaseIterator();
+		twoPhase = new SpansTwoPhaseIterator(startTwoPhase.approximation()) {
+			@Override
+			protected void startDoc(int doc) {
+				currentDoc[0] = doc;
+				currentHit = -1;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!startTwoPhase.matches())
+					return false;
+				currentDoc[1] = spans[1].advance(currentDoc[0]);
+				if (currentDoc[0] != currentDoc[1])
+					throw new RuntimeException("Error, start and end tags not in synch");
+				gatherHits();
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
 	}
 
 	@Override
@@ -96,14 +127,12 @@ class SpansTags extends BLSpans {
 			return NO_MORE_DOCS;
 
 		// Move to the next document
-		currentDoc[0] = spans[0].nextDoc();
-		currentDoc[1] = spans[1].nextDoc();
-		if (currentDoc[0] != currentDoc[1])
-			throw new RuntimeException("Error, start and end tags not in synch");
-		if (currentDoc[0] == NO_MORE_DOCS || currentDoc[1] == NO_MORE_DOCS)
-			return NO_MORE_DOCS;
-		gatherHits();
-		return currentDoc[0];
+		return docs.nextDoc();
+	}
+
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
 	}
 
 	@Override
@@ -233,15 +262,9 @@ class SpansTags extends BLSpans {
 	 */
 	@Override
 	public int advance(int doc) throws IOException {
-		// Skip both
-		currentDoc[0] = spans[0].advance(doc);
-		currentDoc[1] = spans[1].advance(doc);
-		if (currentDoc[0] != currentDoc[1])
-			throw new RuntimeException("Error, start and end tags not in synch");
 		if (currentDoc[0] == NO_MORE_DOCS || currentDoc[1] == NO_MORE_DOCS)
 			return NO_MORE_DOCS;
-		gatherHits();
-		return currentDoc[0];
+		return docs.advance(doc);
 	}
 
 	@Override
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.search.ConjunctionDISI;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
+
+/**
+ * Two-phase view of a BLSpans operator.
+ *
+ * The approximation only moves through candidate documents (usually the
+ * documents all clauses occur in, found by intersecting the approximations of
+ * the clauses), without doing any positional work. Positional matching is only
+ * done in matches(), for the candidates the caller is actually interested in.
+ *
+ * This allows e.g. a metadata filter or a document-level AND to skip documents
+ * cheaply, instead of finding the first match in each document it skips over.
+ *
+ * After matches() returns true, the operator is positioned in the document,
+ * ready for nextStartPosition() to be called.
+ */
+public abstract class SpansTwoPhaseIterator extends TwoPhaseIterator {
+
+	/**
+	 * Construct a two-phase iterator.
+	 *
+	 * @param docs the candidate documents
+	 */
+	public SpansTwoPhaseIterator(DocIdSetIterator docs) {
+		this(new Approximation(docs));
+	}
+
+	private SpansTwoPhaseIterator(Approximation approximation) {
+		super(approximation);
+		approximation.twoPhase = this;
+	}
+
+	/**
+	 * Called when the approximation moves to a new candidate document.
+	 *
+	 * Reset any per-document state here. Don't do any positional work;
+	 * that should be done in matches().
+	 *
+	 * @param doc the new document, or NO_MORE_DOCS if we're done
+	 */
+	protected abstract void startDoc(int doc);
+
+	/**
+	 * Get the iterator to use for the candidate documents of a clause.
+	 *
+	 * @param clause the clause
+	 * @param twoPhase the clause's two-phase view, or null if it doesn't have one
+	 * @return the clause's approximation, or the clause itself if it has none
+	 */
+	public static DocIdSetIterator approximation(DocIdSetIterator clause, TwoPhaseIterator twoPhase) {
+		return twoPhase == null ? clause : twoPhase.approximation();
+	}
+
+	/**
+	 * Intersect several doc-level iterators.
+	 *
+	 * The iterators should be approximations (or clauses without an approximation),
+	 * so no positional work is done while intersecting.
+	 *
+	 * @param iterators the iterators to intersect
+	 * @return the intersection
+	 */
+	public static DocIdSetIterator conjunction(DocIdSetIterator... iterators) {
+		if (iterators.length == 1)
+			return iterators[0];
+		return ConjunctionDISI.intersect(Arrays.asList(iterators));
+	}
+
+	/**
+	 * Check that a clause matches the current candidate document.
+	 *
+	 * @param twoPhase the clause's two-phase view, or null if it doesn't have one
+	 *   (in which case the clause is already known to match)
+	 * @return true iff the clause matches the current document
+	 * @throws IOException
+	 */
+	public static boolean matches(TwoPhaseIterator twoPhase) throws IOException {
+		return twoPhase == null || twoPhase.matches();
+	}
+
+	/**
+	 * Moves through the candidate documents and lets the operator know
+	 * when it moves to a new document.
+	 */
+	private static class Approximation extends DocIdSetIterator {
+
+		private DocIdSetIterator docs;
+
+		SpansTwoPhaseIterator twoPhase;
+
+		public Approximation(DocIdSetIterator docs) {
+			this.docs = docs;
+		}
+
+		@Override
+		public int docID() {
+			return docs.docID();
+		}
+
+		@Override
+		public int nextDoc() throws IOException {
+			if (docs.docID() == NO_MORE_DOCS)
+				return NO_MORE_DOCS;
+			int doc = docs.nextDoc();
+			twoPhase.startDoc(doc);
+			return doc;
+		}
+
+		@Override
+		public int advance(int target) throws IOException {
+			if (docs.docID() == NO_MORE_DOCS)
+				return NO_MORE_DOCS;
+			if (target <= docs.docID()) {
+				// Per Lucene's specification, always at least go to the next doc
+				return nextDoc();
+			}
+			int doc = docs.advance(target);
+			twoPhase.startDoc(doc);
+			return doc;
+		}
+
+		@Override
+		public long cost() {
+			return docs.cost();
+		}
+
+		@Override
+		public String toString() {
+			return "Approximation(" + docs + ")";
+		}
+	}
+
+}
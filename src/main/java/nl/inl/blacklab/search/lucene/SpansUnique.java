@@ -17,6 +17,7 @@ package nl.inl.blacklab.search.lucene;
 
 import java.io.IOException;
 
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Span;
@@ -32,8 +33,31 @@ public class SpansUnique extends BLSpans {
 
 	private int currentStart = Spans.NO_MORE_POSITIONS;
 
+	/** Two-phase view, or null if our source doesn't have one */
+	private TwoPhaseIterator twoPhase;
+
 	public SpansUnique(Spans src) {
 		this.src = BLSpansWrapper.optWrapSort(src);
+		final TwoPhaseIterator srcTwoPhase = this.src.asTwoPhaseIterator();
+		if (srcTwoPhase != null) {
+			twoPhase = new SpansTwoPhaseIterator(srcTwoPhase.approximation()) {
+				@Override
+				protected void startDoc(int doc) {
+					currentDoc = doc;
+					currentStart = -1;
+				}
+
+				@Override
+				public boolean matches() throws IOException {
+					return srcTwoPhase.matches();
+				}
+			};
+		}
+	}
+
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
 	}
 
 	@Override
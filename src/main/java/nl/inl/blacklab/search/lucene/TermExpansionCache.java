@@ -0,0 +1,441 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReader.CoreClosedListener;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BoostAttribute;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.spans.SpanMultiTermQueryWrapper.SpanRewriteMethod;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.util.AttributeSource;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Caches the terms that multi-term queries (regular expressions, wildcards,
+ * prefixes and fuzzy terms) expand to, per segment.
+ *
+ * Without this cache, every query runs the pattern's automaton over the terms
+ * dictionary of every segment again. Entries are keyed by the query (which
+ * includes the field, and therefore the sensitivity, and the pattern) and the
+ * segment. Because the terms dictionary of a segment never changes, deletions
+ * don't invalidate entries; entries for a segment are removed when it is closed.
+ * Expansions with too many terms in a segment are not cached. When the cache
+ * holds too many terms in total, the least recently used entries are evicted.
+ *
+ * Use the rewrite method from getSpanRewriteMethod() to rewrite a multi-term
+ * query using the cache.
+ */
+public class TermExpansionCache {
+
+	/** Rough estimate of the memory used per term, apart from its bytes */
+	private static final int BYTES_PER_TERM_OVERHEAD = 40;
+
+	/** Cache key: a query in a segment */
+	private static class Key {
+		MultiTermQuery query;
+
+		/** Identifies the segment */
+		Object coreKey;
+
+		Key(MultiTermQuery query, Object coreKey) {
+			this.query = query;
+			this.coreKey = coreKey;
+		}
+
+		@Override
+		public int hashCode() {
+			return query.hashCode() ^ System.identityHashCode(coreKey);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return coreKey == other.coreKey && query.equals(other.query);
+		}
+	}
+
+	/** The expansion of a query in a segment */
+	private static class Entry {
+		/** The matching terms, in index order */
+		BytesRef[] terms;
+
+		/** Boost for each term (from the terms enum, e.g. fuzzy similarity) */
+		float[] boosts;
+
+		/** Total number of occurrences of the terms in the segment */
+		long totalTermFreq;
+
+		long estimatedMemoryUsage() {
+			long bytes = 0;
+			for (BytesRef term: terms) {
+				bytes += term.length + BYTES_PER_TERM_OVERHEAD;
+			}
+			return bytes;
+		}
+	}
+
+	/** The cached expansions, in LRU order */
+	private Map<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** Segments we've registered a close listener with */
+	private Set<Object> listeningTo = new HashSet<>();
+
+	/** Maximum total number of terms to keep */
+	private long maxTerms;
+
+	/** Maximum number of terms of an expansion in one segment to cache */
+	private int maxTermsPerEntry;
+
+	/** Total number of terms currently cached */
+	private long numberOfTerms = 0;
+
+	/** Estimated memory currently used */
+	private long memoryUsage = 0;
+
+	/** Number of times an expansion was found in the cache */
+	private long numberOfHits = 0;
+
+	/** Number of times an expansion was not found in the cache */
+	private long numberOfMisses = 0;
+
+	/** Number of entries evicted to stay within the limits */
+	private long numberOfEvictions = 0;
+
+	/** Rewrites to all matching terms */
+	private CachingSpanRewriteMethod rewriteMethod = new CachingSpanRewriteMethod(Integer.MAX_VALUE);
+
+	/** Removes the entries for a segment when it is closed */
+	private CoreClosedListener coreClosedListener = new CoreClosedListener() {
+		@Override
+		public void onClose(Object ownerCoreCacheKey) {
+			removeSegment(ownerCoreCacheKey);
+		}
+	};
+
+	/**
+	 * Construct a term expansion cache.
+	 *
+	 * @param maxTerms maximum total number of terms to keep
+	 * @param maxTermsPerEntry maximum number of terms of an expansion in one segment to cache
+	 */
+	public TermExpansionCache(long maxTerms, int maxTermsPerEntry) {
+		this.maxTerms = maxTerms;
+		this.maxTermsPerEntry = maxTermsPerEntry;
+	}
+
+	/**
+	 * Get a rewrite method that rewrites to a BLSpanOrQuery of all matching terms,
+	 * using this cache.
+	 *
+	 * This is the cached equivalent of BLSpanMultiTermQueryWrapper.BL_SCORING_SPAN_QUERY_REWRITE.
+	 *
+	 * @return the rewrite method
+	 */
+	public SpanRewriteMethod getSpanRewriteMethod() {
+		return rewriteMethod;
+	}
+
+	/**
+	 * Get a rewrite method that rewrites to a BLSpanOrQuery of the best matching terms,
+	 * using this cache.
+	 *
+	 * Terms are chosen by their boost (e.g. the similarity of a fuzzy term), like
+	 * Lucene's top terms rewrite methods do. Use this for fuzzy queries.
+	 *
+	 * @param maxExpansions maximum number of terms to rewrite to
+	 * @return the rewrite method
+	 */
+	public SpanRewriteMethod getTopTermsSpanRewriteMethod(int maxExpansions) {
+		return new CachingSpanRewriteMethod(maxExpansions);
+	}
+
+	/**
+	 * Rewrites a multi-term query to a BLSpanOrQuery of BLSpanTermQuery clauses,
+	 * getting the matching terms in each segment from the cache.
+	 */
+	private class CachingSpanRewriteMethod extends SpanRewriteMethod {
+
+		/** Maximum number of terms to rewrite to (the ones with the highest boost) */
+		private int maxExpansions;
+
+		CachingSpanRewriteMethod(int maxExpansions) {
+			this.maxExpansions = maxExpansions;
+		}
+
+		@Override
+		public SpanQuery rewrite(IndexReader reader, MultiTermQuery query) throws IOException {
+			// Combine the expansions of the segments
+			Map<BytesRef, Float> boosts = new HashMap<>();
+			for (LeafReaderContext context: reader.leaves()) {
+				Entry entry = getEntry(query, context.reader());
+				for (int i = 0; i < entry.terms.length; i++) {
+					boosts.put(entry.terms[i], entry.boosts[i]);
+				}
+			}
+			List<BytesRef> terms = new ArrayList<>(boosts.keySet());
+			if (terms.size() > maxExpansions) {
+				// Keep the terms with the highest boost (the lowest terms first if equal)
+				final Map<BytesRef, Float> b = boosts;
+				Collections.sort(terms, new Comparator<BytesRef>() {
+					@Override
+					public int compare(BytesRef o1, BytesRef o2) {
+						int cmp = Float.compare(b.get(o2), b.get(o1));
+						return cmp != 0 ? cmp : o1.compareTo(o2);
+					}
+				});
+				terms = terms.subList(0, maxExpansions);
+			}
+			Collections.sort(terms);
+
+			BLSpanOrQuery rewritten = new BLSpanOrQuery();
+			for (BytesRef term: terms) {
+				BLSpanTermQuery q = new BLSpanTermQuery(new Term(query.getField(), term));
+				q.setBoost(query.getBoost() * boosts.get(term));
+				rewritten.addClause(q);
+			}
+			if (rewritten.getField() == null)
+				rewritten.setField(query.getField()); // rewritten to or query without clauses
+			return rewritten;
+		}
+
+		/**
+		 * Get the expansion of a query in a segment, from the cache if possible.
+		 *
+		 * @param query the query
+		 * @param reader the segment
+		 * @return the expansion
+		 * @throws IOException
+		 */
+		private Entry getEntry(MultiTermQuery query, LeafReader reader) throws IOException {
+			Key key = new Key(query, reader.getCoreCacheKey());
+			synchronized (TermExpansionCache.this) {
+				Entry entry = entries.get(key);
+				if (entry != null) {
+					numberOfHits++;
+					return entry;
+				}
+				numberOfMisses++;
+			}
+			Entry entry = expand(query, reader);
+			if (entry.terms.length <= maxTermsPerEntry)
+				add(key, entry, reader);
+			return entry;
+		}
+
+		/**
+		 * Run the query's terms enum over the segment's terms dictionary.
+		 *
+		 * @param query the query
+		 * @param reader the segment
+		 * @return the expansion
+		 * @throws IOException
+		 */
+		private Entry expand(MultiTermQuery query, LeafReader reader) throws IOException {
+			List<BytesRef> terms = new ArrayList<>();
+			float[] boosts = new float[16];
+			long totalTermFreq = 0;
+			Terms segmentTerms = reader.terms(query.getField());
+			if (segmentTerms != null) {
+				TermsEnum termsEnum = getTermsEnum(query, segmentTerms, new AttributeSource());
+				BoostAttribute boostAtt = termsEnum.attributes().addAttribute(BoostAttribute.class);
+				BytesRef term;
+				while ((term = termsEnum.next()) != null) {
+					if (terms.size() == boosts.length)
+						boosts = Arrays.copyOf(boosts, boosts.length * 2);
+					boosts[terms.size()] = boostAtt.getBoost();
+					terms.add(BytesRef.deepCopyOf(term));
+					long freq = termsEnum.totalTermFreq();
+					totalTermFreq += freq >= 0 ? freq : termsEnum.docFreq();
+				}
+			}
+			Entry entry = new Entry();
+			entry.terms = terms.toArray(new BytesRef[terms.size()]);
+			entry.boosts = Arrays.copyOf(boosts, terms.size());
+			entry.totalTermFreq = totalTermFreq;
+			return entry;
+		}
+
+		private TermExpansionCache getCache() {
+			return TermExpansionCache.this;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(getCache()) * 31 + maxExpansions;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof CachingSpanRewriteMethod))
+				return false;
+			CachingSpanRewriteMethod other = (CachingSpanRewriteMethod) obj;
+			return getCache() == other.getCache() && maxExpansions == other.maxExpansions;
+		}
+
+	}
+
+	/**
+	 * Get the total number of occurrences of the terms a multi-term query expands to.
+	 *
+	 * The expansion is taken from (or added to) the cache, so the query planner can
+	 * use this as an estimate without expanding the query again when it is rewritten.
+	 * The query should use one of our rewrite methods, so it matches the query that
+	 * will actually be rewritten.
+	 *
+	 * @param reader the index
+	 * @param query the query
+	 * @return the number of occurrences
+	 * @throws IOException
+	 */
+	public long totalTermFreq(IndexReader reader, MultiTermQuery query) throws IOException {
+		long total = 0;
+		for (LeafReaderContext context: reader.leaves()) {
+			total += rewriteMethod.getEntry(query, context.reader()).totalTermFreq;
+		}
+		return total;
+	}
+
+	/**
+	 * Add an entry, evicting the least recently used entries if necessary.
+	 *
+	 * @param key the key
+	 * @param entry the entry
+	 * @param reader the segment
+	 */
+	private synchronized void add(Key key, Entry entry, LeafReader reader) {
+		if (entry.terms.length > maxTerms)
+			return;
+		Entry old = entries.put(key, entry);
+		if (old != null) {
+			// (added by another thread in the meantime)
+			numberOfTerms -= old.terms.length;
+			memoryUsage -= old.estimatedMemoryUsage();
+		}
+		numberOfTerms += entry.terms.length;
+		memoryUsage += entry.estimatedMemoryUsage();
+		if (listeningTo.add(key.coreKey))
+			reader.addCoreClosedListener(coreClosedListener);
+		Iterator<Entry> it = entries.values().iterator();
+		while (numberOfTerms > maxTerms && it.hasNext()) {
+			Entry e = it.next();
+			numberOfTerms -= e.terms.length;
+			memoryUsage -= e.estimatedMemoryUsage();
+			it.remove();
+			numberOfEvictions++;
+		}
+	}
+
+	/**
+	 * Remove the entries for a segment.
+	 *
+	 * @param coreKey the segment's core cache key
+	 */
+	synchronized void removeSegment(Object coreKey) {
+		Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, Entry> e = it.next();
+			if (e.getKey().coreKey == coreKey) {
+				numberOfTerms -= e.getValue().terms.length;
+				memoryUsage -= e.getValue().estimatedMemoryUsage();
+				it.remove();
+			}
+		}
+		listeningTo.remove(coreKey);
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		numberOfTerms = 0;
+		memoryUsage = 0;
+	}
+
+	/**
+	 * Get the number of cached entries (expansions per segment).
+	 * @return the number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Get the total number of cached terms.
+	 * @return the number of terms
+	 */
+	public synchronized long getNumberOfTerms() {
+		return numberOfTerms;
+	}
+
+	/**
+	 * Get the estimated memory used by the cache.
+	 * @return the estimated memory usage in bytes
+	 */
+	public synchronized long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	/**
+	 * Get the number of times an expansion was found in the cache.
+	 * @return the number of cache hits
+	 */
+	public synchronized long getNumberOfHits() {
+		return numberOfHits;
+	}
+
+	/**
+	 * Get the number of times an expansion was not found in the cache.
+	 * @return the number of cache misses
+	 */
+	public synchronized long getNumberOfMisses() {
+		return numberOfMisses;
+	}
+
+	/**
+	 * Get the number of entries evicted to stay within the limits.
+	 * @return the number of evictions
+	 */
+	public synchronized long getNumberOfEvictions() {
+		return numberOfEvictions;
+	}
+
+}
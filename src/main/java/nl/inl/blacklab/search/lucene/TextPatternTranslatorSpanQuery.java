@@ -30,6 +30,7 @@ import nl.inl.blacklab.search.sequences.SpanQueryRepetition;
 import nl.inl.blacklab.search.sequences.SpanQuerySequence;
 
 import org.apache.lucene.index.Term;
+import org.apache.lucene.search.MultiTermQuery;
 import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.RegexpQuery;
 import org.apache.lucene.search.WildcardQuery;
@@ -55,10 +56,51 @@ public class TextPatternTranslatorSpanQuery extends TextPatternTranslator<SpanQu
 		return new BLSpanOrQuery(clauses.toArray(new SpanQuery[] {}));
 	}
 
+	/**
+	 * Get the hits of a clause that may expand to many terms from the
+	 * searcher's spans cache, if it has one.
+	 *
+	 * @param context the query execution context
+	 * @param clause the clause
+	 * @return the clause, wrapped to use the cache if there is one
+	 */
+	protected SpanQuery cached(QueryExecutionContext context, SpanQuery clause) {
+		SpansCache cache = context.searcher == null ? null : context.searcher.getSpansCache();
+		return cache == null ? clause : new SpanQueryCached(clause, cache);
+	}
+
+	/**
+	 * Wrap a multi-term query as a span query, getting its expansion from the
+	 * searcher's term expansion cache, if it has one.
+	 *
+	 * @param <Q> the type of query we're wrapping
+	 * @param context the query execution context
+	 * @param query the multi-term query
+	 * @return the span query
+	 */
+	protected <Q extends MultiTermQuery> SpanQuery multiTerm(QueryExecutionContext context, Q query) {
+		BLSpanMultiTermQueryWrapper<Q> wrapper = new BLSpanMultiTermQueryWrapper<>(query);
+		TermExpansionCache cache = context.searcher == null ? null : context.searcher.getTermExpansionCache();
+		if (cache != null)
+			wrapper.setRewriteMethod(cache.getSpanRewriteMethod());
+		return cached(context, wrapper);
+	}
+
+	/**
+	 * Called when a query part we translated is wrapped in another query (e.g. to
+	 * profile it), so subclasses can treat the wrapper like the query part itself.
+	 *
+	 * @param wrapper the wrapper
+	 * @param query the query part we translated
+	 */
+	void wrapped(SpanQuery wrapper, SpanQuery query) {
+		// (nothing to do by default)
+	}
+
 	@Override
 	public SpanQuery regex(QueryExecutionContext context, String value) {
 		String valueNoStartEndMatch = value.replaceAll("\\^|\\$", "");
-		return new BLSpanMultiTermQueryWrapper<>(new RegexpQuery(
+		return multiTerm(context, new RegexpQuery(
 				new Term(context.luceneField(), context.optDesensitize(valueNoStartEndMatch))));
 	}
 
@@ -74,7 +116,10 @@ public class TextPatternTranslatorSpanQuery extends TextPatternTranslator<SpanQu
 
 	@Override
 	public SpanQuery fuzzy(QueryExecutionContext context, String value, int maxEdits, int prefixLength) {
-		return new SpanFuzzyQuery(new Term(context.luceneField(), context.optDesensitize(value)), maxEdits, prefixLength);
+		SpanFuzzyQuery fuzzyQuery = new SpanFuzzyQuery(new Term(context.luceneField(), context.optDesensitize(value)), maxEdits, prefixLength);
+		if (context.searcher != null)
+			fuzzyQuery.setTermExpansionCache(context.searcher.getTermExpansionCache());
+		return cached(context, fuzzyQuery);
 	}
 
 	@Override
@@ -154,13 +199,13 @@ public class TextPatternTranslatorSpanQuery extends TextPatternTranslator<SpanQu
 
 	@Override
 	public SpanQuery wildcard(QueryExecutionContext context, String value) {
-		return new BLSpanMultiTermQueryWrapper<>(new WildcardQuery(new Term(context.luceneField(),
+		return multiTerm(context, new WildcardQuery(new Term(context.luceneField(),
 				context.optDesensitize(value))));
 	}
 
 	@Override
 	public SpanQuery prefix(QueryExecutionContext context, String value) {
-		return new BLSpanMultiTermQueryWrapper<>(new PrefixQuery(new Term(context.luceneField(),
+		return multiTerm(context, new PrefixQuery(new Term(context.luceneField(),
 				context.optDesensitize(value))));
 	}
 
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.sequences;
+
+import java.util.BitSet;
+
+import nl.inl.blacklab.forwardindex.ForwardIndex;
+
+/**
+ * A single-token constraint that is checked using a forward index.
+ *
+ * The constraint is a set of accepted term ids from the forward index, e.g. all
+ * terms of the pos property that match the regular expression "N.*", or all
+ * terms of the word property that are equal to "amsterdam" case-insensitively.
+ */
+public class ForwardIndexConstraint {
+
+	/** The forward index to check the token in */
+	private ForwardIndex forwardIndex;
+
+	/** The term ids that satisfy the constraint */
+	private BitSet acceptedTermIds;
+
+	/** Description of the constraint, e.g. the SpanQuery it replaces */
+	private String description;
+
+	/**
+	 * Construct a forward index constraint.
+	 *
+	 * @param forwardIndex the forward index to check the token in
+	 * @param acceptedTermIds the term ids that satisfy the constraint
+	 * @param description description of the constraint, e.g. the SpanQuery it replaces
+	 */
+	public ForwardIndexConstraint(ForwardIndex forwardIndex, BitSet acceptedTermIds, String description) {
+		this.forwardIndex = forwardIndex;
+		this.acceptedTermIds = acceptedTermIds;
+		this.description = description;
+	}
+
+	public ForwardIndex getForwardIndex() {
+		return forwardIndex;
+	}
+
+	/**
+	 * Does a token satisfy this constraint?
+	 *
+	 * @param termId the token's term id in the forward index
+	 * @return true if it does, false if not
+	 */
+	public boolean accepts(int termId) {
+		return termId >= 0 && acceptedTermIds.get(termId);
+	}
+
+	/**
+	 * Get the number of accepted term ids.
+	 * @return the number of accepted term ids
+	 */
+	public int numberOfAcceptedTerms() {
+		return acceptedTermIds.cardinality();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ForwardIndexConstraint))
+			return false;
+		ForwardIndexConstraint other = (ForwardIndexConstraint) obj;
+		return forwardIndex == other.forwardIndex && acceptedTermIds.equals(other.acceptedTermIds);
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(forwardIndex) * 31 + acceptedTermIds.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return description;
+	}
+
+}
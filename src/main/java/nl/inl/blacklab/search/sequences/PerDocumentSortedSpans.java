@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Comparator;
 
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Hit;
@@ -26,6 +27,7 @@ import nl.inl.blacklab.search.Span;
 import nl.inl.blacklab.search.lucene.BLSpans;
 import nl.inl.blacklab.search.lucene.BLSpansWrapper;
 import nl.inl.blacklab.search.lucene.HitQueryContext;
+import nl.inl.blacklab.search.lucene.SpansTwoPhaseIterator;
 
 /**
  * Sort the given Spans per document, according to the given comparator.
@@ -51,6 +53,9 @@ public class PerDocumentSortedSpans extends BLSpans {
 	/** Sort hits by end point instead of by start point? */
 	private boolean sortByEndPoint;
 
+	/** Two-phase view: documents the source might match in, checked when needed */
+	private TwoPhaseIterator twoPhase;
+
 	public PerDocumentSortedSpans(Spans src, boolean sortByEndPoint, boolean eliminateDuplicates) {
 		this.source = BLSpansWrapper.optWrap(src);
 
@@ -67,6 +72,27 @@ public class PerDocumentSortedSpans extends BLSpans {
 		bucketedSpans = new SpansInBucketsPerDocumentSorted(src, comparator);
 
 		this.eliminateDuplicates = eliminateDuplicates;
+
+		final TwoPhaseIterator bucketsTwoPhase = bucketedSpans.asTwoPhaseIterator();
+		twoPhase = new SpansTwoPhaseIterator(bucketsTwoPhase.approximation()) {
+			@Override
+			protected void startDoc(int doc) {
+				curDoc = doc;
+				indexInBucket = -2;
+				curStart = -1;
+				curEnd = -1;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				return bucketsTwoPhase.matches();
+			}
+		};
+	}
+
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
 	}
 
 	@Override
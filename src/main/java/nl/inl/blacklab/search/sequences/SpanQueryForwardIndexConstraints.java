@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.sequences;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.Bits;
+
+import nl.inl.blacklab.search.lucene.SpanQueryBase;
+
+/**
+ * Finds hits for an anchor clause that are preceded and/or followed by tokens
+ * satisfying single-token constraints, checking those constraints using the
+ * forward index.
+ *
+ * This is equivalent to a sequence of the left constraints, the anchor and the
+ * right constraints, but only the anchor's postings are read. This is much faster
+ * than a regular sequence if the anchor is rare and the constraints are common
+ * (e.g. "amsterdam" [pos="N.*"]).
+ */
+public class SpanQueryForwardIndexConstraints extends SpanQueryBase {
+
+	/** Constraints for the tokens before the anchor, leftmost first */
+	private List<ForwardIndexConstraint> left;
+
+	/** Constraints for the tokens after the anchor, leftmost first */
+	private List<ForwardIndexConstraint> right;
+
+	/**
+	 * Construct the query.
+	 *
+	 * @param anchor the clause to find
+	 * @param left constraints for the tokens before the anchor, leftmost first
+	 * @param right constraints for the tokens after the anchor, leftmost first
+	 */
+	public SpanQueryForwardIndexConstraints(SpanQuery anchor, List<ForwardIndexConstraint> left,
+			List<ForwardIndexConstraint> right) {
+		super(anchor);
+		this.left = new ArrayList<>(left);
+		this.right = new ArrayList<>(right);
+	}
+
+	@Override
+	public Spans getSpans(LeafReaderContext context, Bits acceptDocs, Map<Term,TermContext> termContexts) throws IOException {
+		Spans anchorSpans = clauses[0].getSpans(context, acceptDocs, termContexts);
+		if (anchorSpans == null)
+			return null;
+		return new SpansForwardIndexConstraints(anchorSpans, left, right, context.docBase);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o)
+			return true;
+		if (!super.equals(o))
+			return false;
+
+		final SpanQueryForwardIndexConstraints that = (SpanQueryForwardIndexConstraints) o;
+		return left.equals(that.left) && right.equals(that.right);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = super.hashCode();
+		h ^= left.hashCode() * 31;
+		h ^= right.hashCode();
+		return h;
+	}
+
+	@Override
+	public String toString(String field) {
+		return "SpanQueryForwardIndexConstraints(" + left + ", " + clausesToString(field) + ", " + right + ")";
+	}
+
+}
@@ -18,6 +18,8 @@ package nl.inl.blacklab.search.sequences;
 import java.io.IOException;
 
 import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Span;
@@ -25,6 +27,7 @@ import nl.inl.blacklab.search.lucene.BLSpans;
 import nl.inl.blacklab.search.lucene.BLSpansWrapper;
 import nl.inl.blacklab.search.lucene.DocFieldLengthGetter;
 import nl.inl.blacklab.search.lucene.HitQueryContext;
+import nl.inl.blacklab.search.lucene.SpansTwoPhaseIterator;
 
 /**
  * Expands the source spans to the left and right by the given ranges.
@@ -88,6 +91,12 @@ class SpansExpansionRaw extends BLSpans {
 
 	private boolean alreadyAtFirstHit;
 
+	/** Two-phase view: documents our clause might match in, checked for matches when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents we actually match in */
+	private DocIdSetIterator docs;
+
 	public SpansExpansionRaw(boolean ignoreLastToken, LeafReader reader, String fieldName, Spans clause, boolean expandToLeft, int min, int max) {
 		subtractFromLength = ignoreLastToken ? 1 : 0;
 		if (!expandToLeft) {
@@ -103,6 +112,30 @@ class SpansExpansionRaw extends BLSpans {
 			throw new RuntimeException("min > max");
 		if (min < 0 || max < -1)
 			throw new RuntimeException("Expansions cannot be negative");
+
+		final TwoPhaseIterator clauseTwoPhase = this.clause.asTwoPhaseIterator();
+		twoPhase = new SpansTwoPhaseIterator(SpansTwoPhaseIterator.approximation(this.clause, clauseTwoPhase)) {
+			@Override
+			protected void startDoc(int doc) {
+				alreadyAtFirstHit = false;
+				currentDoc = doc;
+				clauseStart = start = end = -1;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!SpansTwoPhaseIterator.matches(clauseTwoPhase))
+					return false;
+				// Can we do the minimum expansion for any of the hits in this document?
+				clauseStart = SpansExpansionRaw.this.clause.nextStartPosition();
+				clauseStart = resetExpand();
+				if (clauseStart == NO_MORE_POSITIONS)
+					return false;
+				alreadyAtFirstHit = true;
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
 	}
 
 	/** For test, we don't have an index reader, so use default values (all docs are 5 tokens long)
@@ -127,20 +160,16 @@ class SpansExpansionRaw extends BLSpans {
 	@Override
 	public int nextDoc() throws IOException {
 		alreadyAtFirstHit = false;
-		if (currentDoc != NO_MORE_DOCS) {
-			do {
-				currentDoc = clause.nextDoc();
-				if (currentDoc == NO_MORE_DOCS)
-					return NO_MORE_DOCS;
-				start = end = -1;
-				clauseStart = clause.nextStartPosition();
-				clauseStart = resetExpand();
-			} while (clauseStart == NO_MORE_POSITIONS);
-			alreadyAtFirstHit = true;
-		}
+		if (currentDoc != NO_MORE_DOCS)
+			docs.nextDoc();
 		return currentDoc;
 	}
 
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
+	}
+
 	@Override
 	public int nextStartPosition() throws IOException {
 		if (alreadyAtFirstHit) {
@@ -199,21 +228,7 @@ class SpansExpansionRaw extends BLSpans {
 		alreadyAtFirstHit = false;
 		if (currentDoc != NO_MORE_DOCS) {
 			if (currentDoc < doc) {
-				currentDoc = clause.advance(doc);
-				if (currentDoc != NO_MORE_DOCS) {
-					while (true) {
-						clauseStart = start = end = -1;
-						clauseStart = clause.nextStartPosition();
-						clauseStart = resetExpand();
-						if (clauseStart != NO_MORE_POSITIONS) {
-							alreadyAtFirstHit = true;
-							return currentDoc;
-						}
-						currentDoc = clause.nextDoc();
-						if (currentDoc == NO_MORE_DOCS)
-							return NO_MORE_DOCS;
-					}
-				}
+				docs.advance(doc);
 			} else {
 				nextDoc(); // per Lucene's specification, always at least go to the next doc
 			}
@@ -18,6 +18,8 @@ package nl.inl.blacklab.search.sequences;
 import java.io.IOException;
 
 import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Span;
@@ -26,6 +28,7 @@ import nl.inl.blacklab.search.lucene.BLSpans;
 import nl.inl.blacklab.search.lucene.BLSpansWrapper;
 import nl.inl.blacklab.search.lucene.DocFieldLengthGetter;
 import nl.inl.blacklab.search.lucene.HitQueryContext;
+import nl.inl.blacklab.search.lucene.SpansTwoPhaseIterator;
 
 /**
  * Expands the source spans to the left and right to form N-grams.
@@ -87,6 +90,12 @@ class SpansFilterNGramsRaw extends BLSpans {
 
 	private boolean alreadyAtFirstHit;
 
+	/** Two-phase view: documents our clause might match in, checked for matches when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents we actually match in */
+	private DocIdSetIterator docs;
+
 	public SpansFilterNGramsRaw(boolean ignoreLastToken, LeafReader reader, String fieldName, Spans clause, Operation op, int min, int max) {
 		subtractFromLength = ignoreLastToken ? 1 : 0;
 		if (op != Operation.CONTAINING_AT_END && op != Operation.ENDS_AT && op != Operation.MATCHES) {
@@ -102,6 +111,29 @@ class SpansFilterNGramsRaw extends BLSpans {
 			throw new RuntimeException("min > max");
 		if (min < 0 || max < -1)
 			throw new RuntimeException("Expansions cannot be negative");
+
+		final TwoPhaseIterator clauseTwoPhase = this.clause.asTwoPhaseIterator();
+		twoPhase = new SpansTwoPhaseIterator(SpansTwoPhaseIterator.approximation(this.clause, clauseTwoPhase)) {
+			@Override
+			protected void startDoc(int doc) {
+				alreadyAtFirstHit = false;
+				currentDoc = doc;
+				srcStart = srcEnd = start = end = -1;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!SpansTwoPhaseIterator.matches(clauseTwoPhase))
+					return false;
+				// Can we make any N-grams in this document?
+				goToNextClauseSpan();
+				if (start == NO_MORE_POSITIONS)
+					return false;
+				alreadyAtFirstHit = true;
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
 	}
 
 	/** For test, we don't have an index reader, so use default values (all docs are 5 tokens long)
@@ -126,19 +158,16 @@ class SpansFilterNGramsRaw extends BLSpans {
 	@Override
 	public int nextDoc() throws IOException {
 		alreadyAtFirstHit = false;
-		if (currentDoc != NO_MORE_DOCS) {
-			do {
-				currentDoc = clause.nextDoc();
-				if (currentDoc == NO_MORE_DOCS)
-					return NO_MORE_DOCS;
-				srcStart = srcEnd = start = end = -1;
-				goToNextClauseSpan();
-			} while (start == NO_MORE_POSITIONS);
-			alreadyAtFirstHit = true;
-		}
+		if (currentDoc != NO_MORE_DOCS)
+			docs.nextDoc();
 		return currentDoc;
 	}
 
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
+	}
+
 	@Override
 	public int nextStartPosition() throws IOException {
 		if (alreadyAtFirstHit) {
@@ -223,20 +252,7 @@ class SpansFilterNGramsRaw extends BLSpans {
 		alreadyAtFirstHit = false;
 		if (currentDoc != NO_MORE_DOCS) {
 			if (currentDoc < doc) {
-				currentDoc = clause.advance(doc);
-				if (currentDoc != NO_MORE_DOCS) {
-					while (true) {
-						srcStart = srcEnd = start = end = -1;
-						goToNextClauseSpan();
-						if (start != NO_MORE_POSITIONS) {
-							alreadyAtFirstHit = true;
-							return currentDoc;
-						}
-						currentDoc = clause.nextDoc();
-						if (currentDoc == NO_MORE_DOCS)
-							return NO_MORE_DOCS;
-					}
-				}
+				docs.advance(doc);
 			} else {
 				nextDoc(); // per Lucene's specification, always at least go to the next doc
 			}
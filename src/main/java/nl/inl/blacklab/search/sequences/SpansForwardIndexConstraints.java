@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.sequences;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.spans.Spans;
+
+import nl.inl.blacklab.forwardindex.ForwardIndex;
+import nl.inl.blacklab.search.Span;
+import nl.inl.blacklab.search.lucene.BLSpans;
+import nl.inl.blacklab.search.lucene.BLSpansWrapper;
+import nl.inl.blacklab.search.lucene.HitQueryContext;
+import nl.inl.blacklab.search.lucene.SpansTwoPhaseIterator;
+
+/**
+ * Keeps only anchor hits whose surrounding tokens satisfy single-token constraints,
+ * checked using the forward index. The resulting hits include the constrained tokens.
+ */
+class SpansForwardIndexConstraints extends BLSpans {
+
+	/** The anchor hits */
+	private BLSpans anchor;
+
+	/** Constraints for the tokens before the anchor, leftmost first */
+	private ForwardIndexConstraint[] left;
+
+	/** Constraints for the tokens after the anchor, leftmost first */
+	private ForwardIndexConstraint[] right;
+
+	/** The different forward indices our constraints use */
+	private ForwardIndex[] forwardIndices;
+
+	/** For each left constraint, the index in forwardIndices */
+	private int[] leftFi;
+
+	/** For each right constraint, the index in forwardIndices */
+	private int[] rightFi;
+
+	/** Forward index id of the current document, per forward index */
+	private int[] fiids;
+
+	/** Lucene doc id base for this segment, to translate to forward index ids */
+	private int docBase;
+
+	private int currentDoc = -1;
+
+	private int start = -1;
+
+	private int end = -1;
+
+	/**
+	 * Are we already a the first match in the document, even if .nextStartPosition() hasn't been called?
+	 * Required because we need to test for matches in the document in .nextDoc()/.advance().
+	 */
+	private boolean alreadyAtFirstMatch = false;
+
+	/** Two-phase view: documents the anchor might match in, checked when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents we actually match in */
+	private DocIdSetIterator docs;
+
+	public SpansForwardIndexConstraints(Spans anchor, List<ForwardIndexConstraint> left,
+			List<ForwardIndexConstraint> right, int docBase) {
+		this.anchor = BLSpansWrapper.optWrapSort(anchor);
+		this.left = left.toArray(new ForwardIndexConstraint[0]);
+		this.right = right.toArray(new ForwardIndexConstraint[0]);
+		this.docBase = docBase;
+		List<ForwardIndex> fis = new ArrayList<>();
+		leftFi = findForwardIndices(this.left, fis);
+		rightFi = findForwardIndices(this.right, fis);
+		forwardIndices = fis.toArray(new ForwardIndex[0]);
+		fiids = new int[forwardIndices.length];
+
+		// Only check the constraints in documents the caller is interested in
+		final TwoPhaseIterator anchorTwoPhase = this.anchor.asTwoPhaseIterator();
+		twoPhase = new SpansTwoPhaseIterator(SpansTwoPhaseIterator.approximation(this.anchor, anchorTwoPhase)) {
+			@Override
+			protected void startDoc(int doc) {
+				alreadyAtFirstMatch = false;
+				currentDoc = doc;
+				start = end = doc == NO_MORE_DOCS ? NO_MORE_POSITIONS : -1;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!SpansTwoPhaseIterator.matches(anchorTwoPhase))
+					return false;
+				for (int i = 0; i < forwardIndices.length; i++) {
+					fiids[i] = forwardIndices[i].luceneDocIdToFiid(SpansForwardIndexConstraints.this.docBase + currentDoc);
+				}
+				if (nextMatchInDoc() == NO_MORE_POSITIONS)
+					return false;
+				alreadyAtFirstMatch = true;
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
+	}
+
+	private static int[] findForwardIndices(ForwardIndexConstraint[] constraints, List<ForwardIndex> fis) {
+		int[] result = new int[constraints.length];
+		for (int i = 0; i < constraints.length; i++) {
+			ForwardIndex fi = constraints[i].getForwardIndex();
+			int index = fis.indexOf(fi);
+			if (index < 0) {
+				index = fis.size();
+				fis.add(fi);
+			}
+			result[i] = index;
+		}
+		return result;
+	}
+
+	@Override
+	public int docID() {
+		return currentDoc;
+	}
+
+	@Override
+	public int startPosition() {
+		if (alreadyAtFirstMatch)
+			return -1; // .nextStartPosition() not called yet
+		return start;
+	}
+
+	@Override
+	public int endPosition() {
+		if (alreadyAtFirstMatch)
+			return -1; // .nextStartPosition() not called yet
+		return end;
+	}
+
+	@Override
+	public int nextDoc() throws IOException {
+		alreadyAtFirstMatch = false;
+		if (currentDoc != NO_MORE_DOCS)
+			docs.nextDoc();
+		return currentDoc;
+	}
+
+	@Override
+	public int advance(int target) throws IOException {
+		alreadyAtFirstMatch = false;
+		if (currentDoc != NO_MORE_DOCS)
+			docs.advance(target);
+		return currentDoc;
+	}
+
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
+	}
+
+	@Override
+	public int nextStartPosition() throws IOException {
+		if (alreadyAtFirstMatch) {
+			alreadyAtFirstMatch = false;
+			return start;
+		}
+		if (currentDoc == NO_MORE_DOCS || start == NO_MORE_POSITIONS)
+			return NO_MORE_POSITIONS;
+		return nextMatchInDoc();
+	}
+
+	/**
+	 * Find the next anchor hit in this document that satisfies the constraints.
+	 *
+	 * @return the start of the match, or NO_MORE_POSITIONS if there are no more
+	 * @throws IOException
+	 */
+	private int nextMatchInDoc() throws IOException {
+		while (true) {
+			int anchorStart = anchor.nextStartPosition();
+			if (anchorStart == NO_MORE_POSITIONS) {
+				start = end = NO_MORE_POSITIONS;
+				return NO_MORE_POSITIONS;
+			}
+			int anchorEnd = anchor.endPosition();
+			if (anchorStart - left.length >= 0 && satisfiesConstraints(anchorStart, anchorEnd)) {
+				start = anchorStart - left.length;
+				end = anchorEnd + right.length;
+				return start;
+			}
+		}
+	}
+
+	/**
+	 * Check the tokens around an anchor hit against the constraints.
+	 *
+	 * @param anchorStart start of the anchor hit
+	 * @param anchorEnd end of the anchor hit
+	 * @return true if all constraints are satisfied
+	 */
+	private boolean satisfiesConstraints(int anchorStart, int anchorEnd) {
+		int from = anchorStart - left.length;
+		int to = anchorEnd + right.length;
+		for (int i = 0; i < forwardIndices.length; i++) {
+			// Retrieve the tokens around the anchor from this forward index
+			// (includes the anchor itself, but those are usually only a few tokens)
+			List<int[]> parts = forwardIndices[i].retrievePartsInt(fiids[i], new int[] { from }, new int[] { to });
+			if (parts == null)
+				return false; // document not in forward index (deleted?)
+			int[] tokens = parts.get(0);
+			if (tokens.length < to - from)
+				return false; // beyond end of document
+			for (int j = 0; j < left.length; j++) {
+				if (leftFi[j] == i && !left[j].accepts(tokens[j]))
+					return false;
+			}
+			int offset = anchorEnd - from;
+			for (int j = 0; j < right.length; j++) {
+				if (rightFi[j] == i && !right[j].accepts(tokens[offset + j]))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean hitsStartPointSorted() {
+		return true;
+	}
+
+	@Override
+	public boolean hitsEndPointSorted() {
+		return anchor.hitsEndPointSorted();
+	}
+
+	@Override
+	public boolean hitsAllSameLength() {
+		return anchor.hitsAllSameLength();
+	}
+
+	@Override
+	public int hitsLength() {
+		int anchorLength = anchor.hitsLength();
+		return anchorLength < 0 ? anchorLength : anchorLength + left.length + right.length;
+	}
+
+	@Override
+	public boolean hitsHaveUniqueStart() {
+		return anchor.hitsHaveUniqueStart();
+	}
+
+	@Override
+	public boolean hitsHaveUniqueEnd() {
+		return anchor.hitsHaveUniqueEnd();
+	}
+
+	@Override
+	public boolean hitsAreUnique() {
+		return anchor.hitsAreUnique();
+	}
+
+	@Override
+	public void passHitQueryContextToClauses(HitQueryContext context) {
+		anchor.setHitQueryContext(context);
+	}
+
+	@Override
+	public void getCapturedGroups(Span[] capturedGroups) {
+		if (!childClausesCaptureGroups)
+			return;
+		anchor.getCapturedGroups(capturedGroups);
+	}
+
+	@Override
+	public String toString() {
+		return "SpansForwardIndexConstraints(" + anchor + ")";
+	}
+
+}
@@ -18,6 +18,7 @@ package nl.inl.blacklab.search.sequences;
 import java.io.IOException;
 import java.util.Collection;
 
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Hit;
@@ -101,6 +102,17 @@ public interface SpansInBuckets {
 	 */
 	int advance(int target) throws IOException;
 
+	/**
+	 * Get a two-phase view of the buckets.
+	 *
+	 * The approximation moves through the documents the source spans might
+	 * match in, without doing any positional work. After matches() returns true,
+	 * we're in the document and nextBucket() may be called.
+	 *
+	 * @return the two-phase view (never null)
+	 */
+	TwoPhaseIterator asTwoPhaseIterator();
+
 	/**
 	 * Pass the hit query context to the underlying BLSpans.
 	 *
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 import org.apache.lucene.search.spans.TermSpans;
 
@@ -32,6 +33,7 @@ import nl.inl.blacklab.search.Hit;
 import nl.inl.blacklab.search.Span;
 import nl.inl.blacklab.search.lucene.BLSpans;
 import nl.inl.blacklab.search.lucene.HitQueryContext;
+import nl.inl.blacklab.search.lucene.SpansTwoPhaseIterator;
 
 /**
  * Wrap a Spans to retrieve sequences of certain matches (in "buckets"), so we can process the
@@ -77,6 +79,12 @@ abstract class SpansInBucketsAbstract implements SpansInBuckets {
 	/** Does our clause capture any groups? If not, we don't need to mess with those */
 	protected boolean clauseCapturesGroups = true;
 
+	/** Two-phase view: documents the source might match in, checked when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents the source actually matches in */
+	private DocIdSetIterator docs;
+
 	protected void addHitFromSource() {
 		Hit hit = new Hit(source.docID(), source.startPosition(), source.endPosition());
 		bucket.add(hit);
@@ -125,21 +133,37 @@ abstract class SpansInBucketsAbstract implements SpansInBuckets {
 
 	public SpansInBucketsAbstract(Spans source) {
 		this.source = source;
+		final TwoPhaseIterator sourceTwoPhase = source.asTwoPhaseIterator();
+		twoPhase = new SpansTwoPhaseIterator(SpansTwoPhaseIterator.approximation(source, sourceTwoPhase)) {
+			@Override
+			protected void startDoc(int doc) {
+				bucketSize = -1; // not at a valid bucket anymore
+				currentDoc = doc;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!SpansTwoPhaseIterator.matches(sourceTwoPhase))
+					return false;
+				SpansInBucketsAbstract.this.source.nextStartPosition(); // start gathering at the first hit
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
 	}
 
 	@Override
 	public int nextDoc() throws IOException {
-		bucketSize = -1; // not at a valid bucket anymore
-		if (currentDoc != DocIdSetIterator.NO_MORE_DOCS) {
-			currentDoc = source.nextDoc();
-			if (currentDoc != DocIdSetIterator.NO_MORE_DOCS) {
-				source.nextStartPosition(); // start gathering at the first hit
-				//gatherHitsInternal();
-			}
-		}
+		if (currentDoc != DocIdSetIterator.NO_MORE_DOCS)
+			docs.nextDoc();
 		return currentDoc;
 	}
 
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
+	}
+
 	@Override
 	public int nextBucket() throws IOException {
 		if (currentDoc < 0) {
@@ -164,17 +188,11 @@ abstract class SpansInBucketsAbstract implements SpansInBuckets {
 
 	@Override
 	public int advance(int target) throws IOException {
-		bucketSize = -1; // not at a valid bucket anymore
 		if (currentDoc != DocIdSetIterator.NO_MORE_DOCS) {
 			if (currentDoc >= target)
 				nextDoc();
-			else {
-				currentDoc = source.advance(target);
-				if (currentDoc != DocIdSetIterator.NO_MORE_DOCS) {
-					source.nextStartPosition(); // start gathering at the first hit
-					//gatherHitsInternal();
-				}
-			}
+			else
+				docs.advance(target);
 		}
 		return currentDoc;
 	}
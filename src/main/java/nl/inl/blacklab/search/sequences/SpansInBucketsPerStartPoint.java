@@ -25,8 +25,10 @@ import nl.inl.blacklab.search.Span;
 import nl.inl.blacklab.search.lucene.BLSpans;
 import nl.inl.blacklab.search.lucene.BLSpansWrapper;
 import nl.inl.blacklab.search.lucene.HitQueryContext;
+import nl.inl.blacklab.search.lucene.SpansTwoPhaseIterator;
 
 import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 /**
@@ -59,8 +61,32 @@ class SpansInBucketsPerStartPoint extends DocIdSetIterator implements SpansInBuc
 	/** Does our clause capture any groups? If not, we don't need to mess with those */
 	protected boolean clauseCapturesGroups = true;
 
+	/** Two-phase view: documents the source might match in, checked when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents the source actually matches in */
+	private DocIdSetIterator docs;
+
 	public SpansInBucketsPerStartPoint(Spans source) {
 		this.source = BLSpansWrapper.optWrapSort(source);
+		final TwoPhaseIterator sourceTwoPhase = this.source.asTwoPhaseIterator();
+		twoPhase = new SpansTwoPhaseIterator(SpansTwoPhaseIterator.approximation(this.source, sourceTwoPhase)) {
+			@Override
+			protected void startDoc(int doc) {
+				currentDoc = doc;
+				currentSpansStart = -1;
+				currentBucketStart = -1; // no bucket yet
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!SpansTwoPhaseIterator.matches(sourceTwoPhase))
+					return false;
+				currentSpansStart = SpansInBucketsPerStartPoint.this.source.nextStartPosition();
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
 	}
 
 	@Override
@@ -70,14 +96,16 @@ class SpansInBucketsPerStartPoint extends DocIdSetIterator implements SpansInBuc
 
 	@Override
 	public int nextDoc() throws IOException {
-		if (currentDoc != NO_MORE_DOCS) {
-			currentDoc = source.nextDoc();
-			currentSpansStart = source.nextStartPosition();
-			currentBucketStart = -1; // no bucket yet
-		}
+		if (currentDoc != NO_MORE_DOCS)
+			docs.nextDoc();
 		return currentDoc;
 	}
 
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
+	}
+
 	@Override
 	public int nextBucket() throws IOException {
 		if (currentDoc < 0) {
@@ -146,11 +174,8 @@ class SpansInBucketsPerStartPoint extends DocIdSetIterator implements SpansInBuc
 		if (currentDoc == NO_MORE_DOCS)
 			return DocIdSetIterator.NO_MORE_DOCS;
 
-		if (currentDoc < target) {
-			currentDoc = source.advance(target);
-			currentSpansStart = source.nextStartPosition();
-			currentBucketStart = -1; // no bucket yet
-		}
+		if (currentDoc < target)
+			docs.advance(target);
 
 		return currentDoc;
 	}
@@ -17,12 +17,15 @@ package nl.inl.blacklab.search.sequences;
 
 import java.io.IOException;
 
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Span;
 import nl.inl.blacklab.search.lucene.BLSpans;
 import nl.inl.blacklab.search.lucene.BLSpansWrapper;
 import nl.inl.blacklab.search.lucene.HitQueryContext;
+import nl.inl.blacklab.search.lucene.SpansTwoPhaseIterator;
 
 /**
  * Finds all sequences of consecutive hits from the source spans of the specified min and max
@@ -55,6 +58,12 @@ class SpansRepetition extends BLSpans {
 
 	private boolean alreadyAtFirstMatch = false;
 
+	/** Two-phase view: documents our source might match in, checked for matches when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents we actually match in */
+	private DocIdSetIterator docs;
+
 	public SpansRepetition(Spans source, int min, int max) {
 		// Find all consecutive matches in this Spans
 		spansSource = BLSpansWrapper.optWrapSortUniq(source);
@@ -65,6 +74,30 @@ class SpansRepetition extends BLSpans {
 			throw new RuntimeException("min > max");
 		if (min < 1)
 			throw new RuntimeException("min < 1");
+
+		final TwoPhaseIterator sourceTwoPhase = this.source.asTwoPhaseIterator();
+		twoPhase = new SpansTwoPhaseIterator(sourceTwoPhase.approximation()) {
+			@Override
+			protected void startDoc(int doc) {
+				alreadyAtFirstMatch = false;
+				currentDoc = doc;
+				moreBuckets = false;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!sourceTwoPhase.matches())
+					return false;
+				// Is there a stretch of hits long enough in this doc?
+				moreBuckets = nextBucket() != SpansInBuckets.NO_MORE_BUCKETS;
+				if (!moreBuckets)
+					return false;
+				// nextBucket() places us at the first match.
+				alreadyAtFirstMatch = true;
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
 	}
 
 	@Override
@@ -88,38 +121,13 @@ class SpansRepetition extends BLSpans {
 		if (currentDoc == NO_MORE_DOCS)
 			return NO_MORE_DOCS;
 
-		// Go to next doc (we don't know if it has a match)
-		currentDoc = source.nextDoc();
-		if (currentDoc != NO_MORE_DOCS) {
-			// From here, find next match in this or further doc
-			currentDoc = findDocWithMatchingBucket();
-			if (currentDoc != NO_MORE_DOCS)
-				// findDocWithMatchingBucket places us at the first match.
-				alreadyAtFirstMatch = true;
-		}
-		return currentDoc;
+		// Find the next doc with a match
+		return docs.nextDoc();
 	}
 
-	/**
-	 * Go to the next matching bucket, not necessarily in the current doc.
-	 * @return the doc id, or NO_MORE_DOCS if there's no more buckets.
-	 * @throws IOException
-	 */
-	private int findDocWithMatchingBucket() throws IOException {
-		while (currentDoc != NO_MORE_DOCS) {
-
-			// Another bucket in this doc?
-			int startPos = nextBucket();
-			moreBuckets = startPos != SpansInBuckets.NO_MORE_BUCKETS;
-			if (moreBuckets) {
-				// Yes, found one.
-				break;
-			}
-
-			// No more matching buckets; try next doc
-			currentDoc = source.nextDoc();
-		}
-		return currentDoc;
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
 	}
 
 	/**
@@ -204,13 +212,7 @@ class SpansRepetition extends BLSpans {
 
 		if (currentDoc != NO_MORE_DOCS) {
 			// Go to first doc at or after target that has a match.
-			currentDoc = source.advance(doc);
-			if (currentDoc != NO_MORE_DOCS) {
-				// From here, find next match in this or further doc
-				currentDoc = findDocWithMatchingBucket();
-				if (currentDoc != NO_MORE_DOCS)
-					alreadyAtFirstMatch = true;
-			}
+			docs.advance(doc);
 		}
 		return currentDoc;
 	}
@@ -17,12 +17,15 @@ package nl.inl.blacklab.search.sequences;
 
 import java.io.IOException;
 
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Span;
 import nl.inl.blacklab.search.lucene.BLSpans;
 import nl.inl.blacklab.search.lucene.BLSpansWrapper;
 import nl.inl.blacklab.search.lucene.HitQueryContext;
+import nl.inl.blacklab.search.lucene.SpansTwoPhaseIterator;
 
 /**
  * Combines spans, keeping only combinations of hits that occur one after the other. The order is
@@ -87,6 +90,12 @@ class SpansSequenceRaw extends BLSpans {
 	 */
 	private boolean alreadyAtFirstMatch = false;
 
+	/** Two-phase view: documents both clauses occur in, checked for matches when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents we actually match in */
+	private DocIdSetIterator docs;
+
 	public SpansSequenceRaw(Spans leftClause, Spans rightClause) {
 		// Sort the left spans by (1) document (2) end point (3) start point
 		left = new PerDocumentSortedSpans(leftClause, true, false);
@@ -95,6 +104,28 @@ class SpansSequenceRaw extends BLSpans {
 		// Already start point sorted.
 		origRight = BLSpansWrapper.optWrapSort(rightClause);
 		right = new SpansInBucketsPerStartPoint(origRight);
+
+		final TwoPhaseIterator leftTwoPhase = left.asTwoPhaseIterator();
+		final TwoPhaseIterator rightTwoPhase = right.asTwoPhaseIterator();
+		DocIdSetIterator candidates = SpansTwoPhaseIterator.conjunction(
+				leftTwoPhase.approximation(), rightTwoPhase.approximation());
+		twoPhase = new SpansTwoPhaseIterator(candidates) {
+			@Override
+			protected void startDoc(int doc) {
+				alreadyAtFirstMatch = false;
+				currentDoc = doc;
+				leftStart = rightEnd = doc == NO_MORE_DOCS ? NO_MORE_POSITIONS : -1;
+				indexInBucket = -2;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!leftTwoPhase.matches() || !rightTwoPhase.matches())
+					return false;
+				return findFirstMatchInDoc();
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
 	}
 
 	@Override
@@ -112,18 +143,16 @@ class SpansSequenceRaw extends BLSpans {
 	@Override
 	public int nextDoc() throws IOException {
 		alreadyAtFirstMatch = false;
-		if (currentDoc != NO_MORE_DOCS) {
-			currentDoc = left.nextDoc();
-			if (currentDoc != NO_MORE_DOCS) {
-				right.nextDoc();
-				rightEnd = -1;
-				indexInBucket = -2;
-				realignDoc();
-			}
-		}
+		if (currentDoc != NO_MORE_DOCS)
+			docs.nextDoc();
 		return currentDoc;
 	}
 
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
+	}
+
 	@Override
 	public int nextStartPosition() throws IOException {
 		if (alreadyAtFirstMatch) {
@@ -185,59 +214,30 @@ class SpansSequenceRaw extends BLSpans {
 	}
 
 	/**
-	 * Puts both spans in the next doc (possibly the current one)
-	 * that has a match in it.
+	 * Find the first match in the current document, if there is one.
+	 *
+	 * Both spans are assumed to be in the current document already.
 	 *
-	 * @return docID if we're on a valid match, NO_MORE_DOCS if we're done.
+	 * @return true if we're on the first match, false if this document has no matches
 	 * @throws IOException
 	 */
-	private int realignDoc() throws IOException {
-		while (true) {
-			// Put in same doc if necessary
-			while (currentDoc != right.docID()) {
-				while (currentDoc < right.docID()) {
-					currentDoc = left.advance(right.docID());
-					if (currentDoc == NO_MORE_DOCS)
-						return NO_MORE_DOCS;
-				}
-				while (right.docID() < currentDoc) {
-					int rightDoc = right.advance(currentDoc);
-					if (rightDoc == NO_MORE_DOCS) {
-						currentDoc = NO_MORE_DOCS;
-						return NO_MORE_DOCS;
-					}
-					rightEnd = -1;
-					indexInBucket = -2;
-				}
-			}
-
-			// See if this doc has any matches
-			leftStart = left.nextStartPosition();
-			if (leftStart != NO_MORE_POSITIONS) {
-				if (right.nextBucket() == SpansInBuckets.NO_MORE_BUCKETS)
-					leftStart = rightEnd = NO_MORE_POSITIONS;
-				else {
-					rightEnd = -1;
-					indexInBucket = -1;
-					realignPos();
-				}
-			}
-			if (leftStart == NO_MORE_POSITIONS) {
-				rightEnd = NO_MORE_POSITIONS;
-			} else {
-				// Reset the end point iterator (end points of right matches starting at this mid point)
-				// and save current end position.
-				alreadyAtFirstMatch = true;
-				return currentDoc;
-			}
-
-			// No matches in this doc; on to the next
-			currentDoc = left.nextDoc();
-			if (currentDoc == NO_MORE_DOCS) {
+	private boolean findFirstMatchInDoc() throws IOException {
+		leftStart = left.nextStartPosition();
+		if (leftStart != NO_MORE_POSITIONS) {
+			if (right.nextBucket() == SpansInBuckets.NO_MORE_BUCKETS)
 				leftStart = rightEnd = NO_MORE_POSITIONS;
-				return NO_MORE_DOCS;
+			else {
+				rightEnd = -1;
+				indexInBucket = -1;
+				realignPos();
 			}
 		}
+		if (leftStart == NO_MORE_POSITIONS) {
+			rightEnd = NO_MORE_POSITIONS;
+			return false;
+		}
+		alreadyAtFirstMatch = true;
+		return true;
 	}
 
 	/**
@@ -289,19 +289,8 @@ class SpansSequenceRaw extends BLSpans {
 	@Override
 	public int advance(int doc) throws IOException {
 		alreadyAtFirstMatch = false;
-		if (currentDoc != NO_MORE_DOCS) {
-			currentDoc = left.advance(doc);
-			if (currentDoc != NO_MORE_DOCS) {
-				int rightDoc = right.advance(doc);
-				if (rightDoc == NO_MORE_DOCS)
-					currentDoc = NO_MORE_DOCS;
-				else {
-					rightEnd = -1;
-					indexInBucket = -2;
-					realignDoc();
-				}
-			}
-		}
+		if (currentDoc != NO_MORE_DOCS)
+			docs.advance(doc);
 		return currentDoc;
 	}
 
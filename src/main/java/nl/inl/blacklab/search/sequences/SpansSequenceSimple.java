@@ -17,9 +17,13 @@ package nl.inl.blacklab.search.sequences;
 
 import java.io.IOException;
 
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
+
 import nl.inl.blacklab.search.Span;
 import nl.inl.blacklab.search.lucene.BLSpans;
 import nl.inl.blacklab.search.lucene.HitQueryContext;
+import nl.inl.blacklab.search.lucene.SpansTwoPhaseIterator;
 
 /**
  * Simple version of sequence Spans. Assumes that:
@@ -43,6 +47,12 @@ class SpansSequenceSimple extends BLSpans {
 
 	private int leftStart = NO_MORE_POSITIONS;
 
+	/** Two-phase view: documents both clauses occur in, checked for matches when needed */
+	private TwoPhaseIterator twoPhase;
+
+	/** Documents we actually match in */
+	private DocIdSetIterator docs;
+
 	public SpansSequenceSimple(BLSpans leftClause, BLSpans rightClause) {
 		left = leftClause;
 		right = rightClause;
@@ -54,6 +64,36 @@ class SpansSequenceSimple extends BLSpans {
 			throw new RuntimeException("Left hits not end point sorted!");
 		if (!left.hitsHaveUniqueEnd())
 			throw new RuntimeException("Left hits don't have unique end points!");
+
+		final TwoPhaseIterator leftTwoPhase = left.asTwoPhaseIterator();
+		final TwoPhaseIterator rightTwoPhase = right.asTwoPhaseIterator();
+		DocIdSetIterator candidates = SpansTwoPhaseIterator.conjunction(
+				SpansTwoPhaseIterator.approximation(left, leftTwoPhase),
+				SpansTwoPhaseIterator.approximation(right, rightTwoPhase));
+		twoPhase = new SpansTwoPhaseIterator(candidates) {
+			@Override
+			protected void startDoc(int doc) {
+				alreadyAtFirstMatch = false;
+				currentDoc = doc;
+				leftStart = doc == NO_MORE_DOCS ? NO_MORE_POSITIONS : -1;
+			}
+
+			@Override
+			public boolean matches() throws IOException {
+				if (!SpansTwoPhaseIterator.matches(leftTwoPhase) || !SpansTwoPhaseIterator.matches(rightTwoPhase))
+					return false;
+
+				// See if this doc has any matches
+				leftStart = left.nextStartPosition();
+				if (leftStart != NO_MORE_POSITIONS)
+					leftStart = realignPos();
+				if (leftStart == NO_MORE_POSITIONS)
+					return false;
+				alreadyAtFirstMatch = true;
+				return true;
+			}
+		};
+		docs = TwoPhaseIterator.asDocIdSetIterator(twoPhase);
 	}
 
 	@Override
@@ -73,15 +113,16 @@ class SpansSequenceSimple extends BLSpans {
 	@Override
 	public int nextDoc() throws IOException {
 		alreadyAtFirstMatch = false;
-		if (currentDoc != NO_MORE_DOCS) {
-			currentDoc = left.nextDoc();
-			if (currentDoc != NO_MORE_DOCS) {
-				realignDoc();
-			}
-		}
+		if (currentDoc != NO_MORE_DOCS)
+			docs.nextDoc();
 		return currentDoc;
 	}
 
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		return twoPhase;
+	}
+
 	@Override
 	public int nextStartPosition() throws IOException {
 		if (alreadyAtFirstMatch) {
@@ -116,49 +157,6 @@ class SpansSequenceSimple extends BLSpans {
 		return leftStart;
 	}
 
-	/**
-	 * Puts both spans in the next doc (possibly the current one)
-	 * that has a match in it.
-	 *
-	 * @return docID if we're on a valid match, NO_MORE_DOCS if we're done.
-	 * @throws IOException
-	 */
-	private int realignDoc() throws IOException {
-		while (true) {
-			// Put in same doc if necessary
-			while (currentDoc != right.docID()) {
-				while (currentDoc < right.docID()) {
-					currentDoc = left.advance(right.docID());
-					if (currentDoc == NO_MORE_DOCS)
-						return NO_MORE_DOCS;
-				}
-				while (right.docID() < currentDoc) {
-					int rightDoc = right.advance(currentDoc);
-					if (rightDoc == NO_MORE_DOCS) {
-						currentDoc = NO_MORE_DOCS;
-						return NO_MORE_DOCS;
-					}
-				}
-			}
-
-			// See if this doc has any matches
-			leftStart = left.nextStartPosition();
-			if (leftStart != NO_MORE_POSITIONS)
-				leftStart = realignPos();
-			if (leftStart != NO_MORE_POSITIONS) {
-				// Reset the end point iterator (end points of right matches starting at this mid point)
-				// and save current end position.
-				alreadyAtFirstMatch = true;
-				return leftStart;
-			}
-
-			// No matches in this doc; on to the next
-			currentDoc = left.nextDoc();
-			if (currentDoc == NO_MORE_DOCS)
-				return NO_MORE_DOCS;
-		}
-	}
-
 	private int realignPos() throws IOException {
 		// Synchronize within doc
 		int leftEnd = left.endPosition();
@@ -190,16 +188,8 @@ class SpansSequenceSimple extends BLSpans {
 	@Override
 	public int advance(int doc) throws IOException {
 		alreadyAtFirstMatch = false;
-		if (currentDoc != NO_MORE_DOCS) {
-			currentDoc = left.advance(doc);
-			if (currentDoc != NO_MORE_DOCS) {
-				int rightDoc = right.advance(doc);
-				if (rightDoc == NO_MORE_DOCS)
-					currentDoc = NO_MORE_DOCS;
-				else
-					realignDoc();
-			}
-		}
+		if (currentDoc != NO_MORE_DOCS)
+			docs.advance(doc);
 		return currentDoc;
 	}
 
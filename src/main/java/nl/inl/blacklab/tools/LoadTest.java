@@ -0,0 +1,653 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.tools;
+
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.inl.blacklab.queryParser.corpusql.CorpusQueryLanguageParser;
+import nl.inl.blacklab.queryParser.corpusql.TokenMgrError;
+import nl.inl.blacklab.search.Hit;
+import nl.inl.blacklab.search.Hits;
+import nl.inl.blacklab.search.HitsWindow;
+import nl.inl.blacklab.search.Searcher;
+import nl.inl.blacklab.search.TextPattern;
+import nl.inl.blacklab.search.grouping.HitGroups;
+import nl.inl.blacklab.search.grouping.HitProperty;
+import nl.inl.util.AccessStats;
+import nl.inl.util.FileUtil;
+import nl.inl.util.Json;
+import nl.inl.util.LogUtil;
+import nl.inl.util.json.JSONArray;
+import nl.inl.util.json.JSONObject;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Replays a query log against a Searcher with a number of concurrent
+ * clients, and reports throughput, latency percentiles and lock contention
+ * per operation type.
+ *
+ * Each request is a query, optionally followed by a sort, a group or a window
+ * operation, like a search interface would issue them. The operation types are:
+ * search (find the hits and make sure the first window is available), sort,
+ * group, window (concordances for a page of hits), count (total number of hits)
+ * and total (the whole request).
+ *
+ * Clients either send requests as fast as they can (closed model), or
+ * requests arrive at a fixed average rate, with exponentially distributed
+ * intervals (open model). In the latter case, the total latency is measured from
+ * the scheduled arrival time, so time spent waiting for a free client is
+ * included. The arrival times depend only on the seed, so runs are
+ * reproducible.
+ *
+ * Contention is measured using the JVM's thread contention monitoring: the
+ * time client threads were blocked (waiting to enter a synchronized block)
+ * or waiting (e.g. for a lock or another thread) during each operation.
+ */
+public class LoadTest {
+
+	protected static final Logger logger = Logger.getLogger(LoadTest.class);
+
+	/** A request from the query log */
+	public static class Request {
+
+		/** Corpus Query Language query */
+		String query;
+
+		/** Sort criterium (serialized HitProperty), or null for none */
+		String sort;
+
+		/** Group criterium (serialized HitProperty), or null for none */
+		String group;
+
+		/** First hit of the window */
+		int first;
+
+		/** Number of hits in the window */
+		int number;
+
+		public Request(String query, String sort, String group, int first, int number) {
+			this.query = query;
+			this.sort = sort;
+			this.group = group;
+			this.first = first;
+			this.number = number;
+		}
+
+		/**
+		 * Parse a line from the query log.
+		 *
+		 * Fields are tab-separated: query, sort, group, first, number. All but the
+		 * query are optional; empty or "-" means the default.
+		 *
+		 * @param line the line
+		 * @return the request
+		 */
+		public static Request parse(String line) {
+			String[] fields = line.split("\t");
+			String sort = field(fields, 1);
+			String group = field(fields, 2);
+			String first = field(fields, 3);
+			String number = field(fields, 4);
+			return new Request(fields[0].trim(), sort, group, first == null ? 0 : Integer.parseInt(first),
+					number == null ? DEFAULT_WINDOW_SIZE : Integer.parseInt(number));
+		}
+
+		private static String field(String[] fields, int i) {
+			if (i >= fields.length)
+				return null;
+			String value = fields[i].trim();
+			return value.length() == 0 || value.equals("-") ? null : value;
+		}
+
+		@Override
+		public String toString() {
+			return query + "\t" + (sort == null ? "-" : sort) + "\t" + (group == null ? "-" : group) + "\t"
+					+ first + "\t" + number;
+		}
+	}
+
+	/** Statistics for one operation type */
+	public static class OperationStats {
+
+		/** The latencies (nanoseconds) */
+		private List<Long> latencies = new ArrayList<>();
+
+		/** Number of errors */
+		private int errors = 0;
+
+		/** Total time client threads were blocked during this operation (ms) */
+		private long blockedMs = 0;
+
+		/** Number of times client threads were blocked during this operation */
+		private long blockedCount = 0;
+
+		/** Total time client threads were waiting during this operation (ms) */
+		private long waitedMs = 0;
+
+		synchronized void add(long latencyNanos, long blockedCount, long blockedMs, long waitedMs) {
+			latencies.add(latencyNanos);
+			this.blockedCount += blockedCount;
+			this.blockedMs += blockedMs;
+			this.waitedMs += waitedMs;
+		}
+
+		synchronized void error() {
+			errors++;
+		}
+
+		public synchronized int getCount() {
+			return latencies.size();
+		}
+
+		public synchronized int getErrors() {
+			return errors;
+		}
+
+		public synchronized long getBlockedCount() {
+			return blockedCount;
+		}
+
+		public synchronized long getBlockedMs() {
+			return blockedMs;
+		}
+
+		public synchronized long getWaitedMs() {
+			return waitedMs;
+		}
+
+		/**
+		 * Get the mean latency.
+		 * @return the mean latency in ms
+		 */
+		public synchronized double getMeanMs() {
+			if (latencies.isEmpty())
+				return 0;
+			long total = 0;
+			for (long l: latencies) {
+				total += l;
+			}
+			return total / 1e6 / latencies.size();
+		}
+
+		/**
+		 * Get a latency percentile (nearest rank).
+		 *
+		 * @param fraction the percentile as a fraction, e.g. 0.99
+		 * @return the latency in ms
+		 */
+		public synchronized double getPercentileMs(double fraction) {
+			if (latencies.isEmpty())
+				return 0;
+			Collections.sort(latencies);
+			int rank = (int) Math.ceil(fraction * latencies.size());
+			return latencies.get(Math.max(0, rank - 1)) / 1e6;
+		}
+	}
+
+	/** Operation types, in the order they're reported */
+	public static final List<String> OPERATIONS = Arrays.asList("search", "sort", "group", "window", "count",
+			"total");
+
+	/** Number of hits in a window if the query log doesn't say */
+	public static final int DEFAULT_WINDOW_SIZE = 20;
+
+	/** The searcher to run the queries on */
+	private Searcher searcher;
+
+	/** The requests to replay (cyclically) */
+	private List<Request> requests;
+
+	/** Number of concurrent clients */
+	private int clients = 4;
+
+	/** Average number of requests per second, or 0 to send them as fast as possible */
+	private double arrivalRate = 0;
+
+	/** Number of requests to send, or -1 to replay the log once */
+	private int numberOfRequests = -1;
+
+	/** Number of requests to send before measuring */
+	private int warmupRequests = 0;
+
+	/** Seed for the arrival times */
+	private long seed = 0;
+
+	/** Statistics per operation type */
+	private Map<String, OperationStats> stats;
+
+	/** Wall clock time of the measured run (ns) */
+	private long elapsedNanos;
+
+	/** Used to measure contention */
+	private ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+	/** Can we measure contention? */
+	private boolean measureContention;
+
+	/**
+	 * Prepare a load test.
+	 *
+	 * @param searcher the searcher to run the queries on
+	 * @param requests the requests to replay
+	 */
+	public LoadTest(Searcher searcher, List<Request> requests) {
+		if (requests.isEmpty())
+			throw new IllegalArgumentException("No requests to replay");
+		this.searcher = searcher;
+		this.requests = requests;
+	}
+
+	/**
+	 * Read a query log.
+	 *
+	 * Empty lines and lines starting with # are skipped. See Request.parse()
+	 * for the format.
+	 *
+	 * @param file the query log
+	 * @return the requests
+	 */
+	public static List<Request> readQueryLog(File file) {
+		List<Request> result = new ArrayList<>();
+		for (String line: FileUtil.readLines(file)) {
+			if (line.trim().length() == 0 || line.trim().charAt(0) == '#')
+				continue;
+			result.add(Request.parse(line));
+		}
+		return result;
+	}
+
+	public void setClients(int clients) {
+		this.clients = clients;
+	}
+
+	public void setArrivalRate(double arrivalRate) {
+		this.arrivalRate = arrivalRate;
+	}
+
+	public void setNumberOfRequests(int numberOfRequests) {
+		this.numberOfRequests = numberOfRequests;
+	}
+
+	public void setWarmupRequests(int warmupRequests) {
+		this.warmupRequests = warmupRequests;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Run the load test.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the clients
+	 */
+	public void run() throws InterruptedException {
+		measureContention = threadMXBean.isThreadContentionMonitoringSupported();
+		if (measureContention)
+			threadMXBean.setThreadContentionMonitoringEnabled(true);
+
+		// Warm up (not measured)
+		stats = null;
+		for (int i = 0; i < warmupRequests; i++) {
+			execute(requests.get(i % requests.size()), System.nanoTime());
+		}
+
+		stats = new LinkedHashMap<>();
+		for (String op: OPERATIONS) {
+			stats.put(op, new OperationStats());
+		}
+		final int n = numberOfRequests < 0 ? requests.size() : numberOfRequests;
+		final long[] arrival = arrivalTimes(n);
+		final AtomicInteger next = new AtomicInteger();
+		final long start = System.nanoTime();
+		Thread[] threads = new Thread[clients];
+		for (int i = 0; i < clients; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (true) {
+						int i = next.getAndIncrement();
+						if (i >= n)
+							break;
+						long scheduled = start + arrival[i];
+						long wait = scheduled - System.nanoTime();
+						if (wait > 0) {
+							try {
+								TimeUnit.NANOSECONDS.sleep(wait);
+							} catch (InterruptedException e) {
+								return;
+							}
+						}
+						execute(requests.get((warmupRequests + i) % requests.size()), arrivalRate > 0 ? scheduled
+								: System.nanoTime());
+					}
+				}
+			}, "LoadTest-client-" + i);
+			threads[i].start();
+		}
+		for (Thread t: threads) {
+			t.join();
+		}
+		elapsedNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Calculate the arrival times of the requests.
+	 *
+	 * @param n number of requests
+	 * @return arrival times, relative to the start of the test (ns)
+	 */
+	private long[] arrivalTimes(int n) {
+		long[] arrival = new long[n];
+		if (arrivalRate > 0) {
+			Random random = new Random(seed);
+			double t = 0;
+			for (int i = 0; i < n; i++) {
+				arrival[i] = (long) (t * 1e9);
+				t += -Math.log(1.0 - random.nextDouble()) / arrivalRate;
+			}
+		}
+		return arrival;
+	}
+
+	/**
+	 * Execute a request and record the statistics.
+	 *
+	 * @param request the request
+	 * @param startNanos when the request started (or was scheduled to start)
+	 */
+	void execute(Request request, long startNanos) {
+		try {
+			long t = System.nanoTime();
+			ThreadInfo before = threadInfo();
+			TextPattern pattern = CorpusQueryLanguageParser.parse(request.query);
+			Hits hits = searcher.find(pattern);
+			hits.sizeAtLeast(request.first + request.number);
+			t = record("search", t, before);
+
+			if (request.sort != null) {
+				before = threadInfo();
+				HitProperty prop = HitProperty.deserialize(hits, request.sort);
+				if (prop == null)
+					throw new IllegalArgumentException("Unknown sort: " + request.sort);
+				hits = hits.sortedBy(prop);
+				t = record("sort", t, before);
+			}
+
+			if (request.group != null) {
+				before = threadInfo();
+				HitProperty prop = HitProperty.deserialize(hits, request.group);
+				if (prop == null)
+					throw new IllegalArgumentException("Unknown group: " + request.group);
+				HitGroups groups = hits.groupedBy(prop);
+				groups.numberOfGroups();
+				t = record("group", t, before);
+			} else if (hits.sizeAtLeast(request.first + 1)) {
+				before = threadInfo();
+				HitsWindow window = hits.window(request.first, request.number);
+				for (Hit hit: window) {
+					window.getConcordance(hit);
+				}
+				t = record("window", t, before);
+			}
+
+			before = threadInfo();
+			hits.size();
+			record("count", t, before);
+
+			record("total", startNanos, null);
+		} catch (Exception | TokenMgrError e) {
+			if (stats == null)
+				throw new RuntimeException("Error during warm-up, request: " + request, e);
+			logger.warn("Error in request " + request, e);
+			stats.get("total").error();
+		}
+	}
+
+	/**
+	 * Get the current thread's info, to measure contention.
+	 * @return the thread info, or null if we can't measure contention
+	 */
+	private ThreadInfo threadInfo() {
+		return measureContention ? threadMXBean.getThreadInfo(Thread.currentThread().getId()) : null;
+	}
+
+	/**
+	 * Record the statistics for an operation.
+	 *
+	 * @param op the operation type
+	 * @param startNanos start of the operation
+	 * @param before thread info at the start of the operation, or null if not available
+	 * @return the current time (start of the next operation)
+	 */
+	private long record(String op, long startNanos, ThreadInfo before) {
+		long now = System.nanoTime();
+		if (stats == null)
+			return now; // warming up
+		long blockedCount = 0, blockedMs = 0, waitedMs = 0;
+		ThreadInfo after = before == null ? null : threadInfo();
+		if (after != null) {
+			blockedCount = after.getBlockedCount() - before.getBlockedCount();
+			blockedMs = after.getBlockedTime() - before.getBlockedTime();
+			waitedMs = after.getWaitedTime() - before.getWaitedTime();
+		}
+		stats.get(op).add(now - startNanos, blockedCount, blockedMs, waitedMs);
+		return System.nanoTime();
+	}
+
+	/**
+	 * Get the statistics per operation type.
+	 * @return the statistics
+	 */
+	public Map<String, OperationStats> getStats() {
+		return stats;
+	}
+
+	/**
+	 * Get the wall clock time of the measured run.
+	 * @return the time in ms
+	 */
+	public double getElapsedMs() {
+		return elapsedNanos / 1e6;
+	}
+
+	/**
+	 * Get the report.
+	 *
+	 * Contains the test settings and, per operation type, the number of
+	 * operations and errors, throughput (operations per second), latencies (ms)
+	 * and lock contention of the clients.
+	 *
+	 * @return the report
+	 */
+	public JSONObject getReport() {
+		double seconds = elapsedNanos / 1e9;
+		JSONArray operations = new JSONArray();
+		for (Map.Entry<String, OperationStats> e: stats.entrySet()) {
+			OperationStats s = e.getValue();
+			operations.put(Json.object(
+					"operation", e.getKey(),
+					"count", s.getCount(),
+					"errors", s.getErrors(),
+					"throughput", seconds > 0 ? s.getCount() / seconds : 0.0,
+					"meanMs", s.getMeanMs(),
+					"p50Ms", s.getPercentileMs(0.5),
+					"p95Ms", s.getPercentileMs(0.95),
+					"p99Ms", s.getPercentileMs(0.99),
+					"maxMs", s.getPercentileMs(1.0),
+					"blockedCount", s.getBlockedCount(),
+					"blockedMs", s.getBlockedMs(),
+					"waitedMs", s.getWaitedMs()));
+		}
+		return Json.object(
+				"clients", clients,
+				"arrivalRate", arrivalRate,
+				"requests", stats.get("total").getCount(),
+				"warmupRequests", warmupRequests,
+				"seed", seed,
+				"elapsedMs", getElapsedMs(),
+				"contentionMonitoring", measureContention,
+				"operations", operations);
+	}
+
+	/**
+	 * Write the report (see getReport()), as JSON.
+	 *
+	 * @param out where to write the report
+	 */
+	public void writeReport(PrintWriter out) {
+		out.println(getReport().toString(2));
+		out.flush();
+	}
+
+	public static void main(String[] args) throws Exception {
+		LogUtil.initLog4jIfNotAlready();
+
+		int clients = 4, numberOfRequests = -1, warmup = 0;
+		double rate = 0;
+		long seed = 0;
+		File reportFile = null, statsFile = null;
+		List<String> files = new ArrayList<>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i].trim();
+				if (arg.startsWith("-")) {
+					if (i + 1 == args.length) {
+						System.err.println("Option " + arg + " needs an argument");
+						usage();
+						return;
+					}
+					String value = args[++i];
+					switch (arg) {
+					case "-c":
+						clients = Integer.parseInt(value);
+						break;
+					case "-r":
+						rate = Double.parseDouble(value);
+						break;
+					case "-n":
+						numberOfRequests = Integer.parseInt(value);
+						break;
+					case "-w":
+						warmup = Integer.parseInt(value);
+						break;
+					case "-s":
+						seed = Long.parseLong(value);
+						break;
+					case "-o":
+						reportFile = new File(value);
+						break;
+					case "-a":
+						statsFile = new File(value);
+						break;
+					default:
+						System.err.println("Illegal option: " + arg);
+						usage();
+						return;
+					}
+				} else {
+					files.add(arg);
+				}
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("Illegal number: " + e.getMessage());
+			usage();
+			return;
+		}
+		if (files.size() != 2) {
+			System.err.println("Supply index dir and query log");
+			usage();
+			return;
+		}
+		File indexDir = new File(files.get(0));
+		File queryLog = new File(files.get(1));
+		if (!indexDir.isDirectory()) {
+			System.err.println("Index directory not found: " + indexDir);
+			usage();
+			return;
+		}
+		if (!queryLog.canRead()) {
+			System.err.println("Query log not found: " + queryLog);
+			usage();
+			return;
+		}
+
+		if (statsFile != null)
+			AccessStats.set(AccessStats.read(statsFile));
+		System.err.print("Opening index... ");
+		Searcher searcher = Searcher.open(indexDir);
+		System.err.println("done.");
+		try {
+			LoadTest test = new LoadTest(searcher, readQueryLog(queryLog));
+			test.setClients(clients);
+			test.setArrivalRate(rate);
+			test.setNumberOfRequests(numberOfRequests);
+			test.setWarmupRequests(warmup);
+			test.setSeed(seed);
+			test.run();
+			if (statsFile != null)
+				AccessStats.get().write(statsFile);
+			PrintWriter out = reportFile == null ? new PrintWriter(new OutputStreamWriter(System.out, "utf-8"))
+					: FileUtil.openForWriting(reportFile);
+			try {
+				test.writeReport(out);
+			} finally {
+				if (reportFile != null)
+					out.close();
+			}
+		} finally {
+			searcher.close();
+		}
+	}
+
+	private static void usage() {
+		System.err.println("\nUsage: " + LoadTest.class.getSimpleName() + " [options] <indexdir> <querylog>\n\n"
+				+ "<querylog> should contain one request per line, with tab-separated fields:\n"
+				+ "   <query> [<sort> [<group> [<first> [<number>]]]]\n"
+				+ "   query: Corpus Query Language query\n"
+				+ "   sort, group: hit property, e.g. hit:lemma, left, field:title ('-' for none)\n"
+				+ "   first, number: window of hits to make concordances for [0, " + DEFAULT_WINDOW_SIZE + "]\n"
+				+ "   (if a group is given, no window is retrieved)\n"
+				+ "\n"
+				+ "Options:\n"
+				+ "-c <n>     number of concurrent clients [4]\n"
+				+ "-r <rate>  average number of requests per second (0: as fast as possible) [0]\n"
+				+ "-n <n>     number of requests to send; the log is replayed cyclically [log size]\n"
+				+ "-w <n>     number of warm-up requests, not measured [0]\n"
+				+ "-s <seed>  seed for the arrival times [0]\n"
+				+ "-o <file>  write the report to this file [stdout]\n"
+				+ "-a <file>  record access statistics and save them to this file (see WarmUpTool)\n"
+				+ "\n"
+				+ "Output: JSON report with the settings and, per operation type (search, sort, group,\n"
+				+ "window, count, total): count, errors, throughput (ops/s), mean/p50/p95/p99/max\n"
+				+ "latency (ms) and blocked count, blocked time and waited time (ms) of the clients.\n");
+	}
+}
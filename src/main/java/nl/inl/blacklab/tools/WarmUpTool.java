@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import nl.inl.blacklab.search.IndexWarmer;
+import nl.inl.blacklab.search.Searcher;
+import nl.inl.util.AccessStats;
+import nl.inl.util.FileUtil;
+import nl.inl.util.LogUtil;
+import nl.inl.util.PageCache.Residency;
+
+/**
+ * Warms up the page cache for an index's forward indices and content stores,
+ * and reports how much of each file is resident.
+ *
+ * Run this after a restart (or keep it running with -k) so the first queries
+ * don't have to read everything from disk. If you know which documents are
+ * accessed most (from a list, or from access statistics saved by AccessStats),
+ * you can warm just those.
+ */
+public class WarmUpTool {
+
+	/** Default number of hottest entries to warm when using access statistics */
+	private static final int DEFAULT_HOTTEST = 1000;
+
+	private static void usage() {
+		System.err.println("\nUsage: " + WarmUpTool.class.getSimpleName() + " [options] <indexdir>\n\n"
+				+ "Options:\n"
+				+ "-p <props>  comma-separated forward index properties to warm, e.g. contents%word [all]\n"
+				+ "-d <file>   warm only these documents: Lucene doc ids, one per line, hottest first\n"
+				+ "-a <file>   warm the most accessed entries according to this access statistics file\n"
+				+ "            (and only the accessed properties, unless -p is given)\n"
+				+ "-m <n>      warm at most this many documents from the -d file [all],\n"
+				+ "            or entries per forward index/content store with -a [" + DEFAULT_HOTTEST + "]\n"
+				+ "-t <n>      number of files/properties to warm in parallel [number of processors]\n"
+				+ "-k <sec>    keep the forward index files resident by touching them every <sec> seconds\n"
+				+ "            (runs until killed)\n"
+				+ "-x          don't warm the content stores\n"
+				+ "-r          only report page cache residency, don't warm anything\n"
+				+ "\n"
+				+ "Output: tab-separated residency report (file, size in bytes, % resident)\n"
+				+ "before and after warming.\n");
+	}
+
+	public static void main(String[] args) throws Exception {
+		LogUtil.initLog4jIfNotAlready();
+
+		List<String> props = null;
+		File docsFile = null, statsFile = null;
+		int maxDocs = -1, threads = -1, keepResidentSec = -1;
+		boolean contentStores = true, reportOnly = false;
+		List<String> files = new ArrayList<>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i].trim();
+				if (arg.equals("-x")) {
+					contentStores = false;
+				} else if (arg.equals("-r")) {
+					reportOnly = true;
+				} else if (arg.startsWith("-")) {
+					if (i + 1 == args.length) {
+						System.err.println("Option " + arg + " needs an argument");
+						usage();
+						return;
+					}
+					String value = args[++i];
+					switch (arg) {
+					case "-p":
+						props = Arrays.asList(value.split(","));
+						break;
+					case "-d":
+						docsFile = new File(value);
+						break;
+					case "-a":
+						statsFile = new File(value);
+						break;
+					case "-m":
+						maxDocs = Integer.parseInt(value);
+						break;
+					case "-t":
+						threads = Integer.parseInt(value);
+						break;
+					case "-k":
+						keepResidentSec = Integer.parseInt(value);
+						break;
+					default:
+						System.err.println("Illegal option: " + arg);
+						usage();
+						return;
+					}
+				} else {
+					files.add(arg);
+				}
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("Illegal number: " + e.getMessage());
+			usage();
+			return;
+		}
+		if (files.size() != 1) {
+			System.err.println("Supply index dir");
+			usage();
+			return;
+		}
+		File indexDir = new File(files.get(0));
+		if (!indexDir.isDirectory()) {
+			System.err.println("Index directory not found: " + indexDir);
+			usage();
+			return;
+		}
+		if (statsFile != null && !statsFile.canRead()) {
+			System.err.println("Access statistics file not found: " + statsFile);
+			usage();
+			return;
+		}
+		if (docsFile != null && !docsFile.canRead()) {
+			System.err.println("Document id file not found: " + docsFile);
+			usage();
+			return;
+		}
+
+		System.err.print("Opening index... ");
+		Searcher searcher = Searcher.open(indexDir);
+		System.err.println("done.");
+		try {
+			IndexWarmer warmer = new IndexWarmer(searcher);
+			if (threads > 0)
+				warmer.setNumberOfThreads(threads);
+			AccessStats stats = statsFile == null ? null : AccessStats.read(statsFile);
+			if (stats != null && props == null) {
+				props = warmer.getHottestForwardIndexProperties(stats);
+				System.err.println("Most accessed properties: " + props);
+			}
+			List<File> fiFiles = warmer.getForwardIndexFiles(props);
+			List<File> allFiles = new ArrayList<>(fiFiles);
+			if (contentStores)
+				allFiles.addAll(warmer.getContentStoreFiles());
+
+			report(warmer.residency(allFiles), "before");
+			if (reportOnly)
+				return;
+
+			long start = System.currentTimeMillis();
+			if (stats != null) {
+				long n = warmer.warmHottest(stats, maxDocs >= 0 ? maxDocs : DEFAULT_HOTTEST, props, contentStores);
+				System.err.println("Read " + n + " entries in " + (System.currentTimeMillis() - start) + " ms");
+			} else if (docsFile != null) {
+				List<Integer> docIds = readDocIds(docsFile, maxDocs);
+				long n = warmer.warmDocuments(docIds, props, contentStores);
+				System.err.println("Read " + n + " documents in " + (System.currentTimeMillis() - start) + " ms");
+			} else {
+				long bytes = warmer.prefetch(allFiles);
+				System.err.println("Read " + bytes + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+			}
+			report(warmer.residency(allFiles), "after");
+
+			if (keepResidentSec > 0) {
+				System.err.println("Keeping forward index files resident; press Ctrl+C to stop.");
+				warmer.keepResident(fiFiles, keepResidentSec * 1000L).join();
+			}
+		} finally {
+			searcher.close();
+		}
+	}
+
+	private static List<Integer> readDocIds(File docsFile, int maxDocs) {
+		List<Integer> docIds = new ArrayList<>();
+		for (String line: FileUtil.readLines(docsFile)) {
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#"))
+				continue;
+			docIds.add(Integer.parseInt(line.split("\\s+")[0]));
+			if (maxDocs >= 0 && docIds.size() >= maxDocs)
+				break;
+		}
+		return docIds;
+	}
+
+	private static void report(Map<File, Residency> residency, String when) {
+		System.out.println("# residency " + when);
+		long size = 0, resident = 0;
+		Collection<Residency> values = residency.values();
+		for (Residency r: values) {
+			System.out.println(String.format("%s\t%d\t%.1f", r.getFile().getPath(), r.getSize(), r.getFraction() * 100));
+			size += r.getSize();
+			resident += (long) (r.getSize() * r.getFraction());
+		}
+		System.out.println(String.format("total\t%d\t%.1f", size, size == 0 ? 100.0 : resident * 100.0 / size));
+	}
+
+}
@@ -0,0 +1,442 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sampled access-frequency statistics: which documents, forward index entries
+ * and content store blocks are actually hot.
+ *
+ * Accesses are recorded per category (e.g. "docs:/data/index" for
+ * Searcher.document(), "fi:/data/index/fi_contents%word" for a forward index,
+ * "cs:/data/index/cs_contents" and "csblock:/data/index/cs_contents" for a
+ * content store's documents and blocks; see category()), with a long key (fiid, content id, block number). Keys should stay the same when the
+ * index changes, so don't use Lucene document ids (they change when segments
+ * are merged). Each category keeps a count-min sketch and a bounded list of the
+ * hottest keys. Counts decay, so the statistics follow changes in what's being
+ * accessed.
+ *
+ * Recording is cheap and doesn't take locks in the common case. Accesses made
+ * to warm up the index shouldn't count; see setSuppressed().
+ *
+ * By default, nothing is recorded. To start recording:
+ *
+ * <pre>
+ * AccessStats stats = AccessStats.read(statsFile); // or new AccessStats()
+ * AccessStats.set(stats);
+ * stats.startMaintenance(statsFile, 3600000); // decay and save every hour
+ * </pre>
+ *
+ * The statistics can be used by caches and warm-up routines, e.g.
+ * IndexWarmer.getHottestDocuments().
+ */
+public class AccessStats {
+	protected static final Logger logger = Logger.getLogger(AccessStats.class);
+
+	/** File format version */
+	private static final int FILE_VERSION = 1;
+
+	/** Default sketch width (counters per row) */
+	public static final int DEFAULT_WIDTH = 1 << 14;
+
+	/** Default sketch depth (rows) */
+	public static final int DEFAULT_DEPTH = 4;
+
+	/** Default number of hottest keys to keep track of per category */
+	public static final int DEFAULT_TOP_SIZE = 1000;
+
+	/**
+	 * Get the category for accesses to (a component of) an index.
+	 *
+	 * The statistics are shared by all indexes opened in this JVM, so the category
+	 * includes the canonical path, e.g. "fi:/data/index/fi_contents%word".
+	 *
+	 * @param kind what is accessed, e.g. "docs", "fi", "cs" or "csblock"
+	 * @param dir directory of the index or component
+	 * @return the category
+	 */
+	public static String category(String kind, File dir) {
+		try {
+			return kind + ":" + dir.getCanonicalPath();
+		} catch (IOException e) {
+			return kind + ":" + dir.getAbsolutePath();
+		}
+	}
+
+	/** The statistics accesses are recorded in, or null if we're not recording */
+	private static volatile AccessStats current;
+
+	/** Threads that shouldn't record accesses (see setSuppressed()) */
+	private static final ThreadLocal<Boolean> suppressed = new ThreadLocal<>();
+
+	/**
+	 * Get the statistics accesses are recorded in.
+	 * @return the statistics, or null if we're not recording
+	 */
+	public static AccessStats get() {
+		return current;
+	}
+
+	/**
+	 * Set the statistics to record accesses in.
+	 * @param stats the statistics, or null to stop recording (the default)
+	 */
+	public static void set(AccessStats stats) {
+		current = stats;
+	}
+
+	/**
+	 * Are accesses being recorded?
+	 * @return true if they are
+	 */
+	public static boolean isEnabled() {
+		return current != null;
+	}
+
+	/**
+	 * Stop or resume recording accesses made by the current thread.
+	 *
+	 * Used while warming up the index, so reading the hottest data doesn't make
+	 * it look even hotter.
+	 *
+	 * @param suppress true to stop recording, false to resume
+	 */
+	public static void setSuppressed(boolean suppress) {
+		if (suppress)
+			suppressed.set(Boolean.TRUE);
+		else
+			suppressed.remove();
+	}
+
+	/**
+	 * Record an access (if we're recording).
+	 *
+	 * Cheap if we're not recording or the access isn't sampled.
+	 *
+	 * @param category what was accessed, e.g. "docs"
+	 * @param key which one was accessed, e.g. the fiid
+	 */
+	public static void record(String category, long key) {
+		AccessStats stats = current;
+		if (stats != null && suppressed.get() == null)
+			stats.recordAccess(category, key);
+	}
+
+	/** Access statistics for one category. */
+	public static class Tracker {
+
+		private CountMinSketch sketch;
+
+		/** Candidates for the hottest keys, with their estimates */
+		private Map<Long, Long> hottest = new ConcurrentHashMap<>();
+
+		/** Estimate a new key needs to become a candidate (the lowest we kept when pruning) */
+		private volatile long minEstimate = 0;
+
+		private int topSize;
+
+		Tracker(CountMinSketch sketch, int topSize) {
+			this.sketch = sketch;
+			this.topSize = topSize;
+		}
+
+		void add(long key, long count) {
+			long estimate = sketch.add(key, count);
+			if (estimate < minEstimate && !hottest.containsKey(key))
+				return; // not hot enough to be a candidate
+			hottest.put(key, estimate);
+			if (hottest.size() > topSize * 2) {
+				synchronized (this) {
+					if (hottest.size() > topSize * 2)
+						prune(topSize);
+				}
+			}
+		}
+
+		/**
+		 * Keep only the n hottest candidates.
+		 *
+		 * Only called while holding our lock, but candidates may be added or
+		 * updated concurrently.
+		 *
+		 * @param n number of candidates to keep
+		 */
+		private void prune(int n) {
+			List<Map.Entry<Long, Long>> entries = sortedEntries();
+			if (entries.size() <= n)
+				return;
+			for (Map.Entry<Long, Long> e: entries.subList(n, entries.size())) {
+				hottest.remove(e.getKey(), e.getValue()); // (unless it was just updated)
+			}
+			minEstimate = entries.get(n - 1).getValue();
+		}
+
+		private List<Map.Entry<Long, Long>> sortedEntries() {
+			List<Map.Entry<Long, Long>> entries = new ArrayList<>(hottest.entrySet());
+			Collections.sort(entries, new Comparator<Map.Entry<Long, Long>>() {
+				@Override
+				public int compare(Map.Entry<Long, Long> a, Map.Entry<Long, Long> b) {
+					return Long.compare(b.getValue(), a.getValue());
+				}
+			});
+			return entries;
+		}
+
+		/**
+		 * Estimate how often a key was accessed (decayed, scaled by sample rate).
+		 * @param key the key
+		 * @return the estimate
+		 */
+		public long estimate(long key) {
+			return sketch.estimate(key);
+		}
+
+		/**
+		 * Get the (decayed, scaled) total number of accesses in this category.
+		 * @return the total
+		 */
+		public long getTotal() {
+			return sketch.getTotal();
+		}
+
+		/**
+		 * Get the hottest keys, hottest first.
+		 *
+		 * @param n maximum number of keys to return
+		 * @return the keys
+		 */
+		public List<Long> getHottest(int n) {
+			List<Long> result = new ArrayList<>();
+			for (Map.Entry<Long, Long> e: sortedEntries()) {
+				if (result.size() >= n)
+					break;
+				result.add(e.getKey());
+			}
+			return result;
+		}
+
+		synchronized void decay() {
+			sketch.decay();
+			for (Map.Entry<Long, Long> e: hottest.entrySet()) {
+				e.setValue(e.getValue() >> 1);
+			}
+			minEstimate >>= 1;
+		}
+	}
+
+	/** Trackers per category */
+	private Map<String, Tracker> trackers = new ConcurrentHashMap<>();
+
+	/** We record 1 out of this many accesses */
+	private int sampleRate = 1;
+
+	private int width = DEFAULT_WIDTH;
+
+	private int depth = DEFAULT_DEPTH;
+
+	private int topSize = DEFAULT_TOP_SIZE;
+
+	public AccessStats() {
+		// default settings
+	}
+
+	/**
+	 * @param sampleRate record 1 out of this many accesses (counts are scaled accordingly)
+	 * @param width sketch width; higher means more accurate but more memory (8 bytes x depth per counter)
+	 * @param depth sketch depth
+	 * @param topSize number of hottest keys to keep track of per category
+	 */
+	public AccessStats(int sampleRate, int width, int depth, int topSize) {
+		this.sampleRate = Math.max(1, sampleRate);
+		this.width = width;
+		this.depth = depth;
+		this.topSize = topSize;
+	}
+
+	/**
+	 * Record an access.
+	 *
+	 * @param category what was accessed
+	 * @param key which one was accessed
+	 */
+	public void recordAccess(String category, long key) {
+		if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0)
+			return;
+		getTracker(category).add(key, sampleRate);
+	}
+
+	/**
+	 * Get the tracker for a category, creating it if necessary.
+	 * @param category the category
+	 * @return the tracker
+	 */
+	public Tracker getTracker(String category) {
+		Tracker tracker = trackers.get(category);
+		if (tracker == null) {
+			synchronized (trackers) {
+				tracker = trackers.get(category);
+				if (tracker == null) {
+					tracker = new Tracker(new CountMinSketch(width, depth), topSize);
+					trackers.put(category, tracker);
+				}
+			}
+		}
+		return tracker;
+	}
+
+	/**
+	 * Get the categories we have statistics for.
+	 * @return the categories
+	 */
+	public Collection<String> getCategories() {
+		return Collections.unmodifiableCollection(trackers.keySet());
+	}
+
+	/**
+	 * Halve all counts, so older accesses weigh less than recent ones.
+	 */
+	public void decay() {
+		for (Tracker tracker: trackers.values()) {
+			tracker.decay();
+		}
+	}
+
+	/**
+	 * Write the statistics to a file.
+	 *
+	 * Writes to a temporary file first, so a crash doesn't leave a damaged file.
+	 *
+	 * @param file the file to write
+	 */
+	public void write(File file) {
+		File tmpFile = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+			out.writeInt(FILE_VERSION);
+			out.writeInt(sampleRate);
+			out.writeInt(topSize);
+			Map<String, Tracker> copy = new HashMap<>(trackers);
+			out.writeInt(copy.size());
+			for (Map.Entry<String, Tracker> e: copy.entrySet()) {
+				Tracker tracker = e.getValue();
+				out.writeUTF(e.getKey());
+				tracker.sketch.write(out);
+				Map<Long, Long> hottest = new HashMap<>(tracker.hottest);
+				out.writeInt(hottest.size());
+				for (Map.Entry<Long, Long> h: hottest.entrySet()) {
+					out.writeLong(h.getKey());
+					out.writeLong(h.getValue());
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (file.exists() && !file.delete())
+			throw new RuntimeException("Could not replace " + file);
+		if (!tmpFile.renameTo(file))
+			throw new RuntimeException("Could not rename " + tmpFile + " to " + file);
+	}
+
+	/**
+	 * Read statistics from a file.
+	 *
+	 * @param file the file to read
+	 * @return the statistics (empty if the file doesn't exist)
+	 */
+	public static AccessStats read(File file) {
+		if (!file.exists())
+			return new AccessStats();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int version = in.readInt();
+			if (version != FILE_VERSION)
+				throw new RuntimeException("Unknown access statistics file version " + version + ": " + file);
+			int sampleRate = in.readInt();
+			int topSize = in.readInt();
+			int n = in.readInt();
+			AccessStats stats = null;
+			for (int i = 0; i < n; i++) {
+				String category = in.readUTF();
+				CountMinSketch sketch = CountMinSketch.read(in);
+				if (stats == null)
+					stats = new AccessStats(sampleRate, sketch.getWidth(), sketch.getDepth(), topSize);
+				Tracker tracker = new Tracker(sketch, topSize);
+				int numberOfHottest = in.readInt();
+				for (int j = 0; j < numberOfHottest; j++) {
+					long key = in.readLong();
+					tracker.hottest.put(key, in.readLong());
+				}
+				stats.trackers.put(category, tracker);
+			}
+			if (stats == null)
+				stats = new AccessStats(sampleRate, DEFAULT_WIDTH, DEFAULT_DEPTH, topSize);
+			return stats;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Periodically decay the counts and save the statistics.
+	 *
+	 * Starts a daemon thread; interrupt it to stop. The counts halve every interval.
+	 *
+	 * @param file file to save to
+	 * @param intervalMs how often to decay and save
+	 * @return the thread
+	 */
+	public Thread startMaintenance(final File file, final long intervalMs) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						Thread.sleep(intervalMs);
+						decay();
+						try {
+							write(file);
+						} catch (RuntimeException e) {
+							logger.error("Error saving access statistics", e);
+						}
+					}
+				} catch (InterruptedException e) {
+					// Asked to stop
+				}
+			}
+		}, "AccessStatsMaintenance");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+}
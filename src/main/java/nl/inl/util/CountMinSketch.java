@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate frequency counts for a large number of keys in a fixed amount of memory.
+ *
+ * Each key is hashed to one counter in each of a number of rows; the estimate for a
+ * key is the minimum of its counters. Estimates are never too low, and too high by at
+ * most (2 / width) * total count with high probability (depending on the depth).
+ *
+ * Counters can be decayed (halved) so the sketch reflects recent accesses more than
+ * old ones. Thread-safe; a decay that runs concurrently with adds may lose some of
+ * those adds, which is fine for statistics.
+ */
+public class CountMinSketch {
+
+	/** Number of counters per row (a power of two) */
+	private int width;
+
+	/** Number of rows (hash functions) */
+	private int depth;
+
+	/** The counters, row by row */
+	private AtomicLongArray counters;
+
+	/** Total of all counts added (decays along with the counters) */
+	private AtomicLong total = new AtomicLong();
+
+	/**
+	 * Construct a sketch.
+	 *
+	 * @param width number of counters per row (rounded up to a power of two)
+	 * @param depth number of rows
+	 */
+	public CountMinSketch(int width, int depth) {
+		if (width < 1 || depth < 1)
+			throw new IllegalArgumentException("width and depth must be positive");
+		this.width = Integer.highestOneBit(width - 1) << 1;
+		if (width == 1)
+			this.width = 1;
+		this.depth = depth;
+		counters = new AtomicLongArray(this.width * depth);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Get the total of all counts added (decayed).
+	 * @return the total
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	private int index(int row, long key) {
+		// Mix the key with a different seed per row (MurmurHash3 finalizer)
+		long h = key + (row + 1) * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return row * width + (int) (h & (width - 1));
+	}
+
+	/**
+	 * Add to the count for a key.
+	 *
+	 * @param key the key
+	 * @param count how much to add
+	 * @return the new estimate for the key
+	 */
+	public long add(long key, long count) {
+		long min = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			long value = counters.addAndGet(index(row, key), count);
+			if (value < min)
+				min = value;
+		}
+		total.addAndGet(count);
+		return min;
+	}
+
+	/**
+	 * Estimate the count for a key.
+	 *
+	 * @param key the key
+	 * @return the estimate (never lower than the actual count)
+	 */
+	public long estimate(long key) {
+		long min = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			long value = counters.get(index(row, key));
+			if (value < min)
+				min = value;
+		}
+		return min;
+	}
+
+	/**
+	 * Halve all counts, so older accesses weigh less than recent ones.
+	 */
+	public void decay() {
+		for (int i = 0; i < counters.length(); i++) {
+			counters.set(i, counters.get(i) >> 1);
+		}
+		total.set(total.get() >> 1);
+	}
+
+	/**
+	 * Write the sketch.
+	 * @param out where to write
+	 * @throws IOException on write error
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(width);
+		out.writeInt(depth);
+		out.writeLong(total.get());
+		for (int i = 0; i < counters.length(); i++) {
+			out.writeLong(counters.get(i));
+		}
+	}
+
+	/**
+	 * Read a sketch written by write().
+	 * @param in where to read from
+	 * @return the sketch
+	 * @throws IOException on read error
+	 */
+	public static CountMinSketch read(DataInput in) throws IOException {
+		int width = in.readInt();
+		int depth = in.readInt();
+		CountMinSketch sketch = new CountMinSketch(width, depth);
+		if (sketch.width != width)
+			throw new IOException("Illegal sketch width " + width);
+		sketch.total.set(in.readLong());
+		for (int i = 0; i < sketch.counters.length(); i++) {
+			sketch.counters.set(i, in.readLong());
+		}
+		return sketch;
+	}
+
+}
@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.util.Locale;
+
+/**
+ * Fast accent removal and lower casing ("desensitizing") of character buffers.
+ *
+ * The results are identical to StringUtil.removeAccents() followed by
+ * String.toLowerCase(), but most tokens are folded in place, using a
+ * per-character table, without allocating any objects. Tokens containing
+ * characters that can't be folded one character at a time (combining marks
+ * outside the Combining Diacritical Marks block, characters that decompose
+ * into several base characters, surrogate pairs, final sigma, etc.) are
+ * handled by the regular String-based methods.
+ */
+public class FoldingUtil {
+
+	/** Table entry: this character hasn't been classified yet */
+	private static final int UNKNOWN = 0;
+
+	/** Table entry: this character maps to the character in the low 16 bits */
+	private static final int SIMPLE = 1 << 16;
+
+	/** Table entry: this character is removed */
+	private static final int REMOVE = 2 << 16;
+
+	/** Table entry: this character can only be handled by the String-based methods */
+	private static final int COMPLEX = 3 << 16;
+
+	/** Mask for the entry type */
+	private static final int TYPE_MASK = 0xFFFF0000;
+
+	/** Greek capital sigma; lower cases to either sigma or final sigma, depending on context */
+	private static final char CAPITAL_SIGMA = '\u03A3';
+
+	/**
+	 * Folding tables for the three modes (remove accents, lower case, both),
+	 * filled lazily. Each entry packs the entry type and the folded character
+	 * into an int, so entries can be written by several threads safely.
+	 */
+	private static final int[][] tables = new int[4][];
+
+	static {
+		for (int mode = 1; mode < 4; mode++) {
+			tables[mode] = new int[Character.MAX_VALUE + 1];
+		}
+	}
+
+	/**
+	 * Remove accents and/or lower case the characters in a buffer, in place.
+	 *
+	 * If the buffer contains characters we can't fold in place, the buffer is
+	 * left untouched and -1 is returned. Use desensitize(String, ...) in that case.
+	 *
+	 * @param buffer the characters to fold
+	 * @param length number of characters in the buffer
+	 * @param removeAccents whether to remove accents
+	 * @param lowerCase whether to lower case
+	 * @return the new length, or -1 if the buffer couldn't be folded in place
+	 */
+	public static int fold(char[] buffer, int length, boolean removeAccents, boolean lowerCase) {
+		if (!removeAccents && !lowerCase)
+			return length;
+		if (lowerCase && hasSpecialCasing(Locale.getDefault()))
+			return -1;
+		int mode = (removeAccents ? 1 : 0) | (lowerCase ? 2 : 0);
+		int[] table = tables[mode];
+
+		// Make sure we can fold every character before changing anything
+		boolean allAscii = true;
+		for (int i = 0; i < length; i++) {
+			char c = buffer[i];
+			if (c < 128)
+				continue;
+			allAscii = false;
+			int entry = table[c];
+			if (entry == UNKNOWN) {
+				entry = classify(c, removeAccents, lowerCase);
+				table[c] = entry;
+			}
+			if (entry == COMPLEX)
+				return -1;
+		}
+
+		if (allAscii) {
+			// Accents don't occur in ASCII; we only need to lower case
+			if (lowerCase) {
+				for (int i = 0; i < length; i++) {
+					char c = buffer[i];
+					if (c >= 'A' && c <= 'Z')
+						buffer[i] = (char)(c + ('a' - 'A'));
+				}
+			}
+			return length;
+		}
+
+		int n = 0;
+		for (int i = 0; i < length; i++) {
+			char c = buffer[i];
+			if (c < 128) {
+				buffer[n] = lowerCase && c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c;
+				n++;
+			} else {
+				int entry = table[c];
+				if ((entry & TYPE_MASK) == SIMPLE) {
+					buffer[n] = (char)(entry & 0xFFFF);
+					n++;
+				}
+				// (REMOVE: skip character)
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Remove accents and/or lower case a string.
+	 *
+	 * Equivalent to StringUtil.removeAccents() and/or String.toLowerCase(), but faster
+	 * for most input.
+	 *
+	 * @param input the string to fold
+	 * @param removeAccents whether to remove accents
+	 * @param lowerCase whether to lower case
+	 * @return the folded string
+	 */
+	public static String desensitize(String input, boolean removeAccents, boolean lowerCase) {
+		char[] buffer = input.toCharArray();
+		int length = fold(buffer, buffer.length, removeAccents, lowerCase);
+		if (length >= 0)
+			return new String(buffer, 0, length);
+		return desensitizeSlow(input, removeAccents, lowerCase);
+	}
+
+	/**
+	 * Remove accents and/or lower case a string using the regular String-based methods.
+	 *
+	 * @param input the string to fold
+	 * @param removeAccents whether to remove accents
+	 * @param lowerCase whether to lower case
+	 * @return the folded string
+	 */
+	static String desensitizeSlow(String input, boolean removeAccents, boolean lowerCase) {
+		String result = input;
+		if (removeAccents)
+			result = StringUtil.removeAccents(result);
+		if (lowerCase)
+			result = result.toLowerCase();
+		return result;
+	}
+
+	/**
+	 * Does String.toLowerCase() use language-specific rules for this locale?
+	 *
+	 * If so, we can't use our tables, which were built using the general rules.
+	 *
+	 * @param locale the locale
+	 * @return true if this locale has special casing rules
+	 */
+	private static boolean hasSpecialCasing(Locale locale) {
+		String lang = locale.getLanguage();
+		return lang.equals("tr") || lang.equals("az") || lang.equals("lt");
+	}
+
+	/**
+	 * Determine the folding table entry for a character.
+	 *
+	 * @param c the character
+	 * @param removeAccents whether to remove accents
+	 * @param lowerCase whether to lower case
+	 * @return the table entry
+	 */
+	private static int classify(char c, boolean removeAccents, boolean lowerCase) {
+		if (Character.isSurrogate(c))
+			return COMPLEX;
+		String str = String.valueOf(c);
+		if (removeAccents) {
+			if (c >= '\u0300' && c <= '\u036F') {
+				// Combining Diacritical Marks; always removed, regardless of context
+				return StringUtil.removeAccents(str).length() == 0 ? REMOVE : COMPLEX;
+			}
+			if (isMark(c)) {
+				// Other combining marks may be reordered during normalization
+				return COMPLEX;
+			}
+			str = StringUtil.removeAccents(str);
+			if (str.length() != 1 || isMark(str.charAt(0)))
+				return COMPLEX;
+		}
+		if (lowerCase) {
+			if (str.charAt(0) == CAPITAL_SIGMA)
+				return COMPLEX;
+			str = str.toLowerCase(Locale.ROOT);
+			if (str.length() != 1)
+				return COMPLEX;
+		}
+		return SIMPLE | str.charAt(0);
+	}
+
+	/**
+	 * Is this character a combining mark?
+	 *
+	 * @param c the character
+	 * @return true if it is a combining mark
+	 */
+	private static boolean isMark(char c) {
+		int type = Character.getType(c);
+		return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK
+				|| type == Character.ENCLOSING_MARK;
+	}
+
+}
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+/**
+ * Comparator for primitive ints.
+ *
+ * Used to sort permutation arrays (e.g. the sort order of a list of hits)
+ * without boxing every index into an Integer.
+ */
+public interface IntComparator {
+
+	/**
+	 * Compare two ints.
+	 *
+	 * @param a first value
+	 * @param b second value
+	 * @return 0 if equal, negative if a &lt; b, positive if a &gt; b
+	 */
+	int compare(int a, int b);
+
+}
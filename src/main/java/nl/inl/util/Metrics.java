@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import nl.inl.util.MetricsRegistry.Counter;
+import nl.inl.util.MetricsRegistry.Histogram;
+import nl.inl.util.MetricsRegistry.Timer;
+
+/**
+ * Access to the metrics registry BlackLab reports to.
+ *
+ * By default, metrics aren't recorded. To record them, install a registry:
+ *
+ * <pre>
+ * SimpleMetricsRegistry metrics = new SimpleMetricsRegistry();
+ * Metrics.setRegistry(metrics);
+ * metrics.registerMBean("nl.inl.blacklab:type=Metrics"); // optional
+ * ...
+ * System.out.println(metrics.dump());
+ * </pre>
+ */
+public class Metrics {
+
+	/** The registry to report to */
+	private static volatile MetricsRegistry registry = new MetricsRegistry();
+
+	private Metrics() {
+	}
+
+	/**
+	 * Get the registry we report to.
+	 * @return the registry
+	 */
+	public static MetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Set the registry to report to.
+	 * @param registry the registry, or null to stop recording metrics (the default)
+	 */
+	public static void setRegistry(MetricsRegistry registry) {
+		Metrics.registry = registry == null ? new MetricsRegistry() : registry;
+	}
+
+	/**
+	 * Are metrics being recorded?
+	 * @return true if they are
+	 */
+	public static boolean isEnabled() {
+		return registry.isEnabled();
+	}
+
+	/**
+	 * Get a counter from the registry.
+	 * @param name name of the counter
+	 * @return the counter
+	 */
+	public static Counter counter(String name) {
+		return registry.counter(name);
+	}
+
+	/**
+	 * Get a timer from the registry.
+	 * @param name name of the timer
+	 * @return the timer
+	 */
+	public static Timer timer(String name) {
+		return registry.timer(name);
+	}
+
+	/**
+	 * Get a histogram from the registry.
+	 * @param name name of the histogram
+	 * @return the histogram
+	 */
+	public static Histogram histogram(String name) {
+		return registry.histogram(name);
+	}
+
+	/**
+	 * Record the time since an operation started.
+	 *
+	 * @param name name of the timer
+	 * @param startNanos value of System.nanoTime() when the operation started
+	 */
+	public static void time(String name, long startNanos) {
+		MetricsRegistry r = registry;
+		if (r.isEnabled())
+			r.timer(name).update(System.nanoTime() - startNanos);
+	}
+
+}
@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+/**
+ * Registry of counters, timers and histograms for BlackLab's hot paths.
+ *
+ * This base class doesn't record anything, so metrics cost (almost) nothing
+ * unless they're enabled. Install a registry that does record them, such as
+ * SimpleMetricsRegistry, using Metrics.setRegistry(). Subclasses may also
+ * pass metrics on to an existing metrics library.
+ *
+ * Metric names are dot-separated, e.g. "hits.sort".
+ */
+public class MetricsRegistry {
+
+	/** Counts events, or the total of some quantity (e.g. bytes read) */
+	public static class Counter {
+		/**
+		 * Count one event.
+		 */
+		public void inc() {
+			inc(1);
+		}
+
+		/**
+		 * Add to the count.
+		 * @param n the number to add
+		 */
+		public void inc(long n) {
+			// (no-op)
+		}
+	}
+
+	/** Measures how long an operation takes, and how often it's done */
+	public static class Timer {
+		/**
+		 * Record the duration of an operation.
+		 * @param nanos the duration in nanoseconds
+		 */
+		public void update(long nanos) {
+			// (no-op)
+		}
+	}
+
+	/** Records the distribution of some value (e.g. number of hits per query) */
+	public static class Histogram {
+		/**
+		 * Record a value.
+		 * @param value the value
+		 */
+		public void update(long value) {
+			// (no-op)
+		}
+	}
+
+	private static final Counter NOOP_COUNTER = new Counter();
+
+	private static final Timer NOOP_TIMER = new Timer();
+
+	private static final Histogram NOOP_HISTOGRAM = new Histogram();
+
+	/**
+	 * Get a counter.
+	 * @param name name of the counter
+	 * @return the counter
+	 */
+	public Counter counter(String name) {
+		return NOOP_COUNTER;
+	}
+
+	/**
+	 * Get a timer.
+	 * @param name name of the timer
+	 * @return the timer
+	 */
+	public Timer timer(String name) {
+		return NOOP_TIMER;
+	}
+
+	/**
+	 * Get a histogram.
+	 * @param name name of the histogram
+	 * @return the histogram
+	 */
+	public Histogram histogram(String name) {
+		return NOOP_HISTOGRAM;
+	}
+
+	/**
+	 * Does this registry record anything?
+	 *
+	 * Callers may use this to skip work that's only needed to record metrics.
+	 *
+	 * @return true if metrics are recorded
+	 */
+	public boolean isEnabled() {
+		return false;
+	}
+
+}
@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Utilities for inspecting and influencing which parts of files are in the
+ * operating system's page cache, without native code.
+ *
+ * This is a built-in alternative to the vmtouch tool for forward indices and
+ * content stores. Residency is determined using MappedByteBuffer.isLoaded()
+ * (mincore on Linux) per block, so it is approximate: a block counts as resident
+ * only if all its pages are. The number of blocks per file is limited (see
+ * MAX_BLOCKS_PER_FILE). Prefetching reads the file sequentially so the OS
+ * readahead can do its job. Files can be kept resident by a thread that touches
+ * every page periodically; this doesn't lock them like mlock would, but keeps
+ * them "hot" enough that the OS prefers evicting other pages.
+ */
+public class PageCache {
+
+	protected static final Logger logger = Logger.getLogger(PageCache.class);
+
+	/** Assumed OS page size (for touching pages) */
+	public static final int PAGE_SIZE = 4096;
+
+	/** Default block size for residency reports */
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	/**
+	 * Maximum number of blocks we check per file for residency reports.
+	 *
+	 * Each block we check is a separate memory mapping, and mappings are only
+	 * released when they're garbage collected, so checking many small blocks
+	 * could exceed the OS limit on the number of mappings (vm.max_map_count on
+	 * Linux). For large files, we use larger blocks to stay under this number.
+	 */
+	public static final int MAX_BLOCKS_PER_FILE = 1024;
+
+	/** How much of a file we map at a time when touching pages */
+	private static final int MAP_REGION_SIZE = 64 * 1024 * 1024;
+
+	/** Buffer size for sequential reads */
+	private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+	private PageCache() {
+	}
+
+	/** How much of a file is in the page cache. */
+	public static class Residency {
+
+		private File file;
+
+		private long size;
+
+		private long blocks;
+
+		private long residentBlocks;
+
+		Residency(File file, long size, long blocks, long residentBlocks) {
+			this.file = file;
+			this.size = size;
+			this.blocks = blocks;
+			this.residentBlocks = residentBlocks;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/** @return file size in bytes */
+		public long getSize() {
+			return size;
+		}
+
+		/** @return number of blocks we checked */
+		public long getBlocks() {
+			return blocks;
+		}
+
+		/** @return number of blocks that were completely in the page cache */
+		public long getResidentBlocks() {
+			return residentBlocks;
+		}
+
+		/** @return fraction of the file that is resident (between 0 and 1) */
+		public double getFraction() {
+			return blocks == 0 ? 1.0 : (double) residentBlocks / blocks;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %.1f%% of %d bytes resident", file, getFraction() * 100, size);
+		}
+	}
+
+	/**
+	 * Determine how much of a file is in the page cache.
+	 *
+	 * We map the file in large regions (like touch() does). Only regions that
+	 * aren't completely resident are checked block by block.
+	 *
+	 * @param file the file to check
+	 * @param blockSize size of the blocks to check (larger is faster, but coarser;
+	 *   increased for large files, see MAX_BLOCKS_PER_FILE)
+	 * @return the residency information
+	 */
+	public static Residency residency(File file, int blockSize) {
+		long size = file.length();
+		long minBlockSize = (size + MAX_BLOCKS_PER_FILE - 1) / MAX_BLOCKS_PER_FILE;
+		minBlockSize = (minBlockSize + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+		long actualBlockSize = Math.max(blockSize, minBlockSize);
+		long regionSize = Math.max(1, MAP_REGION_SIZE / actualBlockSize) * actualBlockSize;
+		long blocks = 0, resident = 0;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel fc = raf.getChannel()) {
+			for (long regionStart = 0; regionStart < size; regionStart += regionSize) {
+				long regionEnd = Math.min(regionStart + regionSize, size);
+				long regionBlocks = (regionEnd - regionStart + actualBlockSize - 1) / actualBlockSize;
+				boolean regionResident = fc.map(MapMode.READ_ONLY, regionStart, regionEnd - regionStart).isLoaded();
+				blocks += regionBlocks;
+				if (regionResident) {
+					resident += regionBlocks;
+				} else if (regionBlocks > 1) {
+					// Find out which blocks in this region are resident
+					for (long offset = regionStart; offset < regionEnd; offset += actualBlockSize) {
+						long length = Math.min(actualBlockSize, regionEnd - offset);
+						if (fc.map(MapMode.READ_ONLY, offset, length).isLoaded())
+							resident++;
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return new Residency(file, size, blocks, resident);
+	}
+
+	/**
+	 * Determine how much of a file is in the page cache.
+	 *
+	 * @param file the file to check
+	 * @return the residency information
+	 */
+	public static Residency residency(File file) {
+		return residency(file, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Read a file sequentially, so it ends up in the page cache.
+	 *
+	 * @param file the file to read
+	 * @return the number of bytes read
+	 */
+	public static long prefetch(File file) {
+		return prefetch(file, 0, file.length());
+	}
+
+	/**
+	 * Read part of a file sequentially, so it ends up in the page cache.
+	 *
+	 * @param file the file to read
+	 * @param offset where to start reading
+	 * @param length how many bytes to read
+	 * @return the number of bytes read
+	 */
+	public static long prefetch(File file, long offset, long length) {
+		long bytesRead = 0;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel fc = raf.getChannel()) {
+			ByteBuffer buf = ByteBuffer.allocateDirect((int) Math.min(READ_BUFFER_SIZE, Math.max(length, 1)));
+			long end = Math.min(offset + length, fc.size());
+			long position = offset;
+			while (position < end) {
+				buf.clear();
+				if (end - position < buf.capacity())
+					buf.limit((int) (end - position));
+				int n = fc.read(buf, position);
+				if (n < 0)
+					break;
+				position += n;
+				bytesRead += n;
+				if (Thread.interrupted()) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return bytesRead;
+	}
+
+	/**
+	 * Touch every page of a file, so the OS sees it as recently used.
+	 *
+	 * Cheap for pages that are already resident (no data is copied); pages that
+	 * aren't resident are read in.
+	 *
+	 * @param file the file to touch
+	 * @return the number of pages touched
+	 */
+	public static long touch(File file) {
+		long pages = 0;
+		long size = file.length();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel fc = raf.getChannel()) {
+			for (long offset = 0; offset < size; offset += MAP_REGION_SIZE) {
+				long length = Math.min(MAP_REGION_SIZE, size - offset);
+				MappedByteBuffer buf = fc.map(MapMode.READ_ONLY, offset, length);
+				for (int i = 0; i < length; i += PAGE_SIZE) {
+					buf.get(i);
+					pages++;
+				}
+				if (Thread.interrupted()) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return pages;
+	}
+
+	/**
+	 * Keep files resident in the page cache by touching them periodically.
+	 *
+	 * Starts a daemon thread; interrupt it to stop.
+	 *
+	 * @param files the files to keep resident
+	 * @param intervalMs how long to wait between touching all files
+	 * @return the thread
+	 */
+	public static Thread keepResident(Collection<File> files, final long intervalMs) {
+		final List<File> filesToTouch = new ArrayList<>(files);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (!Thread.currentThread().isInterrupted()) {
+						for (File file: filesToTouch) {
+							if (file.exists())
+								touch(file);
+						}
+						Thread.sleep(intervalMs);
+					}
+				} catch (InterruptedException e) {
+					// Asked to stop
+				} catch (RuntimeException e) {
+					logger.error("Error keeping files resident", e);
+				}
+			}
+		}, "PageCacheKeeper");
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+}
@@ -0,0 +1,408 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stable parallel merge sort for int arrays (with an IntComparator) and
+ * object arrays.
+ *
+ * Both halves of a range are sorted in parallel, and the merge is
+ * parallelized as well by splitting the runs around a binary-searched
+ * pivot. Ranges smaller than the sequential threshold are sorted in the
+ * calling thread, so small inputs never touch the pool.
+ *
+ * The sort is stable, like Arrays.sort() on objects, so sorting a
+ * permutation array this way gives the same result as sorting a boxed
+ * Integer[] with the same comparator.
+ */
+public class ParallelSort {
+
+	/** Ranges of at most this size are sorted using insertion sort */
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+
+	/** Default value for sequentialThreshold */
+	private static final int DEFAULT_SEQUENTIAL_THRESHOLD = 8192;
+
+	/** Ranges of at most this size are sorted (or merged) sequentially */
+	private static int sequentialThreshold = DEFAULT_SEQUENTIAL_THRESHOLD;
+
+	/** The pool to use if none is specified (created on first use) */
+	private static ForkJoinPool defaultPool;
+
+	private ParallelSort() {
+	}
+
+	/**
+	 * Get the pool we use if no pool is specified.
+	 *
+	 * Created on first use, with one thread per available processor.
+	 *
+	 * @return the default pool
+	 */
+	public static synchronized ForkJoinPool getDefaultPool() {
+		if (defaultPool == null)
+			defaultPool = new ForkJoinPool();
+		return defaultPool;
+	}
+
+	/**
+	 * Set the pool to use if none is specified.
+	 *
+	 * @param pool the pool to use, or null to create a default pool on first use
+	 */
+	public static synchronized void setDefaultPool(ForkJoinPool pool) {
+		defaultPool = pool;
+	}
+
+	/**
+	 * Get the range size below which we don't parallelize any further.
+	 * @return the threshold
+	 */
+	public static int getSequentialThreshold() {
+		return sequentialThreshold;
+	}
+
+	/**
+	 * Set the range size below which we don't parallelize any further.
+	 * @param threshold the threshold (values below the insertion sort threshold are raised to it)
+	 */
+	public static void setSequentialThreshold(int threshold) {
+		sequentialThreshold = Math.max(threshold, INSERTION_SORT_THRESHOLD);
+	}
+
+	/**
+	 * Sort a range of an int array using the specified comparator.
+	 *
+	 * If the comparator throws an exception, it is rethrown here, but other
+	 * subtasks of the sort may still be running and modifying the array for a
+	 * while. So don't use the array after an exception (sort a copy if you need
+	 * to keep the original).
+	 *
+	 * @param a the array to sort
+	 * @param fromIndex first index to sort (inclusive)
+	 * @param toIndex last index to sort (exclusive)
+	 * @param cmp the comparator to use; must be thread-safe
+	 * @param pool the pool to use, or null for the default pool
+	 */
+	public static void sort(int[] a, int fromIndex, int toIndex, IntComparator cmp, ForkJoinPool pool) {
+		int n = toIndex - fromIndex;
+		if (n < 2)
+			return;
+		// Scratch space; index i in a corresponds to index i - fromIndex in buffer
+		int[] buffer = new int[n];
+		if (n <= sequentialThreshold) {
+			mergeSort(a, buffer, fromIndex, fromIndex, toIndex, cmp);
+			return;
+		}
+		if (pool == null)
+			pool = getDefaultPool();
+		pool.invoke(new IntSortTask(a, buffer, fromIndex, fromIndex, toIndex, cmp));
+	}
+
+	/**
+	 * Sort an int array using the specified comparator.
+	 *
+	 * @param a the array to sort
+	 * @param cmp the comparator to use; must be thread-safe
+	 * @param pool the pool to use, or null for the default pool
+	 */
+	public static void sort(int[] a, IntComparator cmp, ForkJoinPool pool) {
+		sort(a, 0, a.length, cmp, pool);
+	}
+
+	/**
+	 * Sort an object array using the specified comparator.
+	 *
+	 * @param a the array to sort
+	 * @param cmp the comparator to use; must be thread-safe
+	 * @param pool the pool to use, or null for the default pool
+	 * @param <T> element type
+	 */
+	public static <T> void sort(T[] a, Comparator<? super T> cmp, ForkJoinPool pool) {
+		if (a.length <= sequentialThreshold) {
+			Arrays.sort(a, cmp);
+			return;
+		}
+		if (pool == null)
+			pool = getDefaultPool();
+		Object[] buffer = new Object[a.length];
+		pool.invoke(new ObjectSortTask<>(a, buffer, 0, a.length, cmp));
+	}
+
+	/**
+	 * Sort a list using the specified comparator.
+	 *
+	 * Like Collections.sort(), this dumps the list into an array, sorts
+	 * the array and puts the elements back into the list.
+	 *
+	 * @param list the list to sort
+	 * @param cmp the comparator to use; must be thread-safe
+	 * @param pool the pool to use, or null for the default pool
+	 * @param <T> element type
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> void sort(List<T> list, Comparator<? super T> cmp, ForkJoinPool pool) {
+		if (list.size() <= sequentialThreshold) {
+			// Not worth it; don't bother copying the list
+			Collections.sort(list, cmp);
+			return;
+		}
+		T[] a = (T[]) list.toArray();
+		sort(a, cmp, pool);
+		ListIterator<T> it = list.listIterator();
+		for (T t: a) {
+			it.next();
+			it.set(t);
+		}
+	}
+
+	/**
+	 * Sequential stable merge sort of a range of an int array.
+	 *
+	 * @param a array to sort
+	 * @param buffer scratch space, at least as long as the range
+	 * @param base array index corresponding to buffer index 0
+	 * @param from first index to sort
+	 * @param to index after the last one to sort
+	 * @param cmp comparator
+	 */
+	static void mergeSort(int[] a, int[] buffer, int base, int from, int to, IntComparator cmp) {
+		if (to - from <= INSERTION_SORT_THRESHOLD) {
+			insertionSort(a, from, to, cmp);
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		mergeSort(a, buffer, base, from, mid, cmp);
+		mergeSort(a, buffer, base, mid, to, cmp);
+		if (cmp.compare(a[mid - 1], a[mid]) <= 0)
+			return; // already in order
+		System.arraycopy(a, from, buffer, from - base, to - from);
+		merge(buffer, from - base, mid - base, mid - base, to - base, a, from, cmp);
+	}
+
+	private static void insertionSort(int[] a, int from, int to, IntComparator cmp) {
+		for (int i = from + 1; i < to; i++) {
+			int value = a[i];
+			int j = i - 1;
+			while (j >= from && cmp.compare(a[j], value) > 0) {
+				a[j + 1] = a[j];
+				j--;
+			}
+			a[j + 1] = value;
+		}
+	}
+
+	/**
+	 * Merge two sorted runs into the destination array.
+	 *
+	 * On ties, elements from the first run go first (so the merge is stable).
+	 */
+	static void merge(int[] src, int lo1, int hi1, int lo2, int hi2, int[] dest, int destPos, IntComparator cmp) {
+		while (lo1 < hi1 && lo2 < hi2) {
+			if (cmp.compare(src[lo2], src[lo1]) < 0)
+				dest[destPos++] = src[lo2++];
+			else
+				dest[destPos++] = src[lo1++];
+		}
+		if (lo1 < hi1)
+			System.arraycopy(src, lo1, dest, destPos, hi1 - lo1);
+		else if (lo2 < hi2)
+			System.arraycopy(src, lo2, dest, destPos, hi2 - lo2);
+	}
+
+	/** Find the first index in [lo, hi) whose element is not less than value. */
+	private static int lowerBound(int[] a, int lo, int hi, int value, IntComparator cmp) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cmp.compare(a[mid], value) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/** Find the first index in [lo, hi) whose element is greater than value. */
+	private static int upperBound(int[] a, int lo, int hi, int value, IntComparator cmp) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cmp.compare(a[mid], value) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/** Sorts a range of an int array, sorting both halves in parallel. */
+	private static class IntSortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int[] a;
+
+		private int[] buffer;
+
+		private int base;
+
+		private int from;
+
+		private int to;
+
+		private IntComparator cmp;
+
+		IntSortTask(int[] a, int[] buffer, int base, int from, int to, IntComparator cmp) {
+			this.a = a;
+			this.buffer = buffer;
+			this.base = base;
+			this.from = from;
+			this.to = to;
+			this.cmp = cmp;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= sequentialThreshold) {
+				mergeSort(a, buffer, base, from, to, cmp);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new IntSortTask(a, buffer, base, from, mid, cmp),
+					new IntSortTask(a, buffer, base, mid, to, cmp));
+			if (cmp.compare(a[mid - 1], a[mid]) <= 0)
+				return; // already in order
+			System.arraycopy(a, from, buffer, from - base, to - from);
+			new IntMergeTask(buffer, from - base, mid - base, mid - base, to - base, a, from, cmp).compute();
+		}
+	}
+
+	/**
+	 * Merges two sorted runs, splitting the work around a pivot so both
+	 * parts can be merged in parallel.
+	 */
+	private static class IntMergeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private int[] src;
+
+		private int lo1, hi1, lo2, hi2;
+
+		private int[] dest;
+
+		private int destPos;
+
+		private IntComparator cmp;
+
+		IntMergeTask(int[] src, int lo1, int hi1, int lo2, int hi2, int[] dest, int destPos, IntComparator cmp) {
+			this.src = src;
+			this.lo1 = lo1;
+			this.hi1 = hi1;
+			this.lo2 = lo2;
+			this.hi2 = hi2;
+			this.dest = dest;
+			this.destPos = destPos;
+			this.cmp = cmp;
+		}
+
+		@Override
+		protected void compute() {
+			int n1 = hi1 - lo1;
+			int n2 = hi2 - lo2;
+			if (n1 + n2 <= sequentialThreshold) {
+				merge(src, lo1, hi1, lo2, hi2, dest, destPos, cmp);
+				return;
+			}
+			int split1, split2;
+			if (n1 >= n2) {
+				// Pivot in first run; elements of the second run that are
+				// equal to the pivot must end up after it.
+				split1 = (lo1 + hi1) >>> 1;
+				split2 = lowerBound(src, lo2, hi2, src[split1], cmp);
+			} else {
+				// Pivot in second run; elements of the first run that are
+				// equal to the pivot must end up before it.
+				split2 = (lo2 + hi2) >>> 1;
+				split1 = upperBound(src, lo1, hi1, src[split2], cmp);
+			}
+			int destSplit = destPos + (split1 - lo1) + (split2 - lo2);
+			invokeAll(new IntMergeTask(src, lo1, split1, lo2, split2, dest, destPos, cmp),
+					new IntMergeTask(src, split1, hi1, split2, hi2, dest, destSplit, cmp));
+		}
+	}
+
+	/**
+	 * Sorts a range of an object array, sorting both halves in parallel.
+	 *
+	 * Leaves are sorted with Arrays.sort(); merges are sequential, because
+	 * the number of objects we sort this way (e.g. groups) is usually
+	 * much smaller than the number of hits.
+	 */
+	private static class ObjectSortTask<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private T[] a;
+
+		private Object[] buffer;
+
+		private int from;
+
+		private int to;
+
+		private Comparator<? super T> cmp;
+
+		ObjectSortTask(T[] a, Object[] buffer, int from, int to, Comparator<? super T> cmp) {
+			this.a = a;
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+			this.cmp = cmp;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		protected void compute() {
+			if (to - from <= sequentialThreshold) {
+				Arrays.sort(a, from, to, cmp);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new ObjectSortTask<>(a, buffer, from, mid, cmp),
+					new ObjectSortTask<>(a, buffer, mid, to, cmp));
+			if (cmp.compare(a[mid - 1], a[mid]) <= 0)
+				return; // already in order
+			System.arraycopy(a, from, buffer, from, to - from);
+			int i = from, j = mid, k = from;
+			while (i < mid && j < to) {
+				if (cmp.compare((T) buffer[j], (T) buffer[i]) < 0)
+					a[k++] = (T) buffer[j++];
+				else
+					a[k++] = (T) buffer[i++];
+			}
+			if (i < mid)
+				System.arraycopy(buffer, i, a, k, mid - i);
+			else if (j < to)
+				System.arraycopy(buffer, j, a, k, to - j);
+		}
+	}
+
+}
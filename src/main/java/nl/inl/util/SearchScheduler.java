@@ -0,0 +1,517 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import nl.inl.util.ThreadPriority.Level;
+
+/**
+ * Runs search operations (fetching hits, sorting, grouping, finding context, ...)
+ * as tasks, with admission control and fair sharing between users.
+ *
+ * At most maxConcurrentTasks tasks run at the same time, and at most
+ * maxConcurrentTasksPerUser for any one user. Waiting tasks are queued per
+ * priority level and per user: normal priority tasks are admitted before
+ * low priority ones, and users take turns.
+ *
+ * Running tasks cooperate through ThreadPriority.behave() (called regularly by
+ * Hits while fetching hits) or SearchScheduler.behave(): a paused task gives up
+ * its slot until it is resumed, and a low priority task gives up its slot while
+ * normal priority tasks are waiting. Yielding tasks block on a monitor until
+ * they are admitted again, so nothing polls.
+ *
+ * A yielded task keeps its thread while it waits (it is "parked"). To bound the
+ * number of threads, at most maxParkedTasks tasks can be parked at the same time;
+ * if that many are parked, a task that should yield keeps running until a parked
+ * task resumes (it checks again at its next behave() call). So the scheduler uses
+ * at most maxConcurrentTasks + maxParkedTasks threads.
+ */
+public class SearchScheduler {
+
+	/** The task the current thread is running, if any */
+	private static ThreadLocal<Task<?>> currentTask = new ThreadLocal<>();
+
+	/** Priority levels tasks are admitted at, in order */
+	private static final Level[] ADMIT_LEVELS = { Level.RUNNING, Level.RUNNING_LOW_PRIO };
+
+	/**
+	 * A task, which can be used as a Future.
+	 *
+	 * @param <T> the result type
+	 */
+	public static class Task<T> extends FutureTask<T> {
+
+		/** The scheduler we were submitted to */
+		private SearchScheduler scheduler;
+
+		/** User who submitted the task */
+		private String user;
+
+		/** Current priority level */
+		private Level level;
+
+		/** Is the task holding one of the slots? */
+		boolean admitted = false;
+
+		/** Has the task been started (i.e. does it have a thread)? */
+		boolean started = false;
+
+		Task(SearchScheduler scheduler, String user, Level level, Callable<T> callable) {
+			super(callable);
+			this.scheduler = scheduler;
+			this.user = user;
+			this.level = level;
+		}
+
+		/**
+		 * Get the user who submitted the task.
+		 * @return the user
+		 */
+		public String getUser() {
+			return user;
+		}
+
+		/**
+		 * Get the priority level.
+		 * @return the priority level
+		 */
+		public Level getPriorityLevel() {
+			synchronized (scheduler) {
+				return level;
+			}
+		}
+
+		/**
+		 * Set the priority level.
+		 *
+		 * If the task is running, it will yield (or resume) the next time it calls
+		 * behave().
+		 *
+		 * @param level the new priority level
+		 */
+		public void setPriorityLevel(Level level) {
+			scheduler.changeLevel(this, level);
+		}
+
+		/**
+		 * Yield our slot if we're paused, or if we're low priority and normal priority
+		 * tasks are waiting. Returns when we're allowed to continue.
+		 *
+		 * @throws InterruptedException if the thread was interrupted while waiting
+		 */
+		void behave() throws InterruptedException {
+			scheduler.behave(this);
+		}
+
+		@Override
+		public String toString() {
+			return "Task(" + user + ", " + level + ")";
+		}
+	}
+
+	/** Runs the tasks; threads are created as needed, up to maxConcurrentTasks + maxParkedTasks */
+	private ThreadPoolExecutor executor;
+
+	/** Maximum number of tasks running at the same time */
+	private int maxConcurrentTasks;
+
+	/** Maximum number of tasks running at the same time for one user */
+	private int maxConcurrentTasksPerUser;
+
+	/** Maximum number of tasks that have yielded and are waiting in their thread */
+	private int maxParkedTasks;
+
+	/** Number of tasks that have yielded and are waiting in their thread */
+	private int parked = 0;
+
+	/** Number of tasks holding a slot */
+	private int running = 0;
+
+	/** Number of tasks holding a slot per user */
+	private Map<String, Integer> runningPerUser = new HashMap<>();
+
+	/** Waiting tasks per priority level and user (users in the order they'll get their next turn) */
+	private Map<Level, LinkedHashMap<String, ArrayDeque<Task<?>>>> queues = new HashMap<>();
+
+	/** Paused tasks that are not holding a slot */
+	private Set<Task<?>> paused = new HashSet<>();
+
+	/**
+	 * Construct a search scheduler.
+	 *
+	 * At most maxConcurrentTasks tasks can be parked (see class comment).
+	 *
+	 * @param maxConcurrentTasks maximum number of tasks running at the same time
+	 * @param maxConcurrentTasksPerUser maximum number of tasks running at the same time for one user
+	 */
+	public SearchScheduler(int maxConcurrentTasks, int maxConcurrentTasksPerUser) {
+		this(maxConcurrentTasks, maxConcurrentTasksPerUser, maxConcurrentTasks);
+	}
+
+	/**
+	 * Construct a search scheduler.
+	 *
+	 * @param maxConcurrentTasks maximum number of tasks running at the same time
+	 * @param maxConcurrentTasksPerUser maximum number of tasks running at the same time for one user
+	 * @param maxParkedTasks maximum number of tasks that may yield and wait in their thread
+	 *   at the same time (see class comment)
+	 */
+	public SearchScheduler(int maxConcurrentTasks, int maxConcurrentTasksPerUser, int maxParkedTasks) {
+		if (maxConcurrentTasks <= 0 || maxConcurrentTasksPerUser <= 0)
+			throw new IllegalArgumentException("Maximum number of concurrent tasks must be positive");
+		if (maxParkedTasks < 0)
+			throw new IllegalArgumentException("Maximum number of parked tasks can't be negative");
+		this.maxConcurrentTasks = maxConcurrentTasks;
+		this.maxConcurrentTasksPerUser = maxConcurrentTasksPerUser;
+		this.maxParkedTasks = maxParkedTasks;
+		for (Level level: ADMIT_LEVELS) {
+			queues.put(level, new LinkedHashMap<String, ArrayDeque<Task<?>>>());
+		}
+		// (a thread that finishes a task starts the next one before it is back in
+		// the pool, so use a queue instead of rejecting tasks when all threads are busy)
+		int maxThreads = maxConcurrentTasks + maxParkedTasks;
+		executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SearchScheduler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Submit a task.
+	 *
+	 * @param <T> the result type
+	 * @param user the user submitting the task (for fair sharing)
+	 * @param level the priority level
+	 * @param callable the operation to perform
+	 * @return the task, to get the result or change its priority level
+	 */
+	public <T> Task<T> submit(String user, Level level, Callable<T> callable) {
+		Task<T> task = new Task<>(this, user, level, callable);
+		synchronized (this) {
+			enqueue(task, false);
+			dispatch();
+		}
+		return task;
+	}
+
+	/**
+	 * Submit a task with normal priority.
+	 *
+	 * @param <T> the result type
+	 * @param user the user submitting the task (for fair sharing)
+	 * @param callable the operation to perform
+	 * @return the task, to get the result or change its priority level
+	 */
+	public <T> Task<T> submit(String user, Callable<T> callable) {
+		return submit(user, Level.RUNNING, callable);
+	}
+
+	/**
+	 * Yield if the task running in this thread (if any) should.
+	 *
+	 * Call this regularly in long-running loops that don't use ThreadPriority.
+	 *
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	public static void behave() throws InterruptedException {
+		Task<?> task = currentTask.get();
+		if (task != null)
+			task.behave();
+	}
+
+	/**
+	 * Get the task running in the current thread.
+	 * @return the task, or null if the current thread isn't running a task
+	 */
+	public static Task<?> getCurrentTask() {
+		return currentTask.get();
+	}
+
+	/**
+	 * Get the number of tasks holding a slot.
+	 * @return the number of running tasks
+	 */
+	public synchronized int getNumberRunning() {
+		return running;
+	}
+
+	/**
+	 * Get the number of tasks that have yielded and are waiting in their thread.
+	 * @return the number of parked tasks
+	 */
+	public synchronized int getNumberParked() {
+		return parked;
+	}
+
+	/**
+	 * Get the number of tasks waiting for a slot (including paused tasks).
+	 * @return the number of waiting tasks
+	 */
+	public synchronized int getNumberWaiting() {
+		int n = paused.size();
+		for (Map<String, ArrayDeque<Task<?>>> queue: queues.values()) {
+			for (ArrayDeque<Task<?>> tasks: queue.values()) {
+				n += tasks.size();
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Stop accepting tasks and stop the threads when the running tasks are done.
+	 *
+	 * Waiting tasks are cancelled.
+	 */
+	public synchronized void shutdown() {
+		for (Map<String, ArrayDeque<Task<?>>> queue: queues.values()) {
+			for (ArrayDeque<Task<?>> tasks: queue.values()) {
+				for (Task<?> task: tasks) {
+					task.cancel(true);
+				}
+			}
+			queue.clear();
+		}
+		for (Task<?> task: paused) {
+			task.cancel(true);
+		}
+		paused.clear();
+		notifyAll();
+		executor.shutdown();
+	}
+
+	/**
+	 * Add a task to the appropriate queue.
+	 *
+	 * @param task the task
+	 * @param first if true, add it to the front of its user's queue (for tasks that yielded)
+	 */
+	private void enqueue(Task<?> task, boolean first) {
+		if (task.level == Level.PAUSED) {
+			paused.add(task);
+			return;
+		}
+		LinkedHashMap<String, ArrayDeque<Task<?>>> queue = queues.get(task.level);
+		ArrayDeque<Task<?>> tasks = queue.get(task.user);
+		if (tasks == null) {
+			tasks = new ArrayDeque<>();
+			queue.put(task.user, tasks);
+		}
+		if (first)
+			tasks.addFirst(task);
+		else
+			tasks.addLast(task);
+	}
+
+	/**
+	 * Remove a task from the queue it's in, if any.
+	 *
+	 * @param task the task
+	 * @return true if it was queued
+	 */
+	private boolean dequeue(Task<?> task) {
+		if (paused.remove(task))
+			return true;
+		LinkedHashMap<String, ArrayDeque<Task<?>>> queue = queues.get(task.level);
+		ArrayDeque<Task<?>> tasks = queue.get(task.user);
+		if (tasks == null || !tasks.remove(task))
+			return false;
+		if (tasks.isEmpty())
+			queue.remove(task.user);
+		return true;
+	}
+
+	private int getRunning(String user) {
+		Integer n = runningPerUser.get(user);
+		return n == null ? 0 : n;
+	}
+
+	private void addRunning(String user, int delta) {
+		int n = getRunning(user) + delta;
+		if (n == 0)
+			runningPerUser.remove(user);
+		else
+			runningPerUser.put(user, n);
+		running += delta;
+	}
+
+	/**
+	 * Find the next task to admit and remove it from its queue.
+	 *
+	 * @param level the priority level to look at
+	 * @return the task, or null if no task at this level can be admitted
+	 */
+	private Task<?> next(Level level) {
+		LinkedHashMap<String, ArrayDeque<Task<?>>> queue = queues.get(level);
+		Iterator<Map.Entry<String, ArrayDeque<Task<?>>>> it = queue.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, ArrayDeque<Task<?>>> e = it.next();
+			if (getRunning(e.getKey()) >= maxConcurrentTasksPerUser)
+				continue;
+			ArrayDeque<Task<?>> tasks = e.getValue();
+			Task<?> task = tasks.removeFirst();
+			// Move the user to the back of the line
+			it.remove();
+			if (!tasks.isEmpty())
+				queue.put(e.getKey(), tasks);
+			return task;
+		}
+		return null;
+	}
+
+	/**
+	 * Are tasks waiting that have priority over the specified level?
+	 *
+	 * @param level the level
+	 * @return true if such tasks are waiting and could be admitted if a slot was free
+	 */
+	private boolean higherPriorityWaiting(Level level) {
+		for (Level l: ADMIT_LEVELS) {
+			if (l == level)
+				return false;
+			for (String user: queues.get(l).keySet()) {
+				if (getRunning(user) < maxConcurrentTasksPerUser)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Admit waiting tasks while there are free slots.
+	 */
+	private void dispatch() {
+		boolean wakeUp = false;
+		while (running < maxConcurrentTasks) {
+			Task<?> task = null;
+			for (Level level: ADMIT_LEVELS) {
+				task = next(level);
+				if (task != null)
+					break;
+			}
+			if (task == null)
+				break;
+			task.admitted = true;
+			addRunning(task.user, 1);
+			if (task.started) {
+				// Task yielded earlier; wake it up
+				wakeUp = true;
+			} else {
+				task.started = true;
+				executor.execute(runner(task));
+			}
+		}
+		if (wakeUp)
+			notifyAll();
+	}
+
+	/**
+	 * Create the runnable that runs a task and frees its slot afterwards.
+	 *
+	 * @param task the task
+	 * @return the runnable
+	 */
+	private Runnable runner(final Task<?> task) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				currentTask.set(task);
+				try {
+					task.run();
+				} finally {
+					currentTask.remove();
+					synchronized (SearchScheduler.this) {
+						if (task.admitted) {
+							task.admitted = false;
+							addRunning(task.user, -1);
+						}
+						dispatch();
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Change the priority level of a task.
+	 *
+	 * @param task the task
+	 * @param level the new level
+	 */
+	synchronized void changeLevel(Task<?> task, Level level) {
+		if (task.level == level)
+			return;
+		boolean wasQueued = dequeue(task);
+		task.level = level;
+		if (wasQueued)
+			enqueue(task, task.started);
+		dispatch();
+		notifyAll();
+	}
+
+	/**
+	 * Called by a running task to yield if it should.
+	 *
+	 * @param task the task
+	 * @throws InterruptedException if the thread was interrupted while waiting
+	 */
+	synchronized void behave(Task<?> task) throws InterruptedException {
+		while (task.level == Level.PAUSED || higherPriorityWaiting(task.level)) {
+			if (parked >= maxParkedTasks) {
+				// Too many threads waiting already; keep running for now
+				return;
+			}
+
+			// Give up our slot and wait until we're admitted again
+			task.admitted = false;
+			addRunning(task.user, -1);
+			enqueue(task, true);
+			parked++;
+			dispatch();
+			try {
+				while (!task.admitted) {
+					if (executor.isShutdown())
+						throw new InterruptedException("Scheduler was shut down");
+					wait();
+				}
+			} catch (InterruptedException e) {
+				dequeue(task);
+				throw e;
+			} finally {
+				parked--;
+			}
+		}
+	}
+
+}
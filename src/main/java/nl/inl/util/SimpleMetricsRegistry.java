@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A metrics registry that keeps the metrics in memory.
+ *
+ * The metrics can be written as text (dump()) or exposed through JMX
+ * (registerMBean()), so they can be monitored with e.g. JConsole or
+ * collected by a monitoring agent.
+ *
+ * Timers and histograms keep counts per power-of-two bucket, so percentiles
+ * are approximate (within a factor of two) but recording is cheap and
+ * memory use is constant.
+ */
+public class SimpleMetricsRegistry extends MetricsRegistry {
+
+	/** Number of power-of-two buckets in a histogram (enough for any long) */
+	private static final int NUMBER_OF_BUCKETS = 64;
+
+	/** A counter that keeps its count */
+	public static class SimpleCounter extends Counter {
+		private AtomicLong count = new AtomicLong();
+
+		@Override
+		public void inc(long n) {
+			count.addAndGet(n);
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+	}
+
+	/** A histogram that keeps counts per power-of-two bucket */
+	public static class SimpleHistogram extends Histogram {
+		private AtomicLong count = new AtomicLong();
+
+		private AtomicLong sum = new AtomicLong();
+
+		private AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+		/** Bucket i counts values v with 2^(i-1) &lt;= v &lt; 2^i (bucket 0: v &lt;= 0) */
+		private AtomicLongArray buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+
+		@Override
+		public void update(long value) {
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			long m;
+			while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+				// (try again)
+			}
+			buckets.incrementAndGet(value <= 0 ? 0 : NUMBER_OF_BUCKETS - Long.numberOfLeadingZeros(value));
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getSum() {
+			return sum.get();
+		}
+
+		public double getMean() {
+			long n = count.get();
+			return n == 0 ? 0 : (double) sum.get() / n;
+		}
+
+		public long getMax() {
+			long n = count.get();
+			return n == 0 ? 0 : max.get();
+		}
+
+		/**
+		 * Get an (approximate) percentile.
+		 *
+		 * @param fraction the percentile as a fraction, e.g. 0.99
+		 * @return upper bound of the bucket the percentile falls in (but at most the maximum)
+		 */
+		public long getPercentile(double fraction) {
+			long n = count.get();
+			if (n == 0)
+				return 0;
+			long rank = (long) Math.ceil(fraction * n);
+			long seen = 0;
+			for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+				seen += buckets.get(i);
+				if (seen >= rank)
+					return i == 0 ? 0 : Math.min(getMax(), (1L << i) - 1); // (for i = 63, this is Long.MAX_VALUE)
+			}
+			return getMax();
+		}
+	}
+
+	/** A timer that keeps a histogram of the durations */
+	public static class SimpleTimer extends Timer {
+		private SimpleHistogram nanos = new SimpleHistogram();
+
+		@Override
+		public void update(long nanos) {
+			this.nanos.update(nanos);
+		}
+
+		/**
+		 * Get the durations recorded.
+		 * @return histogram of the durations in nanoseconds
+		 */
+		public SimpleHistogram getNanos() {
+			return nanos;
+		}
+	}
+
+	private ConcurrentMap<String, SimpleCounter> counters = new ConcurrentHashMap<>();
+
+	private ConcurrentMap<String, SimpleTimer> timers = new ConcurrentHashMap<>();
+
+	private ConcurrentMap<String, SimpleHistogram> histograms = new ConcurrentHashMap<>();
+
+	/** Name our MBean was registered under, or null if not registered */
+	private ObjectName mbeanName = null;
+
+	@Override
+	public SimpleCounter counter(String name) {
+		SimpleCounter c = counters.get(name);
+		if (c == null) {
+			c = new SimpleCounter();
+			SimpleCounter existing = counters.putIfAbsent(name, c);
+			if (existing != null)
+				c = existing;
+		}
+		return c;
+	}
+
+	@Override
+	public SimpleTimer timer(String name) {
+		SimpleTimer t = timers.get(name);
+		if (t == null) {
+			t = new SimpleTimer();
+			SimpleTimer existing = timers.putIfAbsent(name, t);
+			if (existing != null)
+				t = existing;
+		}
+		return t;
+	}
+
+	@Override
+	public SimpleHistogram histogram(String name) {
+		SimpleHistogram h = histograms.get(name);
+		if (h == null) {
+			h = new SimpleHistogram();
+			SimpleHistogram existing = histograms.putIfAbsent(name, h);
+			if (existing != null)
+				h = existing;
+		}
+		return h;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return true;
+	}
+
+	/**
+	 * Forget all metrics recorded so far.
+	 */
+	public void reset() {
+		counters.clear();
+		timers.clear();
+		histograms.clear();
+	}
+
+	/**
+	 * Get the current values of all metrics, sorted by name.
+	 *
+	 * Counters have a single value. For timers (in milliseconds) and
+	 * histograms, there are several values, with names ending in
+	 * .count, .mean, .p50, .p99 and .max (and .total for timers).
+	 *
+	 * @return the values
+	 */
+	public SortedMap<String, Number> getValues() {
+		SortedMap<String, Number> values = new TreeMap<>();
+		for (Map.Entry<String, SimpleCounter> e: counters.entrySet()) {
+			values.put(e.getKey(), e.getValue().getCount());
+		}
+		for (Map.Entry<String, SimpleTimer> e: timers.entrySet()) {
+			SimpleHistogram h = e.getValue().getNanos();
+			String name = e.getKey();
+			values.put(name + ".count", h.getCount());
+			values.put(name + ".totalMs", h.getSum() / 1e6);
+			values.put(name + ".meanMs", h.getMean() / 1e6);
+			values.put(name + ".p50Ms", h.getPercentile(0.5) / 1e6);
+			values.put(name + ".p99Ms", h.getPercentile(0.99) / 1e6);
+			values.put(name + ".maxMs", h.getMax() / 1e6);
+		}
+		for (Map.Entry<String, SimpleHistogram> e: histograms.entrySet()) {
+			SimpleHistogram h = e.getValue();
+			String name = e.getKey();
+			values.put(name + ".count", h.getCount());
+			values.put(name + ".mean", h.getMean());
+			values.put(name + ".p50", h.getPercentile(0.5));
+			values.put(name + ".p99", h.getPercentile(0.99));
+			values.put(name + ".max", h.getMax());
+		}
+		return values;
+	}
+
+	/**
+	 * Write the current values of all metrics as text, one per line.
+	 *
+	 * @return the metrics as text
+	 */
+	public String dump() {
+		StringBuilder b = new StringBuilder();
+		for (Map.Entry<String, Number> e: getValues().entrySet()) {
+			b.append(e.getKey()).append(" ").append(e.getValue()).append("\n");
+		}
+		return b.toString();
+	}
+
+	/**
+	 * Expose the metrics through JMX, using the platform MBean server.
+	 *
+	 * Each value returned by getValues() becomes a read-only attribute.
+	 *
+	 * @param objectName name to register the MBean under, e.g. "nl.inl.blacklab:type=Metrics"
+	 */
+	public synchronized void registerMBean(String objectName) {
+		try {
+			unregisterMBean();
+			ObjectName name = new ObjectName(objectName);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), name);
+			mbeanName = name;
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Stop exposing the metrics through JMX.
+	 */
+	public synchronized void unregisterMBean() {
+		if (mbeanName == null)
+			return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(mbeanName))
+				server.unregisterMBean(mbeanName);
+			mbeanName = null;
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** Exposes the metric values as (read-only) MBean attributes */
+	private class MetricsMBean implements DynamicMBean {
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Number value = getValues().get(attribute);
+			if (value == null)
+				throw new AttributeNotFoundException(attribute);
+			return value;
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			SortedMap<String, Number> values = getValues();
+			AttributeList result = new AttributeList();
+			for (String attribute: attributes) {
+				Number value = values.get(attribute);
+				if (value != null)
+					result.add(new Attribute(attribute, value));
+			}
+			return result;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList(); // metrics are read-only
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			if (actionName.equals("reset") && (params == null || params.length == 0)) {
+				reset();
+				return null;
+			}
+			throw new UnsupportedOperationException(actionName);
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			List<MBeanAttributeInfo> attributes = new ArrayList<>();
+			for (Map.Entry<String, Number> e: getValues().entrySet()) {
+				String type = e.getValue() instanceof Double ? Double.class.getName() : Long.class.getName();
+				attributes.add(new MBeanAttributeInfo(e.getKey(), type, e.getKey(), true, false, false));
+			}
+			MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Forget all metrics recorded so far",
+					new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+			return new MBeanInfo(SimpleMetricsRegistry.class.getName(), "BlackLab metrics",
+					attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] { reset }, null);
+		}
+	}
+
+}
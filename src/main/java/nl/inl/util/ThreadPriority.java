@@ -8,6 +8,10 @@ import org.apache.log4j.Logger;
  * We don't use Java's own thread priority system because
  * it's not particularly portable / practical to use (differences
  * in priority between OS'es, needs root on Linux, etc.)
+ *
+ * If the thread is running a SearchScheduler task, behave() also lets the
+ * scheduler pause the task or have it yield to higher priority tasks, even
+ * if this functionality is not enabled.
  */
 public class ThreadPriority {
 
@@ -43,11 +47,12 @@ public class ThreadPriority {
 		reset();
 	}
 
-	public void setPriorityLevel(Level level) {
+	public synchronized void setPriorityLevel(Level level) {
 		this.level = level;
+		notifyAll(); // wake up the thread if it was waiting
 	}
 
-	public Level getPriorityLevel() {
+	public synchronized Level getPriorityLevel() {
 		return level;
 	}
 
@@ -65,17 +70,44 @@ public class ThreadPriority {
 	 *   or the thread was interrupted from elsewhere
 	 */
 	public void behave() throws InterruptedException {
+		behave(true);
+	}
 
-		if (!enabled)
+	/**
+	 * Make sure our thread is behaving like a respectable citizen.
+	 *
+	 * Like behave(), but lets the caller indicate it can't wait right now:
+	 * a thread that holds a lock other threads (or search scheduler tasks) may
+	 * need shouldn't pause or yield, or they could be stuck waiting for each other.
+	 *
+	 * @param mayWait if false, only check if the thread was interrupted
+	 * @throws InterruptedException if operation was taking too long,
+	 *   or the thread was interrupted from elsewhere
+	 */
+	public void behave(boolean mayWait) throws InterruptedException {
+
+		SearchScheduler.Task<?> task = SearchScheduler.getCurrentTask();
+		if (!enabled && task == null)
 			return;
 
-		if (currentThread.isInterrupted()) {
+		if (currentThread.isInterrupted() || Thread.currentThread().isInterrupted()) {
 			logger.debug("Thread was interrupted, throw exception");
 			throw new InterruptedException("Operation aborted");
 		}
 
-		while (level != Level.RUNNING) {
-			Thread.sleep(100);
+		if (!mayWait)
+			return;
+
+		if (enabled) {
+			// Wait until we're allowed to run again (see setPriorityLevel())
+			synchronized (this) {
+				while (level != Level.RUNNING) {
+					wait();
+				}
+			}
 		}
+
+		if (task != null)
+			task.behave();
 	}
 }
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.Collection;
 
 import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 
 import nl.inl.blacklab.search.Hit;
@@ -122,6 +123,38 @@ public class MockSpansInBuckets implements SpansInBuckets {
 		return doc;
 	}
 
+	@Override
+	public TwoPhaseIterator asTwoPhaseIterator() {
+		// All our documents have buckets, so the documents themselves are the approximation
+		DocIdSetIterator docs = new DocIdSetIterator() {
+			@Override
+			public int docID() {
+				return MockSpansInBuckets.this.docID();
+			}
+
+			@Override
+			public int nextDoc() {
+				return MockSpansInBuckets.this.nextDoc();
+			}
+
+			@Override
+			public int advance(int target) throws IOException {
+				return MockSpansInBuckets.this.advance(target);
+			}
+
+			@Override
+			public long cost() {
+				return bucketDoc.length;
+			}
+		};
+		return new TwoPhaseIterator(docs) {
+			@Override
+			public boolean matches() {
+				return true;
+			}
+		};
+	}
+
 	@Override
 	public int bucketSize() {
 		if (alreadyAtFirstBucket)
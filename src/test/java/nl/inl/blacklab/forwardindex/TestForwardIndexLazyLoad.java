@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.forwardindex;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.inl.util.StringUtil;
+import nl.inl.util.Utilities;
+
+public class TestForwardIndexLazyLoad {
+	private ForwardIndex fi;
+
+	private File dir;
+
+	// The strings to store
+	String[][] str = {
+		{ "How", "much", "wood" },
+		{ "would", "a", "woodchuck", "chuck" },
+		{ "if", "a", "woodchuck", "could", "chuck", "wood" }
+	};
+
+	@Before
+	public void setUp() {
+		// Remove any previously left over temp test dirs
+		Utilities.removeBlackLabTestDirs();
+
+		// Create new test dir
+		dir = Utilities.createBlackLabTestDir("ForwardIndexLazyLoad");
+
+		fi = ForwardIndex.open(dir, true, null, true);
+		try {
+			// Store strings
+			for (int i = 0; i < str.length; i++) {
+				Assert.assertEquals(i, fi.addDocument(Arrays.asList(str[i])));
+			}
+		} finally {
+			fi.close(); // close so everything is guaranteed to be written
+		}
+		fi = ForwardIndex.open(dir, false, null, false);
+	}
+
+	@After
+	public void tearDown() {
+		if (fi != null)
+			fi.close();
+		// Try to remove (some files may be locked though)
+		Utilities.removeBlackLabTestDirs();
+	}
+
+	private String retrieve(int fiid) {
+		int[] tokens = fi.retrievePartsInt(fiid, new int[] { -1 }, new int[] { -1 }).get(0);
+		StringBuilder b = new StringBuilder();
+		for (int token: tokens) {
+			if (b.length() > 0)
+				b.append(" ");
+			b.append(fi.getTerms().get(token));
+		}
+		return b.toString();
+	}
+
+	@Test
+	public void testDocLengthBeforeRetrieve() {
+		// TOC is loaded on first use; this should work without retrieving anything first
+		Assert.assertEquals(3, fi.getNumDocs());
+		Assert.assertEquals(4, fi.getDocLength(1));
+	}
+
+	@Test
+	public void testTermsBeforeRetrieve() {
+		Terms terms = fi.getTerms();
+		Assert.assertEquals("woodchuck", terms.get(terms.indexOf("woodchuck")));
+	}
+
+	@Test
+	public void testConcurrentFirstUse() throws InterruptedException {
+		// Many threads using the forward index at the same time should all see
+		// the fully loaded TOC and terms.
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final int fiid = t % str.length;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Assert.assertEquals(StringUtil.join(str[fiid], " "), retrieve(fiid));
+					} catch (Throwable e) {
+						error.set(e);
+					}
+				}
+			});
+			threads.add(thread);
+		}
+		for (Thread thread: threads)
+			thread.start();
+		for (Thread thread: threads)
+			thread.join();
+		if (error.get() != null)
+			throw new RuntimeException(error.get());
+	}
+
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.forwardindex;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.inl.util.Utilities;
+
+public class TestTagIndex {
+	private TagIndex ti;
+
+	private File dir;
+
+	private int oldChunkSize;
+
+	@Before
+	public void setUp() {
+		// Use tiny chunks, so elements are read from several mappings
+		oldChunkSize = TagIndex.chunkSizeBytes;
+		TagIndex.chunkSizeBytes = 16;
+
+		// Remove any previously left over temp test dirs
+		Utilities.removeBlackLabTestDirs();
+
+		// Create new test dir
+		dir = Utilities.createBlackLabTestDir("TagIndex");
+	}
+
+	@After
+	public void tearDown() {
+		TagIndex.chunkSizeBytes = oldChunkSize;
+		if (ti != null)
+			ti.close();
+		// Try to remove (some files may be locked though)
+		Utilities.removeBlackLabTestDirs();
+	}
+
+	private void reopen() {
+		ti.close();
+		ti = new TagIndex(dir, false, false);
+	}
+
+	private void assertElements(int fiid, int... expected) {
+		Assert.assertEquals(expected.length / 2, ti.getNumberOfElements(fiid));
+		long first = ti.getFirstElement(fiid);
+		for (int i = 0; i < expected.length / 2; i++) {
+			Assert.assertEquals(expected[i * 2], ti.getStart(first + i));
+			Assert.assertEquals(expected[i * 2 + 1], ti.getEnd(first + i));
+		}
+	}
+
+	@Test
+	public void testAddAndRetrieve() {
+		ti = new TagIndex(dir, true, true);
+		ti.addDocument(0, new int[] { 0, 5, 5, 9, 9, 12 }, 3);
+		ti.addDocument(2, new int[] { 3, 4 }, 1);
+		reopen();
+
+		assertElements(0, 0, 5, 5, 9, 9, 12);
+		Assert.assertFalse(ti.hasDocument(1));
+		Assert.assertEquals(0, ti.getNumberOfElements(1));
+		assertElements(2, 3, 4);
+		Assert.assertFalse(ti.hasDocument(3));
+		Assert.assertTrue(ti.isEndPointSorted());
+	}
+
+	@Test
+	public void testNestedElementsAreSorted() {
+		ti = new TagIndex(dir, true, true);
+		// Elements in the order their end tags were found
+		ti.addDocument(0, new int[] { 2, 3, 4, 6, 0, 10, 0, 1 }, 4);
+		reopen();
+
+		assertElements(0, 0, 1, 0, 10, 2, 3, 4, 6);
+		Assert.assertFalse(ti.isEndPointSorted());
+	}
+
+	@Test
+	public void testAppendAndReplace() {
+		ti = new TagIndex(dir, true, true);
+		ti.addDocument(0, new int[] { 0, 5 }, 1);
+		ti.addDocument(1, new int[] { 0, 7 }, 1);
+		ti.close();
+
+		// Open existing tag index to add more documents
+		ti = new TagIndex(dir, true, false);
+		ti.addDocument(1, new int[] { 0, 2, 2, 4 }, 2); // re-used fiid
+		ti.addDocument(2, new int[0], 0);
+		reopen();
+
+		assertElements(0, 0, 5);
+		assertElements(1, 0, 2, 2, 4);
+		Assert.assertTrue(ti.hasDocument(2));
+		Assert.assertEquals(0, ti.getNumberOfElements(2));
+	}
+
+}
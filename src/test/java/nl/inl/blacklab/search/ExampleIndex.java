@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import nl.inl.blacklab.example.DocIndexerExample;
+import nl.inl.blacklab.index.IndexListenerDevNull;
+import nl.inl.blacklab.index.Indexer;
+import nl.inl.blacklab.queryParser.corpusql.CorpusQueryLanguageParser;
+import nl.inl.blacklab.queryParser.corpusql.ParseException;
+import nl.inl.util.StringUtil;
+
+/**
+ * A small test index in a temporary directory, with its own Searcher.
+ *
+ * Tests that change Searcher settings use their own instance, so they
+ * don't affect other tests.
+ */
+class ExampleIndex implements Closeable {
+
+	/**
+	 * Some test XML data to index.
+	 */
+	static String[] testData = {
+		"<doc><s><entity><w l='the'   p='art' >The</w> "
+		+ "<w l='quick' p='adj'>quick</w> "
+		+ "<w l='brown' p='adj'>brown</w> "
+		+ "<w l='fox'   p='nou'>fox</w></entity> "
+		+ "<w l='jump'  p='vrb' >jumps</w> "
+		+ "<w l='over'  p='pre' >over</w> "
+		+ "<entity><w l='the'   p='art' >the</w> "
+		+ "<w l='lazy'  p='adj'>lazy</w> "
+		+ "<w l='dog'   p='nou'>dog</w></entity>" + ".</s></doc>",
+
+		"<doc> <s><w l='may' p='vrb'>May</w> "
+		+ "<entity><w l='the' p='art'>the</w> "
+		+ "<w l='force' p='nou'>Force</w></entity> "
+		+ "<w l='be' p='vrb'>be</w> "
+		+ "<w l='with' p='pre'>with</w> "
+		+ "<w l='you' p='pro'>you</w>" + ".</s></doc>",
+
+		"<doc> <s><w l='to' p='pre'>To</w> "
+		+ "<w l='find' p='vrb'>find</w> "
+		+ "<w l='or' p='con'>or</w> "
+		+ "<w l='be' p='adv'>not</w> "
+		+ "<w l='to' p='pre'>to</w> "
+		+ "<w l='find' p='vrb'>find</w>.</s>"
+		+ "<s><w l='that' p='pro'>That</w> "
+		+ "<w l='be' p='vrb'>is</w> "
+		+ "<w l='the' p='art'>the</w> "
+		+ "<w l='question' p='nou'>question</w>."
+		+ "</s></doc>",
+	};
+
+	/** Where the index is */
+	private File indexDir;
+
+	/** Searcher for the index */
+	private Searcher searcher;
+
+	/**
+	 * Index the test data and open the index.
+	 *
+	 * @param name name of the directory to create in the temp dir
+	 * @param indexerParam indexer parameters (see Indexer.setIndexerParam()), or null for none
+	 * @throws Exception if indexing fails
+	 */
+	ExampleIndex(String name, Map<String, String> indexerParam) throws Exception {
+		// Get a temporary directory for our test index
+		indexDir = new File(System.getProperty("java.io.tmpdir"), name);
+		if (indexDir.exists()) {
+			// Delete the old example dir
+			// (NOTE: we also try to do this on exit but it may fail due to
+			// memory mapping (on Windows))
+			deleteTree(indexDir);
+		}
+
+		// Instantiate the BlackLab indexer, supplying our DocIndexer class
+		Indexer indexer = new Indexer(indexDir, true, DocIndexerExample.class);
+		indexer.setListener(new IndexListenerDevNull()); // no output
+		if (indexerParam != null)
+			indexer.setIndexerParam(indexerParam);
+		try {
+			// Index each of our test "documents".
+			for (int i = 0; i < testData.length; i++) {
+				indexer.index("test" + (i + 1), new StringReader(testData[i]));
+			}
+		} finally {
+			// Finalize and close the index.
+			indexer.close();
+		}
+
+		// Create the BlackLab searcher object
+		searcher = Searcher.open(indexDir);
+		searcher.setDefaultContextSize(1);
+	}
+
+	/**
+	 * Get the searcher for this index.
+	 * @return the searcher
+	 */
+	Searcher getSearcher() {
+		return searcher;
+	}
+
+	/**
+	 * Find a Corpus Query Language query and return the concordances.
+	 *
+	 * @param query
+	 *            the query to find
+	 * @return the concordances (see getConcordances())
+	 * @throws ParseException
+	 */
+	List<String> find(String query) throws ParseException {
+		// Parse query using the CorpusQL parser
+		TextPattern tp = CorpusQueryLanguageParser.parse(query);
+
+		// Execute the search
+		Hits hits = searcher.find(tp);
+		return getConcordances(hits);
+	}
+
+	/**
+	 * Return a list of concordance strings.
+	 *
+	 * @param hits
+	 *            the hits to display
+	 * @return the concordances, e.g. "quick [brown fox] jumps"
+	 */
+	static List<String> getConcordances(Hits hits) {
+		List<String> results = new ArrayList<>();
+		for (Hit hit : hits) {
+			Kwic kwic = hits.getKwic(hit);
+			String left = StringUtil.join(kwic.getLeft("word"), " ");
+			String match = StringUtil.join(kwic.getMatch("word"), " ");
+			String right = StringUtil.join(kwic.getRight("word"), " ");
+			String conc = left + " [" + match + "] " + right;
+			results.add(conc.trim());
+		}
+		return results;
+	}
+
+	/**
+	 * Close the searcher and delete the index.
+	 */
+	@Override
+	public void close() {
+		if (searcher != null)
+			searcher.close();
+		deleteTree(indexDir);
+	}
+
+	private static void deleteTree(File dir) {
+		for (File f: dir.listFiles()) {
+			if (f.isFile())
+				f.delete();
+			else if (f.isDirectory())
+				deleteTree(f);
+		}
+		dir.delete();
+	}
+
+}
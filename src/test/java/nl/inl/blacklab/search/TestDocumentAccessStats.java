@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nl.inl.blacklab.queryParser.corpusql.CorpusQueryLanguageParser;
+import nl.inl.blacklab.queryParser.corpusql.ParseException;
+import nl.inl.util.AccessStats;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestDocumentAccessStats {
+
+	/** The test index */
+	private static ExampleIndex testIndex;
+
+	private static Searcher searcher;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		testIndex = new ExampleIndex("BlackLabExampleAccessStats", null);
+		searcher = testIndex.getSearcher();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		if (testIndex != null)
+			testIndex.close();
+	}
+
+	@Test
+	public void testDocumentAccessStats() throws ParseException {
+		List<Integer> docs = new ArrayList<>();
+		for (Hit hit: searcher.find(CorpusQueryLanguageParser.parse(" 'the' "))) {
+			if (!docs.contains(hit.doc))
+				docs.add(hit.doc);
+		}
+		AccessStats stats = new AccessStats();
+		AccessStats.set(stats);
+		try {
+			searcher.document(docs.get(1));
+			searcher.document(docs.get(1));
+			searcher.document(docs.get(0));
+
+			// Documents are recorded by their forward index id and translated back to Lucene ids
+			IndexWarmer warmer = new IndexWarmer(searcher);
+			List<Integer> hottest = warmer.getHottestDocuments(stats, 10);
+			Assert.assertEquals(Arrays.asList(docs.get(1), docs.get(0)), hottest);
+
+			// Warming up doesn't count as accessing the data
+			Assert.assertTrue(warmer.warmDocuments(hottest, null, true) > 0);
+			Assert.assertEquals(3, stats.getTracker(searcher.getDocumentAccessCategory()).getTotal());
+			Assert.assertEquals(1, stats.getCategories().size());
+		} finally {
+			AccessStats.set(null);
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.util.concurrent.ForkJoinPool;
+
+import nl.inl.blacklab.queryParser.corpusql.CorpusQueryLanguageParser;
+import nl.inl.blacklab.queryParser.corpusql.ParseException;
+
+import org.apache.lucene.search.spans.SpanQuery;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestHitCount {
+
+	/** The test index */
+	private static ExampleIndex testIndex;
+
+	private static Searcher searcher;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		testIndex = new ExampleIndex("BlackLabExampleCount", null);
+		searcher = testIndex.getSearcher();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		if (testIndex != null)
+			testIndex.close();
+	}
+
+	@Test
+	public void testCount() throws ParseException {
+		String[] queries = { " 'the' ", " [pos='nou'] ", " 'b.*' within <entity/> ", " 'nothing' " };
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for (String query: queries) {
+				TextPattern tp = CorpusQueryLanguageParser.parse(query);
+				Hits hits = searcher.find(tp);
+				HitCount count = searcher.count(tp);
+				Assert.assertEquals(hits.totalSize(), count.totalSize());
+				Assert.assertEquals(hits.totalNumberOfDocs(), count.totalNumberOfDocs());
+				Assert.assertFalse(count.maxHitsCounted());
+
+				HitCount parallel = searcher.count(searcher.createSpanQuery(tp), -1, pool);
+				Assert.assertEquals(hits.totalSize(), parallel.totalSize());
+				Assert.assertEquals(hits.totalNumberOfDocs(), parallel.totalNumberOfDocs());
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		// Stop counting at the maximum
+		SpanQuery q = searcher.createSpanQuery(CorpusQueryLanguageParser.parse(" 'the' "));
+		HitCount count = searcher.count(q, 3, null);
+		Assert.assertEquals(3, count.totalSize());
+		Assert.assertTrue(count.maxHitsCounted());
+		Assert.assertFalse(searcher.count(q, 4, null).maxHitsCounted());
+	}
+
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import nl.inl.blacklab.queryParser.corpusql.CorpusQueryLanguageParser;
+import nl.inl.blacklab.queryParser.corpusql.ParseException;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestHitCountEstimate {
+
+	/** The test index */
+	private static ExampleIndex testIndex;
+
+	private static Searcher searcher;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		testIndex = new ExampleIndex("BlackLabExampleEstimate", null);
+		searcher = testIndex.getSearcher();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		if (testIndex != null)
+			testIndex.close();
+	}
+
+	@Test
+	public void testEstimateCount() throws ParseException, InterruptedException {
+		TextPattern tp = CorpusQueryLanguageParser.parse(" 'the' ");
+		HitCount count = searcher.count(tp);
+
+		// Counting everything gives the exact count
+		HitCountEstimate estimate = searcher.estimateCount(tp, null, 1.0, 1);
+		Assert.assertTrue(estimate.isExact());
+		Assert.assertEquals(count.totalSize(), estimate.estimatedTotalSize());
+		Assert.assertEquals(count.totalNumberOfDocs(), estimate.estimatedTotalNumberOfDocs());
+		Assert.assertEquals(0.0, estimate.marginOfErrorHits(), 0.0);
+
+		// Counting part of the documents, then refining in the background
+		estimate = searcher.estimateCount(tp, null, 0.5, 1);
+		Assert.assertTrue(estimate.getFractionCounted() >= 0.5);
+		Assert.assertTrue(estimate.countSoFarHitsCounted() <= count.totalSize());
+		estimate.startRefining();
+		while (estimate.isRefining())
+			Thread.sleep(1);
+		Assert.assertTrue(estimate.isExact());
+		Assert.assertEquals(count.totalSize(), estimate.countSoFarHitsCounted());
+		Assert.assertEquals(count.totalNumberOfDocs(), estimate.countSoFarDocsCounted());
+	}
+
+}
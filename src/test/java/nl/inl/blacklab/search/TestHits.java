@@ -15,11 +15,18 @@
  *******************************************************************************/
 package nl.inl.blacklab.search;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.lucene.search.spans.Spans;
 import org.junit.Assert;
 import org.junit.Test;
 
+import nl.inl.blacklab.MockSpanQuery;
 import nl.inl.blacklab.MockSpans;
+import nl.inl.util.SearchScheduler;
+import nl.inl.util.ThreadPriority.Level;
 
 public class TestHits {
 
@@ -42,4 +49,49 @@ public class TestHits {
 		}
 	}
 
+	@Test
+	public void testScheduledTasksSharingHits() throws Exception {
+		int n = 1000;
+		int[] doc = new int[n];
+		int[] start = new int[n];
+		int[] end = new int[n];
+		for (int i = 0; i < n; i++) {
+			start[i] = i;
+			end[i] = i + 1;
+		}
+		final Hits hits = new Hits(null, "contents%word", new MockSpanQuery(doc, start, end));
+
+		SearchScheduler scheduler = new SearchScheduler(1, 1);
+		try {
+			// A low priority task reads the hits while holding their lock (like
+			// sort() does)...
+			final CountDownLatch lowStarted = new CountDownLatch(1);
+			final CountDownLatch highSubmitted = new CountDownLatch(1);
+			SearchScheduler.Task<Integer> low = scheduler.submit("a", Level.RUNNING_LOW_PRIO, new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					synchronized (hits) {
+						lowStarted.countDown();
+						highSubmitted.await(10, TimeUnit.SECONDS);
+						return hits.size();
+					}
+				}
+			});
+			Assert.assertTrue(lowStarted.await(10, TimeUnit.SECONDS));
+
+			// ...so it shouldn't yield to a normal priority task that needs them too
+			SearchScheduler.Task<Integer> high = scheduler.submit("b", new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return hits.size();
+				}
+			});
+			highSubmitted.countDown();
+			Assert.assertEquals(n, (int) low.get(10, TimeUnit.SECONDS));
+			Assert.assertEquals(n, (int) high.get(10, TimeUnit.SECONDS));
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
 }
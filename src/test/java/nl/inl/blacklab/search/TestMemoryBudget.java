@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import nl.inl.blacklab.MockSpanQuery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMemoryBudget {
+
+	/** A consumer with a fixed amount of memory, plus some cached memory it can release */
+	private static class MockConsumer implements MemoryConsumer {
+		long fixed;
+
+		long cached;
+
+		MockConsumer(long fixed, long cached) {
+			this.fixed = fixed;
+			this.cached = cached;
+		}
+
+		@Override
+		public long estimatedMemoryUsage() {
+			return fixed + cached;
+		}
+
+		@Override
+		public void releaseCachedMemory() {
+			cached = 0;
+		}
+	}
+
+	@Test
+	public void testUsage() {
+		MemoryBudget global = new MemoryBudget(-1);
+		MemoryBudget query = new MemoryBudget(1000, global);
+		MockConsumer a = new MockConsumer(100, 200);
+		MockConsumer b = new MockConsumer(500, 0);
+		query.register(a, "a");
+		global.register(b, "b");
+		Assert.assertEquals(300, query.estimatedMemoryUsage());
+		Assert.assertEquals(800, global.estimatedMemoryUsage());
+		Assert.assertEquals(Arrays.asList("500\tb", "300\ta"), global.getUsageReport());
+		Assert.assertFalse(query.isExceeded());
+
+		query.unregister(a);
+		Assert.assertEquals(0, query.size());
+		Assert.assertEquals(500, global.estimatedMemoryUsage());
+	}
+
+	@Test
+	public void testReclaim() {
+		MemoryBudget global = new MemoryBudget(1000);
+		MemoryBudget query = new MemoryBudget(-1, global);
+		MockConsumer a = new MockConsumer(400, 400);
+		MockConsumer b = new MockConsumer(300, 100);
+		query.register(a, "a");
+		query.register(b, "b");
+
+		// Exceeding the global budget also exceeds the per-query budget
+		Assert.assertTrue(query.isExceeded());
+
+		// Releasing the largest consumer's cache is enough
+		Assert.assertTrue(query.reclaim());
+		Assert.assertEquals(0, a.cached);
+		Assert.assertEquals(100, b.cached);
+
+		// If releasing caches doesn't help, reclaim fails
+		b.fixed = 700;
+		Assert.assertFalse(query.reclaim());
+		Assert.assertEquals(0, b.cached);
+	}
+
+	/** Make a Hits object that retrieves the specified number of hits */
+	private static Hits hits(int n) {
+		int[] doc = new int[n];
+		int[] start = new int[n];
+		int[] end = new int[n];
+		for (int i = 0; i < n; i++) {
+			start[i] = i;
+			end[i] = i + 1;
+		}
+		return new Hits(null, "contents%word", new MockSpanQuery(doc, start, end));
+	}
+
+	@Test
+	public void testReclaimFromTwoThreads() throws Exception {
+		MemoryBudget global = new MemoryBudget(1);
+		final Hits[] hits = { hits(2000), hits(2000) };
+		for (Hits h: hits)
+			h.setMemoryBudget(new MemoryBudget(-1, global));
+
+		// The largest consumer makes sure both threads are reclaiming memory at the same time,
+		// so each releases the other's cache while the other is retrieving hits
+		final CyclicBarrier bothReclaiming = new CyclicBarrier(2);
+		MemoryConsumer large = new MemoryConsumer() {
+			@Override
+			public long estimatedMemoryUsage() {
+				return Long.MAX_VALUE / 2;
+			}
+
+			@Override
+			public void releaseCachedMemory() {
+				try {
+					bothReclaiming.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		global.register(large, "large");
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<Future<Integer>> sizes = new ArrayList<>();
+			for (final Hits h: hits) {
+				sizes.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return h.size();
+					}
+				}));
+			}
+			for (int i = 0; i < hits.length; i++) {
+				// Can't get within budget, so both stop retrieving at the first check
+				Assert.assertEquals(1000, (int) sizes.get(i).get(10, TimeUnit.SECONDS));
+				Assert.assertTrue(hits[i].memoryBudgetExceeded());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Assert.assertEquals(2, global.getNumberOfReclaims());
+	}
+
+	@Test
+	public void testSharedHitsCountedOnce() {
+		MemoryBudget budget = new MemoryBudget(-1);
+		Hits hits = hits(100);
+		hits.setMemoryBudget(budget);
+		Assert.assertEquals(100, hits.size());
+		long original = hits.estimatedMemoryUsage();
+		Assert.assertTrue(original > 0);
+
+		// A copy shares the hits list, so only the original counts it
+		Hits copy = new Hits(hits);
+		Assert.assertEquals(0, copy.estimatedMemoryUsage());
+		Assert.assertEquals(original, budget.estimatedMemoryUsage());
+
+		// A client's copy has its own list, but shares the hits themselves
+		Hits clientCopy = hits.copyForClient();
+		Assert.assertEquals(100, clientCopy.size());
+		Assert.assertTrue(clientCopy.estimatedMemoryUsage() > 0);
+		Assert.assertTrue(clientCopy.estimatedMemoryUsage() < original);
+	}
+
+}
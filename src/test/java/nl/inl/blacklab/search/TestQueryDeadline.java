@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.util.List;
+
+import nl.inl.blacklab.queryParser.corpusql.CorpusQueryLanguageParser;
+import nl.inl.blacklab.queryParser.corpusql.ParseException;
+import nl.inl.blacklab.search.grouping.HitGroups;
+import nl.inl.blacklab.search.grouping.HitPropertyHitText;
+import nl.inl.blacklab.search.grouping.HitPropertyLeftContext;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestQueryDeadline {
+
+	/** The test index */
+	private static ExampleIndex testIndex;
+
+	private static Searcher searcher;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		testIndex = new ExampleIndex("BlackLabExampleDeadline", null);
+		searcher = testIndex.getSearcher();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		if (testIndex != null)
+			testIndex.close();
+	}
+
+	@Test
+	public void testDeadline() throws ParseException {
+		TextPattern tp = CorpusQueryLanguageParser.parse(" 'the' ");
+		List<String> all = ExampleIndex.getConcordances(searcher.find(tp));
+
+		// A deadline that doesn't expire doesn't change the results
+		Hits hits = searcher.find(tp);
+		hits.setDeadline(new QueryDeadline(60000));
+		Assert.assertEquals(all, ExampleIndex.getConcordances(hits));
+		Assert.assertFalse(hits.deadlineExpired());
+
+		// A cancelled query stops early and flags its results as partial
+		QueryDeadline deadline = new QueryDeadline();
+		deadline.cancel();
+		hits = searcher.find(tp);
+		hits.setDeadline(deadline);
+		Assert.assertTrue(hits.size() < all.size());
+		Assert.assertTrue(hits.deadlineExpired());
+
+		// Operations on hits cut off during retrieval work on the hits we have
+		deadline = new QueryDeadline();
+		hits = searcher.find(tp);
+		hits.setDeadline(deadline);
+		hits.get(0);
+		deadline.cancel();
+		Assert.assertEquals(1, hits.size());
+		Assert.assertTrue(hits.deadlineExpired());
+		hits.sort(new HitPropertyLeftContext(hits));
+		Assert.assertFalse(hits.lastOperationCutOff());
+		HitGroups groups = hits.groupedBy(new HitPropertyHitText(hits));
+		Assert.assertEquals(1, groups.numberOfGroups());
+		Assert.assertFalse(groups.isPartial());
+		Assert.assertEquals(all.subList(0, 1), ExampleIndex.getConcordances(hits));
+
+		// If all hits were retrieved, an operation can be cut off instead
+		deadline = new QueryDeadline();
+		hits = searcher.find(tp);
+		hits.setDeadline(deadline);
+		Assert.assertEquals(all.size(), hits.size());
+		deadline.cancel();
+		Assert.assertFalse(hits.deadlineExpired());
+		hits.sort(new HitPropertyLeftContext(hits));
+		Assert.assertTrue(hits.lastOperationCutOff());
+		Assert.assertEquals(all, ExampleIndex.getConcordances(hits)); // unsorted, but we can still show them
+		groups = hits.groupedBy(new HitPropertyHitText(hits));
+		Assert.assertTrue(groups.isPartial());
+	}
+
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.util.List;
+
+import nl.inl.blacklab.queryParser.corpusql.CorpusQueryLanguageParser;
+import nl.inl.blacklab.queryParser.corpusql.ParseException;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestSample {
+
+	/** The test index */
+	private static ExampleIndex testIndex;
+
+	private static Searcher searcher;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		testIndex = new ExampleIndex("BlackLabExampleSample", null);
+		searcher = testIndex.getSearcher();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		if (testIndex != null)
+			testIndex.close();
+	}
+
+	@Test
+	public void testSample() throws ParseException {
+		TextPattern tp = CorpusQueryLanguageParser.parse(" 'the' ");
+		List<String> all = ExampleIndex.getConcordances(searcher.find(tp));
+
+		// Asking for more hits than there are gives us all hits
+		Assert.assertEquals(all, ExampleIndex.getConcordances(searcher.sample(tp, null, 10, 1)));
+
+		// A smaller sample is a subset of the hits, and reproducible
+		List<String> sample = ExampleIndex.getConcordances(searcher.sample(tp, null, 2, 42));
+		Assert.assertEquals(2, sample.size());
+		Assert.assertTrue(all.containsAll(sample));
+		Assert.assertEquals(sample, ExampleIndex.getConcordances(searcher.sample(tp, null, 2, 42)));
+	}
+
+}
@@ -1,18 +1,28 @@
 package nl.inl.blacklab.search;
 
-import java.io.File;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
-import nl.inl.blacklab.example.DocIndexerExample;
-import nl.inl.blacklab.index.IndexListenerDevNull;
-import nl.inl.blacklab.index.Indexer;
 import nl.inl.blacklab.queryParser.corpusql.CorpusQueryLanguageParser;
 import nl.inl.blacklab.queryParser.corpusql.ParseException;
-import nl.inl.util.StringUtil;
-
+import nl.inl.blacklab.search.grouping.HitPropertyDocumentId;
+import nl.inl.blacklab.search.grouping.HitPropertyHitText;
+import nl.inl.blacklab.search.lucene.QueryPlan;
+import nl.inl.blacklab.search.lucene.QueryProfileNode;
+import nl.inl.blacklab.search.lucene.SpansCache;
+import nl.inl.blacklab.search.lucene.TermExpansionCache;
+import nl.inl.blacklab.search.sequences.SpanQueryForwardIndexConstraints;
+import nl.inl.util.SearchScheduler;
+import nl.inl.util.ThreadPriority.Level;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.LRUQueryCache;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.TermQuery;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -31,87 +41,19 @@ public class TestSearches {
 	 */
 	List<String> expected;
 
-	/**
-	 * Some test XML data to index.
-	 */
-	static String[] testData = {
-		"<doc><s><entity><w l='the'   p='art' >The</w> "
-		+ "<w l='quick' p='adj'>quick</w> "
-		+ "<w l='brown' p='adj'>brown</w> "
-		+ "<w l='fox'   p='nou'>fox</w></entity> "
-		+ "<w l='jump'  p='vrb' >jumps</w> "
-		+ "<w l='over'  p='pre' >over</w> "
-		+ "<entity><w l='the'   p='art' >the</w> "
-		+ "<w l='lazy'  p='adj'>lazy</w> "
-		+ "<w l='dog'   p='nou'>dog</w></entity>" + ".</s></doc>",
-
-		"<doc> <s><w l='may' p='vrb'>May</w> "
-		+ "<entity><w l='the' p='art'>the</w> "
-		+ "<w l='force' p='nou'>Force</w></entity> "
-		+ "<w l='be' p='vrb'>be</w> "
-		+ "<w l='with' p='pre'>with</w> "
-		+ "<w l='you' p='pro'>you</w>" + ".</s></doc>",
-
-		"<doc> <s><w l='to' p='pre'>To</w> "
-		+ "<w l='find' p='vrb'>find</w> "
-		+ "<w l='or' p='con'>or</w> "
-		+ "<w l='be' p='adv'>not</w> "
-		+ "<w l='to' p='pre'>to</w> "
-		+ "<w l='find' p='vrb'>find</w>.</s>"
-		+ "<s><w l='that' p='pro'>That</w> "
-		+ "<w l='be' p='vrb'>is</w> "
-		+ "<w l='the' p='art'>the</w> "
-		+ "<w l='question' p='nou'>question</w>."
-		+ "</s></doc>",
-	};
-
-	private static File indexDir;
+	/** The test index */
+	private static ExampleIndex testIndex;
 
 	@BeforeClass
 	public static void setUp() throws Exception {
-		// Get a temporary directory for our test index
-		indexDir = new File(System.getProperty("java.io.tmpdir"),
-				"BlackLabExample");
-		if (indexDir.exists()) {
-			// Delete the old example dir
-			// (NOTE: we also try to do this on exit but it may fail due to
-			// memory mapping (on Windows))
-			deleteTree(indexDir);
-		}
-
-		// Instantiate the BlackLab indexer, supplying our DocIndexer class
-		Indexer indexer = new Indexer(indexDir, true, DocIndexerExample.class);
-		indexer.setListener(new IndexListenerDevNull()); // no output
-		try {
-			// Index each of our test "documents".
-			for (int i = 0; i < testData.length; i++) {
-				indexer.index("test" + (i + 1), new StringReader(testData[i]));
-			}
-		} finally {
-			// Finalize and close the index.
-			indexer.close();
-		}
-
-		// Create the BlackLab searcher object
-		searcher = Searcher.open(indexDir);
-		searcher.setDefaultContextSize(1);
+		testIndex = new ExampleIndex("BlackLabExample", null);
+		searcher = testIndex.getSearcher();
 	}
 
 	@AfterClass
 	public static void tearDown() {
-		if (searcher != null)
-			searcher.close();
-		deleteTree(indexDir);
-	}
-
-	private static void deleteTree(File dir) {
-		for (File f: dir.listFiles()) {
-			if (f.isFile())
-				f.delete();
-			else if (f.isDirectory())
-				deleteTree(f);
-		}
-		dir.delete();
+		if (testIndex != null)
+			testIndex.close();
 	}
 
 	/**
@@ -130,27 +72,7 @@ public class TestSearches {
 		Hits hits = searcher.find(tp);
 
 		//hits.sort(new HitPropertyHitText(hits, "contents"));
-		return getConcordances(hits);
-	}
-
-	/**
-	 * Return a list of concordance strings.
-	 *
-	 * @param hits
-	 *            the hits to display
-	 * @return
-	 */
-	static List<String> getConcordances(Hits hits) {
-		List<String> results = new ArrayList<>();
-		for (Hit hit : hits) {
-			Kwic kwic = hits.getKwic(hit);
-			String left = StringUtil.join(kwic.getLeft("word"), " ");
-			String match = StringUtil.join(kwic.getMatch("word"), " ");
-			String right = StringUtil.join(kwic.getRight("word"), " ");
-			String conc = left + " [" + match + "] " + right;
-			results.add(conc.trim());
-		}
-		return results;
+		return ExampleIndex.getConcordances(hits);
 	}
 
 	@Test
@@ -308,4 +230,294 @@ public class TestSearches {
 		Assert.assertEquals(expected, find(" 'dog' </s> "));
 	}
 
+	@Test
+	public void testSpansCache() throws ParseException {
+		String[] queries = {
+			" 'b.*' ",
+			" 'b.*' 'f.*' ",
+			" 'the' [lemma='b.*|f.*'] ",
+			" 'b.*' within <entity/> "
+		};
+		List<List<String>> uncached = new ArrayList<>();
+		for (String query: queries) {
+			uncached.add(find(query));
+		}
+		SpansCache cache = new SpansCache(10000000, 100000);
+		searcher.setSpansCache(cache);
+		try {
+			// First time: not cached yet; second time: cached; third time: from cache
+			for (int i = 0; i < 3; i++) {
+				for (int j = 0; j < queries.length; j++) {
+					Assert.assertEquals(uncached.get(j), find(queries[j]));
+				}
+			}
+			Assert.assertTrue(cache.size() > 0);
+			Assert.assertTrue(cache.getNumberOfHits() > 0);
+		} finally {
+			searcher.setSpansCache(null);
+		}
+	}
+
+	@Test
+	public void testSpansCacheTooLarge() throws ParseException {
+		List<String> uncached = find(" 'b.*' ");
+		SpansCache cache = new SpansCache(10000000, 1);
+		cache.setMinRequestsBeforeCaching(1);
+		searcher.setSpansCache(cache);
+		try {
+			// Too many hits to cache; we should only find that out once
+			Assert.assertEquals(uncached, find(" 'b.*' "));
+			long tooLarge = cache.getNumberOfTooLarge();
+			Assert.assertTrue(tooLarge > 0);
+			Assert.assertEquals(uncached, find(" 'b.*' "));
+			Assert.assertEquals(tooLarge, cache.getNumberOfTooLarge());
+			Assert.assertEquals(0, cache.size());
+		} finally {
+			searcher.setSpansCache(null);
+		}
+	}
+
+	@Test
+	public void testFilterCache() throws ParseException {
+		TextPattern tp = CorpusQueryLanguageParser.parse(" 'the' ");
+		Filter filter = new QueryWrapperFilter(new TermQuery(new Term("fromInputFile", "test3")));
+		LRUQueryCache defaultCache = searcher.getFilterCache();
+		searcher.setFilterCache(null);
+		List<String> uncached;
+		try {
+			uncached = ExampleIndex.getConcordances(searcher.find(tp, filter));
+		} finally {
+			searcher.setFilterCache(defaultCache);
+		}
+		Assert.assertEquals(Arrays.asList("is [the] question"), uncached);
+
+		LRUQueryCache cache = new LRUQueryCache(10, 1000000);
+		searcher.setFilterCache(cache);
+		try {
+			// First time: filter evaluated and cached; second time: from cache
+			for (int i = 0; i < 2; i++) {
+				Assert.assertEquals(uncached, ExampleIndex.getConcordances(searcher.find(tp, filter)));
+			}
+			Assert.assertEquals(1, cache.getCacheCount());
+			Assert.assertTrue(cache.getHitCount() > 0);
+		} finally {
+			searcher.setFilterCache(defaultCache);
+		}
+	}
+
+	@Test
+	public void testTermExpansionCache() throws ParseException {
+		String[] queries = {
+			" 'b.*' ",
+			" 'b.*' 'f.*' ",
+			" [lemma='b.*|f.*'] 'the' ",
+			" 'qu*' "
+		};
+		TextPattern fuzzy = new TextPatternFuzzy("dog", 1);
+		TermExpansionCache defaultCache = searcher.getTermExpansionCache();
+		searcher.setTermExpansionCache(null);
+		List<List<String>> uncached = new ArrayList<>();
+		List<String> uncachedFuzzy;
+		try {
+			for (String query: queries) {
+				uncached.add(find(query));
+			}
+			uncachedFuzzy = ExampleIndex.getConcordances(searcher.find(fuzzy));
+		} finally {
+			searcher.setTermExpansionCache(defaultCache);
+		}
+		TermExpansionCache cache = new TermExpansionCache(100000, 1000);
+		searcher.setTermExpansionCache(cache);
+		try {
+			// First time: expanded and cached; second time: from cache
+			for (int i = 0; i < 2; i++) {
+				for (int j = 0; j < queries.length; j++) {
+					Assert.assertEquals(uncached.get(j), find(queries[j]));
+				}
+				Assert.assertEquals(uncachedFuzzy, ExampleIndex.getConcordances(searcher.find(fuzzy)));
+			}
+			Assert.assertTrue(cache.size() > 0);
+			Assert.assertTrue(cache.getNumberOfTerms() > 0);
+			Assert.assertTrue(cache.getNumberOfHits() > 0);
+		} finally {
+			searcher.setTermExpansionCache(defaultCache);
+		}
+	}
+
+	@Test
+	public void testGroupingInterrupted() throws Exception {
+		final Hits hits = searcher.find(CorpusQueryLanguageParser.parse(" 'the' "));
+		Assert.assertFalse(hits.groupedBy(new HitPropertyDocumentId(hits)).isPartial());
+
+		// If we're interrupted while yielding to the scheduler, the groups are flagged as partial
+		SearchScheduler scheduler = new SearchScheduler(1, 1);
+		try {
+			SearchScheduler.Task<Boolean> task = scheduler.submit("test", new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					SearchScheduler.getCurrentTask().setPriorityLevel(Level.PAUSED);
+					Thread.currentThread().interrupt();
+					return hits.groupedBy(new HitPropertyDocumentId(hits)).isPartial();
+				}
+			});
+			Assert.assertTrue(task.get(10, TimeUnit.SECONDS));
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testProfile() throws ParseException {
+		TextPattern tp = CorpusQueryLanguageParser.parse(" 'the' [pos='nou'] ");
+		List<String> expected = ExampleIndex.getConcordances(searcher.find(tp));
+
+		QueryProfile profile = searcher.profile(tp, null);
+		Assert.assertEquals(expected, ExampleIndex.getConcordances(profile.getHits()));
+
+		// The statistics have the shape of the query and count the hits produced
+		QueryProfileNode root = profile.getRoot();
+		Assert.assertEquals("sequence", root.getOperation());
+		Assert.assertEquals(2, root.getChildren().size());
+		Assert.assertEquals(expected.size(), root.getHits());
+		Assert.assertEquals(4, root.getChildren().get(0).getHits()); // 'the' occurs 4 times
+		Assert.assertTrue(root.getNanos() >= root.getSelfNanos());
+
+		// The planned query is profiled (the planner starts the sequence from 'you')
+		tp = CorpusQueryLanguageParser.parse(" [pos='vrb'] [pos='pre'] 'you' ");
+		profile = searcher.profile(tp, null);
+		Assert.assertEquals(1, profile.getHits().size());
+		Assert.assertEquals(3, profile.getRoot().getChildren().size());
+		String planned = profile.getRoot().getDescription();
+		searcher.setUseQueryPlanner(false);
+		try {
+			profile = searcher.profile(tp, null);
+			Assert.assertEquals(1, profile.getHits().size());
+			Assert.assertFalse(planned.equals(profile.getRoot().getDescription()));
+		} finally {
+			searcher.setUseQueryPlanner(true);
+		}
+	}
+
+	@Test
+	public void testSearchCache() throws ParseException {
+		SearchCache cache = new SearchCache(10000000, 10, -1);
+		searcher.setSearchCache(cache);
+		try {
+			Hits hits1 = searcher.find(CorpusQueryLanguageParser.parse(" 'the' "));
+			Hits hits2 = searcher.find(CorpusQueryLanguageParser.parse(" 'the' "));
+			Assert.assertEquals(1, cache.getNumberOfHits());
+			Assert.assertEquals(1, cache.getNumberOfMisses());
+			Assert.assertEquals(4, hits2.size());
+
+			// Each client gets its own copy, so changing one doesn't affect the other
+			Assert.assertNotSame(hits1, hits2);
+			Hit first = hits2.get(0);
+			hits1.sort(new HitPropertyDocumentId(hits1), true);
+			hits1.setContextSize(1);
+			Assert.assertEquals(first, hits2.get(0));
+			Assert.assertEquals(searcher.getDefaultContextSize(), hits2.getContextSize());
+
+			// Derived results are cached, but also copied
+			Hits sorted1 = cache.sortedBy(hits2, new HitPropertyDocumentId(hits2), true);
+			Hits sorted2 = cache.sortedBy(hits1, new HitPropertyDocumentId(hits1), true);
+			Assert.assertNotSame(sorted1, sorted2);
+			Assert.assertEquals(sorted1.get(0), sorted2.get(0));
+			Assert.assertEquals(hits1.get(0), sorted1.get(0));
+
+			Hits hits3 = searcher.find(CorpusQueryLanguageParser.parse(" 'fox' "));
+			Assert.assertNotSame(hits1, hits3);
+			Assert.assertEquals(2, cache.size());
+
+			// Clients read the cached hits as they need them, not all at once
+			cache.clear();
+			Hits lazy1 = searcher.find(CorpusQueryLanguageParser.parse(" 'the' "));
+			Assert.assertEquals(0, lazy1.countSoFarHitsRetrieved());
+			Assert.assertEquals(first, lazy1.get(0));
+			Assert.assertTrue(lazy1.countSoFarHitsRetrieved() < 4);
+			Assert.assertFalse(lazy1.doneFetchingHits());
+			Hits lazy2 = searcher.find(CorpusQueryLanguageParser.parse(" 'the' "));
+			Assert.assertEquals(lazy1.countSoFarHitsRetrieved(), lazy2.countSoFarHitsRetrieved());
+			Assert.assertEquals(4, lazy2.size());
+			Assert.assertTrue(lazy2.doneFetchingHits());
+			Assert.assertEquals(4, lazy1.size());
+			Assert.assertEquals(hits2.get(3), lazy1.get(3));
+		} finally {
+			searcher.setSearchCache(null);
+		}
+	}
+
+	@Test
+	public void testQueryPlanner() throws ParseException {
+		expected = Arrays.asList(
+				"Force [be with you]");
+		String query = " [pos='vrb'] [pos='pre'] 'you' ";
+		Assert.assertEquals(expected, find(query));
+
+		// The rarest clause should be the anchor
+		QueryPlan plan = searcher.getQueryPlan(CorpusQueryLanguageParser.parse(query));
+		Assert.assertEquals(1, plan.getEstimatedHits());
+		boolean foundAnchor = false;
+		for (String step: plan.getSteps()) {
+			if (step.contains("anchor clause 3, join order 1 (2 3)"))
+				foundAnchor = true;
+		}
+		Assert.assertTrue(plan.toString(), foundAnchor);
+
+		// Same results without the planner
+		searcher.setUseQueryPlanner(false);
+		try {
+			Assert.assertEquals(expected, find(query));
+		} finally {
+			searcher.setUseQueryPlanner(true);
+		}
+
+		// Multi-term clauses are expanded once, for both planning and searching
+		TermExpansionCache defaultCache = searcher.getTermExpansionCache();
+		TermExpansionCache cache = new TermExpansionCache(100000, 1000);
+		searcher.setTermExpansionCache(cache);
+		try {
+			Assert.assertEquals(Arrays.asList("quick [brown fox] jumps"), find(" 'b.*' 'fox' "));
+			Assert.assertEquals(cache.size(), cache.getNumberOfMisses());
+			Assert.assertTrue(cache.getNumberOfHits() > 0);
+		} finally {
+			searcher.setTermExpansionCache(defaultCache);
+		}
+	}
+
+	@Test
+	public void testForwardIndexMatching() throws ParseException {
+		// Not used unless enabled
+		double defaultThreshold = searcher.getForwardIndexMatchingThreshold();
+		searcher.setForwardIndexMatchingThreshold(2);
+		String query = " 'THE' 'force' ";
+		QueryPlan plan = searcher.getQueryPlan(CorpusQueryLanguageParser.parse(query));
+		Assert.assertFalse(plan.toString(), plan.getQuery() instanceof SpanQueryForwardIndexConstraints);
+
+		searcher.setUseForwardIndexMatching(true);
+		try {
+			expected = Arrays.asList(
+					"brown [fox jumps] over");
+			Assert.assertEquals(expected, find(" 'fox' [pos='vrb'] "));
+
+			expected = Arrays.asList(
+					"quick [brown fox] jumps");
+			Assert.assertEquals(expected, find(" [pos='a.*'] 'fox' "));
+
+			// Case-insensitive; uses the word forward index
+			expected = Arrays.asList(
+					"May [the Force] be");
+			Assert.assertEquals(expected, find(query));
+			plan = searcher.getQueryPlan(CorpusQueryLanguageParser.parse(query));
+			Assert.assertTrue(plan.toString(), plan.getQuery() instanceof SpanQueryForwardIndexConstraints);
+
+			// Planning the same query again gives an equal query (e.g. for use as a cache key)
+			QueryPlan plan2 = searcher.getQueryPlan(CorpusQueryLanguageParser.parse(query));
+			Assert.assertEquals(plan.getQuery(), plan2.getQuery());
+			Assert.assertEquals(plan.getQuery().hashCode(), plan2.getQuery().hashCode());
+		} finally {
+			searcher.setUseForwardIndexMatching(false);
+			searcher.setForwardIndexMatchingThreshold(defaultThreshold);
+		}
+	}
+
 }
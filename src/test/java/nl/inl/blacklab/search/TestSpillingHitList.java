@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSpillingHitList {
+
+	@Test
+	public void testSpillAndReadBack() {
+		SpillingHitList l = new SpillingHitList(null, 4);
+		try {
+			for (int i = 0; i < 10; i++) {
+				l.add(new Hit(i / 3, i, i + 1));
+			}
+			Assert.assertEquals(10, l.size());
+			Assert.assertEquals(8, l.numberSpilled());
+			for (int i = 9; i >= 0; i--) {
+				Assert.assertEquals(new Hit(i / 3, i, i + 1), l.get(i));
+			}
+		} finally {
+			l.close();
+		}
+		Assert.assertEquals(0, l.size());
+	}
+
+	@Test
+	public void testSharedUntilLastClose() {
+		SpillingHitList l = new SpillingHitList(null, 4);
+		for (int i = 0; i < 10; i++) {
+			l.add(new Hit(0, i, i + 1));
+		}
+		l.retain(); // e.g. a copy of the Hits object
+		l.close();
+		Assert.assertEquals(10, l.size()); // still in use by the copy
+		Assert.assertEquals(new Hit(0, 2, 3), l.get(2));
+		l.close();
+		Assert.assertEquals(0, l.size());
+		l.close(); // closing again is harmless
+	}
+
+	@Test
+	public void testLongSerializedValue() throws IOException {
+		// Serialized context values can be longer than writeUTF() supports
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < 100000; i++)
+			b.append((char)('a' + i % 26));
+		b.append("\u00e9\u4e2d");
+		String value = b.toString();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		HitsExternalSort.writeString(new DataOutputStream(bytes), value);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Assert.assertEquals(value, HitsExternalSort.readString(in));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testGetOutOfBounds() {
+		SpillingHitList l = new SpillingHitList(null, 4);
+		l.add(new Hit(0, 0, 1));
+		l.get(1);
+	}
+
+}
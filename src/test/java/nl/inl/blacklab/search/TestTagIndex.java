@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.inl.blacklab.queryParser.corpusql.ParseException;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestTagIndex {
+
+	/** The test index, with a tag index for sentences */
+	private static ExampleIndex testIndex;
+
+	private static Searcher searcher;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		Map<String, String> indexerParam = new HashMap<>();
+		indexerParam.put("tagIndex", "s"); // keep a tag index for sentences
+		testIndex = new ExampleIndex("BlackLabExampleTagIndex", indexerParam);
+		searcher = testIndex.getSearcher();
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		if (testIndex != null)
+			testIndex.close();
+	}
+
+	@Test
+	public void testTagIndex() throws ParseException {
+		Assert.assertNotNull(searcher.getTagIndex("contents", "s"));
+		Assert.assertNull(searcher.getTagIndex("contents", "entity"));
+
+		List<String> expected = Arrays.asList(
+				"[The] quick",
+				"over [the] lazy",
+				"May [the] Force",
+				"is [the] question");
+		Assert.assertEquals(expected, testIndex.find(" 'the' within <s/> "));
+
+		expected = Arrays.asList(
+				"[To find or not to find] That");
+		Assert.assertEquals(expected, testIndex.find(" <s/> containing 'not' "));
+	}
+
+	@Test
+	public void testSameResultsAsStartTags() throws ParseException {
+		String[] queries = {
+			" 'the' within <s/> ",
+			" <s/> containing 'find' ",
+			" 'fox' 'jumps' within <s/> ",
+			" <s/> containing 'dog' 'be' ",
+			" 'b.*' within <entity/> ",
+			" <entity/> containing 'b.*' "
+		};
+		for (String query: queries) {
+			searcher.setUseTagIndex(true);
+			List<String> fromTagIndex = testIndex.find(query);
+			searcher.setUseTagIndex(false);
+			Assert.assertEquals(query, testIndex.find(query), fromTagIndex);
+		}
+	}
+
+}
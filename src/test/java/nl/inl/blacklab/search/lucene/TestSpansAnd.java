@@ -21,6 +21,7 @@ import nl.inl.blacklab.MockSpans;
 import nl.inl.blacklab.TestUtil;
 
 import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.Spans;
 import org.junit.Assert;
 import org.junit.Test;
@@ -50,6 +51,27 @@ public class TestSpansAnd {
 		TestUtil.assertEquals(exp, getSpans());
 	}
 
+	@Test
+	public void testAndSpansTwoPhase() throws IOException {
+		SpansAnd spans = getSpans();
+		TwoPhaseIterator twoPhase = spans.asTwoPhaseIterator();
+		DocIdSetIterator approximation = twoPhase.approximation();
+
+		// Both clauses occur in docs 1-3; only check the documents we're interested in
+		Assert.assertEquals(1, approximation.nextDoc());
+		Assert.assertTrue(twoPhase.matches());
+		Assert.assertEquals(10, spans.nextStartPosition());
+		Assert.assertEquals(15, spans.endPosition());
+		Assert.assertEquals(Spans.NO_MORE_POSITIONS, spans.nextStartPosition());
+
+		// Doc 3 contains both clauses, but has no matches
+		Assert.assertEquals(3, approximation.advance(3));
+		Assert.assertEquals(3, spans.docID());
+		Assert.assertFalse(twoPhase.matches());
+		Assert.assertEquals(DocIdSetIterator.NO_MORE_DOCS, approximation.nextDoc());
+		Assert.assertEquals(DocIdSetIterator.NO_MORE_DOCS, spans.docID());
+	}
+
 	@Test
 	public void testAndSpansAdvance() throws IOException {
 		Spans exp = MockSpans.single(2, 10, 20);
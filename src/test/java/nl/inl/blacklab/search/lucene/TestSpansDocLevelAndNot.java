@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.blacklab.search.lucene;
+
+import java.io.IOException;
+
+import nl.inl.blacklab.MockSpans;
+import nl.inl.blacklab.TestUtil;
+
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.spans.Spans;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSpansDocLevelAndNot {
+	private static SpansDocLevelAndNot getSpans() {
+		Spans include = MockSpans.fromLists(
+			new int[] {  1,  1,  3,  5,  6 },
+			new int[] { 10, 20, 10, 10, 10 },
+			new int[] { 15, 25, 15, 15, 15 }
+		);
+		Spans exclude = MockSpans.fromLists(
+			new int[] {  2,  3,  5 },
+			new int[] { 30, 30, 30 },
+			new int[] { 35, 35, 35 }
+		);
+		return new SpansDocLevelAndNot(include, exclude);
+	}
+
+	@Test
+	public void testDocLevelAndNot() throws IOException {
+		Spans exp = MockSpans.fromLists(
+			new int[] {  1,  1,  6 },
+			new int[] { 10, 20, 10 },
+			new int[] { 15, 25, 15 }
+		);
+		TestUtil.assertEquals(exp, getSpans());
+	}
+
+	@Test
+	public void testDocLevelAndNotAdvance() throws IOException {
+		// Skipping lands the exclude spans before the include spans' document;
+		// the document must still be excluded
+		Spans exp = MockSpans.single(6, 10, 15);
+		SpansDocLevelAndNot spans = getSpans();
+		Assert.assertEquals(6, spans.advance(2));
+		TestUtil.assertEquals(exp, spans, true);
+	}
+
+	@Test
+	public void testDocLevelAndNotAdvanceBeyond() throws IOException {
+		SpansDocLevelAndNot spans = getSpans();
+		Assert.assertEquals(DocIdSetIterator.NO_MORE_DOCS, spans.advance(7));
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAccessStats {
+
+	@After
+	public void tearDown() {
+		AccessStats.set(null);
+		Utilities.removeBlackLabTestDirs();
+	}
+
+	@Test
+	public void testDisabled() {
+		Assert.assertFalse(AccessStats.isEnabled());
+		AccessStats.record("doc", 1); // should do nothing
+		AccessStats stats = new AccessStats();
+		AccessStats.set(stats);
+		Assert.assertTrue(AccessStats.isEnabled());
+		Assert.assertTrue(stats.getCategories().isEmpty());
+	}
+
+	@Test
+	public void testHottest() {
+		AccessStats stats = new AccessStats(1, 1024, 4, 2);
+		AccessStats.set(stats);
+		for (int i = 0; i < 5; i++)
+			AccessStats.record("doc", 3);
+		for (int i = 0; i < 3; i++)
+			AccessStats.record("doc", 1);
+		for (long key = 10; key < 20; key++)
+			AccessStats.record("doc", key);
+		AccessStats.record("fi:fi_contents%word", 7);
+
+		AccessStats.Tracker tracker = stats.getTracker("doc");
+		Assert.assertEquals(Arrays.asList(3L, 1L), tracker.getHottest(2));
+		Assert.assertEquals(5, tracker.estimate(3));
+		Assert.assertEquals(18, tracker.getTotal());
+		Assert.assertEquals(2, stats.getCategories().size());
+
+		stats.decay();
+		Assert.assertEquals(2, tracker.estimate(3));
+		Assert.assertEquals(Arrays.asList(3L, 1L), tracker.getHottest(2));
+	}
+
+	@Test
+	public void testSuppressed() {
+		AccessStats stats = new AccessStats();
+		AccessStats.set(stats);
+		AccessStats.setSuppressed(true);
+		try {
+			AccessStats.record("doc", 1);
+		} finally {
+			AccessStats.setSuppressed(false);
+		}
+		Assert.assertTrue(stats.getCategories().isEmpty());
+		AccessStats.record("doc", 1);
+		Assert.assertEquals(1, stats.getTracker("doc").getTotal());
+	}
+
+	@Test
+	public void testSampling() {
+		AccessStats stats = new AccessStats(4, 1024, 4, 10);
+		for (int i = 0; i < 4000; i++)
+			stats.recordAccess("doc", 1);
+		// Counts are scaled by the sample rate, so the estimate should be close to the actual count
+		long estimate = stats.getTracker("doc").estimate(1);
+		Assert.assertTrue("estimate " + estimate, estimate > 3000 && estimate < 5000);
+	}
+
+	@Test
+	public void testWriteRead() {
+		File dir = Utilities.createBlackLabTestDir("AccessStats");
+		File file = new File(dir, "stats.dat");
+		AccessStats stats = new AccessStats(1, 256, 2, 10);
+		stats.recordAccess("doc", 5);
+		stats.recordAccess("doc", 5);
+		stats.recordAccess("cs:cs_contents", 8);
+		stats.write(file);
+		stats.write(file); // overwriting should work too
+
+		AccessStats copy = AccessStats.read(file);
+		Assert.assertEquals(2, copy.getCategories().size());
+		Assert.assertEquals(2, copy.getTracker("doc").estimate(5));
+		Assert.assertEquals(Arrays.asList(5L), copy.getTracker("doc").getHottest(10));
+		Assert.assertEquals(Arrays.asList(8L), copy.getTracker("cs:cs_contents").getHottest(10));
+
+		Assert.assertTrue(AccessStats.read(new File(dir, "nonexistent.dat")).getCategories().isEmpty());
+	}
+
+	@Test
+	public void testCategoryPerIndex() throws Exception {
+		// Components with the same name in different indexes get different categories
+		File fi1 = new File("index1", "fi_contents%word");
+		File fi2 = new File("index2", "fi_contents%word");
+		Assert.assertFalse(AccessStats.category("fi", fi1).equals(AccessStats.category("fi", fi2)));
+		Assert.assertEquals("fi:" + fi1.getCanonicalPath(), AccessStats.category("fi", fi1));
+		Assert.assertEquals(AccessStats.category("fi", fi1),
+				AccessStats.category("fi", new File(new File("index1", "subdir"), "../fi_contents%word")));
+	}
+
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCountMinSketch {
+
+	@Test
+	public void testWidthRoundedUp() {
+		Assert.assertEquals(1024, new CountMinSketch(1000, 3).getWidth());
+		Assert.assertEquals(1, new CountMinSketch(1, 3).getWidth());
+	}
+
+	@Test
+	public void testEstimate() {
+		CountMinSketch sketch = new CountMinSketch(1024, 4);
+		for (long key = 0; key < 100; key++) {
+			sketch.add(key, key);
+		}
+		for (long key = 0; key < 100; key++) {
+			// Never lower than the actual count; with this few keys, usually exact
+			Assert.assertTrue(sketch.estimate(key) >= key);
+		}
+		Assert.assertEquals(4950, sketch.getTotal());
+		Assert.assertEquals(99, sketch.estimate(99));
+	}
+
+	@Test
+	public void testDecay() {
+		CountMinSketch sketch = new CountMinSketch(64, 2);
+		sketch.add(42, 10);
+		sketch.decay();
+		Assert.assertEquals(5, sketch.estimate(42));
+		Assert.assertEquals(5, sketch.getTotal());
+	}
+
+	@Test
+	public void testWriteRead() throws IOException {
+		CountMinSketch sketch = new CountMinSketch(64, 3);
+		sketch.add(1, 3);
+		sketch.add(2, 7);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		sketch.write(new DataOutputStream(bytes));
+		CountMinSketch copy = CountMinSketch.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		Assert.assertEquals(64, copy.getWidth());
+		Assert.assertEquals(3, copy.getDepth());
+		Assert.assertEquals(sketch.estimate(1), copy.estimate(1));
+		Assert.assertEquals(sketch.estimate(2), copy.estimate(2));
+		Assert.assertEquals(10, copy.getTotal());
+	}
+
+}
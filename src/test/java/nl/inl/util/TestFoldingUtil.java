@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestFoldingUtil {
+
+	private static final boolean[][] MODES = { { true, false }, { false, true }, { true, true } };
+
+	private static void assertSameAsSlow(String input) {
+		for (boolean[] mode: MODES) {
+			String expected = FoldingUtil.desensitizeSlow(input, mode[0], mode[1]);
+			Assert.assertEquals("Input: " + input, expected, FoldingUtil.desensitize(input, mode[0], mode[1]));
+		}
+	}
+
+	@Test
+	public void testSimple() {
+		Assert.assertEquals("he", FoldingUtil.desensitize("Hé", true, true));
+		Assert.assertEquals("He", FoldingUtil.desensitize("Hé", true, false));
+		Assert.assertEquals("hé", FoldingUtil.desensitize("Hé", false, true));
+		Assert.assertEquals("ecole", FoldingUtil.desensitize("École", true, true));
+		// Final sigma depends on context
+		Assert.assertEquals("\u03BF\u03B4\u03BF\u03C2", FoldingUtil.desensitize("\u039F\u0394\u039F\u03A3", true, true));
+	}
+
+	@Test
+	public void testInPlace() {
+		char[] buffer = "Çà Va".toCharArray();
+		int length = FoldingUtil.fold(buffer, buffer.length, true, true);
+		Assert.assertEquals("ca va", new String(buffer, 0, length));
+	}
+
+	@Test
+	public void testAllCharacters() {
+		for (int c = 0; c <= Character.MAX_VALUE; c++) {
+			if (Character.isSurrogate((char)c))
+				continue;
+			assertSameAsSlow(String.valueOf((char)c));
+		}
+	}
+
+	@Test
+	public void testRandomStrings() {
+		// Mix of ASCII, Latin, Greek, combining marks and other scripts
+		String chars = "aAzZiI \u00E9\u00C9\u00F1\u00DF\u0130\u0131\u03A3\u03C3\u0386\u0300\u0301\u0316\u0591\u05B4\u1E69\u00C5\u212B\uAC00\uFB2C\u1F82";
+		Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder b = new StringBuilder();
+			int n = random.nextInt(8);
+			for (int j = 0; j < n; j++) {
+				b.append(chars.charAt(random.nextInt(chars.length())));
+			}
+			assertSameAsSlow(b.toString());
+		}
+	}
+
+}
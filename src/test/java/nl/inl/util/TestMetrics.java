@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.util.SortedMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMetrics {
+
+	@After
+	public void tearDown() {
+		Metrics.setRegistry(null);
+	}
+
+	@Test
+	public void testDisabled() {
+		Assert.assertFalse(Metrics.isEnabled());
+		Metrics.counter("test.counter").inc();
+		Metrics.time("test.timer", System.nanoTime());
+		SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+		Metrics.setRegistry(registry);
+		Assert.assertTrue(Metrics.isEnabled());
+		Assert.assertTrue(registry.getValues().isEmpty());
+	}
+
+	@Test
+	public void testCounter() {
+		SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+		Metrics.setRegistry(registry);
+		Metrics.counter("test.counter").inc();
+		Metrics.counter("test.counter").inc(41);
+		Assert.assertEquals(42L, registry.getValues().get("test.counter"));
+		Assert.assertTrue(registry.dump().contains("test.counter 42\n"));
+		registry.reset();
+		Assert.assertTrue(registry.getValues().isEmpty());
+	}
+
+	@Test
+	public void testHistogram() {
+		SimpleMetricsRegistry.SimpleHistogram h = new SimpleMetricsRegistry.SimpleHistogram();
+		for (int i = 1; i <= 100; i++) {
+			h.update(i);
+		}
+		Assert.assertEquals(100, h.getCount());
+		Assert.assertEquals(5050, h.getSum());
+		Assert.assertEquals(50.5, h.getMean(), 0.0001);
+		Assert.assertEquals(100, h.getMax());
+		// Percentiles are bucketed by powers of two
+		Assert.assertEquals(63, h.getPercentile(0.5));
+		Assert.assertEquals(100, h.getPercentile(0.99));
+	}
+
+	@Test
+	public void testTimer() {
+		SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+		Metrics.setRegistry(registry);
+		Metrics.timer("test.timer").update(2000000);
+		Metrics.timer("test.timer").update(4000000);
+		SortedMap<String, Number> values = registry.getValues();
+		Assert.assertEquals(2L, values.get("test.timer.count"));
+		Assert.assertEquals(6.0, values.get("test.timer.totalMs").doubleValue(), 0.0001);
+		Assert.assertEquals(4.0, values.get("test.timer.maxMs").doubleValue(), 0.0001);
+	}
+
+}
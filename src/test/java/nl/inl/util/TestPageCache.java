@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPageCache {
+
+	private static final int FILE_SIZE = 10 * PageCache.PAGE_SIZE + 100;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		Utilities.removeBlackLabTestDirs();
+		File dir = Utilities.createBlackLabTestDir("PageCache");
+		file = new File(dir, "test.dat");
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[FILE_SIZE]);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		Utilities.removeBlackLabTestDirs();
+	}
+
+	@Test
+	public void testPrefetch() {
+		Assert.assertEquals(FILE_SIZE, PageCache.prefetch(file));
+		Assert.assertEquals(100, PageCache.prefetch(file, 10 * PageCache.PAGE_SIZE, 1000));
+	}
+
+	@Test
+	public void testTouch() {
+		Assert.assertEquals(11, PageCache.touch(file));
+	}
+
+	@Test
+	public void testResidency() {
+		PageCache.Residency r = PageCache.residency(file, PageCache.PAGE_SIZE);
+		Assert.assertEquals(FILE_SIZE, r.getSize());
+		Assert.assertEquals(11, r.getBlocks());
+		Assert.assertTrue(r.getFraction() >= 0 && r.getFraction() <= 1);
+	}
+
+	@Test
+	public void testResidencyLargeFile() throws IOException {
+		// We don't check more than the maximum number of blocks (each is a separate mapping)
+		int pages = PageCache.MAX_BLOCKS_PER_FILE * 2 + 1;
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[pages * PageCache.PAGE_SIZE]);
+		}
+		PageCache.touch(file);
+		PageCache.Residency r = PageCache.residency(file, PageCache.PAGE_SIZE);
+		Assert.assertEquals((pages + 2) / 3, r.getBlocks());
+		Assert.assertTrue(r.getBlocks() <= PageCache.MAX_BLOCKS_PER_FILE);
+		Assert.assertTrue(r.getFraction() >= 0 && r.getFraction() <= 1);
+	}
+
+	@Test
+	public void testKeepResident() throws InterruptedException {
+		Thread thread = PageCache.keepResident(Arrays.asList(file), 10);
+		Assert.assertTrue(thread.isDaemon());
+		thread.interrupt();
+		thread.join(1000);
+		Assert.assertFalse(thread.isAlive());
+	}
+
+}
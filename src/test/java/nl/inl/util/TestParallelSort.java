@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestParallelSort {
+
+	private static final int N = 50000;
+
+	private ForkJoinPool pool;
+
+	private int oldThreshold;
+
+	@Before
+	public void setUp() {
+		pool = new ForkJoinPool(4);
+		oldThreshold = ParallelSort.getSequentialThreshold();
+		// Make sure we actually exercise the parallel sort and merge
+		ParallelSort.setSequentialThreshold(100);
+	}
+
+	@After
+	public void tearDown() {
+		ParallelSort.setSequentialThreshold(oldThreshold);
+		pool.shutdown();
+	}
+
+	/** Keys with many duplicates, so we can check stability */
+	private static int[] randomKeys(int n) {
+		Random random = new Random(42);
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = random.nextInt(n / 10);
+		}
+		return keys;
+	}
+
+	@Test
+	public void testSortPermutation() {
+		final int[] keys = randomKeys(N);
+		int[] perm = new int[N];
+		Integer[] expected = new Integer[N];
+		for (int i = 0; i < N; i++) {
+			perm[i] = i;
+			expected[i] = i;
+		}
+		ParallelSort.sort(perm, new IntComparator() {
+			@Override
+			public int compare(int a, int b) {
+				return keys[a] - keys[b];
+			}
+		}, pool);
+		Arrays.sort(expected, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return keys[a] - keys[b];
+			}
+		});
+		for (int i = 0; i < N; i++) {
+			Assert.assertEquals(expected[i].intValue(), perm[i]);
+		}
+	}
+
+	@Test
+	public void testSortRange() {
+		int[] a = { 5, 4, 3, 2, 1, 0 };
+		ParallelSort.sort(a, 1, 5, new IntComparator() {
+			@Override
+			public int compare(int x, int y) {
+				return x - y;
+			}
+		}, pool);
+		Assert.assertArrayEquals(new int[] { 5, 1, 2, 3, 4, 0 }, a);
+	}
+
+	@Test
+	public void testSortList() {
+		int[] keys = randomKeys(N);
+		List<Integer> list = new ArrayList<>();
+		for (int key: keys)
+			list.add(key);
+		List<Integer> expected = new ArrayList<>(list);
+		Collections.sort(expected);
+		Comparator<Integer> natural = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return a.compareTo(b);
+			}
+		};
+		ParallelSort.sort(list, natural, pool);
+		Assert.assertEquals(expected, list);
+	}
+
+}
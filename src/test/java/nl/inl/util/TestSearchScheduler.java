@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2010, 2012 Institute for Dutch Lexicology
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package nl.inl.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.inl.util.ThreadPriority.Level;
+
+public class TestSearchScheduler {
+
+	private static final long TIMEOUT_SEC = 10;
+
+	private SearchScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		scheduler = null;
+	}
+
+	@After
+	public void tearDown() {
+		if (scheduler != null)
+			scheduler.shutdown();
+	}
+
+	/** A task that waits until released */
+	private static Callable<Integer> blocking(final CountDownLatch started, final CountDownLatch release) {
+		return new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				started.countDown();
+				release.await(TIMEOUT_SEC, TimeUnit.SECONDS);
+				return 1;
+			}
+		};
+	}
+
+	/** A task that keeps yielding to the scheduler until released */
+	private static Callable<Integer> cooperative(final CountDownLatch started, final CountDownLatch release) {
+		return new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				started.countDown();
+				while (!release.await(1, TimeUnit.MILLISECONDS)) {
+					new ThreadPriority().behave();
+				}
+				return 2;
+			}
+		};
+	}
+
+	@Test
+	public void testMaxConcurrency() throws Exception {
+		scheduler = new SearchScheduler(2, 2);
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+		SearchScheduler.Task<?>[] tasks = new SearchScheduler.Task<?>[4];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = scheduler.submit("user" + i, blocking(started, release));
+		}
+		Assert.assertTrue(started.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+		Assert.assertEquals(2, scheduler.getNumberRunning());
+		Assert.assertEquals(2, scheduler.getNumberWaiting());
+		release.countDown();
+		for (SearchScheduler.Task<?> task: tasks) {
+			Assert.assertEquals(1, task.get(TIMEOUT_SEC, TimeUnit.SECONDS));
+		}
+		Assert.assertEquals(0, scheduler.getNumberWaiting());
+	}
+
+	@Test
+	public void testFairSharing() throws Exception {
+		scheduler = new SearchScheduler(2, 1);
+		CountDownLatch startedA = new CountDownLatch(1);
+		CountDownLatch startedB = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		scheduler.submit("a", blocking(startedA, release));
+		SearchScheduler.Task<Integer> secondA = scheduler.submit("a", blocking(startedA, release));
+		scheduler.submit("b", blocking(startedB, release));
+
+		// User b gets the second slot, even though a submitted first
+		Assert.assertTrue(startedB.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+		Assert.assertFalse(secondA.isDone());
+		Assert.assertEquals(1, scheduler.getNumberWaiting());
+		release.countDown();
+		Assert.assertEquals(1, (int) secondA.get(TIMEOUT_SEC, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testLowPriorityYields() throws Exception {
+		scheduler = new SearchScheduler(1, 1);
+		CountDownLatch lowStarted = new CountDownLatch(1);
+		CountDownLatch releaseLow = new CountDownLatch(1);
+		SearchScheduler.Task<Integer> low = scheduler.submit("a", Level.RUNNING_LOW_PRIO, cooperative(lowStarted, releaseLow));
+		Assert.assertTrue(lowStarted.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+
+		// The normal priority task gets the only slot
+		CountDownLatch highStarted = new CountDownLatch(1);
+		CountDownLatch releaseHigh = new CountDownLatch(1);
+		SearchScheduler.Task<Integer> high = scheduler.submit("b", blocking(highStarted, releaseHigh));
+		Assert.assertTrue(highStarted.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+		Assert.assertEquals(1, scheduler.getNumberRunning());
+		releaseHigh.countDown();
+		Assert.assertEquals(1, (int) high.get(TIMEOUT_SEC, TimeUnit.SECONDS));
+
+		releaseLow.countDown();
+		Assert.assertEquals(2, (int) low.get(TIMEOUT_SEC, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testMaxParkedTasks() throws Exception {
+		scheduler = new SearchScheduler(1, 1, 0);
+		CountDownLatch lowStarted = new CountDownLatch(1);
+		CountDownLatch releaseLow = new CountDownLatch(1);
+		SearchScheduler.Task<Integer> low = scheduler.submit("a", Level.RUNNING_LOW_PRIO, cooperative(lowStarted, releaseLow));
+		Assert.assertTrue(lowStarted.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+
+		// No tasks may be parked, so the low priority task can't yield its slot
+		CountDownLatch highStarted = new CountDownLatch(1);
+		CountDownLatch releaseHigh = new CountDownLatch(1);
+		SearchScheduler.Task<Integer> high = scheduler.submit("b", blocking(highStarted, releaseHigh));
+		Assert.assertFalse(highStarted.await(200, TimeUnit.MILLISECONDS));
+		Assert.assertEquals(0, scheduler.getNumberParked());
+		Assert.assertEquals(1, scheduler.getNumberWaiting());
+
+		releaseLow.countDown();
+		Assert.assertEquals(2, (int) low.get(TIMEOUT_SEC, TimeUnit.SECONDS));
+		Assert.assertTrue(highStarted.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+		releaseHigh.countDown();
+		Assert.assertEquals(1, (int) high.get(TIMEOUT_SEC, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testPause() throws Exception {
+		scheduler = new SearchScheduler(1, 1);
+		CountDownLatch firstStarted = new CountDownLatch(1);
+		CountDownLatch releaseFirst = new CountDownLatch(1);
+		SearchScheduler.Task<Integer> first = scheduler.submit("a", cooperative(firstStarted, releaseFirst));
+		Assert.assertTrue(firstStarted.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+
+		CountDownLatch secondStarted = new CountDownLatch(1);
+		CountDownLatch releaseSecond = new CountDownLatch(1);
+		SearchScheduler.Task<Integer> second = scheduler.submit("b", blocking(secondStarted, releaseSecond));
+		Assert.assertEquals(1, scheduler.getNumberWaiting());
+
+		// Pausing the first task lets the second one run
+		first.setPriorityLevel(Level.PAUSED);
+		Assert.assertTrue(secondStarted.await(TIMEOUT_SEC, TimeUnit.SECONDS));
+		releaseFirst.countDown();
+		Assert.assertFalse(first.isDone());
+		releaseSecond.countDown();
+		Assert.assertEquals(1, (int) second.get(TIMEOUT_SEC, TimeUnit.SECONDS));
+
+		// Resume the first task
+		first.setPriorityLevel(Level.RUNNING);
+		Assert.assertEquals(2, (int) first.get(TIMEOUT_SEC, TimeUnit.SECONDS));
+	}
+
+}